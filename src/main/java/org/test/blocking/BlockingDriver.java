@@ -0,0 +1,79 @@
+package org.test.blocking;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors which run the blocking resolver strategies (dnsjava, system, JNA), one lookup per task.
+ * <p>
+ * The platform mode is a fixed pool, so the concurrency costs one OS thread per in-flight lookup.
+ * The virtual mode starts a virtual thread per lookup and needs Java 21: its implementation lives in
+ * {@code META-INF/versions/21} of the multi-release jar (built by the {@code java21} profile) and is
+ * missing on older JVMs, see {@link #isVirtualAvailable()}.
+ */
+public final class BlockingDriver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockingDriver.class);
+
+    private static final String VIRTUAL_THREADS_CLASS = "org.test.blocking.VirtualThreads";
+
+    private static final Virtual VIRTUAL = loadVirtual();
+
+    private BlockingDriver() {
+    }
+
+    public static boolean isVirtualAvailable() {
+        return VIRTUAL != null;
+    }
+
+    public static ExecutorService platform(String name, int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, new DefaultThreadFactory(name));
+    }
+
+    /**
+     * @param concurrency the number of lookups running at once, the submitting thread blocks beyond it
+     * @throws UnsupportedOperationException below Java 21 or without the versioned classes
+     */
+    public static ExecutorService virtual(String name, int concurrency) {
+        if (VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 and the java21 build");
+        }
+
+        return new BoundedExecutor(VIRTUAL.newThreadPerTaskExecutor(name), concurrency);
+    }
+
+    /**
+     * @return a monitor of the virtual threads, {@link PinningMonitor#NONE} when they are not available
+     */
+    public static PinningMonitor monitorPinning() {
+        return VIRTUAL != null ? VIRTUAL.monitorPinning() : PinningMonitor.NONE;
+    }
+
+    private static Virtual loadVirtual() {
+        try {
+            Class<?> type = Class.forName(VIRTUAL_THREADS_CLASS);
+            return (Virtual) type.getConstructor().newInstance();
+        } catch (ClassNotFoundException | UnsupportedClassVersionError e) {
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.warn("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Implemented by the Java 21 classes.
+     */
+    interface Virtual {
+
+        ExecutorService newThreadPerTaskExecutor(String name);
+
+        PinningMonitor monitorPinning();
+
+    }
+
+}
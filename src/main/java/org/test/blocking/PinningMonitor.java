@@ -0,0 +1,39 @@
+package org.test.blocking;
+
+/**
+ * Watches the virtual threads of the JVM while a blocking strategy runs on them.
+ * <p>
+ * Two symptoms are tracked: JFR {@code jdk.VirtualThreadPinned} events, raised when a virtual thread parks
+ * inside {@code synchronized} or a native frame, and carrier stalls, the delay of a probe virtual thread
+ * waking up. A thread blocked in a native call (JNA) or contending on a monitor holds its carrier without
+ * parking, so it does not raise the event but shows up as a stall once all the carriers are taken.
+ */
+public interface PinningMonitor extends AutoCloseable {
+
+    PinningMonitor NONE = new PinningMonitor() {
+        @Override
+        public long pinnedEvents() {
+            return 0;
+        }
+
+        @Override
+        public long maxStallMicros() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    long pinnedEvents();
+
+    long maxStallMicros();
+
+    /**
+     * Stops watching and logs the frames which pinned most often.
+     */
+    @Override
+    void close();
+
+}
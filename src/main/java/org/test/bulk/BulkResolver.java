@@ -0,0 +1,236 @@
+package org.test.bulk;
+
+import org.test.limit.FixedLimit;
+import org.test.limit.Limit;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Resolves an unbounded sequence of domains keeping at most {@link Limit#getLimit()} of them between
+ * the input iterator and the consumer of the results. With an adaptive limit the bound follows the RTT
+ * and the failure rate observed by the lookups.
+ * <p>
+ * Nothing blocks on the producer side: the next domain is pulled from the iterator only when a slot is freed
+ * by a delivered (push mode) or consumed (stream mode) result, so the memory footprint does not depend
+ * on the input size.
+ */
+public class BulkResolver {
+
+    private static final DnsResult END = new DnsResult(null, null, null, 0);
+
+    private final AsyncResolver resolver;
+
+    private final Limit limit;
+
+    public BulkResolver(AsyncResolver resolver, int maxInFlight) {
+        this(resolver, new FixedLimit(maxInFlight));
+    }
+
+    public BulkResolver(AsyncResolver resolver, Limit limit) {
+        this.resolver = resolver;
+        this.limit = limit;
+    }
+
+    public Limit limit() {
+        return limit;
+    }
+
+    /**
+     * Push mode: the handler is called on the thread which completed the lookup (e.g. an event loop),
+     * so it must not block. The slot is freed as soon as the handler returns.
+     *
+     * @return the future completed after the last result is delivered
+     */
+    public CompletableFuture<Void> resolve(Iterator<String> domains, Consumer<DnsResult> handler) {
+        Pump pump = new Pump(domains, handler, true);
+        pump.drain();
+        return pump.done;
+    }
+
+    /**
+     * Pull mode: the slot is freed when the result is taken from the stream, a slow consumer slows
+     * the resolution down instead of accumulating results on the heap.
+     */
+    public Stream<DnsResult> stream(Iterator<String> domains) {
+        // bounded by the limit, results wait here only while they hold an in-flight slot
+        BlockingQueue<DnsResult> queue = new LinkedBlockingQueue<>();
+
+        Pump pump = new Pump(domains, queue::add, false);
+        pump.done.whenComplete((v, ex) -> queue.add(END));
+
+        ResultIterator iterator = new ResultIterator(pump, queue);
+        pump.drain();
+
+        Spliterator<DnsResult> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.NONNULL | Spliterator.ORDERED);
+
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    private final class Pump {
+
+        private final Iterator<String> domains;
+
+        private final Consumer<DnsResult> handler;
+
+        private final boolean releaseOnDelivery;
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private boolean exhausted;
+
+        private Pump(Iterator<String> domains, Consumer<DnsResult> handler, boolean releaseOnDelivery) {
+            this.domains = domains;
+            this.handler = handler;
+            this.releaseOnDelivery = releaseOnDelivery;
+        }
+
+        private void drain() {
+            // only one thread at a time touches the iterator, the others just leave a note to re-check;
+            // this also keeps synchronously completed lookups from recursing into drain()
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                while (!exhausted && !done.isDone() && inFlight.get() < limit.getLimit()) {
+                    String domain;
+                    try {
+                        if (!domains.hasNext()) {
+                            exhausted = true;
+                            break;
+                        }
+                        domain = domains.next();
+                    } catch (RuntimeException e) {
+                        exhausted = true;
+                        done.completeExceptionally(e);
+                        break;
+                    }
+
+                    inFlight.incrementAndGet();
+                    submit(domain);
+                }
+
+                if (exhausted && inFlight.get() == 0) {
+                    done.complete(null);
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void submit(String domain) {
+            long started = System.nanoTime();
+
+            CompletableFuture<DnsAnswer> future;
+            try {
+                future = resolver.query(domain);
+            } catch (RuntimeException e) {
+                future = Futures.failed(e);
+            }
+
+            future.whenComplete((answer, ex) -> {
+                long elapsed = System.nanoTime() - started;
+
+                boolean dropped = ex != null || answer.rcode() == DnsAnswer.SERVFAIL;
+                limit.onSample(elapsed, inFlight.get(), dropped);
+
+                DnsResult result = new DnsResult(domain, answer, ex != null ? Futures.unwrap(ex) : null, elapsed);
+
+                try {
+                    handler.accept(result);
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+
+                if (releaseOnDelivery) {
+                    release();
+                }
+            });
+        }
+
+        private void release() {
+            inFlight.decrementAndGet();
+            drain();
+        }
+
+    }
+
+    private static final class ResultIterator implements Iterator<DnsResult> {
+
+        private final Pump pump;
+
+        private final BlockingQueue<DnsResult> queue;
+
+        private DnsResult next;
+
+        private boolean finished;
+
+        private ResultIterator(Pump pump, BlockingQueue<DnsResult> queue) {
+            this.pump = pump;
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+
+            if (finished) {
+                return false;
+            }
+
+            DnsResult result;
+            try {
+                result = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+
+            if (result == END) {
+                finished = true;
+                // surfaces a failure of the input iterator or of the handler
+                pump.done.join();
+                return false;
+            }
+
+            next = result;
+            pump.release();
+            return true;
+        }
+
+        @Override
+        public DnsResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            DnsResult result = next;
+            next = null;
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.test.bulk;
+
+import org.test.resolver.DnsAnswer;
+
+public final class DnsResult {
+
+    private final String domain;
+
+    private final DnsAnswer answer;
+
+    private final Throwable cause;
+
+    private final long elapsedNanos;
+
+    private final int attempt;
+
+    public DnsResult(String domain, DnsAnswer answer, Throwable cause, long elapsedNanos) {
+        this(domain, answer, cause, elapsedNanos, 1);
+    }
+
+    public DnsResult(String domain, DnsAnswer answer, Throwable cause, long elapsedNanos, int attempt) {
+        this.domain = domain;
+        this.answer = answer;
+        this.cause = cause;
+        this.elapsedNanos = elapsedNanos;
+        this.attempt = attempt;
+    }
+
+    public String domain() {
+        return domain;
+    }
+
+    /**
+     * @return the answer or {@code null} if the query failed without an answer (see {@link #cause()})
+     */
+    public DnsAnswer answer() {
+        return answer;
+    }
+
+    public Throwable cause() {
+        return cause;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the 1-based number of the attempt which produced this result, 1 without retries
+     */
+    public int attempt() {
+        return attempt;
+    }
+
+    public boolean isResolved() {
+        return answer != null && answer.isResolved();
+    }
+
+    @Override
+    public String toString() {
+        if (answer != null) {
+            return answer.toString();
+        } else {
+            return domain + " " + cause.getClass().getCanonicalName() + " / " + cause.getLocalizedMessage();
+        }
+    }
+
+}
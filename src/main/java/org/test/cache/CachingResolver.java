@@ -0,0 +1,40 @@
+package org.test.cache;
+
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves answers from the {@link DnsCache} and stores what the upstream resolver returns,
+ * negative answers included. Transport failures (timeouts) are never cached.
+ */
+public class CachingResolver implements AsyncResolver {
+
+    private final DnsCache cache;
+
+    private final AsyncResolver upstream;
+
+    public CachingResolver(DnsCache cache, AsyncResolver upstream) {
+        this.cache = cache;
+        this.upstream = upstream;
+    }
+
+    public DnsCache cache() {
+        return cache;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        DnsAnswer cached = cache.get(domain);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return upstream.query(domain).thenApply(answer -> {
+            cache.put(domain, answer);
+            return answer;
+        });
+    }
+
+}
@@ -0,0 +1,566 @@
+package org.test.cache;
+
+import org.test.resolver.DnsAnswer;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TTL-aware cache of A answers kept in primitive arrays.
+ * <p>
+ * A name is stored as its 64-bit hash (no {@code String} per entry), the addresses as packed ints
+ * (no {@code InetAddress} per entry), so an entry costs {@link #BYTES_PER_SLOT} bytes of table space.
+ * Two names sharing a 64-bit hash would share an entry, with millions of names the chance is about 1e-7.
+ * <p>
+ * The table is split into segments guarded by their own monitors; the capacity is derived from the memory budget
+ * and a full segment evicts with the CLOCK (second chance) policy, expired entries first.
+ * <p>
+ * IPv6 addresses of dual-stack answers are kept only with {@code maxIpv6} slots per entry, 16 bytes each,
+ * none by default. The snapshot carries the IPv4 addresses only.
+ */
+public class DnsCache {
+
+    public static final int MAX_ADDRESSES = 4;
+
+    // key + expiration + rcode + address count + reference bit + addresses
+    public static final int BYTES_PER_SLOT = 8 + 4 + 1 + 1 + 1 + 4 * MAX_ADDRESSES;
+
+    // an IPv6 address, plus a count byte per slot when any are kept
+    public static final int BYTES_PER_IPV6 = 16;
+
+    // expiration times are kept as int seconds from this point (2020-09-13), which lasts until 2088
+    static final long EPOCH_BASE_SECONDS = 1_600_000_000L;
+
+    private static final double LOAD_FACTOR = 0.75;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    private final int minTtl;
+
+    private final int maxTtl;
+
+    private final int negativeTtl;
+
+    private final int servFailTtl;
+
+    private final int maxIpv6;
+
+    private final Clock clock;
+
+    private volatile DnsCacheSnapshot snapshot;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private DnsCache(Builder builder) {
+        this.minTtl = builder.minTtl;
+        this.maxTtl = builder.maxTtl;
+        this.negativeTtl = builder.negativeTtl;
+        this.servFailTtl = builder.servFailTtl;
+        this.maxIpv6 = builder.maxIpv6;
+        this.clock = builder.clock;
+        this.snapshot = builder.snapshot;
+
+        int segmentCount = Integer.highestOneBit(Math.max(1, builder.segments));
+
+        int slotBytes = BYTES_PER_SLOT + (builder.maxIpv6 > 0 ? 1 + builder.maxIpv6 * BYTES_PER_IPV6 : 0);
+        long slotsTotal = builder.memoryBudget / slotBytes;
+        long slotsPerSegment = Math.max(16, Long.highestOneBit(slotsTotal / segmentCount));
+        if (slotsPerSegment > (1 << 30)) {
+            throw new IllegalArgumentException("Memory budget is too large: " + builder.memoryBudget);
+        }
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int) slotsPerSegment, builder.maxIpv6);
+        }
+
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static long key(CharSequence name) {
+        // FNV-1a over the lower-cased name without the trailing dot, then the murmur3 finalizer
+        int length = name.length();
+        if (length > 0 && name.charAt(length - 1) == '.') {
+            length--;
+        }
+
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h ^= c;
+            h *= 0x100000001B3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+
+        // zero marks an empty slot
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * @return the cached answer with the remaining TTL or {@code null} if the name is unknown or expired
+     */
+    public DnsAnswer get(String name) {
+        long key = key(name);
+        int now = now();
+        DnsAnswer answer = segment(key).get(key, name, now);
+
+        if (answer == null && snapshot != null) {
+            answer = promote(key, name, now);
+        }
+
+        if (answer != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return answer;
+    }
+
+    public void put(String name, DnsAnswer answer) {
+        int ttl = ttl(answer);
+        if (ttl <= 0) {
+            return;
+        }
+
+        // an IPv4 only cache would turn an IPv6 only answer into NODATA
+        if (maxIpv6 == 0 && answer.addresses().length == 0 && answer.ipv6Count() > 0) {
+            return;
+        }
+
+        long key = key(name);
+        int now = now();
+        if (segment(key).put(key, now + ttl, answer.rcode(), answer.addresses(), answer.ipv6(), now)) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Uses the snapshot as a second level: entries missing in memory are looked up there and promoted on access.
+     */
+    public void attach(DnsCacheSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public void detach() {
+        this.snapshot = null;
+    }
+
+    public void invalidate(String name) {
+        long key = key(name);
+        segment(key).remove(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public int capacity() {
+        int capacity = 0;
+        for (Segment segment : segments) {
+            capacity += segment.maxSize;
+        }
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    int ttl(DnsAnswer answer) {
+        switch (answer.rcode()) {
+            case DnsAnswer.NOERROR:
+                if (answer.isResolved()) {
+                    return Math.max(minTtl, Math.min(maxTtl, answer.ttl()));
+                } else {
+                    // NODATA is cached like NXDOMAIN
+                    return negativeTtl(answer);
+                }
+            case DnsAnswer.NXDOMAIN:
+                return negativeTtl(answer);
+            case DnsAnswer.SERVFAIL:
+                return servFailTtl;
+            default:
+                return 0;
+        }
+    }
+
+    private DnsAnswer promote(long key, String name, int now) {
+        DnsCacheSnapshot current = snapshot;
+
+        int slot = current.find(key);
+        if (slot < 0) {
+            return null;
+        }
+
+        int expires = (int) (current.expiresAt(slot) - EPOCH_BASE_SECONDS);
+        if (expires <= now) {
+            return null;
+        }
+
+        int rcode = current.rcode(slot);
+        int[] addresses = new int[current.count(slot)];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = current.address(slot, i);
+        }
+
+        if (segment(key).put(key, expires, rcode, addresses, null, now)) {
+            evictions.increment();
+        }
+
+        return new DnsAnswer(name, rcode, expires - now, addresses);
+    }
+
+    private int negativeTtl(DnsAnswer answer) {
+        return answer.ttl() > 0 ? Math.min(answer.ttl(), negativeTtl) : negativeTtl;
+    }
+
+    int now() {
+        return (int) (TimeUnit.MILLISECONDS.toSeconds(clock.millis()) - EPOCH_BASE_SECONDS);
+    }
+
+    Segment[] segments() {
+        return segments;
+    }
+
+    private Segment segment(long key) {
+        return segments[segments.length == 1 ? 0 : (int) (key >>> segmentShift)];
+    }
+
+    static final class Segment {
+
+        private final int mask;
+
+        private final int maxSize;
+
+        private final long[] keys;
+
+        private final int[] expires;
+
+        private final byte[] rcodes;
+
+        private final byte[] counts;
+
+        private final boolean[] referenced;
+
+        private final int[] addresses;
+
+        private final int maxIpv6;
+
+        private final byte[] ipv6Counts;
+
+        // two longs per IPv6 address, maxIpv6 addresses per slot
+        private final long[] ipv6;
+
+        private int size;
+
+        private int hand;
+
+        private Segment(int capacity, int maxIpv6) {
+            this.mask = capacity - 1;
+            this.maxSize = (int) (capacity * LOAD_FACTOR);
+            this.keys = new long[capacity];
+            this.expires = new int[capacity];
+            this.rcodes = new byte[capacity];
+            this.counts = new byte[capacity];
+            this.referenced = new boolean[capacity];
+            this.addresses = new int[capacity * MAX_ADDRESSES];
+            this.maxIpv6 = maxIpv6;
+            this.ipv6Counts = new byte[maxIpv6 > 0 ? capacity : 0];
+            this.ipv6 = new long[capacity * maxIpv6 * 2];
+        }
+
+        synchronized DnsAnswer get(long key, String name, int now) {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+
+            int ttl = expires[slot] - now;
+            if (ttl <= 0) {
+                removeAt(slot);
+                return null;
+            }
+
+            referenced[slot] = true;
+
+            int count = counts[slot];
+            int[] result = new int[count];
+            System.arraycopy(addresses, slot * MAX_ADDRESSES, result, 0, count);
+
+            long[] result6 = null;
+            if (maxIpv6 > 0 && ipv6Counts[slot] > 0) {
+                result6 = new long[2 * ipv6Counts[slot]];
+                System.arraycopy(ipv6, slot * maxIpv6 * 2, result6, 0, result6.length);
+            }
+
+            return new DnsAnswer(name, rcodes[slot], ttl, result, result6);
+        }
+
+        synchronized boolean put(long key, int expiresAt, int rcode, int[] values, long[] values6, int now) {
+            boolean evicted = false;
+
+            int slot = find(key);
+            if (slot < 0) {
+                if (size >= maxSize) {
+                    evict(now);
+                    evicted = true;
+                }
+
+                slot = (int) key & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = key;
+                size++;
+            }
+
+            int count = Math.min(values.length, MAX_ADDRESSES);
+
+            expires[slot] = expiresAt;
+            rcodes[slot] = (byte) rcode;
+            counts[slot] = (byte) count;
+            referenced[slot] = false;
+            System.arraycopy(values, 0, addresses, slot * MAX_ADDRESSES, count);
+
+            if (maxIpv6 > 0) {
+                int count6 = values6 != null ? Math.min(values6.length / 2, maxIpv6) : 0;
+                ipv6Counts[slot] = (byte) count6;
+                if (count6 > 0) {
+                    System.arraycopy(values6, 0, ipv6, slot * maxIpv6 * 2, count6 * 2);
+                }
+            }
+
+            return evicted;
+        }
+
+        synchronized void remove(long key) {
+            int slot = find(key);
+            if (slot >= 0) {
+                removeAt(slot);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Copies the live entries out, the segment is locked only for the duration of one array scan.
+         * IPv6 only entries are left out, without their addresses they would come back as NODATA.
+         */
+        synchronized int copyTo(long[] outKeys, int[] outExpires, byte[] outRcodes, byte[] outCounts,
+                                int[] outAddresses, int now)
+        {
+            int n = 0;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (keys[slot] != 0 && expires[slot] > now
+                        && !(counts[slot] == 0 && maxIpv6 > 0 && ipv6Counts[slot] > 0))
+                {
+                    outKeys[n] = keys[slot];
+                    outExpires[n] = expires[slot];
+                    outRcodes[n] = rcodes[slot];
+                    outCounts[n] = counts[slot];
+                    System.arraycopy(addresses, slot * MAX_ADDRESSES, outAddresses, n * MAX_ADDRESSES, MAX_ADDRESSES);
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        private int find(long key) {
+            int slot = (int) key & mask;
+            while (true) {
+                long k = keys[slot];
+                if (k == key) {
+                    return slot;
+                }
+                if (k == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void evict(int now) {
+            // CLOCK: expired entries go first, recently read entries get a second chance
+            int limit = 2 * (mask + 1);
+            for (int i = 0; i < limit; i++) {
+                int slot = hand;
+                hand = (hand + 1) & mask;
+
+                if (keys[slot] == 0) {
+                    continue;
+                }
+
+                if (referenced[slot] && expires[slot] > now) {
+                    referenced[slot] = false;
+                    continue;
+                }
+
+                removeAt(slot);
+                return;
+            }
+        }
+
+        private void removeAt(int slot) {
+            // backward shift deletion keeps linear probing chains intact without tombstones
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                long k = keys[next];
+                if (k == 0) {
+                    break;
+                }
+
+                int home = (int) k & mask;
+                boolean movable = hole <= next
+                        ? home <= hole || home > next
+                        : home <= hole && home > next;
+
+                if (movable) {
+                    keys[hole] = k;
+                    expires[hole] = expires[next];
+                    rcodes[hole] = rcodes[next];
+                    counts[hole] = counts[next];
+                    referenced[hole] = referenced[next];
+                    System.arraycopy(addresses, next * MAX_ADDRESSES, addresses, hole * MAX_ADDRESSES, MAX_ADDRESSES);
+                    if (maxIpv6 > 0) {
+                        ipv6Counts[hole] = ipv6Counts[next];
+                        System.arraycopy(ipv6, next * maxIpv6 * 2, ipv6, hole * maxIpv6 * 2, maxIpv6 * 2);
+                    }
+                    hole = next;
+                }
+            }
+
+            keys[hole] = 0;
+            referenced[hole] = false;
+            size--;
+        }
+
+    }
+
+    public static final class Builder {
+
+        // defaults follow src/config/pdnsd.conf: min_ttl=60m, max_ttl=1w, neg_ttl=5m
+
+        private long memoryBudget = 64L << 20;
+
+        private int segments = 64;
+
+        private int minTtl = (int) TimeUnit.MINUTES.toSeconds(60);
+
+        private int maxTtl = (int) TimeUnit.DAYS.toSeconds(7);
+
+        private int negativeTtl = (int) TimeUnit.MINUTES.toSeconds(5);
+
+        private int servFailTtl = 30;
+
+        private int maxIpv6;
+
+        private Clock clock = Clock.systemUTC();
+
+        private DnsCacheSnapshot snapshot;
+
+        private Builder() {
+        }
+
+        public Builder memoryBudget(long bytes) {
+            this.memoryBudget = bytes;
+            return this;
+        }
+
+        public Builder segments(int segments) {
+            this.segments = segments;
+            return this;
+        }
+
+        public Builder minTtl(int seconds) {
+            this.minTtl = seconds;
+            return this;
+        }
+
+        public Builder maxTtl(int seconds) {
+            this.maxTtl = seconds;
+            return this;
+        }
+
+        public Builder negativeTtl(int seconds) {
+            this.negativeTtl = seconds;
+            return this;
+        }
+
+        public Builder servFailTtl(int seconds) {
+            this.servFailTtl = seconds;
+            return this;
+        }
+
+        /**
+         * Number of IPv6 addresses kept per entry, 0 (IPv4 only) by default.
+         */
+        public Builder maxIpv6(int maxIpv6) {
+            this.maxIpv6 = maxIpv6;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder snapshot(DnsCacheSnapshot snapshot) {
+            this.snapshot = snapshot;
+            return this;
+        }
+
+        public DnsCache build() {
+            if (minTtl > maxTtl) {
+                throw new IllegalArgumentException("min TTL " + minTtl + " is above max TTL " + maxTtl);
+            }
+            if (maxIpv6 < 0 || maxIpv6 > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid max IPv6 addresses: " + maxIpv6);
+            }
+
+            return new DnsCache(this);
+        }
+
+    }
+
+}
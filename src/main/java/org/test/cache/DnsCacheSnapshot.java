@@ -0,0 +1,232 @@
+package org.test.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory-mapped, versioned snapshot of a {@link DnsCache}.
+ * <p>
+ * The file is an open-addressing table of fixed-size slots, so opening it only maps the file and checks the header,
+ * and a lookup probes the mapped pages directly without deserializing anything. A snapshot is written into
+ * a temporary file segment by segment (each cache segment is locked only while it is copied out) and then
+ * atomically renamed over the previous one; readers of the old file keep their mapping.
+ * <pre>
+ * header (64 bytes): magic, version, slot count, entry count, created at (epoch seconds)
+ * slot   (40 bytes): key, expires at (epoch seconds), rcode, count, 2 bytes padding, 4 IPv4 addresses
+ * </pre>
+ */
+public final class DnsCacheSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DnsCacheSnapshot.class);
+
+    public static final long MAGIC = 0x444E53434143484BL; // "DNSCACHK"
+
+    public static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 64;
+
+    static final int SLOT_BYTES = 40;
+
+    private static final int OFFSET_MAGIC = 0;
+
+    private static final int OFFSET_VERSION = 8;
+
+    private static final int OFFSET_SLOTS = 12;
+
+    private static final int OFFSET_ENTRIES = 16;
+
+    private static final int OFFSET_CREATED = 24;
+
+    private static final int SLOT_KEY = 0;
+
+    private static final int SLOT_EXPIRES = 8;
+
+    private static final int SLOT_RCODE = 16;
+
+    private static final int SLOT_COUNT = 17;
+
+    private static final int SLOT_ADDRESSES = 20;
+
+    private final MappedByteBuffer buffer;
+
+    private final int mask;
+
+    private final int entries;
+
+    private final long createdAt;
+
+    private DnsCacheSnapshot(MappedByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getLong(OFFSET_MAGIC) != MAGIC) {
+            throw new IOException("Not a DNS cache snapshot");
+        }
+
+        int version = buffer.getInt(OFFSET_VERSION);
+        if (version != VERSION) {
+            throw new IOException("Unsupported DNS cache snapshot version " + version);
+        }
+
+        int slots = buffer.getInt(OFFSET_SLOTS);
+        if (Integer.bitCount(slots) != 1 || HEADER_BYTES + (long) slots * SLOT_BYTES != buffer.capacity()) {
+            throw new IOException("Corrupted DNS cache snapshot, " + slots + " slots in " + buffer.capacity() + " bytes");
+        }
+
+        this.buffer = buffer;
+        this.mask = slots - 1;
+        this.entries = buffer.getInt(OFFSET_ENTRIES);
+        this.createdAt = buffer.getLong(OFFSET_CREATED);
+    }
+
+    public static DnsCacheSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new DnsCacheSnapshot(buffer);
+        }
+    }
+
+    /**
+     * Writes the live entries of the cache and atomically replaces the file at {@code path}.
+     *
+     * @return the number of written entries
+     */
+    public static int write(DnsCache cache, Path path) throws IOException {
+        DnsCache.Segment[] segments = cache.segments();
+        int now = cache.now();
+
+        // load factor of at most 1/2 even if the cache grows a bit while being copied
+        long slots = Long.highestOneBit(Math.max(16L, cache.size() * 2L)) << 1;
+        long fileSize = HEADER_BYTES + slots * SLOT_BYTES;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("DNS cache is too large for a snapshot: " + cache.size() + " entries");
+        }
+
+        int maxEntries = (int) (slots * 3 / 4);
+        int mask = (int) slots - 1;
+
+        int segmentCapacity = segments[0].capacity();
+        long[] keys = new long[segmentCapacity];
+        int[] expires = new int[segmentCapacity];
+        byte[] rcodes = new byte[segmentCapacity];
+        byte[] counts = new byte[segmentCapacity];
+        int[] addresses = new int[segmentCapacity * DnsCache.MAX_ADDRESSES];
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int written = 0;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            for (DnsCache.Segment segment : segments) {
+                int n = segment.copyTo(keys, expires, rcodes, counts, addresses, now);
+
+                for (int i = 0; i < n && written < maxEntries; i++) {
+                    int slot = (int) keys[i] & mask;
+                    while (buffer.getLong(offset(slot) + SLOT_KEY) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    int offset = offset(slot);
+                    buffer.putLong(offset + SLOT_KEY, keys[i]);
+                    buffer.putLong(offset + SLOT_EXPIRES, expires[i] + DnsCache.EPOCH_BASE_SECONDS);
+                    buffer.put(offset + SLOT_RCODE, rcodes[i]);
+                    buffer.put(offset + SLOT_COUNT, counts[i]);
+                    for (int j = 0; j < DnsCache.MAX_ADDRESSES; j++) {
+                        buffer.putInt(offset + SLOT_ADDRESSES + j * 4, addresses[i * DnsCache.MAX_ADDRESSES + j]);
+                    }
+
+                    written++;
+                }
+            }
+
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putInt(OFFSET_SLOTS, (int) slots);
+            buffer.putInt(OFFSET_ENTRIES, written);
+            buffer.putLong(OFFSET_CREATED, now + DnsCache.EPOCH_BASE_SECONDS);
+            buffer.force();
+
+            // the magic goes last, a half-written file is never mistaken for a snapshot
+            buffer.putLong(OFFSET_MAGIC, MAGIC);
+            buffer.force();
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return written;
+    }
+
+    public static ScheduledFuture<?> schedule(ScheduledExecutorService executor, DnsCache cache, Path path,
+                                              long period, TimeUnit unit)
+    {
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                long started = System.nanoTime();
+                int written = write(cache, path);
+                LOGGER.debug("DNS cache snapshot {} with {} entries is written in {} ms",
+                        path, written, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Fail to write DNS cache snapshot {}", path, e);
+            }
+        }, period, period, unit);
+    }
+
+    public int entries() {
+        return entries;
+    }
+
+    public long createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the slot of the key or -1
+     */
+    public int find(long key) {
+        int slot = (int) key & mask;
+        while (true) {
+            long k = buffer.getLong(offset(slot) + SLOT_KEY);
+            if (k == key) {
+                return slot;
+            }
+            if (k == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public long expiresAt(int slot) {
+        return buffer.getLong(offset(slot) + SLOT_EXPIRES);
+    }
+
+    public int rcode(int slot) {
+        return buffer.get(offset(slot) + SLOT_RCODE);
+    }
+
+    public int count(int slot) {
+        return buffer.get(offset(slot) + SLOT_COUNT);
+    }
+
+    public int address(int slot, int index) {
+        return buffer.getInt(offset(slot) + SLOT_ADDRESSES + index * 4);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+}
@@ -0,0 +1,331 @@
+package org.test.cache;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches like {@link CachingResolver} and re-resolves hot names in the background before their answers expire,
+ * so the callers of a steadily recrawled host never wait for the upstream.
+ * <p>
+ * A name is hot when it was asked at least {@code minHits} times since its answer was stored. Its refresh
+ * is scheduled on a {@link HashedWheelTimer} once {@code refreshAt} of the TTL has passed, the timer
+ * costs O(1) per name however many names are tracked. When the refresh fires, a name which has gone cold
+ * is dropped and its answer simply expires. At most {@code maxPrefetches} refreshes are in flight,
+ * a refresh beyond that is skipped and the next miss resolves the name in the foreground.
+ * <p>
+ * Only answers with addresses are refreshed, negative answers expire as usual. A refresh replaces the answer
+ * only with addresses or an NXDOMAIN, after a SERVFAIL or an empty answer the old one is kept until it expires.
+ */
+public class RefreshAheadResolver implements AsyncResolver, AutoCloseable {
+
+    private final DnsCache cache;
+
+    private final AsyncResolver upstream;
+
+    private final Timer timer;
+
+    private final boolean ownTimer;
+
+    private final double refreshAt;
+
+    private final int minHits;
+
+    private final int maxTracked;
+
+    private final Semaphore prefetchPermits;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder prefetches = new LongAdder();
+
+    private final LongAdder skipped = new LongAdder();
+
+    private final LongAdder cooled = new LongAdder();
+
+    private volatile boolean closed;
+
+    private RefreshAheadResolver(Builder builder) {
+        this.cache = builder.cache;
+        this.upstream = builder.upstream;
+        this.ownTimer = builder.timer == null;
+        this.timer = ownTimer ? new HashedWheelTimer(new DefaultThreadFactory("DNS refresh")) : builder.timer;
+        this.refreshAt = builder.refreshAt;
+        this.minHits = builder.minHits;
+        this.maxTracked = builder.maxTracked;
+        this.prefetchPermits = new Semaphore(builder.maxPrefetches);
+    }
+
+    public static Builder builder(DnsCache cache, AsyncResolver upstream) {
+        return new Builder(cache, upstream);
+    }
+
+    public DnsCache cache() {
+        return cache;
+    }
+
+    /**
+     * @return the number of background refreshes sent upstream
+     */
+    public long prefetches() {
+        return prefetches.sum();
+    }
+
+    /**
+     * @return the number of refreshes skipped because {@code maxPrefetches} were already in flight
+     */
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return the number of names which went cold and are no longer refreshed
+     */
+    public long cooled() {
+        return cooled.sum();
+    }
+
+    /**
+     * @return the number of names whose access frequency is tracked
+     */
+    public int tracked() {
+        return entries.size();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        Entry entry = track(domain);
+
+        DnsAnswer cached = cache.get(domain);
+        if (cached != null) {
+            if (entry != null && cached.isResolved()) {
+                // e.g. after a skipped refresh, the remaining TTL stands in for the full one
+                schedule(entry, cached.ttl());
+            }
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return upstream.query(domain).thenApply(answer -> {
+            store(entry, domain, answer);
+            return answer;
+        });
+    }
+
+    /**
+     * Cancels the scheduled refreshes, the refreshes in flight complete on their own.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        if (ownTimer) {
+            timer.stop();
+        }
+
+        for (Entry entry : entries.values()) {
+            Timeout timeout = entry.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        entries.clear();
+    }
+
+    private Entry track(String domain) {
+        Entry entry = entries.get(domain);
+
+        if (entry == null) {
+            if (entries.size() >= maxTracked && !evictCold()) {
+                return null;
+            }
+            entry = entries.computeIfAbsent(domain, Entry::new);
+        }
+
+        entry.hits.incrementAndGet();
+        return entry;
+    }
+
+    // names without a scheduled refresh were asked too rarely to matter, O(tracked) but only when full
+    private synchronized boolean evictCold() {
+        if (entries.size() >= maxTracked) {
+            entries.values().removeIf(entry -> !entry.scheduled.get());
+        }
+        return entries.size() < maxTracked;
+    }
+
+    private void store(Entry entry, String domain, DnsAnswer answer) {
+        cache.put(domain, answer);
+
+        if (entry != null && answer.isResolved()) {
+            schedule(entry, cache.ttl(answer));
+        }
+    }
+
+    private void schedule(Entry entry, int ttl) {
+        if (entry.hits.get() >= minHits) {
+            scheduleRefresh(entry, ttl);
+        }
+    }
+
+    private void scheduleRefresh(Entry entry, int ttl) {
+        if (closed || ttl <= 0 || !entry.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        long delayMillis = (long) (TimeUnit.SECONDS.toMillis(ttl) * refreshAt);
+        entry.timeout = timer.newTimeout(t -> refresh(entry), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(Entry entry) {
+        // the hits of the last TTL period decide whether the name stays hot for the next one
+        if (closed || entry.hits.getAndSet(0) < minHits) {
+            entries.remove(entry.name, entry);
+            cooled.increment();
+            return;
+        }
+
+        if (!prefetchPermits.tryAcquire()) {
+            entry.scheduled.set(false);
+            skipped.increment();
+            return;
+        }
+
+        prefetches.increment();
+
+        CompletableFuture<DnsAnswer> future;
+        try {
+            future = upstream.query(entry.name);
+        } catch (RuntimeException e) {
+            // like a failed refresh, otherwise the permit and the name would stay taken for good
+            prefetchPermits.release();
+            entry.scheduled.set(false);
+            return;
+        }
+
+        future.whenComplete((answer, ex) -> {
+            prefetchPermits.release();
+            entry.scheduled.set(false);
+
+            if (answer != null && answer.isResolved()) {
+                cache.put(entry.name, answer);
+
+                // the next refresh is scheduled whatever the hits, it drops the name if it has gone cold
+                scheduleRefresh(entry, cache.ttl(answer));
+            } else if (answer != null && answer.rcode() == DnsAnswer.NXDOMAIN) {
+                // the name is gone for real
+                cache.put(entry.name, answer);
+            }
+            // on a failure, SERVFAIL or an empty answer the old answer is served until it expires,
+            // the next miss tries again
+        });
+    }
+
+    private static final class Entry {
+
+        private final String name;
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile Timeout timeout;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final DnsCache cache;
+
+        private final AsyncResolver upstream;
+
+        private Timer timer;
+
+        private double refreshAt = 0.8;
+
+        private int minHits = 2;
+
+        private int maxPrefetches = 64;
+
+        private int maxTracked = 1 << 20;
+
+        private Builder(DnsCache cache, AsyncResolver upstream) {
+            this.cache = cache;
+            this.upstream = upstream;
+        }
+
+        /**
+         * The timer to schedule the refreshes on, by default the resolver starts and stops its own.
+         */
+        public Builder timer(Timer timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        /**
+         * Fraction of the TTL after which a hot name is refreshed.
+         */
+        public Builder refreshAt(double refreshAt) {
+            this.refreshAt = refreshAt;
+            return this;
+        }
+
+        /**
+         * Number of accesses per TTL period which makes a name hot.
+         */
+        public Builder minHits(int minHits) {
+            this.minHits = minHits;
+            return this;
+        }
+
+        public Builder maxPrefetches(int maxPrefetches) {
+            this.maxPrefetches = maxPrefetches;
+            return this;
+        }
+
+        /**
+         * Maximum number of names whose access frequency is tracked, names beyond it are never refreshed.
+         */
+        public Builder maxTracked(int maxTracked) {
+            this.maxTracked = maxTracked;
+            return this;
+        }
+
+        public RefreshAheadResolver build() {
+            if (cache == null || upstream == null) {
+                throw new IllegalArgumentException("cache and upstream are required");
+            }
+            if (refreshAt <= 0 || refreshAt >= 1) {
+                throw new IllegalArgumentException("refreshAt must be in (0, 1): " + refreshAt);
+            }
+            if (minHits <= 0) {
+                throw new IllegalArgumentException("minHits must be positive: " + minHits);
+            }
+            if (maxPrefetches <= 0) {
+                throw new IllegalArgumentException("maxPrefetches must be positive: " + maxPrefetches);
+            }
+            if (maxTracked <= 0) {
+                throw new IllegalArgumentException("maxTracked must be positive: " + maxTracked);
+            }
+
+            return new RefreshAheadResolver(this);
+        }
+
+    }
+
+}
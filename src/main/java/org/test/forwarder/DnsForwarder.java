@@ -0,0 +1,345 @@
+package org.test.forwarder;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caching DNS forwarder for the crawler hosts, taking the place of pdnsd: the JVMs of a host send their queries
+ * to it, it answers from one cache for all of them and forwards the misses to the upstream servers.
+ * <p>
+ * Every event loop has a UDP socket bound to the same port with SO_REUSEPORT, so the kernel spreads the clients
+ * across the cores, and a socket of its own for the upstream queries; TCP is served on the same port.
+ * A query is handled on the loop which received it from start to end, only the {@link ResponseCache} is shared.
+ * Hits are the response bytes of the upstream with the id, the question and the TTLs patched in, and the UDP
+ * answers of one read batch go out with one flush.
+ * <p>
+ * Misses go to the {@link ServerGroup}s in order, and to the next server after a timeout, a SERVFAIL or
+ * a REFUSED, up to {@code maxAttempts} servers; then the client gets SERVFAIL. An answer truncated over UDP
+ * is asked again over TCP for a TCP client, a UDP client gets it truncated and comes back over TCP.
+ * <p>
+ * {@link #main(String[])} takes a pdnsd configuration, see {@link PdnsdConfig}.
+ */
+public class DnsForwarder implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DnsForwarder.class);
+
+    // every client of the host shares these sockets, queries pile up while an event loop is busy or stopped
+    // by a GC pause; at about 1 KiB per query 4 MiB holds some 4000, the kernel caps it at net.core.rmem_max
+    private static final int UDP_RECEIVE_BUFFER = 4 * 1024 * 1024;
+
+    private final InetSocketAddress bindAddress;
+
+    private final int threads;
+
+    final ResponseCache cache;
+
+    final ServerGroup[] groups;
+
+    final int maxAttempts;
+
+    final int maxPayloadSize;
+
+    final LongAdder queries = new LongAdder();
+
+    final LongAdder forwarded = new LongAdder();
+
+    final LongAdder retries = new LongAdder();
+
+    final LongAdder tcpRetries = new LongAdder();
+
+    final LongAdder timeouts = new LongAdder();
+
+    final LongAdder failures = new LongAdder();
+
+    final LongAdder truncated = new LongAdder();
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private final List<ForwardingLoop> loops = new ArrayList<>();
+
+    private EventLoopGroup group;
+
+    private InetSocketAddress address;
+
+    private DnsForwarder(Builder builder) {
+        this.bindAddress = builder.bindAddress;
+        this.threads = builder.threads;
+        this.cache = builder.cache != null ? builder.cache : ResponseCache.builder().build();
+        this.groups = builder.groups.toArray(new ServerGroup[0]);
+        this.maxAttempts = builder.maxAttempts;
+        this.maxPayloadSize = builder.maxPayloadSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Serves the forwarder with a pdnsd configuration, {@code pdnsd.conf} in the working directory by default:
+     * {@code java -cp ... org.test.forwarder.DnsForwarder src/config/pdnsd.conf}.
+     */
+    public static void main(String[] args) throws Exception {
+        Path config = Paths.get(args.length > 0 ? args[0] : "pdnsd.conf");
+
+        DnsForwarder forwarder = PdnsdConfig.read(config).build();
+        forwarder.start();
+
+        // the event loop threads keep the JVM running
+        Runtime.getRuntime().addShutdownHook(new Thread(forwarder::close, "DNS forwarder shutdown"));
+    }
+
+    /**
+     * Binds the sockets, an ephemeral port of the bind address is resolved.
+     *
+     * @return the address the forwarder listens on
+     */
+    public InetSocketAddress start() throws InterruptedException {
+        group = new EpollEventLoopGroup(threads, new DefaultThreadFactory("DNS forwarder"));
+
+        Map<EventExecutor, ForwardingLoop> byEventLoop = new IdentityHashMap<>();
+        for (EventExecutor executor : group) {
+            ForwardingLoop loop = new ForwardingLoop(this, (EventLoop) executor);
+            loops.add(loop);
+            byEventLoop.put(executor, loop);
+        }
+
+        Bootstrap udp = new Bootstrap()
+                .group(group)
+                .channel(EpollDatagramChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .option(EpollChannelOption.SO_RCVBUF, UDP_RECEIVE_BUFFER)
+                .handler(new ChannelInitializer<EpollDatagramChannel>() {
+                    @Override
+                    protected void initChannel(EpollDatagramChannel ch) {
+                        ch.pipeline().addLast(byEventLoop.get(ch.eventLoop()).clientHandler(ch));
+                    }
+                });
+
+        // the first bind resolves an ephemeral port, the rest of the sockets join it, one per event loop
+        Channel first = udp.bind(bindAddress).sync().channel();
+        channels.add(first);
+        address = (InetSocketAddress) first.localAddress();
+
+        for (int i = 1; i < threads; i++) {
+            channels.add(udp.bind(address).sync().channel());
+        }
+
+        ServerBootstrap tcp = new ServerBootstrap()
+                .group(group)
+                .channel(EpollServerSocketChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                new LengthFieldBasedFrameDecoder(ForwardingLoop.MAX_TCP_FRAME, 0, 2, 0, 2),
+                                new LengthFieldPrepender(2),
+                                byEventLoop.get(ch.eventLoop()).clientHandler(ch));
+                    }
+                });
+
+        channels.add(tcp.bind(address).sync().channel());
+
+        LOGGER.info("DNS forwarder is listening on {} with {} threads, upstreams {}",
+                address, threads, Arrays.toString(groups));
+
+        return address;
+    }
+
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    public InetSocketAddress bindAddress() {
+        return bindAddress;
+    }
+
+    public ResponseCache cache() {
+        return cache;
+    }
+
+    public List<ServerGroup> groups() {
+        return Collections.unmodifiableList(Arrays.asList(groups));
+    }
+
+    public long queries() {
+        return queries.sum();
+    }
+
+    /**
+     * @return the number of queries sent upstream, retries excluded
+     */
+    public long forwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * @return the number of queries sent again to the next server
+     */
+    public long retries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the number of truncated UDP answers asked again over TCP
+     */
+    public long tcpRetries() {
+        return tcpRetries.sum();
+    }
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of SERVFAIL answers of the forwarder itself, after all the attempts failed
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the number of answers truncated to fit the UDP payload size of the client
+     */
+    public long truncated() {
+        return truncated.sum();
+    }
+
+    @Override
+    public void close() {
+        for (Channel channel : channels) {
+            channel.close().syncUninterruptibly();
+        }
+        channels.clear();
+
+        for (ForwardingLoop loop : loops) {
+            loop.close();
+        }
+        loops.clear();
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            group = null;
+        }
+
+        LOGGER.info("DNS forwarder is stopped: {}", this);
+    }
+
+    @Override
+    public String toString() {
+        return "queries " + queries() + ", cache hits " + cache.hits() + ", forwarded " + forwarded()
+                + ", retries " + retries() + ", tcp " + tcpRetries() + ", timeouts " + timeouts()
+                + ", failures " + failures() + ", truncated " + truncated() + ", cached " + cache.size();
+    }
+
+    public static final class Builder {
+
+        // defaults follow src/config/pdnsd.conf: server_ip = 127.0.0.1, server_port = 10053
+
+        private InetSocketAddress bindAddress = new InetSocketAddress("127.0.0.1", 10053);
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private ResponseCache cache;
+
+        private final List<ServerGroup> groups = new ArrayList<>();
+
+        private int maxAttempts = 3;
+
+        private int maxPayloadSize = 1232;
+
+        private Builder() {
+        }
+
+        public Builder bindAddress(InetSocketAddress bindAddress) {
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        /**
+         * Number of event loops, each with its own UDP socket on the port.
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder cache(ResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Adds a group of upstream servers, in the order of preference.
+         */
+        public Builder servers(ServerGroup group) {
+            this.groups.add(group);
+            return this;
+        }
+
+        /**
+         * The most servers a query is sent to before the client gets SERVFAIL.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * UDP payload size advertised to the upstreams with EDNS0, 0 sends plain 512-byte queries.
+         */
+        public Builder maxPayloadSize(int maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+            return this;
+        }
+
+        public DnsForwarder build() {
+            if (bindAddress == null) {
+                throw new IllegalArgumentException("bind address is required");
+            }
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads must be positive: " + threads);
+            }
+            if (groups.isEmpty()) {
+                throw new IllegalArgumentException("no upstream servers");
+            }
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+            }
+            if (maxPayloadSize != 0 && (maxPayloadSize < 512 || maxPayloadSize > 0xFFFF)) {
+                throw new IllegalArgumentException("Invalid max payload size: " + maxPayloadSize);
+            }
+
+            return new DnsForwarder(this);
+        }
+
+    }
+
+}
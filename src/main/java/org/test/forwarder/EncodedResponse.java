@@ -0,0 +1,212 @@
+package org.test.forwarder;
+
+import io.netty.buffer.ByteBuf;
+import org.test.wire.DnsWire;
+
+import java.util.Arrays;
+
+/**
+ * An upstream response kept as its wire bytes, with the offsets of what differs from one client to another:
+ * the id, the question (whose case the client may check, DNS 0x20), the TTL of every record, and the OPT record
+ * which a client without EDNS must not get. Writing it for a client is a copy and a few stores.
+ */
+final class EncodedResponse {
+
+    // the smallest record: root name, type, class, TTL and rdata length
+    private static final int MIN_RECORD_SIZE = 11;
+
+    // object headers, the arrays and the cache slot
+    private static final int OVERHEAD_BYTES = 64;
+
+    private final byte[] packet;
+
+    private final int questionEnd;
+
+    private final int[] ttlOffsets;
+
+    // offset of an OPT record which is the last one, 0 if there is none
+    private final int optOffset;
+
+    private final int ttl;
+
+    // set once by the cache before the response is published
+    int expiresAt;
+
+    private EncodedResponse(byte[] packet, int questionEnd, int[] ttlOffsets, int optOffset, int ttl) {
+        this.packet = packet;
+        this.questionEnd = questionEnd;
+        this.ttlOffsets = ttlOffsets;
+        this.optOffset = optOffset;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Copies the readable bytes of a response with one question.
+     *
+     * @return null if the packet is malformed
+     */
+    static EncodedResponse parse(ByteBuf in) {
+        int base = in.readerIndex();
+        int limit = in.writerIndex();
+        int length = limit - base;
+
+        if (length < DnsWire.HEADER_SIZE || in.getUnsignedShort(base + 4) != 1) {
+            return null;
+        }
+
+        int anCount = in.getUnsignedShort(base + 6);
+        int records = anCount + in.getUnsignedShort(base + 8) + in.getUnsignedShort(base + 10);
+        if (records > (length - DnsWire.HEADER_SIZE) / MIN_RECORD_SIZE) {
+            return null;
+        }
+
+        int pos = DnsWire.skipName(in, base + DnsWire.HEADER_SIZE);
+        if (pos < 0 || pos + 4 > limit) {
+            return null;
+        }
+        pos += 4;
+        int questionEnd = pos - base;
+
+        int[] ttlOffsets = new int[records];
+        int ttlCount = 0;
+        int optOffset = 0;
+        long answerTtl = Long.MAX_VALUE;
+        long soaTtl = -1;
+
+        for (int i = 0; i < records; i++) {
+            int start = pos;
+            pos = DnsWire.skipName(in, pos);
+            if (pos < 0 || pos + 10 > limit) {
+                return null;
+            }
+
+            int type = in.getUnsignedShort(pos);
+            long recordTtl = in.getUnsignedInt(pos + 4);
+            int rdLength = in.getUnsignedShort(pos + 8);
+            int rdata = pos + 10;
+            if (rdata + rdLength > limit) {
+                return null;
+            }
+
+            if (type == DnsWire.TYPE_OPT) {
+                // the TTL field of OPT holds the extended rcode and flags
+                if (i == records - 1) {
+                    optOffset = start - base;
+                }
+            } else {
+                ttlOffsets[ttlCount++] = pos + 4 - base;
+
+                if (i < anCount) {
+                    answerTtl = Math.min(answerTtl, recordTtl);
+                } else if (type == DnsWire.TYPE_SOA && rdLength >= 22 && soaTtl < 0) {
+                    // RFC 2308: min of the SOA record TTL and its MINIMUM field
+                    soaTtl = Math.min(recordTtl, in.getUnsignedInt(rdata + rdLength - 4));
+                }
+            }
+
+            pos = rdata + rdLength;
+        }
+
+        byte[] packet = new byte[length];
+        in.getBytes(base, packet);
+
+        long ttl = anCount > 0 ? answerTtl : soaTtl;
+        return new EncodedResponse(packet, questionEnd, Arrays.copyOf(ttlOffsets, ttlCount), optOffset,
+                (int) Math.min(ttl, Integer.MAX_VALUE));
+    }
+
+    int rcode() {
+        return packet[3] & 0x0F;
+    }
+
+    boolean isTruncated() {
+        return (packet[2] & (DnsWire.FLAG_TC >>> 8)) != 0;
+    }
+
+    int answerCount() {
+        return (packet[6] & 0xFF) << 8 | packet[7] & 0xFF;
+    }
+
+    /**
+     * @return the TTL of the answers, of the SOA record for a negative answer, or -1 without either
+     */
+    int ttl() {
+        return ttl;
+    }
+
+    int questionEnd() {
+        return questionEnd;
+    }
+
+    int size(boolean withOpt) {
+        return withOpt || optOffset == 0 ? packet.length : optOffset;
+    }
+
+    int memoryBytes() {
+        return packet.length + 4 * ttlOffsets.length + OVERHEAD_BYTES;
+    }
+
+    /**
+     * Compares the question with the one of a query, ASCII case-insensitive.
+     */
+    boolean matches(ByteBuf query, int base, int queryQuestionEnd) {
+        if (queryQuestionEnd != questionEnd) {
+            return false;
+        }
+
+        for (int i = DnsWire.HEADER_SIZE; i < questionEnd; i++) {
+            if (lower(packet[i]) != lower(query.getByte(base + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the response for a client.
+     *
+     * @param question      the buffer holding the question of the client, copied over the stored one
+     * @param questionIndex the start of the question name in {@code question}
+     * @param ttl           written into every record, or -1 to keep the TTLs of the upstream
+     * @param withOpt       false drops the OPT record for a client without EDNS
+     */
+    void write(ByteBuf out, int id, ByteBuf question, int questionIndex, int ttl, boolean withOpt) {
+        int start = out.writerIndex();
+        int size = size(withOpt);
+
+        out.writeBytes(packet, 0, size);
+        out.setShort(start, id);
+        out.setBytes(start + DnsWire.HEADER_SIZE, question, questionIndex, questionEnd - DnsWire.HEADER_SIZE);
+
+        if (size < packet.length) {
+            out.setShort(start + 10, out.getUnsignedShort(start + 10) - 1);
+        }
+
+        if (ttl >= 0) {
+            for (int offset : ttlOffsets) {
+                if (offset < size) {
+                    out.setInt(start + offset, ttl);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the header and the question with TC set, for a client whose payload size the response exceeds.
+     */
+    void writeTruncated(ByteBuf out, int id, ByteBuf question, int questionIndex) {
+        out.writeShort(id);
+        out.writeShort(((packet[2] & 0xFF) << 8 | packet[3] & 0xFF) | DnsWire.FLAG_TC);
+        out.writeShort(1);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeBytes(question, questionIndex, questionEnd - DnsWire.HEADER_SIZE);
+    }
+
+    private static int lower(int c) {
+        c &= 0xFF;
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+}
@@ -0,0 +1,627 @@
+package org.test.forwarder;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.test.resolver.DnsAnswer;
+import org.test.wire.DnsWire;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The forwarder on one event loop. The client sockets of the loop hand it their queries, it answers the hits
+ * from the shared cache and forwards the misses over an upstream socket of its own.
+ * <p>
+ * As in {@link org.test.wire.WireClient} the pending queries are indexed by the 16-bit upstream id, which is
+ * probed from a random start, and the timeouts are swept by one periodic task. Everything but the cache
+ * is confined to the loop.
+ */
+final class ForwardingLoop {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForwardingLoop.class);
+
+    private static final int ID_SPACE = 1 << 16;
+
+    // the UDP payload size of a client without EDNS
+    private static final int MIN_UDP_SIZE = 512;
+
+    static final int MAX_TCP_FRAME = 0xFFFF;
+
+    private static final int OPT_SIZE = 11;
+
+    private static final int FORMERR = 1;
+
+    private static final int FLAG_RA = 0x0080;
+
+    private final DnsForwarder forwarder;
+
+    private final EventLoop eventLoop;
+
+    private final Channel upstream;
+
+    private final ScheduledFuture<?> sweeper;
+
+    private final Pending[] pending = new Pending[ID_SPACE];
+
+    // dense list of the pending ids so the sweep costs O(pending) instead of O(id space)
+
+    private final int[] pendingIds = new int[ID_SPACE];
+
+    private final int[] pendingIndex = new int[ID_SPACE];
+
+    private int pendingCount;
+
+    // the UDP socket of the loop, its answers are flushed once per read batch
+    private Channel listener;
+
+    ForwardingLoop(DnsForwarder forwarder, EventLoop eventLoop) {
+        this.forwarder = forwarder;
+        this.eventLoop = eventLoop;
+
+        this.upstream = new Bootstrap()
+                .group(eventLoop)
+                .channel(EpollDatagramChannel.class)
+                .handler(new UpstreamHandler())
+                .bind(0)
+                .syncUninterruptibly()
+                .channel();
+
+        long minTimeout = Long.MAX_VALUE;
+        for (ServerGroup group : forwarder.groups) {
+            minTimeout = Math.min(minTimeout, group.timeoutMillis());
+        }
+
+        long tick = Math.max(1, Math.min(100, minTimeout / 10));
+        this.sweeper = eventLoop.scheduleAtFixedRate(this::expire, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    ChannelInboundHandlerAdapter clientHandler(Channel channel) {
+        if (channel instanceof EpollDatagramChannel) {
+            listener = channel;
+        }
+        return new ClientHandler();
+    }
+
+    void close() {
+        sweeper.cancel(false);
+        upstream.close().syncUninterruptibly();
+
+        // runs on the event loop, the clients get nothing, they are going away with the loop
+        eventLoop.submit(() -> {
+            while (pendingCount > 0) {
+                int id = pendingIds[pendingCount - 1];
+                Pending p = pending[id];
+                release(id);
+                p.closeTcp();
+                p.query.release();
+            }
+        }).syncUninterruptibly();
+    }
+
+    private void onQuery(ByteBuf in, Channel client, InetSocketAddress sender) {
+        forwarder.queries.increment();
+
+        int base = in.readerIndex();
+        int length = in.readableBytes();
+        if (length < DnsWire.HEADER_SIZE || (in.getUnsignedShort(base + 2) & DnsWire.FLAG_QR) != 0) {
+            // not even a query, nothing to answer to
+            return;
+        }
+
+        int id = in.getUnsignedShort(base);
+
+        int questionEnd = questionEnd(in, base);
+        if (questionEnd < 0) {
+            reply(client, sender, error(client.alloc(), id, in, base + DnsWire.HEADER_SIZE, 0, FORMERR));
+            return;
+        }
+
+        int maxSize = sender == null ? MAX_TCP_FRAME : MIN_UDP_SIZE;
+        boolean edns = false;
+
+        // the OPT record of a query follows the question
+        if (in.getUnsignedShort(base + 10) > 0 && questionEnd + OPT_SIZE <= length
+                && in.getByte(base + questionEnd) == 0
+                && in.getUnsignedShort(base + questionEnd + 1) == DnsWire.TYPE_OPT)
+        {
+            edns = true;
+            if (sender != null) {
+                maxSize = Math.max(MIN_UDP_SIZE, in.getUnsignedShort(base + questionEnd + 3));
+            }
+        }
+
+        ResponseCache cache = forwarder.cache;
+        long key = ResponseCache.key(in, base, questionEnd);
+
+        EncodedResponse cached = cache.get(key, in, base, questionEnd);
+        if (cached != null) {
+            int ttl = cache.remainingTtl(cached);
+            reply(client, sender, cached, id, in, base + DnsWire.HEADER_SIZE, ttl, edns, maxSize);
+            return;
+        }
+
+        forward(in, base, questionEnd, new Pending(client, sender, id, edns, maxSize, key, questionEnd));
+    }
+
+    private void forward(ByteBuf in, int base, int questionEnd, Pending p) {
+        int id = allocateId();
+        if (id < 0) {
+            forwarder.failures.increment();
+            reply(p.client, p.sender, error(p.client.alloc(), p.clientId, in, base + DnsWire.HEADER_SIZE,
+                    questionEnd, DnsAnswer.SERVFAIL));
+            return;
+        }
+
+        // a recursive query of our own with the question of the client as is, so the answer echoes its case
+        int payloadSize = forwarder.maxPayloadSize;
+        ByteBuf query = upstream.alloc().directBuffer(questionEnd + OPT_SIZE);
+        query.writeShort(id);
+        query.writeShort(DnsWire.FLAG_RD);
+        query.writeShort(1);
+        query.writeShort(0);
+        query.writeShort(0);
+        query.writeShort(payloadSize > 0 ? 1 : 0);
+        query.writeBytes(in, base + DnsWire.HEADER_SIZE, questionEnd - DnsWire.HEADER_SIZE);
+
+        if (payloadSize > 0) {
+            query.writeByte(0);
+            query.writeShort(DnsWire.TYPE_OPT);
+            query.writeShort(payloadSize);
+            query.writeInt(0);
+            query.writeShort(0);
+        }
+
+        p.query = query;
+
+        pending[id] = p;
+        pendingIndex[id] = pendingCount;
+        pendingIds[pendingCount++] = id;
+
+        forwarder.forwarded.increment();
+        nextServer(p);
+        send(p);
+    }
+
+    private void send(Pending p) {
+        upstream.write(new DatagramPacket(p.query.retainedDuplicate(), p.server), upstream.voidPromise());
+    }
+
+    /**
+     * Moves to the next server: within the group, then to the next group.
+     *
+     * @return false if the query is out of servers or attempts
+     */
+    private boolean nextServer(Pending p) {
+        ServerGroup[] groups = forwarder.groups;
+
+        if (p.attempts >= forwarder.maxAttempts) {
+            return false;
+        }
+
+        if (p.group < 0 || ++p.index == groups[p.group].servers().size()) {
+            if (++p.group == groups.length) {
+                return false;
+            }
+
+            ServerGroup group = groups[p.group];
+            p.index = 0;
+            p.offset = group.isRandomized() ? ThreadLocalRandom.current().nextInt(group.servers().size()) : 0;
+        }
+
+        ServerGroup group = groups[p.group];
+        p.server = group.servers().get((p.offset + p.index) % group.servers().size());
+        p.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(group.timeoutMillis());
+        p.attempts++;
+
+        return true;
+    }
+
+    /**
+     * Sends the query to the next server, or answers SERVFAIL when there is none.
+     *
+     * @return true if the query is still pending
+     */
+    private boolean retryOrFail(int id, Pending p) {
+        p.closeTcp();
+
+        if (nextServer(p)) {
+            forwarder.retries.increment();
+            send(p);
+            return true;
+        }
+
+        release(id);
+        forwarder.failures.increment();
+        reply(p.client, p.sender,
+                error(p.client.alloc(), p.clientId, p.query, DnsWire.HEADER_SIZE, p.questionEnd, DnsAnswer.SERVFAIL));
+        p.query.release();
+        return false;
+    }
+
+    /**
+     * @param tcp the query asked over TCP, null for a datagram from {@code sender}
+     */
+    private void onResponse(ByteBuf content, InetSocketAddress sender, Pending tcp) {
+        int base = content.readerIndex();
+        if (content.readableBytes() < DnsWire.HEADER_SIZE) {
+            return;
+        }
+
+        int id = content.getUnsignedShort(base);
+        Pending p = pending[id];
+
+        // a late answer to a query which has moved on, or a stray packet
+        if (p == null || (tcp != null ? p != tcp : p.tcp != null || !p.server.equals(sender))) {
+            return;
+        }
+
+        int flags = content.getUnsignedShort(base + 2);
+        if ((flags & DnsWire.FLAG_QR) == 0 || content.getUnsignedShort(base + 4) != 1
+                || !sameQuestion(content, base, p.query, p.questionEnd))
+        {
+            return;
+        }
+
+        int rcode = flags & 0x0F;
+        if (rcode != DnsAnswer.NOERROR && rcode != DnsAnswer.NXDOMAIN) {
+            // SERVFAIL, REFUSED and the like are about the server, another one may answer
+            retryOrFail(id, p);
+            return;
+        }
+
+        if ((flags & DnsWire.FLAG_TC) != 0 && p.sender == null && tcp == null) {
+            // a TCP client gets the whole answer, a UDP client the truncated one and retries over TCP
+            queryOverTcp(id, p);
+            return;
+        }
+
+        EncodedResponse response = EncodedResponse.parse(content);
+        if (response == null) {
+            retryOrFail(id, p);
+            return;
+        }
+
+        release(id);
+        p.closeTcp();
+
+        forwarder.cache.put(p.key, response);
+        reply(p.client, p.sender, response, p.clientId, p.query, DnsWire.HEADER_SIZE, -1, p.edns, p.maxSize);
+        p.query.release();
+    }
+
+    private void queryOverTcp(int id, Pending p) {
+        forwarder.tcpRetries.increment();
+        p.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(forwarder.groups[p.group].timeoutMillis());
+
+        ChannelFuture connect = new Bootstrap()
+                .group(eventLoop)
+                .channel(EpollSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(
+                                new LengthFieldBasedFrameDecoder(MAX_TCP_FRAME, 0, 2, 0, 2),
+                                new LengthFieldPrepender(2),
+                                new TcpUpstreamHandler(p));
+                    }
+                })
+                .connect(p.server);
+
+        p.tcp = connect.channel();
+
+        connect.addListener(f -> {
+            if (f.isSuccess()) {
+                connect.channel().writeAndFlush(p.query.retainedDuplicate(), connect.channel().voidPromise());
+            } else if (pending[id] == p && p.tcp == connect.channel()) {
+                retryOrFail(id, p);
+                flush();
+            }
+        });
+    }
+
+    private void reply(Channel client, InetSocketAddress sender, EncodedResponse response, int id,
+                       ByteBuf question, int questionIndex, int ttl, boolean edns, int maxSize)
+    {
+        ByteBuf out;
+        if (response.size(edns) > maxSize) {
+            forwarder.truncated.increment();
+            out = client.alloc().directBuffer(response.questionEnd());
+            response.writeTruncated(out, id, question, questionIndex);
+        } else {
+            out = client.alloc().directBuffer(response.size(edns));
+            response.write(out, id, question, questionIndex, ttl, edns);
+        }
+
+        reply(client, sender, out);
+    }
+
+    private void reply(Channel client, InetSocketAddress sender, ByteBuf out) {
+        if (sender == null) {
+            client.writeAndFlush(out, client.voidPromise());
+        } else {
+            // flushed by flush() at the end of the read batch
+            client.write(new DatagramPacket(out, sender), client.voidPromise());
+        }
+    }
+
+    private void flush() {
+        if (listener != null) {
+            listener.flush();
+        }
+        upstream.flush();
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+
+        int i = 0;
+        while (i < pendingCount) {
+            int id = pendingIds[i];
+            Pending p = pending[id];
+
+            if (now - p.deadline >= 0) {
+                forwarder.timeouts.increment();
+                // a failed query is released, which moves the last pending id into this position
+                if (retryOrFail(id, p)) {
+                    i++;
+                }
+            } else {
+                i++;
+            }
+        }
+
+        flush();
+    }
+
+    private int allocateId() {
+        if (pendingCount == ID_SPACE) {
+            return -1;
+        }
+
+        // random ids make off-path spoofing harder, linear probing finds a free one quickly
+        int id = ThreadLocalRandom.current().nextInt(ID_SPACE);
+        while (pending[id] != null) {
+            id = (id + 1) & (ID_SPACE - 1);
+        }
+
+        return id;
+    }
+
+    private void release(int id) {
+        pending[id] = null;
+
+        int index = pendingIndex[id];
+        int last = pendingIds[--pendingCount];
+        pendingIds[index] = last;
+        pendingIndex[last] = index;
+    }
+
+    /**
+     * @return the offset after the question class relative to {@code base}, or -1 if this is not
+     * a standard query with one uncompressed question
+     */
+    static int questionEnd(ByteBuf in, int base) {
+        int limit = in.writerIndex();
+
+        int flags = in.getUnsignedShort(base + 2);
+        if ((flags & 0x7800) != 0 || in.getUnsignedShort(base + 4) != 1) {
+            return -1;
+        }
+
+        int pos = base + DnsWire.HEADER_SIZE;
+        while (pos < limit) {
+            int length = in.getUnsignedByte(pos);
+            if (length == 0) {
+                pos += 1 + 4;
+                return pos <= limit && pos - base - DnsWire.HEADER_SIZE - 4 <= DnsWire.MAX_NAME_LENGTH
+                        ? pos - base
+                        : -1;
+            }
+            if ((length & 0xC0) != 0) {
+                return -1;
+            }
+            pos += 1 + length;
+        }
+
+        return -1;
+    }
+
+    private static boolean sameQuestion(ByteBuf response, int base, ByteBuf query, int questionEnd) {
+        if (response.readableBytes() < questionEnd) {
+            return false;
+        }
+
+        for (int i = DnsWire.HEADER_SIZE; i < questionEnd; i++) {
+            if (lower(response.getByte(base + i)) != lower(query.getByte(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An answer with no records, and the question unless {@code questionEnd} is 0.
+     */
+    private static ByteBuf error(ByteBufAllocator alloc, int id, ByteBuf question, int questionIndex,
+                                 int questionEnd, int rcode)
+    {
+        int questionLength = questionEnd > 0 ? questionEnd - DnsWire.HEADER_SIZE : 0;
+
+        ByteBuf out = alloc.directBuffer(DnsWire.HEADER_SIZE + questionLength);
+        out.writeShort(id);
+        out.writeShort(DnsWire.FLAG_QR | DnsWire.FLAG_RD | FLAG_RA | rcode);
+        out.writeShort(questionLength > 0 ? 1 : 0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeBytes(question, questionIndex, questionLength);
+        return out;
+    }
+
+    private static int lower(int c) {
+        c &= 0xFF;
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static final class Pending {
+
+        private final Channel client;
+
+        // null for a TCP client
+        private final InetSocketAddress sender;
+
+        private final int clientId;
+
+        private final boolean edns;
+
+        private final int maxSize;
+
+        private final long key;
+
+        private final int questionEnd;
+
+        // our query to the upstream, the question starts at HEADER_SIZE
+        private ByteBuf query;
+
+        private int group = -1;
+
+        private int index;
+
+        private int offset;
+
+        private int attempts;
+
+        private InetSocketAddress server;
+
+        private long deadline;
+
+        // the connection of the query asked again over TCP
+        private Channel tcp;
+
+        private Pending(Channel client, InetSocketAddress sender, int clientId, boolean edns, int maxSize, long key,
+                        int questionEnd)
+        {
+            this.client = client;
+            this.sender = sender;
+            this.clientId = clientId;
+            this.edns = edns;
+            this.maxSize = maxSize;
+            this.key = key;
+            this.questionEnd = questionEnd;
+        }
+
+        private void closeTcp() {
+            if (tcp != null) {
+                tcp.close();
+                tcp = null;
+            }
+        }
+
+    }
+
+    private final class ClientHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof DatagramPacket) {
+                    DatagramPacket packet = (DatagramPacket) msg;
+                    onQuery(packet.content(), ctx.channel(), packet.sender());
+                } else {
+                    onQuery((ByteBuf) msg, ctx.channel(), null);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.debug("DNS client channel error on {}", ctx.channel(), cause);
+            if (!(ctx.channel() instanceof EpollDatagramChannel)) {
+                ctx.close();
+            }
+        }
+
+    }
+
+    private final class UpstreamHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                DatagramPacket packet = (DatagramPacket) msg;
+                onResponse(packet.content(), packet.sender(), null);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // e.g. ICMP port unreachable, the queries time out on their own
+            LOGGER.debug("DNS upstream channel error", cause);
+        }
+
+    }
+
+    private final class TcpUpstreamHandler extends ChannelInboundHandlerAdapter {
+
+        private final Pending query;
+
+        private TcpUpstreamHandler(Pending query) {
+            this.query = query;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                onResponse((ByteBuf) msg, null, query);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+            flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // the query times out and moves on to the next server
+            LOGGER.debug("DNS upstream TCP error on {}", ctx.channel(), cause);
+            ctx.close();
+        }
+
+    }
+
+}
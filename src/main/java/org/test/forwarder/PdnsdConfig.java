@@ -0,0 +1,193 @@
+package org.test.forwarder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a pdnsd configuration such as {@code src/config/pdnsd.conf} into a {@link DnsForwarder.Builder},
+ * so the forwarder takes the place of pdnsd with the same file.
+ * <p>
+ * Only the options with an equivalent are taken: {@code server_ip}, {@code server_port}, {@code perm_cache},
+ * {@code min_ttl}, {@code max_ttl} and {@code neg_ttl} of the {@code global} section, {@code label}, {@code ip},
+ * {@code port}, {@code timeout} and {@code randomize_servers} of a {@code server} section. {@code perm_cache}
+ * is the size of the cache file of pdnsd in kB, here it is the memory budget of the cache. The rest is skipped,
+ * e.g. {@code proc_limit} which is moot with the event loops.
+ */
+public final class PdnsdConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PdnsdConfig.class);
+
+    private static final Pattern COMMENTS = Pattern.compile("/\\*.*?\\*/|//[^\\n]*|#[^\\n]*", Pattern.DOTALL);
+
+    private static final Pattern SECTION = Pattern.compile("(\\w+)\\s*\\{([^}]*)}");
+
+    private static final int DNS_PORT = 53;
+
+    // pdnsd's default for a server section
+    private static final long DEFAULT_TIMEOUT_SECONDS = 120;
+
+    private PdnsdConfig() {
+    }
+
+    public static DnsForwarder.Builder read(Path path) throws IOException {
+        return parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+
+    public static DnsForwarder.Builder parse(String config) {
+        DnsForwarder.Builder forwarder = DnsForwarder.builder();
+        ResponseCache.Builder cache = ResponseCache.builder();
+
+        String host = "127.0.0.1";
+        int port = 10053;
+
+        Matcher section = SECTION.matcher(COMMENTS.matcher(config).replaceAll(""));
+        while (section.find()) {
+            String name = section.group(1);
+            List<String[]> options = options(section.group(2));
+
+            if (name.equals("global")) {
+                for (String[] option : options) {
+                    switch (option[0]) {
+                        case "server_ip":
+                            host = option[1];
+                            break;
+                        case "server_port":
+                            port = Integer.parseInt(option[1]);
+                            break;
+                        case "perm_cache":
+                            cache.memoryBudget(Long.parseLong(option[1]) * 1024);
+                            break;
+                        case "min_ttl":
+                            cache.minTtl(seconds(option[1]));
+                            break;
+                        case "max_ttl":
+                            cache.maxTtl(seconds(option[1]));
+                            break;
+                        case "neg_ttl":
+                            cache.negativeTtl(seconds(option[1]));
+                            break;
+                        default:
+                            LOGGER.debug("Skipping pdnsd option {}", option[0]);
+                    }
+                }
+            } else if (name.equals("server")) {
+                forwarder.servers(server(options));
+            } else {
+                LOGGER.debug("Skipping pdnsd section {}", name);
+            }
+        }
+
+        return forwarder
+                .bindAddress(new InetSocketAddress(host, port))
+                .cache(cache.build());
+    }
+
+    private static ServerGroup server(List<String[]> options) {
+        String label = null;
+        List<String> ips = new ArrayList<>();
+        int port = DNS_PORT;
+        long timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+        boolean randomized = false;
+
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "label":
+                    label = option[1];
+                    break;
+                case "ip":
+                    for (String ip : option[1].split(",")) {
+                        ips.add(ip.trim());
+                    }
+                    break;
+                case "port":
+                    port = Integer.parseInt(option[1]);
+                    break;
+                case "timeout":
+                    timeoutSeconds = seconds(option[1]);
+                    break;
+                case "randomize_servers":
+                    randomized = option[1].equals("on");
+                    break;
+                default:
+                    LOGGER.debug("Skipping pdnsd server option {}", option[0]);
+            }
+        }
+
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (String ip : ips) {
+            servers.add(new InetSocketAddress(ip, port));
+        }
+
+        return new ServerGroup(label != null ? label : ips.toString(), servers,
+                TimeUnit.SECONDS.toMillis(timeoutSeconds), randomized);
+    }
+
+    /**
+     * @return {@code name = value} pairs, the value unquoted
+     */
+    private static List<String[]> options(String body) {
+        List<String[]> options = new ArrayList<>();
+
+        for (String statement : body.split(";")) {
+            int eq = statement.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+
+            String name = statement.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            String value = statement.substring(eq + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+
+            options.add(new String[] { name, value });
+        }
+
+        return options;
+    }
+
+    /**
+     * Parses a pdnsd time, seconds or a number with one of the suffixes s, m, h, d, w.
+     */
+    static int seconds(String value) {
+        char suffix = value.isEmpty() ? 's' : value.charAt(value.length() - 1);
+        String number = Character.isDigit(suffix) ? value : value.substring(0, value.length() - 1);
+
+        long unit;
+        switch (suffix) {
+            case 'm':
+                unit = TimeUnit.MINUTES.toSeconds(1);
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS.toSeconds(1);
+                break;
+            case 'd':
+                unit = TimeUnit.DAYS.toSeconds(1);
+                break;
+            case 'w':
+                unit = TimeUnit.DAYS.toSeconds(7);
+                break;
+            default:
+                unit = 1;
+        }
+
+        try {
+            return (int) (Long.parseLong(number) * unit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid pdnsd time: " + value, e);
+        }
+    }
+
+}
@@ -0,0 +1,438 @@
+package org.test.forwarder;
+
+import io.netty.buffer.ByteBuf;
+import org.test.resolver.DnsAnswer;
+import org.test.wire.DnsWire;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TTL-aware cache of upstream responses kept as their wire bytes, keyed by the question: name, type and class.
+ * <p>
+ * A hit is served without decoding or encoding anything, see {@link EncodedResponse}. The key is a 64-bit hash
+ * of the lower-cased question, the question of the stored response is compared as well, so a collision
+ * is a miss and never a wrong answer.
+ * <p>
+ * Like {@link org.test.cache.DnsCache} the table is split into segments guarded by their own monitors.
+ * Every segment holds its share of the memory budget, counted in response bytes, and evicts with the CLOCK
+ * (second chance) policy, expired entries first.
+ */
+public class ResponseCache {
+
+    // a typical A or AAAA answer with the OPT record, plus the overhead of an entry
+    private static final int AVERAGE_ENTRY_BYTES = 160;
+
+    // expiration times are kept as int seconds from this point (2020-09-13), as in DnsCache
+    private static final long EPOCH_BASE_SECONDS = 1_600_000_000L;
+
+    private static final double LOAD_FACTOR = 0.75;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    private final int minTtl;
+
+    private final int maxTtl;
+
+    private final int negativeTtl;
+
+    private final Clock clock;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private ResponseCache(Builder builder) {
+        this.minTtl = builder.minTtl;
+        this.maxTtl = builder.maxTtl;
+        this.negativeTtl = builder.negativeTtl;
+        this.clock = builder.clock;
+
+        int segmentCount = Integer.highestOneBit(Math.max(1, builder.segments));
+
+        long segmentBytes = builder.memoryBudget / segmentCount;
+        long slotsPerSegment = Math.max(16, Long.highestOneBit(segmentBytes / AVERAGE_ENTRY_BYTES) << 1);
+        if (slotsPerSegment > (1 << 30)) {
+            throw new IllegalArgumentException("Memory budget is too large: " + builder.memoryBudget);
+        }
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int) slotsPerSegment, segmentBytes);
+        }
+
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Hashes the question of a query, the name lower-cased, the same way as
+     * {@link org.test.cache.DnsCache#key(CharSequence)}.
+     *
+     * @param questionEnd the offset after the question class, relative to {@code base}
+     */
+    static long key(ByteBuf query, int base, int questionEnd) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = base + DnsWire.HEADER_SIZE; i < base + questionEnd; i++) {
+            int c = query.getByte(i) & 0xFF;
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h ^= c;
+            h *= 0x100000001B3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+
+        // zero marks an empty slot
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * @return the cached response to the question of the query, or {@code null} if there is none or it expired
+     */
+    EncodedResponse get(long key, ByteBuf query, int base, int questionEnd) {
+        EncodedResponse response = segment(key).get(key, query, base, questionEnd, now());
+
+        if (response != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return response;
+    }
+
+    /**
+     * Caches NOERROR and NXDOMAIN responses which are not truncated, with the clamped TTL.
+     */
+    void put(long key, EncodedResponse response) {
+        int ttl = ttl(response);
+        if (ttl <= 0) {
+            return;
+        }
+
+        int now = now();
+        response.expiresAt = now + ttl;
+
+        if (segment(key).put(key, response, now)) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * @return the seconds the response has left in the cache
+     */
+    int remainingTtl(EncodedResponse response) {
+        return Math.max(0, response.expiresAt - now());
+    }
+
+    public int minTtl() {
+        return minTtl;
+    }
+
+    public int maxTtl() {
+        return maxTtl;
+    }
+
+    public int negativeTtl() {
+        return negativeTtl;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the memory taken by the cached responses, an estimate
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    int ttl(EncodedResponse response) {
+        if (response.isTruncated()) {
+            return 0;
+        }
+
+        switch (response.rcode()) {
+            case DnsAnswer.NOERROR:
+                if (response.answerCount() > 0) {
+                    return Math.max(minTtl, Math.min(maxTtl, response.ttl()));
+                } else {
+                    // NODATA is cached like NXDOMAIN
+                    return negativeTtl(response);
+                }
+            case DnsAnswer.NXDOMAIN:
+                return negativeTtl(response);
+            default:
+                return 0;
+        }
+    }
+
+    private int negativeTtl(EncodedResponse response) {
+        return response.ttl() > 0 ? Math.min(response.ttl(), negativeTtl) : negativeTtl;
+    }
+
+    private int now() {
+        return (int) (TimeUnit.MILLISECONDS.toSeconds(clock.millis()) - EPOCH_BASE_SECONDS);
+    }
+
+    private Segment segment(long key) {
+        return segments[segments.length == 1 ? 0 : (int) (key >>> segmentShift)];
+    }
+
+    private static final class Segment {
+
+        private final int mask;
+
+        private final int maxSize;
+
+        private final long maxBytes;
+
+        private final long[] keys;
+
+        private final int[] expires;
+
+        private final EncodedResponse[] responses;
+
+        private final boolean[] referenced;
+
+        private int size;
+
+        private long bytes;
+
+        private int hand;
+
+        private Segment(int capacity, long maxBytes) {
+            this.mask = capacity - 1;
+            this.maxSize = (int) (capacity * LOAD_FACTOR);
+            this.maxBytes = maxBytes;
+            this.keys = new long[capacity];
+            this.expires = new int[capacity];
+            this.responses = new EncodedResponse[capacity];
+            this.referenced = new boolean[capacity];
+        }
+
+        synchronized EncodedResponse get(long key, ByteBuf query, int base, int questionEnd, int now) {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+
+            if (expires[slot] <= now) {
+                removeAt(slot);
+                return null;
+            }
+
+            EncodedResponse response = responses[slot];
+            if (!response.matches(query, base, questionEnd)) {
+                return null;
+            }
+
+            referenced[slot] = true;
+            return response;
+        }
+
+        synchronized boolean put(long key, EncodedResponse response, int now) {
+            boolean evicted = false;
+
+            int slot = find(key);
+            if (slot >= 0) {
+                removeAt(slot);
+            }
+
+            int entryBytes = response.memoryBytes();
+            while (size > 0 && (size >= maxSize || bytes + entryBytes > maxBytes)) {
+                evict(now);
+                evicted = true;
+            }
+
+            slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            expires[slot] = response.expiresAt;
+            responses[slot] = response;
+            referenced[slot] = false;
+            size++;
+            bytes += entryBytes;
+
+            return evicted;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        private int find(long key) {
+            int slot = (int) key & mask;
+            while (true) {
+                long k = keys[slot];
+                if (k == key) {
+                    return slot;
+                }
+                if (k == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void evict(int now) {
+            // CLOCK: expired entries go first, recently read entries get a second chance
+            int limit = 2 * (mask + 1);
+            for (int i = 0; i < limit; i++) {
+                int slot = hand;
+                hand = (hand + 1) & mask;
+
+                if (keys[slot] == 0) {
+                    continue;
+                }
+
+                if (referenced[slot] && expires[slot] > now) {
+                    referenced[slot] = false;
+                    continue;
+                }
+
+                removeAt(slot);
+                return;
+            }
+        }
+
+        private void removeAt(int slot) {
+            bytes -= responses[slot].memoryBytes();
+
+            // backward shift deletion keeps linear probing chains intact without tombstones
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                long k = keys[next];
+                if (k == 0) {
+                    break;
+                }
+
+                int home = (int) k & mask;
+                boolean movable = hole <= next
+                        ? home <= hole || home > next
+                        : home <= hole && home > next;
+
+                if (movable) {
+                    keys[hole] = k;
+                    expires[hole] = expires[next];
+                    responses[hole] = responses[next];
+                    referenced[hole] = referenced[next];
+                    hole = next;
+                }
+            }
+
+            keys[hole] = 0;
+            responses[hole] = null;
+            referenced[hole] = false;
+            size--;
+        }
+
+    }
+
+    public static final class Builder {
+
+        // defaults follow src/config/pdnsd.conf: perm_cache=65536 (kB), min_ttl=60m, max_ttl=1w, neg_ttl=5m
+
+        private long memoryBudget = 64L << 20;
+
+        private int segments = 64;
+
+        private int minTtl = (int) TimeUnit.MINUTES.toSeconds(60);
+
+        private int maxTtl = (int) TimeUnit.DAYS.toSeconds(7);
+
+        private int negativeTtl = (int) TimeUnit.MINUTES.toSeconds(5);
+
+        private Clock clock = Clock.systemUTC();
+
+        private Builder() {
+        }
+
+        public Builder memoryBudget(long bytes) {
+            this.memoryBudget = bytes;
+            return this;
+        }
+
+        public Builder segments(int segments) {
+            this.segments = segments;
+            return this;
+        }
+
+        public Builder minTtl(int seconds) {
+            this.minTtl = seconds;
+            return this;
+        }
+
+        public Builder maxTtl(int seconds) {
+            this.maxTtl = seconds;
+            return this;
+        }
+
+        public Builder negativeTtl(int seconds) {
+            this.negativeTtl = seconds;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public ResponseCache build() {
+            if (minTtl > maxTtl) {
+                throw new IllegalArgumentException("min TTL " + minTtl + " is above max TTL " + maxTtl);
+            }
+            if (memoryBudget <= 0) {
+                throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+            }
+
+            return new ResponseCache(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.test.forwarder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Upstream servers which are alternatives to each other, the {@code server} section of pdnsd.
+ * The forwarder asks the groups in order and moves within a group to the next server after a failure,
+ * starting from a random one when the group is randomized.
+ */
+public final class ServerGroup {
+
+    private final String label;
+
+    private final List<InetSocketAddress> servers;
+
+    private final long timeoutMillis;
+
+    private final boolean randomized;
+
+    public ServerGroup(String label, List<InetSocketAddress> servers, long timeoutMillis, boolean randomized) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("No servers in group " + label);
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout of group " + label + " must be positive: " + timeoutMillis);
+        }
+
+        this.label = label;
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+        this.timeoutMillis = timeoutMillis;
+        this.randomized = randomized;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public List<InetSocketAddress> servers() {
+        return servers;
+    }
+
+    /**
+     * How long a query waits for one server of the group.
+     */
+    public long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isRandomized() {
+        return randomized;
+    }
+
+    @Override
+    public String toString() {
+        return label + " " + servers;
+    }
+
+}
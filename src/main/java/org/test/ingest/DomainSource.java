@@ -0,0 +1,310 @@
+package org.test.ingest;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams domain names from one or more text files, one name per line, gzipped or not.
+ * <p>
+ * The files are decompressed and parsed lazily by background threads, one file per thread at a time,
+ * and the names are handed over in batches through a bounded queue, so memory does not depend on the
+ * input size and the first names reach the resolver right away. Blank lines and {@code #} comments
+ * are skipped. With a {@link NameArena} the repeated names are skipped too.
+ * <p>
+ * The names of different files are interleaved, the order within a file is kept. {@link #hasNext()}
+ * blocks while the readers are behind, so feed it to {@code BulkResolver.stream}, which pulls on the
+ * consumer thread, rather than to the push mode, which pulls on the event loop.
+ */
+public class DomainSource implements Iterator<String>, AutoCloseable {
+
+    private static final List<String> END = Collections.emptyList();
+
+    private final BlockingQueue<List<String>> queue;
+
+    private final ExecutorService executor;
+
+    private final NameArena arena;
+
+    private final long limit;
+
+    private final int inputs;
+
+    private int finished;
+
+    private volatile Throwable failure;
+
+    private volatile boolean closed;
+
+    private List<String> batch = Collections.emptyList();
+
+    private int index;
+
+    private String next;
+
+    private long returned;
+
+    private long duplicates;
+
+    private DomainSource(Builder builder) {
+        this.queue = new ArrayBlockingQueue<>(builder.queueBatches);
+        this.arena = builder.arena;
+        this.limit = builder.limit;
+        this.inputs = builder.inputs.size();
+
+        int threads = Math.max(1, Math.min(builder.threads, inputs));
+        this.executor = Executors.newFixedThreadPool(threads, new DefaultThreadFactory("Domain source", true));
+
+        for (Callable<InputStream> input : builder.inputs) {
+            executor.execute(() -> read(input, builder.batchSize));
+        }
+        executor.shutdown();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the number of names skipped because the arena already had them
+     */
+    public long duplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (returned >= limit || !advance()) {
+                return false;
+            }
+
+            String name = batch.get(index++);
+            if (arena != null && !isNew(name)) {
+                duplicates++;
+                continue;
+            }
+            next = name;
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String result = next;
+        next = null;
+        returned++;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        queue.clear();
+    }
+
+    private boolean advance() {
+        while (index >= batch.size()) {
+            if (finished == inputs) {
+                return false;
+            }
+
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for domains", e);
+            }
+            index = 0;
+
+            if (batch == END) {
+                finished++;
+
+                Throwable ex = failure;
+                if (ex != null) {
+                    close();
+                    throw ex instanceof IOException
+                            ? new UncheckedIOException((IOException) ex)
+                            : new IllegalStateException("Failed to read domains", ex);
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isNew(String name) {
+        int size = arena.size();
+        try {
+            arena.intern(name);
+        } catch (IllegalArgumentException e) {
+            // not a valid name, the resolver will report it
+            return true;
+        }
+        return arena.size() > size;
+    }
+
+    private void read(Callable<InputStream> input, int batchSize) {
+        try (InputStream is = input.call();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII), 1 << 16))
+        {
+            List<String> lines = new ArrayList<>(batchSize);
+
+            String line;
+            while (!closed && (line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+
+                lines.add(line);
+                if (lines.size() == batchSize) {
+                    queue.put(lines);
+                    lines = new ArrayList<>(batchSize);
+                }
+            }
+
+            if (!lines.isEmpty()) {
+                queue.put(lines);
+            }
+        } catch (InterruptedException e) {
+            // closed
+            return;
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream is = Files.newInputStream(file);
+        return isGzip(file.toString()) ? new GZIPInputStream(is, 1 << 16) : is;
+    }
+
+    private static boolean isGzip(String name) {
+        return name.endsWith(".gz");
+    }
+
+    public static final class Builder {
+
+        private final List<Callable<InputStream>> inputs = new ArrayList<>();
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private int batchSize = 1024;
+
+        private int queueBatches = 64;
+
+        private long limit = Long.MAX_VALUE;
+
+        private NameArena arena;
+
+        private Builder() {
+        }
+
+        public Builder file(Path file) {
+            inputs.add(() -> open(file));
+            return this;
+        }
+
+        /**
+         * A classpath resource, decompressed if its name ends with {@code .gz}.
+         */
+        public Builder resource(String name) {
+            inputs.add(() -> {
+                InputStream is = DomainSource.class.getResourceAsStream(name);
+                if (is == null) {
+                    throw new IOException("No resource " + name);
+                }
+                return isGzip(name) ? new GZIPInputStream(is, 1 << 16) : is;
+            });
+            return this;
+        }
+
+        public Builder input(Callable<InputStream> input) {
+            inputs.add(input);
+            return this;
+        }
+
+        /**
+         * @param threads how many files are decompressed in parallel
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param queueBatches how many batches may wait for the consumer before the readers block
+         */
+        public Builder queueBatches(int queueBatches) {
+            this.queueBatches = queueBatches;
+            return this;
+        }
+
+        /**
+         * Stops after this many names.
+         */
+        public Builder limit(long limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * Skips the names already in the arena and adds the new ones.
+         */
+        public Builder dedup(NameArena arena) {
+            this.arena = arena;
+            return this;
+        }
+
+        public DomainSource build() {
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("No inputs");
+            }
+            if (threads < 1 || batchSize < 1 || queueBatches < 1) {
+                throw new IllegalArgumentException("Invalid threads " + threads + ", batch size " + batchSize
+                        + " or queue size " + queueBatches);
+            }
+            if (limit < 0) {
+                throw new IllegalArgumentException("Negative limit: " + limit);
+            }
+
+            return new DomainSource(this);
+        }
+
+    }
+
+}
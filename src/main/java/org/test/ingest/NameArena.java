@@ -0,0 +1,274 @@
+package org.test.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Append-only off-heap store of domain names with deduplication, for inputs too large to keep as
+ * {@link String}s. A name is stored once as a length-prefixed run of ASCII bytes and is referred to by
+ * a {@code long} handle, {@link #view(long)} reads it back as a {@link CharSequence} without copying.
+ * <p>
+ * Names are case-insensitive and stored in lower case without the trailing dot, internationalized names
+ * must be in the ASCII (punycode) form. {@link #intern} is synchronized, reading a handle obtained
+ * from it is lock-free.
+ */
+public class NameArena {
+
+    public static final int MAX_NAME_LENGTH = 255;
+
+    private static final int CHUNK_BITS = 24;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int MAX_TABLE_CAPACITY = 1 << 30;
+
+    // copied on growth, so that the readers need no lock
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    private final byte[] scratch = new byte[MAX_NAME_LENGTH];
+
+    private ByteBuffer current;
+
+    // open addressing, a slot keeps handle + 1 so that zero means empty
+    private long[] handles;
+
+    private int[] hashes;
+
+    private int size;
+
+    private long bytes;
+
+    public NameArena() {
+        this(1 << 16);
+    }
+
+    public NameArena(int expectedNames) {
+        int capacity = 16;
+        while (capacity < MAX_TABLE_CAPACITY && capacity - (capacity >>> 2) < expectedNames) {
+            capacity <<= 1;
+        }
+        this.handles = new long[capacity];
+        this.hashes = new int[capacity];
+    }
+
+    /**
+     * @return the handle of the name, the same for every spelling of the same name
+     * @throws IllegalArgumentException if the name is empty, too long or not ASCII
+     */
+    public synchronized long intern(CharSequence name) {
+        int length = normalize(name, scratch);
+        int hash = hash(scratch, length);
+
+        int mask = handles.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = handles[i];
+            if (slot == 0) {
+                long handle = append(scratch, length);
+                handles[i] = handle + 1;
+                hashes[i] = hash;
+
+                if (++size > handles.length - (handles.length >>> 2)) {
+                    grow();
+                }
+                return handle;
+            }
+
+            if (hashes[i] == hash && equals(slot - 1, scratch, length)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the handle of the name or -1 if it has not been interned
+     */
+    public synchronized long find(CharSequence name) {
+        int length = normalize(name, scratch);
+        int hash = hash(scratch, length);
+
+        int mask = handles.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = handles[i];
+            if (slot == 0) {
+                return -1;
+            }
+            if (hashes[i] == hash && equals(slot - 1, scratch, length)) {
+                return slot - 1;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the off-heap bytes taken by the names, the table of handles is on the heap
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public int length(long handle) {
+        return chunk(handle).get(offset(handle)) & 0xFF;
+    }
+
+    public char charAt(long handle, int index) {
+        return (char) chunk(handle).get(offset(handle) + 1 + index);
+    }
+
+    public String toString(long handle) {
+        ByteBuffer chunk = chunk(handle);
+        int offset = offset(handle);
+        int length = chunk.get(offset) & 0xFF;
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) chunk.get(offset + 1 + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return a view of the stored name, e.g. for {@code WireClient.query} or {@code DnsCache.key}
+     */
+    public CharSequence view(long handle) {
+        return new NameView(handle);
+    }
+
+    private ByteBuffer chunk(long handle) {
+        return chunks[(int) (handle >>> CHUNK_BITS)];
+    }
+
+    private static int offset(long handle) {
+        return (int) handle & (CHUNK_SIZE - 1);
+    }
+
+    private long append(byte[] name, int length) {
+        if (current == null || current.remaining() < length + 1) {
+            current = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[grown.length - 1] = current;
+            chunks = grown;
+        }
+
+        long handle = ((long) (chunks.length - 1) << CHUNK_BITS) | current.position();
+        current.put((byte) length);
+        current.put(name, 0, length);
+        bytes += length + 1;
+        return handle;
+    }
+
+    private boolean equals(long handle, byte[] name, int length) {
+        ByteBuffer chunk = chunk(handle);
+        int offset = offset(handle);
+        if ((chunk.get(offset) & 0xFF) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chunk.get(offset + 1 + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        if (handles.length >= MAX_TABLE_CAPACITY) {
+            throw new IllegalStateException("Too many names: " + size);
+        }
+
+        long[] oldHandles = handles;
+        int[] oldHashes = hashes;
+
+        handles = new long[oldHandles.length * 2];
+        hashes = new int[oldHandles.length * 2];
+
+        int mask = handles.length - 1;
+        for (int j = 0; j < oldHandles.length; j++) {
+            if (oldHandles[j] != 0) {
+                int i = oldHashes[j] & mask;
+                while (handles[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                handles[i] = oldHandles[j];
+                hashes[i] = oldHashes[j];
+            }
+        }
+    }
+
+    private static int normalize(CharSequence name, byte[] out) {
+        int length = name.length();
+        if (length > 1 && name.charAt(length - 1) == '.') {
+            length--;
+        }
+        if (length == 0 || length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid name length " + length + ": " + name);
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c > 0x7F) {
+                throw new IllegalArgumentException("Not an ASCII name: " + name);
+            }
+            out[i] = (byte) c;
+        }
+        return length;
+    }
+
+    private static int hash(byte[] name, int length) {
+        // FNV-1a with a final mix, linear probing needs the low bits to be good
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            h ^= name[i];
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private final class NameView implements CharSequence {
+
+        private final long handle;
+
+        private final ByteBuffer chunk;
+
+        private final int offset;
+
+        private final int length;
+
+        private NameView(long handle) {
+            this.handle = handle;
+            this.chunk = chunk(handle);
+            this.offset = offset(handle) + 1;
+            this.length = chunk.get(offset - 1) & 0xFF;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+            }
+            return (char) chunk.get(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return NameArena.this.toString(handle).subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return NameArena.this.toString(handle);
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.test.iterative;
+
+import java.util.Arrays;
+
+/**
+ * Name servers of a zone as learned from a referral: the IPv4 glue addresses packed into ints and the names
+ * of the servers which came without glue, resolved on demand when the glue runs out.
+ */
+public final class Delegation {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private final String zone;
+
+    private final int[] addresses;
+
+    private final String[] unresolved;
+
+    private final int expiresAt;
+
+    public Delegation(String zone, int[] addresses, String[] unresolved, int expiresAt) {
+        this.zone = zone;
+        this.addresses = addresses;
+        this.unresolved = unresolved != null && unresolved.length > 0 ? unresolved : NO_NAMES;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the zone name, lower case without the trailing dot, empty for the root
+     */
+    public String zone() {
+        return zone;
+    }
+
+    public int[] addresses() {
+        return addresses;
+    }
+
+    public String[] unresolved() {
+        return unresolved;
+    }
+
+    /**
+     * @return the expiration time in the seconds of the {@link DelegationCache}
+     */
+    public int expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return a copy with the address of a name server which was resolved separately
+     */
+    public Delegation withResolved(String name, int address) {
+        int[] moreAddresses = Arrays.copyOf(addresses, addresses.length + 1);
+        moreAddresses[addresses.length] = address;
+
+        return new Delegation(zone, moreAddresses, without(name), expiresAt);
+    }
+
+    /**
+     * @return a copy without a name server which could not be resolved
+     */
+    public Delegation withUnresolvable(String name) {
+        return new Delegation(zone, addresses, without(name), expiresAt);
+    }
+
+    private String[] without(String name) {
+        return Arrays.stream(unresolved).filter(n -> !n.equals(name)).toArray(String[]::new);
+    }
+
+    @Override
+    public String toString() {
+        return (zone.isEmpty() ? "." : zone) + " " + addresses.length + " servers"
+                + (unresolved.length > 0 ? " + " + Arrays.toString(unresolved) : "");
+    }
+
+}
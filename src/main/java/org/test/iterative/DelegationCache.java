@@ -0,0 +1,180 @@
+package org.test.iterative;
+
+import org.test.cache.DnsCache;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zone cuts learned by the {@link IterativeResolver}, looked up by the closest enclosing zone of a name.
+ * <p>
+ * The table is open-addressed by the 64-bit {@link DnsCache#key(CharSequence)} of the zone name, so a zone costs
+ * a slot of the {@code long[]} and its {@link Delegation}, with no map entry or boxed key. Expired zones are
+ * skipped by the lookups and overwritten by the next delegation of the same zone. The root is never expired.
+ */
+public class DelegationCache {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // expiration times are int seconds from this point, like in DnsCache
+    private static final long EPOCH_BASE_SECONDS = 1_600_000_000L;
+
+    private final Clock clock;
+
+    private final int maxTtl;
+
+    private long[] keys;
+
+    private Delegation[] values;
+
+    private int size;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param root the servers from the root hints
+     * @param maxTtl caps the TTL of the learned delegations, in seconds
+     */
+    public DelegationCache(int[] root, int maxTtl, Clock clock) {
+        this.clock = clock;
+        this.maxTtl = maxTtl;
+        this.keys = new long[1024];
+        this.values = new Delegation[1024];
+
+        put(new Delegation("", root, null, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return the delegation of the closest enclosing zone of {@code name}, at least the root
+     */
+    public Delegation closest(String name) {
+        int now = now();
+
+        int from = 0;
+        while (true) {
+            String zone = name.substring(from);
+            Delegation delegation = get(zone, now);
+
+            if (delegation != null) {
+                if (zone.isEmpty()) {
+                    misses.increment();
+                } else {
+                    hits.increment();
+                }
+                return delegation;
+            }
+
+            int dot = name.indexOf('.', from);
+            from = dot < 0 ? name.length() : dot + 1;
+        }
+    }
+
+    /**
+     * Stores the delegation with the TTL of its NS records, capped by {@code maxTtl}.
+     *
+     * @return the stored delegation
+     */
+    public Delegation put(String zone, int[] addresses, String[] unresolved, int ttl) {
+        Delegation delegation = new Delegation(zone, addresses, unresolved, now() + Math.min(ttl, maxTtl));
+        put(delegation);
+        return delegation;
+    }
+
+    public synchronized void put(Delegation delegation) {
+        if (size >= keys.length * LOAD_FACTOR) {
+            resize();
+        }
+
+        long key = DnsCache.key(delegation.zone());
+        int mask = keys.length - 1;
+        int index = (int) key & mask;
+
+        while (keys[index] != 0 && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+
+        if (keys[index] == 0) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = delegation;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return lookups answered below the root
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups which had to start from the root
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private synchronized Delegation get(String zone, int now) {
+        long key = DnsCache.key(zone);
+        int mask = keys.length - 1;
+        int index = (int) key & mask;
+
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                Delegation delegation = values[index];
+                return delegation.expiresAt() - now > 0 ? delegation : null;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Delegation[] oldValues = values;
+
+        // expired zones are dropped on the way, so a table full of them does not have to grow
+        int now = now();
+        int live = 0;
+        for (Delegation value : oldValues) {
+            if (value != null && value.expiresAt() - now > 0) {
+                live++;
+            }
+        }
+
+        int capacity = oldKeys.length;
+        while (live >= capacity * LOAD_FACTOR / 2) {
+            capacity *= 2;
+        }
+
+        keys = new long[capacity];
+        values = new Delegation[capacity];
+        size = 0;
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            Delegation value = oldValues[i];
+            if (value != null && value.expiresAt() - now > 0) {
+                int index = (int) oldKeys[i] & mask;
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = value;
+                size++;
+            }
+        }
+    }
+
+    private int now() {
+        return (int) (clock.millis() / 1000 - EPOCH_BASE_SECONDS);
+    }
+
+}
@@ -0,0 +1,691 @@
+package org.test.iterative;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DefaultDnsRecordDecoder;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.NoopDnsCache;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves A records by walking the delegations from the root itself instead of asking a recursive server.
+ * <p>
+ * Queries go out without the RD flag through Netty {@link DnsNameResolver#query(InetSocketAddress,
+ * io.netty.handler.codec.dns.DnsQuestion)}, one per step. Referrals are remembered in the {@link DelegationCache},
+ * so once the TLDs and the zone of a crawled domain are known, its names resolve with a single query
+ * to the authoritative servers of the zone.
+ * <p>
+ * CNAME chains are followed in the same response and across zones. Name servers without glue are resolved
+ * with a nested lookup. A server which times out, fails or answers without authority (a lame delegation)
+ * is skipped by all the lookups for {@code lamePenaltyMillis}, the next server of the zone is asked instead.
+ * At most {@code maxPenalties} servers are skipped at a time. The TTL of an answer is the minimum over
+ * the CNAME chain which led to it.
+ * A lookup fails with the last transport error when every server of a zone timed out, and gives up with
+ * SERVFAIL after {@code maxQueries} queries.
+ */
+public class IterativeResolver implements AsyncResolver, AutoCloseable {
+
+    /**
+     * IPv4 addresses of a.root-servers.net to m.root-servers.net, from the IANA root hints.
+     */
+    public static final List<String> ROOT_HINTS = Collections.unmodifiableList(Arrays.asList(
+            "198.41.0.4", "170.247.170.2", "192.33.4.12", "199.7.91.13", "192.203.230.10", "192.5.5.241",
+            "192.112.36.4", "198.97.190.53", "192.36.148.17", "192.58.128.30", "193.0.14.129", "199.7.83.42",
+            "202.12.27.33"));
+
+    // nested lookups of name servers without glue, e.g. ns1.b.net serving a.com
+    private static final int MAX_DEPTH = 4;
+
+    private final EventLoopGroup group;
+
+    private final DnsNameResolver[] resolvers;
+
+    private final DelegationCache delegations;
+
+    private final int port;
+
+    private final int maxQueries;
+
+    private final int maxCnameChain;
+
+    private final long lamePenaltyNanos;
+
+    private final int maxPenalties;
+
+    // server address -> System.nanoTime() until which it is skipped
+    private final ConcurrentMap<Integer, Long> penalties = new ConcurrentHashMap<>();
+
+    private final LongAdder queries = new LongAdder();
+
+    private final LongAdder referrals = new LongAdder();
+
+    private final LongAdder lame = new LongAdder();
+
+    private IterativeResolver(Builder builder) {
+        this.port = builder.port;
+        this.maxQueries = builder.maxQueries;
+        this.maxCnameChain = builder.maxCnameChain;
+        this.lamePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(builder.lamePenaltyMillis);
+        this.maxPenalties = builder.maxPenalties;
+
+        int[] root = new int[builder.rootHints.size()];
+        for (int i = 0; i < root.length; i++) {
+            root[i] = DnsAnswer.toInt(literal(builder.rootHints.get(i)));
+        }
+        this.delegations = new DelegationCache(root, builder.maxDelegationTtl, builder.clock);
+
+        group = new EpollEventLoopGroup(builder.shards, new DefaultThreadFactory("DNS iterative"));
+
+        // every query names its server, the provider only satisfies the builder
+        InetSocketAddress anyRoot = new InetSocketAddress(literal(builder.rootHints.get(0)), port);
+
+        resolvers = new DnsNameResolver[builder.shards];
+        for (int i = 0; i < resolvers.length; i++) {
+            resolvers[i] = new DnsNameResolverBuilder(group.next())
+                    .channelType(EpollDatagramChannel.class)
+                    .queryTimeoutMillis(builder.queryTimeoutMillis)
+                    .maxQueriesPerResolve(1)
+                    .recursionDesired(false)
+                    .resolvedAddressTypes(ResolvedAddressTypes.IPV4_ONLY)
+                    .resolveCache(NoopDnsCache.INSTANCE)
+                    .nameServerProvider(new SingletonDnsServerAddressStreamProvider(anyRoot))
+                    .build();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public DelegationCache delegations() {
+        return delegations;
+    }
+
+    /**
+     * @return the number of queries sent to name servers, one lookup sends one or more
+     */
+    public long queries() {
+        return queries.sum();
+    }
+
+    public long referrals() {
+        return referrals.sum();
+    }
+
+    /**
+     * @return the number of times a server timed out, failed or answered without authority
+     */
+    public long lame() {
+        return lame.sum();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        String name = normalize(domain);
+        DnsNameResolver resolver = resolvers[(name.hashCode() & Integer.MAX_VALUE) % resolvers.length];
+
+        Lookup lookup = new Lookup(domain, name, resolver, null);
+        lookup.next(delegations.closest(name));
+        return lookup;
+    }
+
+    @Override
+    public void close() {
+        for (DnsNameResolver resolver : resolvers) {
+            resolver.close();
+        }
+
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    /**
+     * @return the number of servers currently skipped, expired ones may be counted until they are pruned
+     */
+    int penalized() {
+        return penalties.size();
+    }
+
+    void penalize(int server) {
+        lame.increment();
+
+        long now = System.nanoTime();
+        if (penalties.size() >= maxPenalties) {
+            // O(penalties) but only when full, a crawl meets lame servers all the time
+            penalties.values().removeIf(until -> now - until >= 0);
+            if (penalties.size() >= maxPenalties && !penalties.containsKey(server)) {
+                // the server is asked again, which costs a timeout at worst
+                return;
+            }
+        }
+
+        penalties.put(server, now + lamePenaltyNanos);
+    }
+
+    private boolean isPenalized(int server) {
+        Long until = penalties.get(server);
+        if (until == null) {
+            return false;
+        }
+        if (System.nanoTime() - until >= 0) {
+            penalties.remove(server, until);
+            return false;
+        }
+        return true;
+    }
+
+    static String normalize(String name) {
+        String result = name.toLowerCase(Locale.ROOT);
+        return result.endsWith(".") ? result.substring(0, result.length() - 1) : result;
+    }
+
+    /**
+     * @return true if {@code name} is {@code zone} or below it
+     */
+    static boolean isWithin(String name, String zone) {
+        if (zone.isEmpty() || name.equals(zone)) {
+            return true;
+        }
+
+        int prefix = name.length() - zone.length() - 1;
+        return prefix > 0 && name.charAt(prefix) == '.' && name.endsWith(zone);
+    }
+
+    private static InetAddress literal(String address) {
+        try {
+            // an IP literal, no lookup is made
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address, e);
+        }
+    }
+
+    private static InetAddress toInetAddress(int address) {
+        try {
+            return DnsAnswer.toInetAddress(null, address);
+        } catch (UnknownHostException e) {
+            // never thrown for 4 bytes
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decodeName(DnsRecord record) {
+        // the content is a slice of the whole message, so compression pointers resolve against it
+        ByteBuf content = ((DnsRawRecord) record).content();
+        return normalize(DefaultDnsRecordDecoder.decodeName(content.duplicate()));
+    }
+
+    private static int soaTtl(DnsResponse response) {
+        // RFC 2308: min of the SOA record TTL and its MINIMUM field, which is the last 4 bytes of the rdata
+        int count = response.count(DnsSection.AUTHORITY);
+        for (int i = 0; i < count; i++) {
+            DnsRecord record = response.recordAt(DnsSection.AUTHORITY, i);
+            if (record.type() == DnsRecordType.SOA && record instanceof DnsRawRecord) {
+                ByteBuf content = ((DnsRawRecord) record).content();
+                if (content.readableBytes() >= 20) {
+                    long minimum = content.getUnsignedInt(content.writerIndex() - 4);
+                    return (int) Math.min(record.timeToLive(), minimum);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One lookup, or a nested lookup of a name server address. The callbacks of all the queries of a lookup
+     * run on the event loop of its resolver, one at a time.
+     */
+    private final class Lookup extends CompletableFuture<DnsAnswer> {
+
+        private final String domain;
+
+        private final DnsNameResolver resolver;
+
+        private final Lookup parent;
+
+        private final int depth;
+
+        private String name;
+
+        private Delegation delegation;
+
+        private final Set<Integer> tried = new HashSet<>();
+
+        private int queryCount;
+
+        private int cnames;
+
+        private long ttl = Integer.MAX_VALUE;
+
+        private Throwable lastFailure;
+
+        private Lookup(String domain, String name, DnsNameResolver resolver, Lookup parent) {
+            this.domain = domain;
+            this.name = name;
+            this.resolver = resolver;
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 0;
+        }
+
+        private void next(Delegation next) {
+            if (delegation == null || !delegation.zone().equals(next.zone())) {
+                tried.clear();
+                lastFailure = null;
+            }
+            delegation = next;
+
+            ask();
+        }
+
+        private void ask() {
+            int server = pick();
+
+            if (server < 0) {
+                if (delegation.unresolved().length > 0 && depth < MAX_DEPTH) {
+                    resolveNameServer(delegation.unresolved()[0]);
+                } else if (lastFailure != null) {
+                    completeExceptionally(lastFailure);
+                } else {
+                    complete(DnsAnswer.negative(domain, DnsAnswer.SERVFAIL, 0));
+                }
+                return;
+            }
+
+            if (!spend()) {
+                complete(DnsAnswer.negative(domain, DnsAnswer.SERVFAIL, 0));
+                return;
+            }
+
+            int address = delegation.addresses()[server];
+            tried.add(server);
+            queries.increment();
+
+            InetSocketAddress target = new InetSocketAddress(toInetAddress(address), port);
+            Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> future =
+                    resolver.query(target, new DefaultDnsQuestion(name, DnsRecordType.A));
+
+            future.addListener(f -> {
+                if (!f.isSuccess()) {
+                    lastFailure = f.cause();
+                    penalize(address);
+                    ask();
+                    return;
+                }
+
+                AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = future.getNow();
+                try {
+                    onResponse(address, envelope.content());
+                } catch (RuntimeException e) {
+                    completeExceptionally(e);
+                } finally {
+                    envelope.release();
+                }
+            });
+        }
+
+        // the index of a server of the delegation, penalized ones only when nothing else is left
+        private int pick() {
+            int[] addresses = delegation.addresses();
+            if (addresses.length == 0) {
+                return -1;
+            }
+
+            int start = ThreadLocalRandom.current().nextInt(addresses.length);
+            int fallback = -1;
+
+            for (int i = 0; i < addresses.length; i++) {
+                int index = (start + i) % addresses.length;
+                if (tried.contains(index)) {
+                    continue;
+                }
+                if (!isPenalized(addresses[index])) {
+                    return index;
+                }
+                if (fallback < 0) {
+                    fallback = index;
+                }
+            }
+
+            return fallback;
+        }
+
+        private boolean spend() {
+            // nested lookups spend the budget of the lookup which started them
+            return parent != null ? parent.spend() : ++queryCount <= maxQueries;
+        }
+
+        private void resolveNameServer(String server) {
+            Delegation current = delegation;
+
+            Lookup lookup = new Lookup(server, server, resolver, this);
+            lookup.next(delegations.closest(server));
+
+            lookup.whenComplete((answer, ex) -> {
+                if (answer != null && answer.addresses().length > 0) {
+                    Delegation resolved = current.withResolved(server, answer.addresses()[0]);
+                    delegations.put(resolved);
+                    delegation = resolved;
+                } else {
+                    // a dead end, the other servers without glue may still work
+                    delegation = current.withUnresolvable(server);
+                }
+                ask();
+            });
+        }
+
+        private void onResponse(int address, DnsResponse response) {
+            int rcode = response.code().intValue();
+            if (rcode != DnsAnswer.NOERROR && rcode != DnsAnswer.NXDOMAIN) {
+                penalize(address);
+                ask();
+                return;
+            }
+
+            // only the servers of the zone may answer for it, e.g. a recursive server listed as one may not;
+            // checked before the records are read, so their TTLs do not leak into the answer
+            boolean answered = rcode == DnsAnswer.NXDOMAIN || response.count(DnsSection.ANSWER) > 0;
+            if (answered && !response.isAuthoritativeAnswer()) {
+                penalize(address);
+                ask();
+                return;
+            }
+
+            // follows the CNAME chain as far as the response goes, every link lowers the TTL
+            String target = name;
+            while (true) {
+                int[] addresses = addresses(response, target);
+                if (addresses.length > 0) {
+                    complete(new DnsAnswer(domain, DnsAnswer.NOERROR, (int) ttl, addresses));
+                    return;
+                }
+
+                String alias = cname(response, target);
+                if (alias == null) {
+                    break;
+                }
+                if (++cnames > maxCnameChain) {
+                    complete(DnsAnswer.negative(domain, DnsAnswer.SERVFAIL, 0));
+                    return;
+                }
+                target = alias;
+            }
+
+            if (rcode == DnsAnswer.NXDOMAIN) {
+                complete(DnsAnswer.negative(domain, DnsAnswer.NXDOMAIN, negativeTtl(response)));
+                return;
+            }
+
+            if (!target.equals(name)) {
+                // the rest of the chain is in another zone, the servers tried so far were asked another name
+                name = target;
+                delegation = null;
+                next(delegations.closest(name));
+                return;
+            }
+
+            Delegation referral = referral(response);
+            if (referral != null) {
+                referrals.increment();
+                next(referral);
+                return;
+            }
+
+            if (response.isAuthoritativeAnswer() || soaTtl(response) >= 0) {
+                // NODATA: the name exists without A records
+                complete(DnsAnswer.negative(domain, DnsAnswer.NOERROR, negativeTtl(response)));
+                return;
+            }
+
+            // neither an answer nor a referral down the tree, e.g. a referral to the root
+            penalize(address);
+            ask();
+        }
+
+        private int[] addresses(DnsResponse response, String owner) {
+            int count = response.count(DnsSection.ANSWER);
+            int[] addresses = new int[count];
+            int found = 0;
+
+            for (int i = 0; i < count; i++) {
+                DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+                if (record.type() == DnsRecordType.A && record instanceof DnsRawRecord
+                        && normalize(record.name()).equals(owner))
+                {
+                    ByteBuf content = ((DnsRawRecord) record).content();
+                    if (content.readableBytes() == 4) {
+                        addresses[found++] = content.getInt(content.readerIndex());
+                        ttl = Math.min(ttl, record.timeToLive());
+                    }
+                }
+            }
+
+            return found == count ? addresses : Arrays.copyOf(addresses, found);
+        }
+
+        private String cname(DnsResponse response, String owner) {
+            int count = response.count(DnsSection.ANSWER);
+            for (int i = 0; i < count; i++) {
+                DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+                if (record.type() == DnsRecordType.CNAME && record instanceof DnsRawRecord
+                        && normalize(record.name()).equals(owner))
+                {
+                    ttl = Math.min(ttl, record.timeToLive());
+                    return decodeName(record);
+                }
+            }
+            return null;
+        }
+
+        private Delegation referral(DnsResponse response) {
+            String zone = null;
+            List<String> servers = new ArrayList<>();
+            long nsTtl = Integer.MAX_VALUE;
+
+            int count = response.count(DnsSection.AUTHORITY);
+            for (int i = 0; i < count; i++) {
+                DnsRecord record = response.recordAt(DnsSection.AUTHORITY, i);
+                if (record.type() != DnsRecordType.NS || !(record instanceof DnsRawRecord)) {
+                    continue;
+                }
+
+                String owner = normalize(record.name());
+                if (zone == null) {
+                    zone = owner;
+                }
+                if (owner.equals(zone)) {
+                    servers.add(decodeName(record));
+                    nsTtl = Math.min(nsTtl, record.timeToLive());
+                }
+            }
+
+            // a referral must go down the tree towards the name, anything else is lame
+            if (zone == null || zone.equals(delegation.zone())
+                    || !isWithin(zone, delegation.zone()) || !isWithin(name, zone))
+            {
+                return null;
+            }
+
+            int[] addresses = new int[0];
+            List<String> unresolved = new ArrayList<>();
+
+            for (String server : servers) {
+                // glue from outside of the zone of the answering server could poison the cache
+                int[] glue = isWithin(server, delegation.zone()) ? glue(response, server) : new int[0];
+                if (glue.length > 0) {
+                    int length = addresses.length;
+                    addresses = Arrays.copyOf(addresses, length + glue.length);
+                    System.arraycopy(glue, 0, addresses, length, glue.length);
+                } else {
+                    unresolved.add(server);
+                }
+            }
+
+            return delegations.put(zone, addresses, unresolved.toArray(new String[0]), (int) nsTtl);
+        }
+
+        private int[] glue(DnsResponse response, String server) {
+            int count = response.count(DnsSection.ADDITIONAL);
+            int[] addresses = new int[count];
+            int found = 0;
+
+            for (int i = 0; i < count; i++) {
+                DnsRecord record = response.recordAt(DnsSection.ADDITIONAL, i);
+                if (record.type() == DnsRecordType.A && record instanceof DnsRawRecord
+                        && normalize(record.name()).equals(server))
+                {
+                    ByteBuf content = ((DnsRawRecord) record).content();
+                    if (content.readableBytes() == 4) {
+                        addresses[found++] = content.getInt(content.readerIndex());
+                    }
+                }
+            }
+
+            return Arrays.copyOf(addresses, found);
+        }
+
+        private int negativeTtl(DnsResponse response) {
+            int soaTtl = soaTtl(response);
+            return (int) Math.min(ttl, Math.max(0, soaTtl));
+        }
+
+    }
+
+    public static final class Builder {
+
+        private int shards = 1;
+
+        private int port = 53;
+
+        private List<String> rootHints = ROOT_HINTS;
+
+        private long queryTimeoutMillis = 2000;
+
+        private int maxQueries = 32;
+
+        private int maxCnameChain = 8;
+
+        private long lamePenaltyMillis = TimeUnit.SECONDS.toMillis(30);
+
+        private int maxPenalties = 1 << 16;
+
+        private int maxDelegationTtl = (int) TimeUnit.DAYS.toSeconds(1);
+
+        private Clock clock = Clock.systemUTC();
+
+        private Builder() {
+        }
+
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Port of all the name servers, the glue records only carry addresses.
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * IPv4 literals of the root servers, {@link #ROOT_HINTS} by default.
+         */
+        public Builder rootHints(List<String> rootHints) {
+            this.rootHints = rootHints;
+            return this;
+        }
+
+        /**
+         * Timeout of a single query to one server, a lookup may send several.
+         */
+        public Builder queryTimeoutMillis(long queryTimeoutMillis) {
+            this.queryTimeoutMillis = queryTimeoutMillis;
+            return this;
+        }
+
+        public Builder maxQueries(int maxQueries) {
+            this.maxQueries = maxQueries;
+            return this;
+        }
+
+        public Builder maxCnameChain(int maxCnameChain) {
+            this.maxCnameChain = maxCnameChain;
+            return this;
+        }
+
+        public Builder lamePenaltyMillis(long lamePenaltyMillis) {
+            this.lamePenaltyMillis = lamePenaltyMillis;
+            return this;
+        }
+
+        /**
+         * Maximum number of servers skipped at a time, a server beyond it is asked even if it is lame.
+         */
+        public Builder maxPenalties(int maxPenalties) {
+            this.maxPenalties = maxPenalties;
+            return this;
+        }
+
+        public Builder maxDelegationTtl(int seconds) {
+            this.maxDelegationTtl = seconds;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public IterativeResolver build() {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("shards must be positive");
+            }
+            if (rootHints == null || rootHints.isEmpty()) {
+                throw new IllegalArgumentException("root hints are not set");
+            }
+            if (maxQueries <= 0) {
+                throw new IllegalArgumentException("maxQueries must be positive: " + maxQueries);
+            }
+            if (maxPenalties <= 0) {
+                throw new IllegalArgumentException("maxPenalties must be positive: " + maxPenalties);
+            }
+
+            return new IterativeResolver(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.test.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease: grows by one while the limit is actually used and nothing fails,
+ * backs off by a ratio on a timeout, a SERVFAIL or an RTT above the threshold.
+ */
+public final class AimdLimit implements Limit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final long timeoutNanos;
+
+    private volatile int limit;
+
+    private AimdLimit(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.limit = builder.initialLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        int current = limit;
+
+        if (dropped || rttNanos > timeoutNanos) {
+            limit = Math.max(minLimit, (int) (current * backoffRatio));
+        } else if (inFlight * 2 >= current) {
+            // only grow when the limit is the bottleneck, an idle pipeline says nothing about capacity
+            limit = Math.min(maxLimit, current + 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AimdLimit " + limit;
+    }
+
+    public static final class Builder {
+
+        private int initialLimit = 64;
+
+        private int minLimit = 1;
+
+        private int maxLimit = 4096;
+
+        private double backoffRatio = 0.9;
+
+        private long timeoutNanos = TimeUnit.SECONDS.toNanos(5);
+
+        private Builder() {
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public Builder timeout(long timeout, TimeUnit unit) {
+            this.timeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        public AimdLimit build() {
+            if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("Expected 0 < min <= initial <= max limit");
+            }
+
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("Backoff ratio must be in (0, 1): " + backoffRatio);
+            }
+
+            return new AimdLimit(this);
+        }
+
+    }
+
+}
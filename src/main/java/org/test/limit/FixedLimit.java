@@ -0,0 +1,30 @@
+package org.test.limit;
+
+public final class FixedLimit implements Limit {
+
+    private final int limit;
+
+    public FixedLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+
+        this.limit = limit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rttNanos, int inFlight, boolean dropped) {
+        // fixed
+    }
+
+    @Override
+    public String toString() {
+        return "FixedLimit " + limit;
+    }
+
+}
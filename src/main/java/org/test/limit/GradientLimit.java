@@ -0,0 +1,180 @@
+package org.test.limit;
+
+/**
+ * Gradient limit in the spirit of Netflix concurrency-limits Gradient2.
+ * <p>
+ * Compares a short-term RTT average with a long-term one: while they match the limit grows by a queue allowance
+ * of {@code sqrt(limit)}, when the short-term RTT rises (queueing at the upstream) the limit shrinks
+ * proportionally to {@code longRtt / shortRtt}. Timeouts and SERVFAILs back the limit off at once.
+ */
+public final class GradientLimit implements Limit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double smoothing;
+
+    private final double rttTolerance;
+
+    private final double backoffRatio;
+
+    private final double shortAlpha;
+
+    private final double longAlpha;
+
+    private double shortRtt;
+
+    private double longRtt;
+
+    private double estimatedLimit;
+
+    private volatile int limit;
+
+    private GradientLimit(Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.smoothing = builder.smoothing;
+        this.rttTolerance = builder.rttTolerance;
+        this.backoffRatio = builder.backoffRatio;
+        this.shortAlpha = 2.0 / (builder.shortWindow + 1);
+        this.longAlpha = 2.0 / (builder.longWindow + 1);
+        this.estimatedLimit = builder.initialLimit;
+        this.limit = builder.initialLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped) {
+            estimatedLimit = Math.max(minLimit, estimatedLimit * backoffRatio);
+            limit = (int) estimatedLimit;
+            return;
+        }
+
+        // a cache hit, a coalesced answer or a coarse clock measures 0, the ratios below need a positive RTT
+        rttNanos = Math.max(1, rttNanos);
+
+        if (shortRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+        } else {
+            shortRtt += shortAlpha * (rttNanos - shortRtt);
+            longRtt += longAlpha * (rttNanos - longRtt);
+        }
+
+        // the long-term average recovers faster from a past spike than the EWMA alone would
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        // an under-used limit is not evidence that more concurrency is fine
+        if (inFlight < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+        if (!Double.isFinite(newLimit)) {
+            // a NaN would pass Math.max/min and stick, the limit would be 0 for good
+            return;
+        }
+
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    public synchronized double shortRttNanos() {
+        return shortRtt;
+    }
+
+    public synchronized double longRttNanos() {
+        return longRtt;
+    }
+
+    @Override
+    public String toString() {
+        return "GradientLimit " + limit;
+    }
+
+    public static final class Builder {
+
+        private int initialLimit = 64;
+
+        private int minLimit = 1;
+
+        private int maxLimit = 4096;
+
+        private double smoothing = 0.2;
+
+        private double rttTolerance = 1.5;
+
+        private double backoffRatio = 0.9;
+
+        private int shortWindow = 10;
+
+        private int longWindow = 600;
+
+        private Builder() {
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder smoothing(double smoothing) {
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        public Builder rttTolerance(double rttTolerance) {
+            this.rttTolerance = rttTolerance;
+            return this;
+        }
+
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public Builder windows(int shortWindow, int longWindow) {
+            this.shortWindow = shortWindow;
+            this.longWindow = longWindow;
+            return this;
+        }
+
+        public GradientLimit build() {
+            if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("Expected 0 < min <= initial <= max limit");
+            }
+
+            if (rttTolerance < 1) {
+                throw new IllegalArgumentException("RTT tolerance must be at least 1: " + rttTolerance);
+            }
+
+            return new GradientLimit(this);
+        }
+
+    }
+
+}
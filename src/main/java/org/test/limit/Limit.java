@@ -0,0 +1,18 @@
+package org.test.limit;
+
+/**
+ * Concurrency limit driven by the outcome of every finished request.
+ * Implementations must be thread safe, samples arrive from many threads.
+ */
+public interface Limit {
+
+    int getLimit();
+
+    /**
+     * @param rttNanos round trip time of the finished request
+     * @param inFlight number of requests in flight when the request was finished
+     * @param dropped  {@code true} if the request timed out or was rejected (e.g. SERVFAIL)
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+
+}
@@ -0,0 +1,149 @@
+package org.test.limit;
+
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the number of queries in flight to one upstream under an adaptive {@link Limit},
+ * queries above the limit wait in a bounded FIFO queue.
+ */
+public class LimitedResolver implements AsyncResolver {
+
+    private final AsyncResolver upstream;
+
+    private final Limit limit;
+
+    private final int maxQueued;
+
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+
+    private int inFlight;
+
+    // set while one thread sends the queued queries, the others leave the queue to it
+    private boolean draining;
+
+    public LimitedResolver(AsyncResolver upstream, Limit limit, int maxQueued) {
+        this.upstream = upstream;
+        this.limit = limit;
+        this.maxQueued = maxQueued;
+    }
+
+    public Limit limit() {
+        return limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return queue.size();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        synchronized (this) {
+            if (inFlight >= limit.getLimit()) {
+                if (queue.size() >= maxQueued) {
+                    return Futures.failed(new RejectedExecutionException(
+                            "Too many queued queries: " + queue.size()));
+                }
+
+                Pending pending = new Pending(domain);
+                queue.add(pending);
+                return pending.result;
+            }
+
+            inFlight++;
+        }
+
+        CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+        send(domain, result);
+        return result;
+    }
+
+    private void send(String domain, CompletableFuture<DnsAnswer> result) {
+        long started = System.nanoTime();
+
+        CompletableFuture<DnsAnswer> future;
+        try {
+            future = upstream.query(domain);
+        } catch (RuntimeException e) {
+            future = Futures.failed(e);
+        }
+
+        future.whenComplete((answer, ex) -> {
+            boolean dropped = ex != null || answer.rcode() == DnsAnswer.SERVFAIL;
+
+            synchronized (this) {
+                limit.onSample(System.nanoTime() - started, inFlight, dropped);
+                inFlight--;
+            }
+
+            if (ex != null) {
+                result.completeExceptionally(Futures.unwrap(ex));
+            } else {
+                result.complete(answer);
+            }
+
+            drain();
+        });
+    }
+
+    private void drain() {
+        // an upstream answering synchronously, e.g. from a cache, completes inside send();
+        // the nested drain() returns at once and this loop sends the next query, so the stack stays flat
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                next = poll();
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            send(next.domain, next.result);
+        }
+    }
+
+    private Pending poll() {
+        // takes a free slot for the returned query; cancelled queries are skipped
+        while (inFlight < limit.getLimit()) {
+            Pending pending = queue.poll();
+            if (pending == null) {
+                return null;
+            }
+            if (!pending.result.isDone()) {
+                inFlight++;
+                return pending;
+            }
+        }
+        return null;
+    }
+
+    private static final class Pending {
+
+        private final String domain;
+
+        private final CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+
+        private Pending(String domain) {
+            this.domain = domain;
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+package org.test.limit;
+
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the query rate to every upstream, and to all of them together, under a {@link TokenBucket},
+ * so that public resolvers which silently drop clients above their rate limit never see us above it.
+ * <p>
+ * A query goes to the first upstream with a token at hand. When every bucket is dry, the query reserves
+ * the token of the upstream which frees up first and waits for it on the scheduler, an event loop
+ * in practice, so the sends are spread evenly instead of bursting. A query which would wait longer than
+ * {@code maxDelayMillis} everywhere is rejected with {@link RejectedExecutionException} right away.
+ */
+public class PacedResolver implements AsyncResolver {
+
+    private final ScheduledExecutorService scheduler;
+
+    private final List<Upstream> upstreams;
+
+    private final TokenBucket global;
+
+    private final long maxDelayNanos;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private PacedResolver(Builder builder) {
+        this.scheduler = builder.scheduler;
+        this.upstreams = Collections.unmodifiableList(new ArrayList<>(builder.upstreams));
+        this.global = builder.global;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxDelayMillis);
+    }
+
+    public static Builder builder(ScheduledExecutorService scheduler) {
+        return new Builder(scheduler);
+    }
+
+    public List<Upstream> upstreams() {
+        return upstreams;
+    }
+
+    /**
+     * @return the number of queries rejected because every bucket was dry for longer than the max delay
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        long now = System.nanoTime();
+
+        long globalDelay = 0;
+        if (global != null) {
+            globalDelay = global.reserve(now, maxDelayNanos);
+            if (globalDelay < 0) {
+                return reject();
+            }
+        }
+
+        // in the order of preference, the first upstream with a token right now
+        for (int i = 0; i < upstreams.size(); i++) {
+            Upstream upstream = upstreams.get(i);
+            if (upstream.bucket.tryAcquire(now)) {
+                return send(upstream, domain, globalDelay, i > 0);
+            }
+        }
+
+        // every bucket is dry, the query waits for the one which frees up first
+        Upstream soonest = null;
+        long soonestWait = Long.MAX_VALUE;
+        for (Upstream upstream : upstreams) {
+            long wait = upstream.bucket.waitNanos(now);
+            if (wait < soonestWait) {
+                soonest = upstream;
+                soonestWait = wait;
+            }
+        }
+
+        long delay = soonest.bucket.reserve(now, maxDelayNanos);
+        if (delay < 0) {
+            if (global != null) {
+                global.refund();
+            }
+            return reject();
+        }
+
+        return send(soonest, domain, Math.max(delay, globalDelay), soonest != upstreams.get(0));
+    }
+
+    private CompletableFuture<DnsAnswer> send(Upstream upstream, String domain, long delayNanos, boolean spilled) {
+        if (spilled) {
+            upstream.spilled.increment();
+        }
+
+        if (delayNanos == 0) {
+            upstream.sent.increment();
+            return upstream.resolver.query(domain);
+        }
+
+        upstream.delayed.increment();
+
+        CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+        scheduler.schedule(() -> {
+            // a cancelled query gives its token to nobody, the rate stays below the limit anyway
+            if (result.isDone()) {
+                return;
+            }
+
+            upstream.sent.increment();
+
+            // nobody would see a throw on the scheduler, the result has to fail instead
+            CompletableFuture<DnsAnswer> future;
+            try {
+                future = upstream.resolver.query(domain);
+            } catch (RuntimeException e) {
+                future = Futures.failed(e);
+            }
+
+            future.whenComplete((answer, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(Futures.unwrap(ex));
+                } else {
+                    result.complete(answer);
+                }
+            });
+        }, delayNanos, TimeUnit.NANOSECONDS);
+
+        return result;
+    }
+
+    private CompletableFuture<DnsAnswer> reject() {
+        rejected.increment();
+        return Futures.failed(new RejectedExecutionException("Rate limit of every upstream is exhausted"));
+    }
+
+    public static final class Upstream {
+
+        private final String label;
+
+        private final AsyncResolver resolver;
+
+        private final TokenBucket bucket;
+
+        private final LongAdder sent = new LongAdder();
+
+        private final LongAdder delayed = new LongAdder();
+
+        private final LongAdder spilled = new LongAdder();
+
+        private Upstream(String label, AsyncResolver resolver, TokenBucket bucket) {
+            this.label = label;
+            this.resolver = resolver;
+            this.bucket = bucket;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public TokenBucket bucket() {
+            return bucket;
+        }
+
+        public long sent() {
+            return sent.sum();
+        }
+
+        /**
+         * @return the number of queries which waited for a token
+         */
+        public long delayed() {
+            return delayed.sum();
+        }
+
+        /**
+         * @return the number of queries which came here because the preferred upstreams were dry
+         */
+        public long spilled() {
+            return spilled.sum();
+        }
+
+        @Override
+        public String toString() {
+            return label + " sent " + sent() + ", delayed " + delayed() + ", spilled " + spilled();
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final ScheduledExecutorService scheduler;
+
+        private final List<Upstream> upstreams = new ArrayList<>();
+
+        private TokenBucket global;
+
+        private long maxDelayMillis = 1000;
+
+        private Builder(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        /**
+         * Adds an upstream, in the order of preference.
+         *
+         * @param perSecond the rate the upstream tolerates from one client
+         * @param burst     the number of queries sent back to back before the pacing starts
+         */
+        public Builder upstream(String label, AsyncResolver resolver, double perSecond, int burst) {
+            upstreams.add(new Upstream(label, resolver, new TokenBucket(perSecond, burst)));
+            return this;
+        }
+
+        /**
+         * Caps the rate of all the upstreams together, e.g. to stay under the uplink or a NAT table.
+         */
+        public Builder global(double perSecond, int burst) {
+            this.global = new TokenBucket(perSecond, burst);
+            return this;
+        }
+
+        /**
+         * The longest a query waits for a token before it is rejected.
+         */
+        public Builder maxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        public PacedResolver build() {
+            if (scheduler == null) {
+                throw new IllegalArgumentException("scheduler is required");
+            }
+            if (upstreams.isEmpty()) {
+                throw new IllegalArgumentException("no upstreams");
+            }
+            if (maxDelayMillis < 0) {
+                throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+            }
+
+            return new PacedResolver(this);
+        }
+
+    }
+
+}
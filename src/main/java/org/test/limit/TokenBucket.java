@@ -0,0 +1,93 @@
+package org.test.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket of {@code perSecond} tokens and {@code burst} capacity.
+ * <p>
+ * The bucket is kept as a single theoretical arrival time (GCRA): a token is the interval between two sends,
+ * the bucket is full while the arrival time lags {@code burst} intervals behind the clock. Taking a token
+ * is one CAS, so any number of threads share a bucket without a lock. A token can be reserved ahead,
+ * the caller waits for the returned delay before sending, which spreads a burst evenly over time.
+ */
+public final class TokenBucket {
+
+    private final double perSecond;
+
+    private final long intervalNanos;
+
+    // how far ahead of the clock the arrival time may run, (burst - 1) intervals
+    private final long toleranceNanos;
+
+    private final AtomicLong arrival;
+
+    public TokenBucket(double perSecond, int burst) {
+        if (perSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + perSecond);
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst must be positive: " + burst);
+        }
+
+        this.perSecond = perSecond;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.toleranceNanos = (burst - 1) * intervalNanos;
+        this.arrival = new AtomicLong(System.nanoTime());
+    }
+
+    public double perSecond() {
+        return perSecond;
+    }
+
+    /**
+     * Takes a token if one is available right now.
+     */
+    public boolean tryAcquire(long nowNanos) {
+        return reserve(nowNanos, 0) == 0;
+    }
+
+    /**
+     * Takes the next token, which may only become available in the future.
+     *
+     * @return the delay until the token is available, or -1 without taking it if the delay is above
+     * {@code maxDelayNanos}
+     */
+    public long reserve(long nowNanos, long maxDelayNanos) {
+        while (true) {
+            long current = arrival.get();
+            long start = current - nowNanos > 0 ? current : nowNanos;
+
+            long delay = Math.max(0, start - nowNanos - toleranceNanos);
+            if (delay > maxDelayNanos) {
+                return -1;
+            }
+
+            if (arrival.compareAndSet(current, start + intervalNanos)) {
+                return delay;
+            }
+        }
+    }
+
+    /**
+     * @return the delay of the next token without taking it
+     */
+    public long waitNanos(long nowNanos) {
+        long current = arrival.get();
+        long start = current - nowNanos > 0 ? current : nowNanos;
+        return Math.max(0, start - nowNanos - toleranceNanos);
+    }
+
+    /**
+     * Gives back a token taken by {@link #reserve(long, long)} which was not used.
+     */
+    public void refund() {
+        arrival.addAndGet(-intervalNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket " + perSecond + "/s";
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.test.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution in microseconds. Recording is wait-free and allocation-free, so it is safe on
+ * an event loop, the readers swap the recording buffers and merge them under the histogram lock.
+ */
+public class LatencyHistogram {
+
+    // 1 us .. 1 minute with 2 significant digits is about 10KB per buffer
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final int DIGITS = 2;
+
+    private final Recorder recorder = new Recorder(MAX_MICROS, DIGITS);
+
+    private final Histogram total = new Histogram(MAX_MICROS, DIGITS);
+
+    private final Histogram interval = new Histogram(MAX_MICROS, DIGITS);
+
+    private Histogram recycled;
+
+    public void record(long nanos) {
+        recorder.recordValue(Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_MICROS));
+    }
+
+    public synchronized long count() {
+        drain();
+        return total.getTotalCount();
+    }
+
+    public synchronized double meanMicros() {
+        drain();
+        return total.getMean();
+    }
+
+    public synchronized long percentileMicros(double percentile) {
+        drain();
+        return total.getValueAtPercentile(percentile);
+    }
+
+    public synchronized long maxMicros() {
+        drain();
+        return total.getMaxValue();
+    }
+
+    /**
+     * @return a copy of everything recorded since the start
+     */
+    public synchronized Histogram total() {
+        drain();
+        return total.copy();
+    }
+
+    /**
+     * @return what has been recorded since the previous call
+     */
+    public synchronized Histogram takeInterval() {
+        drain();
+        Histogram result = interval.copy();
+        interval.reset();
+        return result;
+    }
+
+    private void drain() {
+        recycled = recorder.getIntervalHistogram(recycled);
+        total.add(recycled);
+        interval.add(recycled);
+    }
+
+}
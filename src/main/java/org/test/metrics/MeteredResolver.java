@@ -0,0 +1,53 @@
+package org.test.metrics;
+
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records the latency and the outcome of every query into {@link ResolverMetrics}.
+ * The future of the upstream resolver is returned as is, so cancellation still reaches the upstream.
+ */
+public class MeteredResolver implements AsyncResolver {
+
+    private final AsyncResolver upstream;
+
+    private final ResolverMetrics metrics;
+
+    public MeteredResolver(AsyncResolver upstream, ResolverMetrics metrics) {
+        this.upstream = upstream;
+        this.metrics = metrics;
+    }
+
+    public ResolverMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        long started = metrics.onStart();
+
+        CompletableFuture<DnsAnswer> future;
+        try {
+            future = upstream.query(domain);
+        } catch (RuntimeException e) {
+            metrics.onFailure(started, e);
+            throw e;
+        }
+
+        future.whenComplete((answer, ex) -> {
+            if (ex == null) {
+                metrics.onAnswer(started, answer.rcode());
+            } else if (ex instanceof CancellationException) {
+                metrics.onCancel();
+            } else {
+                metrics.onFailure(started, ex);
+            }
+        });
+
+        return future;
+    }
+
+}
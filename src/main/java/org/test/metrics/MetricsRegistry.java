@@ -0,0 +1,123 @@
+package org.test.metrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the {@link ResolverMetrics} of the resolver strategies and of their upstreams, registers them
+ * as MXBeans under {@link #JMX_DOMAIN} and optionally logs their snapshots periodically.
+ */
+public class MetricsRegistry implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public static final String JMX_DOMAIN = "org.test.dns";
+
+    private final MBeanServer server;
+
+    private final ConcurrentMap<ObjectName, ResolverMetrics> metrics = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    public MetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * @param server where to register the MXBeans, null to keep the metrics out of JMX
+     */
+    public MetricsRegistry(MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @return the metrics of the resolver strategy, created on the first call
+     */
+    public ResolverMetrics resolver(String name) {
+        return metrics(name, "type=Resolver,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * @return the metrics of one upstream server of the resolver strategy, created on the first call
+     */
+    public ResolverMetrics upstream(String resolver, String upstream) {
+        return metrics(resolver + " -> " + upstream,
+                "type=Upstream,resolver=" + ObjectName.quote(resolver) + ",name=" + ObjectName.quote(upstream));
+    }
+
+    public Collection<ResolverMetrics> all() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    public void logSnapshot() {
+        for (ResolverMetrics m : metrics.values()) {
+            LOGGER.info("{}", m.snapshot());
+        }
+    }
+
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        if (reporter != null) {
+            throw new IllegalStateException("Already reporting");
+        }
+
+        reporter = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("DNS metrics", true));
+        reporter.scheduleAtFixedRate(this::logSnapshot, period, period, unit);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+
+        for (Map.Entry<ObjectName, ResolverMetrics> entry : metrics.entrySet()) {
+            if (server != null) {
+                try {
+                    server.unregisterMBean(entry.getKey());
+                } catch (JMException e) {
+                    LOGGER.debug("Failed to unregister {}", entry.getKey(), e);
+                }
+            }
+        }
+        metrics.clear();
+    }
+
+    private ResolverMetrics metrics(String name, String properties) {
+        ObjectName objectName;
+        try {
+            objectName = new ObjectName(JMX_DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid metrics name " + name, e);
+        }
+
+        return metrics.computeIfAbsent(objectName, key -> register(key, new ResolverMetrics(name)));
+    }
+
+    private ResolverMetrics register(ObjectName objectName, ResolverMetrics m) {
+        if (server != null) {
+            try {
+                server.registerMBean(m, objectName);
+            } catch (JMException e) {
+                // another registry of the same JVM owns the name, the metrics still work without JMX
+                LOGGER.warn("Failed to register {}: {}", objectName, e.toString());
+            }
+        }
+        return m;
+    }
+
+}
@@ -0,0 +1,250 @@
+package org.test.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.test.cache.DnsCache;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+import org.test.wire.WireException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distribution and counters of one resolver strategy or one upstream.
+ * <p>
+ * The recording methods only touch {@link LongAdder}s and a {@link LatencyHistogram}, they neither lock
+ * nor allocate and may be called on an event loop.
+ */
+public class ResolverMetrics implements ResolverMetricsMXBean {
+
+    private static final String[] RCODE_NAMES = { "NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED" };
+
+    private final String name;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder queries = new LongAdder();
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder truncated = new LongAdder();
+
+    private final LongAdder tcpFallbacks = new LongAdder();
+
+    private final LongAdder[] rcodes = new LongAdder[16];
+
+    private volatile DnsCache cache;
+
+    public ResolverMetrics(String name) {
+        this.name = name;
+
+        for (int i = 0; i < rcodes.length; i++) {
+            rcodes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Reports the hit ratio of the cache along with the other metrics.
+     */
+    public ResolverMetrics cache(DnsCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    /**
+     * @return the start timestamp to pass to the completion methods
+     */
+    public long onStart() {
+        queries.increment();
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void onAnswer(long startNanos, int rcode) {
+        inFlight.decrement();
+        latency.record(System.nanoTime() - startNanos);
+        rcodes[rcode & 0xF].increment();
+    }
+
+    public void onFailure(long startNanos, Throwable cause) {
+        inFlight.decrement();
+        latency.record(System.nanoTime() - startNanos);
+        failures.increment();
+
+        Throwable ex = Futures.unwrap(cause);
+        if (Futures.isTimeout(ex)) {
+            timeouts.increment();
+        } else if (ex == WireException.TRUNCATED) {
+            truncated.increment();
+        }
+    }
+
+    /**
+     * A cancelled query has no outcome, it only leaves the in-flight count.
+     */
+    public void onCancel() {
+        inFlight.decrement();
+    }
+
+    public void onRetry() {
+        retries.increment();
+    }
+
+    public void onTruncated() {
+        truncated.increment();
+    }
+
+    public void onTcpFallback() {
+        tcpFallbacks.increment();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getTruncated() {
+        return truncated.sum();
+    }
+
+    @Override
+    public long getTcpFallbacks() {
+        return tcpFallbacks.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        DnsCache cache = this.cache;
+        if (cache == null) {
+            return -1;
+        }
+
+        long hits = cache.hits();
+        long total = hits + cache.misses();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    @Override
+    public Map<String, Long> getRcodes() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < rcodes.length; i++) {
+            long count = rcodes[i].sum();
+            if (count > 0) {
+                result.put(rcodeName(i), count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double getLatencyMeanMicros() {
+        return latency.meanMicros();
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return latency.percentileMicros(50);
+    }
+
+    @Override
+    public long getLatencyP90Micros() {
+        return latency.percentileMicros(90);
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return latency.percentileMicros(99);
+    }
+
+    @Override
+    public long getLatencyP999Micros() {
+        return latency.percentileMicros(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return latency.maxMicros();
+    }
+
+    /**
+     * @return a one-line summary with the totals and the latencies recorded since the previous snapshot
+     */
+    public String snapshot() {
+        return format(latency.takeInterval());
+    }
+
+    /**
+     * @return a one-line summary with the totals and all the latencies, does not affect {@link #snapshot()}
+     */
+    public String summary() {
+        return format(latency.total());
+    }
+
+    private String format(Histogram histogram) {
+        StringBuilder sb = new StringBuilder(256)
+                .append(name)
+                .append(": queries ").append(getQueries())
+                .append(", in flight ").append(getInFlight())
+                .append(", failures ").append(getFailures())
+                .append(", timeouts ").append(getTimeouts())
+                .append(", retries ").append(getRetries())
+                .append(", truncated ").append(getTruncated())
+                .append(", tcp ").append(getTcpFallbacks())
+                .append(", rcodes ").append(getRcodes());
+
+        double hitRatio = getCacheHitRatio();
+        if (hitRatio >= 0) {
+            sb.append(", cache hits ").append(String.format("%.1f%%", hitRatio * 100));
+        }
+
+        return sb.append(", latency us (").append(histogram.getTotalCount()).append(" samples)")
+                .append(" p50 ").append(histogram.getValueAtPercentile(50))
+                .append(" p90 ").append(histogram.getValueAtPercentile(90))
+                .append(" p99 ").append(histogram.getValueAtPercentile(99))
+                .append(" p99.9 ").append(histogram.getValueAtPercentile(99.9))
+                .append(" max ").append(histogram.getMaxValue())
+                .toString();
+    }
+
+    private static String rcodeName(int rcode) {
+        return rcode < RCODE_NAMES.length ? RCODE_NAMES[rcode] : "RCODE" + rcode;
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.test.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ResolverMetrics}. Counters are totals since the start, latencies are in microseconds.
+ */
+public interface ResolverMetricsMXBean {
+
+    String getName();
+
+    long getQueries();
+
+    long getInFlight();
+
+    long getFailures();
+
+    long getTimeouts();
+
+    long getRetries();
+
+    long getTruncated();
+
+    long getTcpFallbacks();
+
+    /**
+     * @return the hit ratio of the attached cache, or -1 without a cache
+     */
+    double getCacheHitRatio();
+
+    Map<String, Long> getRcodes();
+
+    double getLatencyMeanMicros();
+
+    long getLatencyP50Micros();
+
+    long getLatencyP90Micros();
+
+    long getLatencyP99Micros();
+
+    long getLatencyP999Micros();
+
+    long getLatencyMaxMicros();
+
+}
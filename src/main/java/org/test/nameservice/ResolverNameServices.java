@@ -0,0 +1,151 @@
+package org.test.nameservice;
+
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import org.test.cache.CachingResolver;
+import org.test.cache.DnsCache;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.ShardedResolver;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The resolver behind the JVM-wide name service providers, created on the first lookup and shared by them.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code org.test.dns.server} - {@code host:port} of the name server, resolv.conf by default</li>
+ *     <li>{@code org.test.dns.timeoutMillis} - lookup timeout, 5000 by default</li>
+ *     <li>{@code org.test.dns.shards} - event loops of the resolver, 2 by default</li>
+ *     <li>{@code org.test.dns.cacheBytes} - memory of the cache, 16MB by default</li>
+ *     <li>{@code org.test.dns.provider} - {@code netty} turns on the Java 18+ provider, which the JDK loads
+ *     from the classpath by itself</li>
+ * </ul>
+ * The server is an IP literal so that the configuration itself never needs a lookup.
+ */
+public final class ResolverNameServices {
+
+    public static final String PROPERTY_SERVER = "org.test.dns.server";
+
+    public static final String PROPERTY_TIMEOUT = "org.test.dns.timeoutMillis";
+
+    public static final String PROPERTY_SHARDS = "org.test.dns.shards";
+
+    public static final String PROPERTY_CACHE_BYTES = "org.test.dns.cacheBytes";
+
+    public static final String PROPERTY_PROVIDER = "org.test.dns.provider";
+
+    private static volatile ResolverNameServices instance;
+
+    // guarded by the class monitor, set while the resolver is being created
+    private static boolean initializing;
+
+    private final ShardedResolver sharded;
+
+    private final CachingResolver resolver;
+
+    private final long timeoutMillis;
+
+    private ResolverNameServices() {
+        timeoutMillis = Long.getLong(PROPERTY_TIMEOUT, TimeUnit.SECONDS.toMillis(5));
+
+        ShardedResolver.Builder builder = ShardedResolver.builder()
+                .shards(Integer.getInteger(PROPERTY_SHARDS, 2))
+                .queryTimeoutMillis(timeoutMillis);
+
+        String server = System.getProperty(PROPERTY_SERVER);
+        if (server != null) {
+            builder.server(parseServer(server));
+        } else {
+            builder.nameServerProvider(DnsServerAddressStreamProviders.platformDefault());
+        }
+
+        sharded = builder.build();
+
+        DnsCache cache = DnsCache.builder()
+                .memoryBudget(Long.getLong(PROPERTY_CACHE_BYTES, 16L * 1024 * 1024))
+                .build();
+
+        resolver = new CachingResolver(cache, sharded);
+    }
+
+    /**
+     * @throws UnknownHostException when called by a lookup made while the resolver itself is being created,
+     *                              the JVM then moves on to the next provider instead of recursing
+     */
+    public static ResolverNameServices get() throws UnknownHostException {
+        ResolverNameServices result = instance;
+        if (result == null) {
+            synchronized (ResolverNameServices.class) {
+                result = instance;
+                if (result == null) {
+                    if (initializing) {
+                        throw new UnknownHostException("The resolver is being initialized");
+                    }
+
+                    initializing = true;
+                    try {
+                        result = new ResolverNameServices();
+                        instance = result;
+                    } finally {
+                        initializing = false;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public CachingResolver resolver() {
+        return resolver;
+    }
+
+    public long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Blocks until the lookup completes or times out, every failure is an {@link UnknownHostException}
+     * so that the JVM moves on to the next provider.
+     */
+    public InetAddress[] lookup(String host) throws UnknownHostException {
+        if (sharded.inEventLoop()) {
+            // a lookup from a callback of the resolver itself would wait for its own event loop
+            throw new UnknownHostException("Can't resolve " + host + " - called from the resolver event loop");
+        }
+
+        DnsAnswer answer;
+        try {
+            answer = resolver.query(host).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unknownHost(host, e);
+        } catch (ExecutionException e) {
+            throw unknownHost(host, e.getCause());
+        } catch (TimeoutException e) {
+            throw unknownHost(host, e);
+        }
+
+        return answer.allAddresses();
+    }
+
+    private static UnknownHostException unknownHost(String host, Throwable cause) {
+        UnknownHostException ex = new UnknownHostException("Can't resolve " + host + " - " + cause);
+        ex.initCause(cause);
+        return ex;
+    }
+
+    private static InetSocketAddress parseServer(String server) {
+        int colon = server.lastIndexOf(':');
+        if (colon < 0 || server.indexOf(':') != colon) {
+            // no port, or a bare IPv6 literal
+            return new InetSocketAddress(server, 53);
+        }
+        return new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.test.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+@FunctionalInterface
+public interface AsyncResolver {
+
+    /**
+     * Looks up A records of the domain. Negative answers (NXDOMAIN, SERVFAIL, ...) complete normally,
+     * only transport failures (timeouts, I/O errors) complete the future exceptionally.
+     */
+    CompletableFuture<DnsAnswer> query(String domain);
+
+    default CompletableFuture<InetAddress> resolve(String domain) {
+        return query(domain).thenApply(answer -> {
+            try {
+                return answer.firstAddress();
+            } catch (UnknownHostException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.test.resolver;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shares one upstream query between the concurrent lookups of the same name, see {@link SingleFlight}.
+ * Names differing only in case or in the trailing dot are the same lookup.
+ */
+public class CoalescingResolver implements AsyncResolver {
+
+    // AsyncResolver only looks up A records
+    private static final int TYPE_A = 1;
+
+    private final SingleFlight<Key, DnsAnswer> flights = new SingleFlight<>();
+
+    private final AsyncResolver upstream;
+
+    public CoalescingResolver(AsyncResolver upstream) {
+        this.upstream = upstream;
+    }
+
+    public SingleFlight<?, DnsAnswer> flights() {
+        return flights;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        return flights.submit(new Key(normalize(domain), TYPE_A), () -> upstream.query(domain));
+    }
+
+    static String normalize(String domain) {
+        String name = domain.toLowerCase(Locale.ROOT);
+        int length = name.length();
+        return length > 1 && name.charAt(length - 1) == '.' ? name.substring(0, length - 1) : name;
+    }
+
+    private static final class Key {
+
+        private final String name;
+
+        private final int type;
+
+        private Key(String name, int type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return type == key.type && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + type;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package org.test.resolver;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Outcome of an A lookup: the response code, the TTL and the IPv4 addresses packed into ints.
+ * For negative answers the TTL is the negative caching TTL from the SOA record (RFC 2308) or 0.
+ * <p>
+ * An AAAA or a dual-stack lookup also carries IPv6 addresses, packed into two longs each (high and low
+ * 64 bits), so no {@code InetAddress} is created until somebody asks for one.
+ */
+public final class DnsAnswer {
+
+    public static final int NOERROR = 0;
+
+    public static final int FORMERR = 1;
+
+    public static final int SERVFAIL = 2;
+
+    public static final int NXDOMAIN = 3;
+
+    public static final int NOTIMP = 4;
+
+    public static final int REFUSED = 5;
+
+    private static final int[] NO_ADDRESSES = new int[0];
+
+    private static final long[] NO_IPV6 = new long[0];
+
+    private final String name;
+
+    private final int rcode;
+
+    private final int ttl;
+
+    private final int[] addresses;
+
+    private final long[] ipv6;
+
+    public DnsAnswer(String name, int rcode, int ttl, int[] addresses) {
+        this(name, rcode, ttl, addresses, NO_IPV6);
+    }
+
+    /**
+     * @param ipv6 IPv6 addresses as pairs of the high and the low 64 bits
+     */
+    public DnsAnswer(String name, int rcode, int ttl, int[] addresses, long[] ipv6) {
+        if (ipv6 != null && ipv6.length % 2 != 0) {
+            throw new IllegalArgumentException("IPv6 addresses come in pairs of longs: " + ipv6.length);
+        }
+
+        this.name = name;
+        this.rcode = rcode;
+        this.ttl = ttl;
+        this.addresses = addresses != null ? addresses : NO_ADDRESSES;
+        this.ipv6 = ipv6 != null ? ipv6 : NO_IPV6;
+    }
+
+    public static DnsAnswer negative(String name, int rcode, int ttl) {
+        return new DnsAnswer(name, rcode, ttl, NO_ADDRESSES);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int rcode() {
+        return rcode;
+    }
+
+    public int ttl() {
+        return ttl;
+    }
+
+    /**
+     * @return the IPv4 addresses
+     */
+    public int[] addresses() {
+        return addresses;
+    }
+
+    /**
+     * @return the IPv6 addresses, two longs per address
+     */
+    public long[] ipv6() {
+        return ipv6;
+    }
+
+    public int ipv6Count() {
+        return ipv6.length / 2;
+    }
+
+    public boolean isResolved() {
+        return rcode == NOERROR && (addresses.length > 0 || ipv6.length > 0);
+    }
+
+    public InetAddress firstAddress() throws UnknownHostException {
+        if (!isResolved()) {
+            throw new UnknownHostException("Can't resolve " + name + " - " + rcodeName(rcode));
+        }
+
+        return addresses.length > 0 ? toInetAddress(name, addresses[0]) : toInet6Address(name, ipv6[0], ipv6[1]);
+    }
+
+    public InetAddress[] allAddresses() throws UnknownHostException {
+        if (!isResolved()) {
+            throw new UnknownHostException("Can't resolve " + name + " - " + rcodeName(rcode));
+        }
+
+        InetAddress[] result = new InetAddress[addresses.length + ipv6Count()];
+        for (int i = 0; i < addresses.length; i++) {
+            result[i] = toInetAddress(name, addresses[i]);
+        }
+        for (int i = 0; i < ipv6Count(); i++) {
+            result[addresses.length + i] = toInet6Address(name, ipv6[2 * i], ipv6[2 * i + 1]);
+        }
+
+        return result;
+    }
+
+    public static InetAddress toInetAddress(String name, int address) throws UnknownHostException {
+        byte[] bytes = {
+                (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address
+        };
+        return InetAddress.getByAddress(name, bytes);
+    }
+
+    public static InetAddress toInet6Address(String name, long high, long low) throws UnknownHostException {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        // getByAddress would turn an IPv4-mapped address into an Inet4Address
+        return Inet6Address.getByAddress(name, bytes, -1);
+    }
+
+    public static int toInt(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    public static String rcodeName(int rcode) {
+        switch (rcode) {
+            case NOERROR:
+                return "NOERROR";
+            case FORMERR:
+                return "FORMERR";
+            case SERVFAIL:
+                return "SERVFAIL";
+            case NXDOMAIN:
+                return "NXDOMAIN";
+            case NOTIMP:
+                return "NOTIMP";
+            case REFUSED:
+                return "REFUSED";
+            default:
+                return "RCODE" + rcode;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(' ').append(rcodeName(rcode)).append(" ttl=").append(ttl);
+        for (int address : addresses) {
+            sb.append(' ')
+                    .append(address >>> 24).append('.')
+                    .append((address >>> 16) & 0xFF).append('.')
+                    .append((address >>> 8) & 0xFF).append('.')
+                    .append(address & 0xFF);
+        }
+        for (int i = 0; i < ipv6Count(); i++) {
+            try {
+                sb.append(' ').append(toInet6Address(null, ipv6[2 * i], ipv6[2 * i + 1]).getHostAddress());
+            } catch (UnknownHostException e) {
+                // never thrown for 16 bytes
+                throw new IllegalStateException(e);
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.test.resolver;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends single A queries through a dnsjava {@link Resolver} (UDP or TCP {@code SimpleResolver}).
+ * Note that dnsjava implements {@link Resolver#sendAsync} with a thread per query.
+ */
+public class DnsJavaResolver implements AsyncResolver {
+
+    private final Resolver resolver;
+
+    public DnsJavaResolver(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        Message query;
+        try {
+            query = Message.newQuery(Record.newRecord(Name.fromString(domain, Name.root), Type.A, DClass.IN));
+        } catch (TextParseException e) {
+            return Futures.failed(e);
+        }
+
+        CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+
+        resolver.sendAsync(query, new ResolverListener() {
+            @Override
+            public void receiveMessage(Object id, Message message) {
+                result.complete(toAnswer(domain, message));
+            }
+
+            @Override
+            public void handleException(Object id, Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    static DnsAnswer toAnswer(String domain, Message message) {
+        int rcode = message.getRcode();
+
+        Record[] answers = message.getSectionArray(Section.ANSWER);
+        int[] addresses = new int[answers.length];
+        int found = 0;
+        long ttl = Integer.MAX_VALUE;
+
+        for (Record record : answers) {
+            if (record instanceof ARecord) {
+                addresses[found++] = DnsAnswer.toInt(((ARecord) record).getAddress());
+                ttl = Math.min(ttl, record.getTTL());
+            }
+        }
+
+        if (found > 0) {
+            if (found < addresses.length) {
+                int[] trimmed = new int[found];
+                System.arraycopy(addresses, 0, trimmed, 0, found);
+                addresses = trimmed;
+            }
+            return new DnsAnswer(domain, rcode, (int) ttl, addresses);
+        }
+
+        for (Record record : message.getSectionArray(Section.AUTHORITY)) {
+            if (record instanceof SOARecord) {
+                long negativeTtl = Math.min(record.getTTL(), ((SOARecord) record).getMinimum());
+                return DnsAnswer.negative(domain, rcode, (int) negativeTtl);
+            }
+        }
+
+        return DnsAnswer.negative(domain, rcode, 0);
+    }
+
+}
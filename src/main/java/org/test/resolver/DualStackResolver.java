@@ -0,0 +1,275 @@
+package org.test.resolver;
+
+import org.test.cache.DnsCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Looks up A and AAAA records in parallel and answers with both families, in the spirit of Happy Eyeballs
+ * (RFC 8305): the lookup completes as soon as the preferred family has addresses, and when the other family
+ * answers first, it waits for the preferred one no longer than the resolution delay.
+ * <p>
+ * So a dual-stack lookup costs the latency of the slower family only while it is within the delay.
+ * The family which comes too late still lands in the cache: once both queries are done, the merged answer
+ * replaces whatever the cache held, and the next lookup of the name is a hit with both families.
+ */
+public class DualStackResolver implements AsyncResolver {
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AsyncResolver ipv4;
+
+    private final AsyncResolver ipv6;
+
+    private final DnsCache cache;
+
+    private final boolean preferIpv6;
+
+    private final long resolutionDelayNanos;
+
+    private final LongAdder early = new LongAdder();
+
+    private final LongAdder delayed = new LongAdder();
+
+    private DualStackResolver(Builder builder) {
+        this.scheduler = builder.scheduler;
+        this.ipv4 = builder.ipv4;
+        this.ipv6 = builder.ipv6;
+        this.cache = builder.cache;
+        this.preferIpv6 = builder.preferIpv6;
+        this.resolutionDelayNanos = TimeUnit.MILLISECONDS.toNanos(builder.resolutionDelayMillis);
+    }
+
+    /**
+     * @param ipv4 sends A queries
+     * @param ipv6 sends AAAA queries, e.g. {@link NettyResolver#aaaa()}
+     */
+    public static Builder builder(ScheduledExecutorService scheduler, AsyncResolver ipv4, AsyncResolver ipv6) {
+        return new Builder(scheduler, ipv4, ipv6);
+    }
+
+    public DnsCache cache() {
+        return cache;
+    }
+
+    /**
+     * @return the number of lookups completed before the other family answered
+     */
+    public long early() {
+        return early.sum();
+    }
+
+    /**
+     * @return the number of lookups completed without the preferred family, after the resolution delay
+     */
+    public long delayed() {
+        return delayed.sum();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        if (cache != null) {
+            DnsAnswer cached = cache.get(domain);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        Lookup lookup = new Lookup(domain);
+        lookup.start();
+        return lookup.result;
+    }
+
+    /**
+     * @return the addresses of both families with the lower TTL, or the negative answer of the A query
+     */
+    static DnsAnswer merge(String domain, DnsAnswer a, DnsAnswer aaaa) {
+        boolean hasA = a != null && a.isResolved();
+        boolean hasAaaa = aaaa != null && aaaa.isResolved();
+
+        if (hasA && hasAaaa) {
+            return new DnsAnswer(domain, DnsAnswer.NOERROR, Math.min(a.ttl(), aaaa.ttl()), a.addresses(), aaaa.ipv6());
+        }
+        if (hasAaaa) {
+            return new DnsAnswer(domain, DnsAnswer.NOERROR, aaaa.ttl(), null, aaaa.ipv6());
+        }
+        return a != null ? a : aaaa;
+    }
+
+    private final class Lookup {
+
+        private final String domain;
+
+        private final CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+
+        private boolean aDone;
+
+        private boolean aaaaDone;
+
+        private DnsAnswer a;
+
+        private DnsAnswer aaaa;
+
+        private Throwable aFailure;
+
+        private boolean timerStarted;
+
+        // set by the one thread which completes the result, so the counters are exact before the caller sees it
+        private boolean answered;
+
+        private Lookup(String domain) {
+            this.domain = domain;
+        }
+
+        private void start() {
+            ipv4.query(domain).whenComplete((answer, ex) -> onComplete(false, answer, ex));
+            ipv6.query(domain).whenComplete((answer, ex) -> onComplete(true, answer, ex));
+        }
+
+        private void onComplete(boolean family6, DnsAnswer answer, Throwable ex) {
+            boolean both;
+            DnsAnswer preferred = null;
+            boolean wait = false;
+
+            synchronized (this) {
+                if (family6) {
+                    aaaaDone = true;
+                    aaaa = answer;
+                } else {
+                    aDone = true;
+                    a = answer;
+                    aFailure = ex != null ? Futures.unwrap(ex) : null;
+                }
+
+                both = aDone && aaaaDone;
+                if (!both) {
+                    DnsAnswer first = family6 ? aaaa : a;
+                    if (first != null && first.isResolved()) {
+                        if (family6 == preferIpv6) {
+                            if (!answered) {
+                                answered = true;
+                                preferred = first;
+                            }
+                        } else if (!timerStarted) {
+                            timerStarted = true;
+                            wait = true;
+                        }
+                    }
+                }
+            }
+
+            if (preferred != null) {
+                early.increment();
+                result.complete(preferred);
+            } else if (wait) {
+                scheduler.schedule(this::onResolutionDelay, resolutionDelayNanos, TimeUnit.NANOSECONDS);
+            } else if (both) {
+                finish();
+            }
+        }
+
+        private void onResolutionDelay() {
+            DnsAnswer other;
+            synchronized (this) {
+                if (answered) {
+                    return;
+                }
+                answered = true;
+                other = preferIpv6 ? a : aaaa;
+            }
+
+            delayed.increment();
+            result.complete(other);
+        }
+
+        private void finish() {
+            DnsAnswer merged = merge(domain, a, aaaa);
+
+            boolean first;
+            synchronized (this) {
+                first = !answered;
+                answered = true;
+            }
+
+            // a transport failure of the A query counts only when AAAA has no addresses either
+            if (merged == null || (!merged.isResolved() && aFailure != null)) {
+                if (first) {
+                    result.completeExceptionally(aFailure != null ? aFailure : new IllegalStateException("No answer"));
+                }
+                return;
+            }
+
+            if (first) {
+                result.complete(merged);
+            }
+
+            // the late family is cached too, also when the caller got the early answer
+            if (cache != null) {
+                cache.put(domain, merged);
+            }
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final ScheduledExecutorService scheduler;
+
+        private final AsyncResolver ipv4;
+
+        private final AsyncResolver ipv6;
+
+        private DnsCache cache;
+
+        private boolean preferIpv6 = true;
+
+        private long resolutionDelayMillis = 50;
+
+        private Builder(ScheduledExecutorService scheduler, AsyncResolver ipv4, AsyncResolver ipv6) {
+            this.scheduler = scheduler;
+            this.ipv4 = ipv4;
+            this.ipv6 = ipv6;
+        }
+
+        /**
+         * Caches the merged answers, the cache needs {@link DnsCache.Builder#maxIpv6(int)} to keep IPv6.
+         */
+        public Builder cache(DnsCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * The family to wait for, IPv6 by default as in RFC 8305.
+         */
+        public Builder preferIpv6(boolean preferIpv6) {
+            this.preferIpv6 = preferIpv6;
+            return this;
+        }
+
+        /**
+         * How long the other family waits for the preferred one, 50 ms by default as in RFC 8305.
+         */
+        public Builder resolutionDelayMillis(long resolutionDelayMillis) {
+            this.resolutionDelayMillis = resolutionDelayMillis;
+            return this;
+        }
+
+        public DualStackResolver build() {
+            if (scheduler == null || ipv4 == null || ipv6 == null) {
+                throw new IllegalArgumentException("scheduler, ipv4 and ipv6 resolvers are required");
+            }
+            if (resolutionDelayMillis < 0) {
+                throw new IllegalArgumentException("resolutionDelayMillis must not be negative: "
+                        + resolutionDelayMillis);
+            }
+
+            return new DualStackResolver(this);
+        }
+
+    }
+
+}
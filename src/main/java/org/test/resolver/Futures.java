@@ -0,0 +1,77 @@
+package org.test.resolver;
+
+import io.netty.resolver.dns.DnsNameResolverException;
+import org.test.wire.WireException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+public final class Futures {
+
+    private Futures() {
+    }
+
+    public static <T> CompletableFuture<T> future(io.netty.util.concurrent.Future<T> future) {
+        return future(future, Function.identity());
+    }
+
+    public static <T, R> CompletableFuture<R> future(io.netty.util.concurrent.Future<T> future,
+                                                     Function<? super T, ? extends R> mapper)
+    {
+        CompletableFuture<R> result = new CompletableFuture<R>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return super.cancel(mayInterruptIfRunning) && future.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        future.addListener((f) -> {
+            if (future.isSuccess()) {
+                // the mapper always runs, it may need to release the value even if nobody waits for it
+                R value;
+                try {
+                    value = mapper.apply(future.getNow());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                result.complete(value);
+            } else if (!future.isCancelled()) {
+                result.completeExceptionally(future.cause());
+            }
+        });
+
+        return result;
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(cause);
+        return result;
+    }
+
+    public static Throwable unwrap(Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
+    /**
+     * Tells a query timeout from the other failures, whatever transport reported it.
+     */
+    public static boolean isTimeout(Throwable ex) {
+        ex = unwrap(ex);
+        if (ex == WireException.TIMEOUT || ex instanceof TimeoutException || ex instanceof SocketTimeoutException) {
+            return true;
+        }
+
+        // Netty 4.1.16 has no timeout type, a failed write carries its cause, only the timeout comes without one
+        return ex instanceof DnsNameResolverException && ex.getCause() == null;
+    }
+
+}
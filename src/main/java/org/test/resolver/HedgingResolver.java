@@ -0,0 +1,368 @@
+package org.test.resolver;
+
+import org.test.metrics.MeteredResolver;
+import org.test.metrics.MetricsRegistry;
+import org.test.metrics.ResolverMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes every query to the upstream with the best {@link UpstreamStats#score()} and sends a hedged copy
+ * to the second best upstream when the first one has not answered within its p95 latency.
+ * The first usable answer wins and the other query is cancelled. A failed query (timeout, SERVFAIL,
+ * REFUSED) fails over to the second upstream at once, without waiting for the hedge delay.
+ */
+public class HedgingResolver implements AsyncResolver {
+
+    private final List<Upstream> upstreams;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long minHedgeDelayNanos;
+
+    private final long maxHedgeDelayNanos;
+
+    private final double explorationRatio;
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private HedgingResolver(Builder builder) {
+        List<Upstream> upstreams = new ArrayList<>();
+        for (Upstream upstream : builder.upstreams) {
+            upstreams.add(builder.registry != null
+                    ? upstream.metered(builder.registry.upstream(builder.registryName, upstream.label))
+                    : upstream);
+        }
+
+        this.upstreams = Collections.unmodifiableList(upstreams);
+        this.scheduler = builder.scheduler;
+        this.minHedgeDelayNanos = builder.minHedgeDelayNanos;
+        this.maxHedgeDelayNanos = builder.maxHedgeDelayNanos;
+        this.explorationRatio = builder.explorationRatio;
+    }
+
+    public static Builder builder(ScheduledExecutorService scheduler) {
+        return new Builder(scheduler);
+    }
+
+    public List<Upstream> upstreams() {
+        return upstreams;
+    }
+
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    public long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        Upstream primary = select(null);
+        Upstream secondary = upstreams.size() > 1 ? select(primary) : null;
+
+        Hedge hedge = new Hedge(domain, primary, secondary);
+        hedge.start();
+        return hedge.result;
+    }
+
+    Upstream select(Upstream exclude) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        // a small share of the traffic keeps the statistics of the other upstreams fresh
+        if (explorationRatio > 0 && random.nextDouble() < explorationRatio) {
+            Upstream upstream = upstreams.get(random.nextInt(upstreams.size()));
+            if (upstream != exclude) {
+                return upstream;
+            }
+        }
+
+        Upstream best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Upstream upstream : upstreams) {
+            if (upstream != exclude) {
+                double score = upstream.stats.score();
+                if (score < bestScore) {
+                    best = upstream;
+                    bestScore = score;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    private static boolean isServerFailure(DnsAnswer answer) {
+        int rcode = answer.rcode();
+        return rcode == DnsAnswer.SERVFAIL || rcode == DnsAnswer.REFUSED || rcode == DnsAnswer.NOTIMP;
+    }
+
+    private final class Hedge {
+
+        private final String domain;
+
+        private final Upstream primary;
+
+        private final Upstream secondary;
+
+        private final CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+
+        private final AtomicBoolean hedged = new AtomicBoolean();
+
+        private final AtomicBoolean won = new AtomicBoolean();
+
+        // the attempts which may still complete, the hedge is counted before it is sent
+        private final AtomicInteger pending;
+
+        private volatile CompletableFuture<DnsAnswer> primaryFuture;
+
+        private volatile CompletableFuture<DnsAnswer> secondaryFuture;
+
+        private volatile long primaryStarted;
+
+        private volatile long secondaryStarted;
+
+        private volatile ScheduledFuture<?> timer;
+
+        private volatile DnsAnswer lastAnswer;
+
+        private volatile Throwable lastError;
+
+        private Hedge(String domain, Upstream primary, Upstream secondary) {
+            this.domain = domain;
+            this.primary = primary;
+            this.secondary = secondary;
+            this.pending = new AtomicInteger(secondary != null ? 2 : 1);
+        }
+
+        private void start() {
+            result.whenComplete((answer, ex) -> {
+                if (result.isCancelled()) {
+                    cancel(primaryFuture);
+                    cancel(secondaryFuture);
+                }
+            });
+
+            primaryStarted = System.nanoTime();
+            primaryFuture = primary.resolver.query(domain);
+
+            if (secondary != null && !primaryFuture.isDone()) {
+                long delay = Math.max(minHedgeDelayNanos, Math.min(maxHedgeDelayNanos, primary.stats.p95Nanos()));
+                timer = scheduler.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+            }
+
+            primaryFuture.whenComplete((answer, ex) -> onComplete(primary, primaryStarted, answer, ex));
+        }
+
+        private void hedge() {
+            if (!result.isDone() && hedged.compareAndSet(false, true)) {
+                hedges.increment();
+                sendSecondary();
+            }
+        }
+
+        private void sendSecondary() {
+            long started = System.nanoTime();
+            secondaryStarted = started;
+            secondaryFuture = secondary.resolver.query(domain);
+            secondaryFuture.whenComplete((answer, ex) -> onComplete(secondary, started, answer, ex));
+        }
+
+        private void onComplete(Upstream upstream, long started, DnsAnswer answer, Throwable ex) {
+            long elapsed = System.nanoTime() - started;
+
+            if (ex == null && !isServerFailure(answer)) {
+                upstream.stats.recordSuccess(elapsed);
+
+                if (won.compareAndSet(false, true)) {
+                    if (upstream == secondary) {
+                        hedgeWins.increment();
+                    }
+                    finishLoser(upstream);
+                    result.complete(answer);
+                }
+                return;
+            }
+
+            if (ex != null) {
+                // our own cancel of the loser or of a cancelled lookup; a cancel by the upstream is a failure
+                if (Futures.unwrap(ex) instanceof CancellationException && (won.get() || result.isDone())) {
+                    return;
+                }
+                lastError = ex;
+            } else {
+                lastAnswer = answer;
+            }
+
+            upstream.stats.recordFailure();
+
+            // fail over at once instead of waiting for the hedge timer
+            if (secondary != null && upstream == primary && hedged.compareAndSet(false, true)) {
+                cancelTimer();
+                sendSecondary();
+            }
+
+            if (pending.decrementAndGet() == 0) {
+                if (lastAnswer != null) {
+                    result.complete(lastAnswer);
+                } else {
+                    result.completeExceptionally(Futures.unwrap(lastError));
+                }
+            }
+        }
+
+        private void finishLoser(Upstream winner) {
+            cancelTimer();
+
+            // the loser did not answer in time, count the time it has spent so far as its latency,
+            // otherwise a slow upstream would never get a sample telling it is slow
+            long now = System.nanoTime();
+            if (winner == primary) {
+                if (cancel(secondaryFuture)) {
+                    secondary.stats.recordLatency(now - secondaryStarted);
+                }
+            } else if (cancel(primaryFuture)) {
+                primary.stats.recordLatency(now - primaryStarted);
+            }
+        }
+
+        private void cancelTimer() {
+            ScheduledFuture<?> current = timer;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+
+        private boolean cancel(CompletableFuture<DnsAnswer> future) {
+            return future != null && future.cancel(false);
+        }
+
+    }
+
+    public static final class Upstream {
+
+        private final String label;
+
+        private final AsyncResolver resolver;
+
+        private final UpstreamStats stats;
+
+        private final ResolverMetrics metrics;
+
+        private Upstream(String label, AsyncResolver resolver, UpstreamStats stats, ResolverMetrics metrics) {
+            this.label = label;
+            this.resolver = resolver;
+            this.stats = stats;
+            this.metrics = metrics;
+        }
+
+        private Upstream metered(ResolverMetrics metrics) {
+            return new Upstream(label, new MeteredResolver(resolver, metrics), stats, metrics);
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public AsyncResolver resolver() {
+            return resolver;
+        }
+
+        public UpstreamStats stats() {
+            return stats;
+        }
+
+        /**
+         * @return the metrics of the queries and hedges sent to this upstream, null without a registry
+         */
+        public ResolverMetrics metrics() {
+            return metrics;
+        }
+
+        @Override
+        public String toString() {
+            return label + " (" + stats + ")";
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final ScheduledExecutorService scheduler;
+
+        private final List<Upstream> upstreams = new ArrayList<>();
+
+        private long initialLatencyNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+        private long minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(5);
+
+        private long maxHedgeDelayNanos = TimeUnit.SECONDS.toNanos(2);
+
+        private double explorationRatio = 0.02;
+
+        private MetricsRegistry registry;
+
+        private String registryName;
+
+        private Builder(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public Builder initialLatency(long latency, TimeUnit unit) {
+            this.initialLatencyNanos = unit.toNanos(latency);
+            return this;
+        }
+
+        public Builder upstream(String label, AsyncResolver resolver) {
+            upstreams.add(new Upstream(label, resolver,
+                    new UpstreamStats(initialLatencyNanos, TimeUnit.NANOSECONDS), null));
+            return this;
+        }
+
+        public Builder hedgeDelay(long min, long max, TimeUnit unit) {
+            this.minHedgeDelayNanos = unit.toNanos(min);
+            this.maxHedgeDelayNanos = unit.toNanos(max);
+            return this;
+        }
+
+        public Builder explorationRatio(double ratio) {
+            this.explorationRatio = ratio;
+            return this;
+        }
+
+        /**
+         * Records every query and hedge into the metrics of its upstream, registered under the label of the upstream.
+         *
+         * @param resolver the name of the strategy the upstreams are registered under
+         */
+        public Builder upstreamMetrics(MetricsRegistry registry, String resolver) {
+            this.registry = registry;
+            this.registryName = resolver;
+            return this;
+        }
+
+        public HedgingResolver build() {
+            if (upstreams.isEmpty()) {
+                throw new IllegalArgumentException("No upstreams");
+            }
+
+            return new HedgingResolver(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+package org.test.resolver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponse;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.util.concurrent.Future;
+import org.test.wire.WireException;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sends single A queries through a Netty {@link DnsNameResolver}, keeping the response code and the TTL
+ * which {@link DnsNameResolver#resolve(String)} throws away. {@link #aaaa()} is the same for AAAA queries.
+ * A truncated response fails with {@link WireException#TRUNCATED} like the wire client, it is not a negative
+ * answer to cache.
+ */
+public class NettyResolver implements AsyncResolver {
+
+    private final DnsNameResolver resolver;
+
+    private final InetSocketAddress server;
+
+    public NettyResolver(DnsNameResolver resolver) {
+        this(resolver, null);
+    }
+
+    public NettyResolver(DnsNameResolver resolver, InetSocketAddress server) {
+        this.resolver = resolver;
+        this.server = server;
+    }
+
+    public InetSocketAddress server() {
+        return server;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        return query(domain, DnsRecordType.A);
+    }
+
+    /**
+     * @return a resolver sending AAAA queries through the same Netty resolver
+     */
+    public AsyncResolver aaaa() {
+        return domain -> query(domain, DnsRecordType.AAAA);
+    }
+
+    public CompletableFuture<DnsAnswer> query(String domain, DnsRecordType type) {
+        DnsQuestion question = new DefaultDnsQuestion(domain, type);
+
+        Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> future = server != null
+                ? resolver.query(server, question)
+                : resolver.query(question);
+
+        return Futures.future(future, envelope -> {
+            try {
+                if (envelope.content().isTruncated()) {
+                    throw new CompletionException(WireException.TRUNCATED);
+                }
+                return toAnswer(domain, envelope.content());
+            } finally {
+                envelope.release();
+            }
+        });
+    }
+
+    static DnsAnswer toAnswer(String domain, DnsResponse response) {
+        int rcode = response.code().intValue();
+
+        int count = response.count(DnsSection.ANSWER);
+        int[] addresses = new int[count];
+        long[] ipv6 = null;
+        int found = 0;
+        int found6 = 0;
+        long ttl = Integer.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+            if (!(record instanceof DnsRawRecord)) {
+                continue;
+            }
+
+            ByteBuf content = ((DnsRawRecord) record).content();
+            if (record.type() == DnsRecordType.A && content.readableBytes() == 4) {
+                addresses[found++] = content.getInt(content.readerIndex());
+                ttl = Math.min(ttl, record.timeToLive());
+            } else if (record.type() == DnsRecordType.AAAA && content.readableBytes() == 16) {
+                if (ipv6 == null) {
+                    ipv6 = new long[2 * count];
+                }
+                ipv6[found6++] = content.getLong(content.readerIndex());
+                ipv6[found6++] = content.getLong(content.readerIndex() + 8);
+                ttl = Math.min(ttl, record.timeToLive());
+            }
+        }
+
+        if (found > 0 || found6 > 0) {
+            if (found < count) {
+                addresses = Arrays.copyOf(addresses, found);
+            }
+            if (ipv6 != null && found6 < ipv6.length) {
+                ipv6 = Arrays.copyOf(ipv6, found6);
+            }
+            return new DnsAnswer(domain, rcode, (int) ttl, addresses, ipv6);
+        }
+
+        return DnsAnswer.negative(domain, rcode, negativeTtl(response));
+    }
+
+    private static int negativeTtl(DnsResponse response) {
+        // RFC 2308: min of the SOA record TTL and its MINIMUM field, which is the last 4 bytes of the rdata
+        int count = response.count(DnsSection.AUTHORITY);
+        for (int i = 0; i < count; i++) {
+            DnsRecord record = response.recordAt(DnsSection.AUTHORITY, i);
+            if (record.type() == DnsRecordType.SOA && record instanceof DnsRawRecord) {
+                ByteBuf content = ((DnsRawRecord) record).content();
+                if (content.readableBytes() >= 20) {
+                    long minimum = content.getUnsignedInt(content.writerIndex() - 4);
+                    return (int) Math.min(record.timeToLive(), minimum);
+                }
+            }
+        }
+        return 0;
+    }
+
+}
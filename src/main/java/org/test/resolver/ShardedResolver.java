@@ -0,0 +1,175 @@
+package org.test.resolver;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProvider;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads queries over N event loops by the name hash. Every shard owns its event loop and one or more
+ * {@link DnsNameResolver}s, each with its own UDP socket and its own 16-bit query id space,
+ * so the shards never contend with each other.
+ */
+public class ShardedResolver implements AsyncResolver, AutoCloseable {
+
+    private final EventLoopGroup group;
+
+    private final NettyResolver[][] shards;
+
+    private final DnsNameResolver[] resolvers;
+
+    private ShardedResolver(Builder builder) {
+        group = new EpollEventLoopGroup(builder.shards, new DefaultThreadFactory("DNS shard"));
+
+        shards = new NettyResolver[builder.shards][builder.socketsPerShard];
+        resolvers = new DnsNameResolver[builder.shards * builder.socketsPerShard];
+
+        int r = 0;
+        for (int i = 0; i < builder.shards; i++) {
+            EventLoop eventLoop = group.next();
+
+            for (int j = 0; j < builder.socketsPerShard; j++) {
+                DnsNameResolver resolver = new DnsNameResolverBuilder(eventLoop)
+                        .channelType(EpollDatagramChannel.class)
+                        .queryTimeoutMillis(builder.queryTimeoutMillis)
+                        .maxQueriesPerResolve(builder.maxQueriesPerResolve)
+                        .maxPayloadSize(builder.maxPayloadSize)
+                        .resolvedAddressTypes(ResolvedAddressTypes.IPV4_ONLY)
+                        .nameServerProvider(builder.nameServerProvider)
+                        .build();
+
+                resolvers[r++] = resolver;
+                shards[i][j] = new NettyResolver(resolver);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true on one of the event loops of the shards, where blocking on a query would deadlock
+     */
+    public boolean inEventLoop() {
+        for (EventExecutor executor : group) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(String domain) {
+        return (spread(domain.hashCode()) & Integer.MAX_VALUE) % shards.length;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        int hash = spread(domain.hashCode()) & Integer.MAX_VALUE;
+
+        NettyResolver[] shard = shards[hash % shards.length];
+        NettyResolver resolver = shard[(hash / shards.length) % shard.length];
+
+        return resolver.query(domain);
+    }
+
+    @Override
+    public void close() {
+        for (DnsNameResolver resolver : resolvers) {
+            resolver.close();
+        }
+
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private static int spread(int h) {
+        // String.hashCode of similar names differs only in the low bits
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    public static final class Builder {
+
+        private int shards = Runtime.getRuntime().availableProcessors();
+
+        private int socketsPerShard = 1;
+
+        private long queryTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
+        private int maxQueriesPerResolve = 1;
+
+        private int maxPayloadSize = 4096;
+
+        private DnsServerAddressStreamProvider nameServerProvider;
+
+        private Builder() {
+        }
+
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder socketsPerShard(int socketsPerShard) {
+            this.socketsPerShard = socketsPerShard;
+            return this;
+        }
+
+        public Builder queryTimeoutMillis(long queryTimeoutMillis) {
+            this.queryTimeoutMillis = queryTimeoutMillis;
+            return this;
+        }
+
+        public Builder maxQueriesPerResolve(int maxQueriesPerResolve) {
+            this.maxQueriesPerResolve = maxQueriesPerResolve;
+            return this;
+        }
+
+        public Builder maxPayloadSize(int maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+            return this;
+        }
+
+        public Builder server(InetSocketAddress server) {
+            this.nameServerProvider = new SingletonDnsServerAddressStreamProvider(server);
+            return this;
+        }
+
+        public Builder nameServerProvider(DnsServerAddressStreamProvider nameServerProvider) {
+            this.nameServerProvider = nameServerProvider;
+            return this;
+        }
+
+        public ShardedResolver build() {
+            if (shards <= 0 || socketsPerShard <= 0) {
+                throw new IllegalArgumentException("shards and sockets per shard must be positive");
+            }
+
+            if (nameServerProvider == null) {
+                throw new IllegalArgumentException("name server is not set");
+            }
+
+            return new ShardedResolver(this);
+        }
+
+    }
+
+}
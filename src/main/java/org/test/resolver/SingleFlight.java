@@ -0,0 +1,211 @@
+package org.test.resolver;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers with the same key share one in-flight call and its result.
+ * <p>
+ * Every caller gets its own future. Cancelling it only detaches that caller, the shared call is cancelled
+ * when the last caller is gone. The key is forgotten as soon as the call completes, so this is not a cache:
+ * a caller which comes after the completion starts a new call.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * Asynchronous flavour: the first caller starts the call with the loader, the others join it.
+     */
+    public CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> loader) {
+        while (true) {
+            Flight flight = new Flight(key);
+
+            Flight existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                calls.increment();
+
+                CompletableFuture<V> result = flight.join();
+                flight.start(loader);
+                return result;
+            }
+
+            CompletableFuture<V> result = existing.join();
+            if (result != null) {
+                shared.increment();
+                return result;
+            }
+
+            // the existing flight has just been abandoned by all its callers, it leaves the map on its own
+            flights.remove(key, existing);
+        }
+    }
+
+    /**
+     * Blocking flavour: the first caller runs the loader on its own thread, the others wait for its result.
+     */
+    public V call(K key, Callable<V> loader) throws Exception {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        boolean[] leader = new boolean[1];
+
+        // the loader of submit() runs on the calling thread, so it tells whether this caller leads the flight
+        CompletableFuture<V> result = submit(key, () -> {
+            leader[0] = true;
+            return own;
+        });
+
+        if (leader[0]) {
+            try {
+                own.complete(loader.call());
+            } catch (Exception | Error e) {
+                own.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * @return the number of calls actually made
+     */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the number of callers served by a call started by another caller
+     */
+    public long shared() {
+        return shared.sum();
+    }
+
+    private final class Flight {
+
+        private final K key;
+
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        private CompletableFuture<V> source;
+
+        private int refs;
+
+        private boolean abandoned;
+
+        private Flight(K key) {
+            this.key = key;
+        }
+
+        /**
+         * @return null if the flight has already been abandoned
+         */
+        private CompletableFuture<V> join() {
+            synchronized (this) {
+                if (abandoned) {
+                    return null;
+                }
+                refs++;
+            }
+
+            Share share = new Share(this);
+            result.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    share.completeExceptionally(ex);
+                } else {
+                    share.complete(value);
+                }
+            });
+            return share;
+        }
+
+        private void start(Supplier<CompletableFuture<V>> loader) {
+            CompletableFuture<V> future;
+            try {
+                future = loader.get();
+            } catch (RuntimeException e) {
+                future = Futures.failed(e);
+            }
+
+            boolean cancel;
+            synchronized (this) {
+                source = future;
+                cancel = abandoned;
+            }
+
+            if (cancel) {
+                future.cancel(true);
+            }
+
+            future.whenComplete((value, ex) -> {
+                // forgotten before the callers see the result, so that their follow-up calls start afresh
+                flights.remove(key, this);
+
+                if (ex != null) {
+                    result.completeExceptionally(Futures.unwrap(ex));
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+
+        private void release() {
+            CompletableFuture<V> cancel;
+
+            synchronized (this) {
+                if (--refs > 0 || result.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                cancel = source;
+            }
+
+            flights.remove(key, this);
+
+            // not started yet, start() cancels it then
+            if (cancel != null) {
+                cancel.cancel(true);
+            }
+        }
+
+    }
+
+    private final class Share extends CompletableFuture<V> {
+
+        private final Flight flight;
+
+        private Share(Flight flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                flight.release();
+            }
+            return cancelled;
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.test.resolver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted latency and failure rate of one upstream server.
+ * <p>
+ * The p95 is estimated from the EWMA mean and variance as {@code mean + 1.645 * stddev},
+ * which is exact for normally distributed latencies and good enough to time a hedged query.
+ */
+public final class UpstreamStats {
+
+    private static final double ALPHA = 0.1;
+
+    private static final double Z_95 = 1.645;
+
+    private static final double FAILURE_PENALTY = 10.0;
+
+    private double meanNanos;
+
+    private double varianceNanos;
+
+    private double failureRate;
+
+    private long successes;
+
+    private long failures;
+
+    public UpstreamStats(long initialLatency, TimeUnit unit) {
+        this.meanNanos = unit.toNanos(initialLatency);
+    }
+
+    public synchronized void recordLatency(long nanos) {
+        double delta = nanos - meanNanos;
+        meanNanos += ALPHA * delta;
+        varianceNanos = (1 - ALPHA) * (varianceNanos + ALPHA * delta * delta);
+    }
+
+    public synchronized void recordSuccess(long nanos) {
+        recordLatency(nanos);
+        failureRate *= 1 - ALPHA;
+        successes++;
+    }
+
+    public synchronized void recordFailure() {
+        failureRate = failureRate * (1 - ALPHA) + ALPHA;
+        failures++;
+    }
+
+    public synchronized long meanNanos() {
+        return (long) meanNanos;
+    }
+
+    public synchronized long p95Nanos() {
+        return (long) (meanNanos + Z_95 * Math.sqrt(varianceNanos));
+    }
+
+    public synchronized double failureRate() {
+        return failureRate;
+    }
+
+    public synchronized long successes() {
+        return successes;
+    }
+
+    public synchronized long failures() {
+        return failures;
+    }
+
+    /**
+     * Lower is better: the mean latency inflated by the recent failure rate.
+     */
+    public synchronized double score() {
+        return meanNanos * (1 + FAILURE_PENALTY * failureRate);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("mean %.2f ms, p95 %.2f ms, failures %.1f%%",
+                meanNanos / 1e6, p95Nanos() / 1e6, failureRate * 100);
+    }
+
+}
@@ -0,0 +1,394 @@
+package org.test.retry;
+
+import org.test.bulk.DnsResult;
+import org.test.metrics.MeteredResolver;
+import org.test.metrics.MetricsRegistry;
+import org.test.metrics.ResolverMetrics;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+import org.test.wire.WireException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retries failed lookups without blocking anybody: the next attempt is scheduled after an exponential
+ * backoff with jitter and goes to the next upstream in turn. A truncated answer is asked again over TCP
+ * from the same upstream at once, a timeout is retried over TCP, which does not lose packets.
+ * <p>
+ * Transport failures and SERVFAIL / REFUSED / NOTIMP answers are retried, NXDOMAIN and NOERROR are final.
+ * Every name gets at most {@code maxAttempts} attempts, the first one included.
+ */
+public class RetryingResolver implements AsyncResolver {
+
+    private final List<Upstream> upstreams;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private final ResolverMetrics metrics;
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder tcpFallbacks = new LongAdder();
+
+    private final LongAdder[] wins;
+
+    private RetryingResolver(Builder builder) {
+        List<Upstream> upstreams = new ArrayList<>();
+        for (Upstream upstream : builder.upstreams) {
+            upstreams.add(builder.registry != null
+                    ? upstream.metered(builder.registry.upstream(builder.registryName, upstream.label))
+                    : upstream);
+        }
+
+        this.upstreams = Collections.unmodifiableList(upstreams);
+        this.scheduler = builder.scheduler;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffNanos = builder.initialBackoffNanos;
+        this.maxBackoffNanos = builder.maxBackoffNanos;
+        this.metrics = builder.metrics;
+
+        this.wins = new LongAdder[maxAttempts];
+        for (int i = 0; i < maxAttempts; i++) {
+            wins[i] = new LongAdder();
+        }
+    }
+
+    public static Builder builder(ScheduledExecutorService scheduler) {
+        return new Builder(scheduler);
+    }
+
+    public List<Upstream> upstreams() {
+        return upstreams;
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    public long tcpFallbacks() {
+        return tcpFallbacks.sum();
+    }
+
+    /**
+     * @param attempt 1-based attempt number
+     * @return how many lookups got their final answer from this attempt
+     */
+    public long wins(int attempt) {
+        return attempt >= 1 && attempt <= maxAttempts ? wins[attempt - 1].sum() : 0;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        CompletableFuture<DnsResult> execution = execute(domain);
+        CompletableFuture<DnsAnswer> answer = execution.thenCompose(result -> result.answer() != null
+                ? CompletableFuture.completedFuture(result.answer())
+                : Futures.failed(result.cause()));
+
+        // thenCompose does not pass a cancel back, the retry has to stop its timer and its attempt itself
+        answer.whenComplete((a, ex) -> {
+            if (answer.isCancelled()) {
+                execution.cancel(false);
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Resolves the domain starting with the first attempt on the first upstream.
+     * The result never completes exceptionally, a failure after the last attempt is reported by the result.
+     */
+    public CompletableFuture<DnsResult> execute(String domain) {
+        Retry retry = new Retry(domain, System.nanoTime());
+        retry.send(1, 0, false);
+        return retry.result;
+    }
+
+    /**
+     * Continues after a failed result, e.g. of a primary pass which used the first upstream, so that the
+     * retries of a bulk resolution run next to the primary pass instead of inline.
+     * A final result (see {@link #isRetryable}) is returned as is.
+     */
+    public CompletableFuture<DnsResult> retry(DnsResult failed) {
+        if (!isRetryable(failed)) {
+            return CompletableFuture.completedFuture(failed);
+        }
+
+        Retry retry = new Retry(failed.domain(), System.nanoTime() - failed.elapsedNanos());
+        int attempt = failed.attempt();
+        retry.onComplete(attempt, attempt - 1, false, failed.answer(), failed.cause());
+        return retry.result;
+    }
+
+    public static boolean isRetryable(DnsResult result) {
+        return isRetryable(result.answer(), result.cause());
+    }
+
+    private static boolean isRetryable(DnsAnswer answer, Throwable cause) {
+        if (answer == null) {
+            return cause != null;
+        }
+
+        int rcode = answer.rcode();
+        return rcode == DnsAnswer.SERVFAIL || rcode == DnsAnswer.REFUSED || rcode == DnsAnswer.NOTIMP;
+    }
+
+    private long backoffNanos(int failedAttempt) {
+        // equal jitter: half of the exponential step is fixed, the other half is random
+        int shift = Math.min(failedAttempt - 1, 30);
+        // compared before the shift, which could overflow; a zero backoff stays zero
+        long step = initialBackoffNanos > maxBackoffNanos >> shift ? maxBackoffNanos : initialBackoffNanos << shift;
+
+        long half = step / 2;
+        return half + ThreadLocalRandom.current().nextLong(step - half + 1);
+    }
+
+    private final class Retry {
+
+        private final String domain;
+
+        private final long started;
+
+        private final CompletableFuture<DnsResult> result = new CompletableFuture<>();
+
+        private volatile CompletableFuture<DnsAnswer> current;
+
+        private volatile ScheduledFuture<?> timer;
+
+        private Retry(String domain, long started) {
+            this.domain = domain;
+            this.started = started;
+
+            result.whenComplete((r, ex) -> {
+                if (result.isCancelled()) {
+                    ScheduledFuture<?> t = timer;
+                    if (t != null) {
+                        t.cancel(false);
+                    }
+
+                    CompletableFuture<DnsAnswer> c = current;
+                    if (c != null) {
+                        c.cancel(false);
+                    }
+                }
+            });
+        }
+
+        private void send(int attempt, int upstreamIndex, boolean tcp) {
+            if (result.isDone()) {
+                return;
+            }
+
+            Upstream upstream = upstreams.get(upstreamIndex % upstreams.size());
+            AsyncResolver resolver = tcp ? upstream.tcp : upstream.udp;
+
+            CompletableFuture<DnsAnswer> future;
+            try {
+                future = resolver.query(domain);
+            } catch (RuntimeException e) {
+                future = Futures.failed(e);
+            }
+
+            current = future;
+            future.whenComplete((answer, ex) -> onComplete(attempt, upstreamIndex, tcp, answer, ex));
+        }
+
+        private void onComplete(int attempt, int upstreamIndex, boolean tcp, DnsAnswer answer, Throwable ex) {
+            Throwable cause = ex != null ? Futures.unwrap(ex) : null;
+            if (cause instanceof CancellationException) {
+                // a no-op when the caller cancelled the result, otherwise e.g. a closed client, which is final
+                result.complete(new DnsResult(domain, null, cause, System.nanoTime() - started, attempt));
+                return;
+            }
+
+            boolean retryable = isRetryable(answer, cause);
+            if (!retryable || attempt >= maxAttempts) {
+                if (!retryable && attempt <= maxAttempts) {
+                    wins[attempt - 1].increment();
+                }
+                result.complete(new DnsResult(domain, answer, cause, System.nanoTime() - started, attempt));
+                return;
+            }
+
+            retries.increment();
+            if (metrics != null) {
+                metrics.onRetry();
+            }
+
+            Upstream same = upstreams.get(upstreamIndex % upstreams.size());
+            if (same.metrics != null) {
+                same.metrics.onRetry();
+            }
+
+            if (cause == WireException.TRUNCATED && !tcp && same.tcp != null) {
+                // the upstream has the answer, it just does not fit into a datagram
+                onTcpFallback(same);
+                send(attempt + 1, upstreamIndex, true);
+                return;
+            }
+
+            int nextIndex = upstreamIndex + 1;
+            Upstream next = upstreams.get(nextIndex % upstreams.size());
+            boolean nextTcp = Futures.isTimeout(cause) && next.tcp != null;
+            if (nextTcp) {
+                onTcpFallback(next);
+            }
+
+            try {
+                timer = scheduler.schedule(() -> send(attempt + 1, nextIndex, nextTcp),
+                        backoffNanos(attempt), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // the scheduler is shut down, the last failure is final
+                result.complete(new DnsResult(domain, answer, cause, System.nanoTime() - started, attempt));
+            }
+        }
+
+        private void onTcpFallback(Upstream upstream) {
+            tcpFallbacks.increment();
+            if (metrics != null) {
+                metrics.onTcpFallback();
+            }
+            if (upstream.metrics != null) {
+                upstream.metrics.onTcpFallback();
+            }
+        }
+
+    }
+
+    public static final class Upstream {
+
+        private final String label;
+
+        private final AsyncResolver udp;
+
+        private final AsyncResolver tcp;
+
+        private final ResolverMetrics metrics;
+
+        private Upstream(String label, AsyncResolver udp, AsyncResolver tcp, ResolverMetrics metrics) {
+            this.label = label;
+            this.udp = udp;
+            this.tcp = tcp;
+            this.metrics = metrics;
+        }
+
+        private Upstream metered(ResolverMetrics metrics) {
+            return new Upstream(label, new MeteredResolver(udp, metrics),
+                    tcp != null ? new MeteredResolver(tcp, metrics) : null, metrics);
+        }
+
+        public String label() {
+            return label;
+        }
+
+        /**
+         * @return the metrics of the attempts sent to this upstream, null without a registry
+         */
+        public ResolverMetrics metrics() {
+            return metrics;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final ScheduledExecutorService scheduler;
+
+        private final List<Upstream> upstreams = new ArrayList<>();
+
+        private int maxAttempts = 3;
+
+        private long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+        private long maxBackoffNanos = TimeUnit.SECONDS.toNanos(2);
+
+        private ResolverMetrics metrics;
+
+        private MetricsRegistry registry;
+
+        private String registryName;
+
+        private Builder(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public Builder upstream(String label, AsyncResolver udp) {
+            return upstream(label, udp, null);
+        }
+
+        /**
+         * @param tcp the same upstream over TCP, null if the upstream has no TCP fallback
+         */
+        public Builder upstream(String label, AsyncResolver udp, AsyncResolver tcp) {
+            upstreams.add(new Upstream(label, udp, tcp, null));
+            return this;
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder backoff(long initial, long max, TimeUnit unit) {
+            this.initialBackoffNanos = unit.toNanos(initial);
+            this.maxBackoffNanos = unit.toNanos(max);
+            return this;
+        }
+
+        /**
+         * Counts the retries and the TCP fallbacks into the metrics too.
+         */
+        public Builder metrics(ResolverMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Records every attempt into the metrics of its upstream, registered under the label of the upstream.
+         *
+         * @param resolver the name of the strategy the upstreams are registered under
+         */
+        public Builder upstreamMetrics(MetricsRegistry registry, String resolver) {
+            this.registry = registry;
+            this.registryName = resolver;
+            return this;
+        }
+
+        public RetryingResolver build() {
+            if (upstreams.isEmpty()) {
+                throw new IllegalArgumentException("No upstreams");
+            }
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("Max attempts must be positive: " + maxAttempts);
+            }
+            if (initialBackoffNanos < 0 || maxBackoffNanos < initialBackoffNanos) {
+                throw new IllegalArgumentException("Invalid backoff: " + initialBackoffNanos + ".." + maxBackoffNanos);
+            }
+
+            return new RetryingResolver(this);
+        }
+
+    }
+
+}
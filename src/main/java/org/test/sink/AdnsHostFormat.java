@@ -0,0 +1,129 @@
+package org.test.sink;
+
+import org.test.resolver.DnsAnswer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports a result file in the text format of {@code adnshost --fmt-asynch --cname-ok --ttl-abs}, as run by
+ * {@code crawler_domains-adnshost.sh}, so that the results can be diffed against that baseline:
+ * <pre>
+ * ID NRRS STATUSTYPE STATUS STATUSABBREV OWNER EXPIRES CNAME "STATUSSTRING"
+ * OWNER EXPIRES A INET 192.0.2.1
+ * </pre>
+ * The id is the record number, the expiry is absolute (epoch seconds) and there are no CNAMEs ({@code $}).
+ * The statuses are those of adns: an OK line ends with {@code $ "OK"}.
+ */
+public final class AdnsHostFormat {
+
+    private AdnsHostFormat() {
+    }
+
+    /**
+     * @return the number of exported records
+     */
+    public static long export(ResultReader reader, Appendable out) throws IOException {
+        long count = reader.count();
+        for (long record = 0; record < count; record++) {
+            append(reader, record, out);
+        }
+        return count;
+    }
+
+    public static void append(ResultReader reader, long record, Appendable out) throws IOException {
+        String owner = reader.name(record);
+        long expires = TimeUnit.MILLISECONDS.toSeconds(reader.resolvedAtMillis(record)) + reader.ttl(record);
+
+        int ipv4 = reader.ipv4Count(record);
+        int ipv6 = reader.ipv6Count(record);
+        Status status = status(reader.failure(record), reader.rcode(record), ipv4 + ipv6);
+
+        out.append(Long.toString(record)).append(' ')
+                .append(Integer.toString(status == Status.OK ? ipv4 + ipv6 : 0)).append(' ')
+                .append(status.type).append(' ')
+                .append(Integer.toString(status.code)).append(' ')
+                .append(status.abbreviation).append(' ')
+                .append(owner).append(' ')
+                .append(Long.toString(expires))
+                .append(" $ \"").append(status.message).append("\"\n");
+
+        if (status != Status.OK) {
+            return;
+        }
+
+        for (int i = 0; i < ipv4; i++) {
+            int a = reader.ipv4(record, i);
+            out.append(owner).append(' ').append(Long.toString(expires)).append(" A INET ")
+                    .append(Integer.toString(a >>> 24)).append('.')
+                    .append(Integer.toString((a >>> 16) & 0xFF)).append('.')
+                    .append(Integer.toString((a >>> 8) & 0xFF)).append('.')
+                    .append(Integer.toString(a & 0xFF)).append('\n');
+        }
+
+        for (int i = 0; i < ipv6; i++) {
+            String address = InetAddress.getByAddress(reader.ipv6(record, i)).getHostAddress();
+            out.append(owner).append(' ').append(Long.toString(expires)).append(" AAAA INET6 ")
+                    .append(address).append('\n');
+        }
+    }
+
+    private static Status status(int failure, int rcode, int addresses) {
+        if (failure == ResultReader.FAILURE_TIMEOUT) {
+            return Status.TIMEOUT;
+        }
+        if (failure != ResultReader.FAILURE_NONE) {
+            return Status.SYSTEMFAIL;
+        }
+
+        switch (rcode) {
+            case DnsAnswer.NOERROR:
+                return addresses > 0 ? Status.OK : Status.NODATA;
+            case DnsAnswer.FORMERR:
+                return Status.RCODEFORMATERROR;
+            case DnsAnswer.SERVFAIL:
+                return Status.RCODESERVFAIL;
+            case DnsAnswer.NXDOMAIN:
+                return Status.NXDOMAIN;
+            case DnsAnswer.NOTIMP:
+                return Status.RCODENOTIMPLEMENTED;
+            case DnsAnswer.REFUSED:
+                return Status.RCODEREFUSED;
+            default:
+                return Status.RCODEUNKNOWN;
+        }
+    }
+
+    // adns_status values with their adns_errtypeabbrev, adns_errabbrev and adns_strerror
+    private enum Status {
+
+        OK("ok", 0, "ok", "OK"),
+        SYSTEMFAIL("localfail", 3, "systemfail", "General resolver or system failure"),
+        TIMEOUT("remotefail", 30, "timeout", "DNS query timed out"),
+        RCODESERVFAIL("tempfail", 60, "rcodeservfail", "Nameserver reports failure"),
+        RCODEFORMATERROR("tempfail", 61, "rcodeformaterror", "Query not understood by nameserver"),
+        RCODENOTIMPLEMENTED("tempfail", 62, "rcodenotimplemented", "Query not implemented by nameserver"),
+        RCODEREFUSED("tempfail", 63, "rcoderefused", "Query refused by nameserver"),
+        RCODEUNKNOWN("tempfail", 64, "rcodeunknown", "Nameserver sent unknown response code"),
+        NXDOMAIN("permfail", 300, "nxdomain", "No such domain"),
+        NODATA("permfail", 301, "nodata", "No such data");
+
+        private final String type;
+
+        private final int code;
+
+        private final String abbreviation;
+
+        private final String message;
+
+        Status(String type, int code, String abbreviation, String message) {
+            this.type = type;
+            this.code = code;
+            this.abbreviation = abbreviation;
+            this.message = message;
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.test.sink;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped in 1GB windows, so that it may be larger than one {@link MappedByteBuffer}.
+ * Longs and ints must be aligned to their size, then they never straddle two windows.
+ */
+final class MappedFile {
+
+    private static final int WINDOW_BITS = 30;
+
+    private static final long WINDOW_SIZE = 1L << WINDOW_BITS;
+
+    private final MappedByteBuffer[] windows;
+
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] windows, long size) {
+        this.windows = windows;
+        this.size = size;
+    }
+
+    static MappedFile create(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            return map(channel, FileChannel.MapMode.READ_WRITE, size);
+        }
+    }
+
+    static MappedFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+        }
+    }
+
+    private static MappedFile map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((size + WINDOW_SIZE - 1) >>> WINDOW_BITS)];
+        for (int i = 0; i < windows.length; i++) {
+            long position = (long) i << WINDOW_BITS;
+            windows[i] = channel.map(mode, position, Math.min(WINDOW_SIZE, size - position));
+            windows[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new MappedFile(windows, size);
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long position) {
+        return window(position).get(offset(position));
+    }
+
+    void put(long position, byte value) {
+        window(position).put(offset(position), value);
+    }
+
+    short getShort(long position) {
+        return window(position).getShort(offset(position));
+    }
+
+    void putShort(long position, short value) {
+        window(position).putShort(offset(position), value);
+    }
+
+    int getInt(long position) {
+        return window(position).getInt(offset(position));
+    }
+
+    void putInt(long position, int value) {
+        window(position).putInt(offset(position), value);
+    }
+
+    long getLong(long position) {
+        return window(position).getLong(offset(position));
+    }
+
+    void putLong(long position, long value) {
+        window(position).putLong(offset(position), value);
+    }
+
+    void force() {
+        for (MappedByteBuffer window : windows) {
+            window.force();
+        }
+    }
+
+    private MappedByteBuffer window(long position) {
+        return windows[(int) (position >>> WINDOW_BITS)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (WINDOW_SIZE - 1));
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.test.sink;
+
+import org.test.cache.DnsCache;
+import org.test.resolver.DnsAnswer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+
+/**
+ * Reads a file written by {@link ResultSink} in place, possibly while the sink is still appending to it.
+ * Records are addressed by their number, {@link #count()} tells how many of them are complete.
+ */
+public final class ResultReader {
+
+    public static final int FAILURE_NONE = 0;
+
+    public static final int FAILURE_TIMEOUT = 1;
+
+    public static final int FAILURE_OTHER = 2;
+
+    private final MappedFile file;
+
+    private final int recordBytes;
+
+    private final int maxIpv4;
+
+    private final long indexMask;
+
+    private final long recordsStart;
+
+    private final long namesStart;
+
+    private ResultReader(MappedFile file) throws IOException {
+        if (file.size() < ResultSink.HEADER_BYTES || file.getLong(ResultSink.OFFSET_MAGIC) != ResultSink.MAGIC) {
+            throw new IOException("Not a DNS result file");
+        }
+
+        int version = file.getInt(ResultSink.OFFSET_VERSION);
+        if (version != ResultSink.VERSION) {
+            throw new IOException("Unsupported DNS result file version " + version);
+        }
+
+        this.file = file;
+        this.recordBytes = file.getInt(ResultSink.OFFSET_RECORD_BYTES);
+        this.maxIpv4 = file.getInt(ResultSink.OFFSET_MAX_IPV4);
+
+        long slots = file.getLong(ResultSink.OFFSET_INDEX_SLOTS);
+        long capacity = file.getLong(ResultSink.OFFSET_CAPACITY);
+        this.indexMask = slots - 1;
+        this.recordsStart = ResultSink.HEADER_BYTES + slots * ResultSink.SLOT_BYTES;
+        this.namesStart = recordsStart + capacity * recordBytes;
+
+        if (Long.bitCount(slots) != 1 || namesStart + file.getLong(ResultSink.OFFSET_NAME_BYTES) != file.size()) {
+            throw new IOException("Corrupted DNS result file, " + slots + " slots in " + file.size() + " bytes");
+        }
+    }
+
+    public static ResultReader open(Path path) throws IOException {
+        return new ResultReader(MappedFile.open(path));
+    }
+
+    /**
+     * @return the number of complete records, grows while the sink appends
+     */
+    public long count() {
+        return file.getLong(ResultSink.OFFSET_COUNT);
+    }
+
+    /**
+     * @return the number of the latest record of the name or -1
+     */
+    public long find(CharSequence name) {
+        long key = DnsCache.key(name);
+        long count = count();
+
+        long slot = key & indexMask;
+        while (true) {
+            long position = ResultSink.HEADER_BYTES + slot * ResultSink.SLOT_BYTES;
+            long k = file.getLong(position);
+            if (k == 0) {
+                return -1;
+            }
+            if (k == key) {
+                long record = file.getLong(position + 8) - 1;
+                return record < count ? record : -1;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    public String name(long record) {
+        long position = namesStart + file.getLong(offset(record) + ResultSink.RECORD_NAME);
+        int length = file.get(position) & 0xFF;
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) file.get(position + 1 + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the response code or -1 if the lookup failed without an answer, see {@link #failure}
+     */
+    public int rcode(long record) {
+        return file.get(offset(record) + ResultSink.RECORD_RCODE);
+    }
+
+    public int failure(long record) {
+        return file.get(offset(record) + ResultSink.RECORD_FAILURE);
+    }
+
+    public int ttl(long record) {
+        return file.getInt(offset(record) + ResultSink.RECORD_TTL);
+    }
+
+    public long resolvedAtMillis(long record) {
+        return file.getLong(offset(record) + ResultSink.RECORD_RESOLVED_AT);
+    }
+
+    public int latencyMicros(long record) {
+        return file.getInt(offset(record) + ResultSink.RECORD_LATENCY);
+    }
+
+    public int upstream(long record) {
+        return file.getShort(offset(record) + ResultSink.RECORD_UPSTREAM) & 0xFFFF;
+    }
+
+    public int attempt(long record) {
+        return file.get(offset(record) + ResultSink.RECORD_ATTEMPT) & 0xFF;
+    }
+
+    public int ipv4Count(long record) {
+        return file.get(offset(record) + ResultSink.RECORD_IPV4_COUNT);
+    }
+
+    /**
+     * @return the IPv4 address packed into an int, see {@code DnsAnswer.toInt}
+     */
+    public int ipv4(long record, int index) {
+        return file.getInt(offset(record) + ResultSink.RECORD_ADDRESSES + index * 4);
+    }
+
+    public int ipv6Count(long record) {
+        return file.get(offset(record) + ResultSink.RECORD_IPV6_COUNT);
+    }
+
+    public byte[] ipv6(long record, int index) {
+        long position = offset(record) + ResultSink.RECORD_ADDRESSES + maxIpv4 * 4 + index * ResultSink.IPV6_BYTES;
+
+        byte[] address = new byte[ResultSink.IPV6_BYTES];
+        for (int i = 0; i < address.length; i++) {
+            address[i] = file.get(position + i);
+        }
+        return address;
+    }
+
+    public InetAddress[] addresses(long record) throws UnknownHostException {
+        int ipv4 = ipv4Count(record);
+        int ipv6 = ipv6Count(record);
+
+        String name = name(record);
+
+        InetAddress[] result = new InetAddress[ipv4 + ipv6];
+        for (int i = 0; i < ipv4; i++) {
+            result[i] = DnsAnswer.toInetAddress(name, ipv4(record, i));
+        }
+        for (int i = 0; i < ipv6; i++) {
+            result[ipv4 + i] = InetAddress.getByAddress(name, ipv6(record, i));
+        }
+        return result;
+    }
+
+    private long offset(long record) {
+        return recordsStart + record * recordBytes;
+    }
+
+}
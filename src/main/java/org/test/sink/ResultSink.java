@@ -0,0 +1,313 @@
+package org.test.sink;
+
+import org.test.bulk.DnsResult;
+import org.test.cache.DnsCache;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends resolution results as fixed-layout binary records to a memory-mapped file, with an open-addressing
+ * index by name, so that {@link ResultReader}s may look results up and read them in place while the resolution
+ * is still running: a record is visible once the count in the header covers it. A name appended again points
+ * the index to its latest record. IPv6 addresses of dual-stack answers are kept up to {@code maxIpv6},
+ * in network byte order.
+ * <p>
+ * The file is sized for {@code capacity} records when it is created, a full sink rejects further results
+ * with {@link IllegalStateException}.
+ * <pre>
+ * header  (64 bytes): magic, version, record bytes, max IPv4, max IPv6, capacity, index slots,
+ *                     name bytes, record count, used name bytes
+ * index   (16 bytes per slot): name key ({@code DnsCache.key}), record number + 1
+ * records (record bytes each): name offset, resolved at (epoch millis), TTL, latency (us), upstream,
+ *                     rcode, attempt, IPv4 count, IPv6 count, failure, padding, IPv4 addresses, IPv6 addresses
+ * names:  length byte followed by the ASCII name
+ * </pre>
+ */
+public class ResultSink implements AutoCloseable {
+
+    static final long MAGIC = 0x544C5553524E4444L; // "DDNRSULT"
+
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 64;
+
+    static final int OFFSET_MAGIC = 0;
+
+    static final int OFFSET_VERSION = 8;
+
+    static final int OFFSET_RECORD_BYTES = 12;
+
+    static final int OFFSET_MAX_IPV4 = 16;
+
+    static final int OFFSET_MAX_IPV6 = 20;
+
+    static final int OFFSET_CAPACITY = 24;
+
+    static final int OFFSET_INDEX_SLOTS = 32;
+
+    static final int OFFSET_NAME_BYTES = 40;
+
+    static final int OFFSET_COUNT = 48;
+
+    static final int OFFSET_NAMES_USED = 56;
+
+    static final int SLOT_BYTES = 16;
+
+    static final int RECORD_NAME = 0;
+
+    static final int RECORD_RESOLVED_AT = 8;
+
+    static final int RECORD_TTL = 16;
+
+    static final int RECORD_LATENCY = 20;
+
+    static final int RECORD_UPSTREAM = 24;
+
+    static final int RECORD_RCODE = 26;
+
+    static final int RECORD_ATTEMPT = 27;
+
+    static final int RECORD_IPV4_COUNT = 28;
+
+    static final int RECORD_IPV6_COUNT = 29;
+
+    static final int RECORD_FAILURE = 30;
+
+    static final int RECORD_ADDRESSES = 32;
+
+    static final int IPV6_BYTES = 16;
+
+    private final MappedFile file;
+
+    private final long capacity;
+
+    private final int recordBytes;
+
+    private final int maxIpv4;
+
+    private final int maxIpv6;
+
+    private final long indexMask;
+
+    private final long recordsStart;
+
+    private final long namesStart;
+
+    private final long nameBytes;
+
+    private long count;
+
+    private long namesUsed;
+
+    // written after every record, orders the record stores before the count store for the readers of this JVM
+    private volatile long published;
+
+    private ResultSink(Builder builder) throws IOException {
+        this.capacity = builder.capacity;
+        this.maxIpv4 = builder.maxIpv4;
+        this.maxIpv6 = builder.maxIpv6;
+        this.recordBytes = recordBytes(maxIpv4, maxIpv6);
+        this.nameBytes = (builder.nameBytes + 7) & ~7L;
+
+        // load factor of at most 1/2
+        long slots = Long.highestOneBit(Math.max(16L, capacity * 2)) << 1;
+        this.indexMask = slots - 1;
+        this.recordsStart = HEADER_BYTES + slots * SLOT_BYTES;
+        this.namesStart = recordsStart + capacity * recordBytes;
+
+        this.file = MappedFile.create(builder.path, namesStart + nameBytes);
+
+        file.putInt(OFFSET_VERSION, VERSION);
+        file.putInt(OFFSET_RECORD_BYTES, recordBytes);
+        file.putInt(OFFSET_MAX_IPV4, maxIpv4);
+        file.putInt(OFFSET_MAX_IPV6, maxIpv6);
+        file.putLong(OFFSET_CAPACITY, capacity);
+        file.putLong(OFFSET_INDEX_SLOTS, slots);
+        file.putLong(OFFSET_NAME_BYTES, nameBytes);
+        file.putLong(OFFSET_COUNT, 0);
+        file.putLong(OFFSET_NAMES_USED, 0);
+
+        // the magic goes last, a half-initialized file is never mistaken for a result file
+        file.putLong(OFFSET_MAGIC, MAGIC);
+    }
+
+    public static Builder builder(Path path) {
+        return new Builder(path);
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * @param upstream the id of the upstream which produced the result, meaningful to the caller only
+     * @return the record number
+     */
+    public long append(DnsResult result, int upstream) {
+        return append(result.domain(), result.answer(), result.cause(), result.elapsedNanos(), result.attempt(),
+                upstream);
+    }
+
+    /**
+     * @param answer the answer or null if the lookup failed with the cause
+     * @return the record number
+     */
+    public synchronized long append(CharSequence name, DnsAnswer answer, Throwable cause, long latencyNanos,
+                                    int attempt, int upstream)
+    {
+        if (count == capacity) {
+            throw new IllegalStateException("Result sink is full: " + capacity + " records");
+        }
+
+        int length = Math.min(name.length(), 255);
+        if (namesUsed + 1 + length > nameBytes) {
+            throw new IllegalStateException("Result sink is out of name space: " + nameBytes + " bytes");
+        }
+
+        long nameOffset = namesUsed;
+        long position = namesStart + nameOffset;
+        file.put(position, (byte) length);
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            file.put(position + 1 + i, (byte) (c < 0x80 ? c : '?'));
+        }
+
+        long record = count;
+        long offset = recordsStart + record * recordBytes;
+
+        file.putLong(offset + RECORD_NAME, nameOffset);
+        file.putLong(offset + RECORD_RESOLVED_AT, System.currentTimeMillis());
+        file.putInt(offset + RECORD_LATENCY, (int) Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), Integer.MAX_VALUE));
+        file.putShort(offset + RECORD_UPSTREAM, (short) upstream);
+        file.put(offset + RECORD_ATTEMPT, (byte) attempt);
+        file.put(offset + RECORD_IPV6_COUNT, (byte) 0);
+
+        if (answer != null) {
+            int[] addresses = answer.addresses();
+            int ipv4 = Math.min(addresses.length, maxIpv4);
+            for (int i = 0; i < ipv4; i++) {
+                file.putInt(offset + RECORD_ADDRESSES + i * 4, addresses[i]);
+            }
+
+            long[] addresses6 = answer.ipv6();
+            int ipv6 = Math.min(answer.ipv6Count(), maxIpv6);
+            for (int i = 0; i < ipv6; i++) {
+                long slot = offset + RECORD_ADDRESSES + maxIpv4 * 4 + i * IPV6_BYTES;
+                for (int b = 0; b < 8; b++) {
+                    file.put(slot + b, (byte) (addresses6[2 * i] >>> (56 - 8 * b)));
+                    file.put(slot + 8 + b, (byte) (addresses6[2 * i + 1] >>> (56 - 8 * b)));
+                }
+            }
+            file.put(offset + RECORD_IPV6_COUNT, (byte) ipv6);
+
+            file.putInt(offset + RECORD_TTL, answer.ttl());
+            file.put(offset + RECORD_RCODE, (byte) answer.rcode());
+            file.put(offset + RECORD_IPV4_COUNT, (byte) ipv4);
+            file.put(offset + RECORD_FAILURE, (byte) ResultReader.FAILURE_NONE);
+        } else {
+            file.putInt(offset + RECORD_TTL, 0);
+            file.put(offset + RECORD_RCODE, (byte) -1);
+            file.put(offset + RECORD_IPV4_COUNT, (byte) 0);
+            file.put(offset + RECORD_FAILURE, (byte) (Futures.isTimeout(cause)
+                    ? ResultReader.FAILURE_TIMEOUT
+                    : ResultReader.FAILURE_OTHER));
+        }
+
+        index(DnsCache.key(name), record);
+
+        count++;
+        namesUsed += 1 + length;
+        published = count;
+
+        file.putLong(OFFSET_NAMES_USED, namesUsed);
+        file.putLong(OFFSET_COUNT, count);
+
+        return record;
+    }
+
+    public synchronized void flush() {
+        file.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        // the mapping is released by the GC, like the one of DnsCacheSnapshot
+        file.force();
+    }
+
+    private void index(long key, long record) {
+        long slot = key & indexMask;
+        while (true) {
+            long position = HEADER_BYTES + slot * SLOT_BYTES;
+            long k = file.getLong(position);
+            if (k == 0 || k == key) {
+                // the record goes first, a reader never sees the key without it
+                file.putLong(position + 8, record + 1);
+                file.putLong(position, key);
+                return;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    static int recordBytes(int maxIpv4, int maxIpv6) {
+        int bytes = RECORD_ADDRESSES + maxIpv4 * 4 + maxIpv6 * IPV6_BYTES;
+        return (bytes + 7) & ~7;
+    }
+
+    public static final class Builder {
+
+        private final Path path;
+
+        private long capacity = 1 << 20;
+
+        private long nameBytes = -1;
+
+        private int maxIpv4 = DnsCache.MAX_ADDRESSES;
+
+        private int maxIpv6 = 0;
+
+        private Builder(Path path) {
+            this.path = path;
+        }
+
+        public Builder capacity(long records) {
+            this.capacity = records;
+            return this;
+        }
+
+        /**
+         * @param bytes the space for the names, 32 bytes per record by default
+         */
+        public Builder nameBytes(long bytes) {
+            this.nameBytes = bytes;
+            return this;
+        }
+
+        public Builder maxAddresses(int ipv4, int ipv6) {
+            this.maxIpv4 = ipv4;
+            this.maxIpv6 = ipv6;
+            return this;
+        }
+
+        public ResultSink build() throws IOException {
+            if (capacity < 1 || capacity > (1L << 40)) {
+                throw new IllegalArgumentException("Invalid capacity: " + capacity);
+            }
+            if (maxIpv4 < 0 || maxIpv4 > 127 || maxIpv6 < 0 || maxIpv6 > 127) {
+                throw new IllegalArgumentException("Invalid max addresses: " + maxIpv4 + " / " + maxIpv6);
+            }
+            if (nameBytes < 0) {
+                nameBytes = capacity * 32;
+            }
+
+            return new ResultSink(this);
+        }
+
+    }
+
+}
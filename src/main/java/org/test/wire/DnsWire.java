@@ -0,0 +1,419 @@
+package org.test.wire;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encodes A/AAAA queries and decodes their responses directly on {@link ByteBuf}s.
+ * <p>
+ * Names are never materialized: the question is compared with the pending name and the answer owners
+ * with the CNAME chain in place, following compression pointers, so decoding a response allocates nothing.
+ */
+public final class DnsWire {
+
+    public static final int TYPE_A = 1;
+
+    public static final int TYPE_CNAME = 5;
+
+    public static final int TYPE_SOA = 6;
+
+    public static final int TYPE_AAAA = 28;
+
+    public static final int TYPE_OPT = 41;
+
+    public static final int CLASS_IN = 1;
+
+    public static final int HEADER_SIZE = 12;
+
+    public static final int MAX_NAME_LENGTH = 255;
+
+    public static final int FLAG_QR = 0x8000;
+
+    public static final int FLAG_TC = 0x0200;
+
+    public static final int FLAG_RD = 0x0100;
+
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    // bounds the work on a malicious packet with pointer loops or endless CNAME chains
+    private static final int MAX_POINTERS = 32;
+
+    private static final int MAX_CNAME_CHAIN = 16;
+
+    private DnsWire() {
+    }
+
+    /**
+     * @return the upper bound of the encoded query size, to size the buffer up front
+     */
+    public static int querySize(CharSequence name) {
+        // header, name with the root label, type and class, OPT record
+        return HEADER_SIZE + name.length() + 2 + 4 + 11;
+    }
+
+    /**
+     * Writes a recursive query. An OPT record advertising {@code payloadSize} is added unless it is 0.
+     *
+     * @return false if the name is not a valid ASCII domain name, the buffer is left as it was
+     */
+    public static boolean encodeQuery(ByteBuf out, int id, CharSequence name, int type, int payloadSize) {
+        int start = out.writerIndex();
+
+        out.writeShort(id);
+        out.writeShort(FLAG_RD);
+        out.writeShort(1);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(payloadSize > 0 ? 1 : 0);
+
+        if (!encodeName(out, name)) {
+            out.writerIndex(start);
+            return false;
+        }
+
+        out.writeShort(type);
+        out.writeShort(CLASS_IN);
+
+        if (payloadSize > 0) {
+            out.writeByte(0);
+            out.writeShort(TYPE_OPT);
+            out.writeShort(payloadSize);
+            out.writeInt(0);
+            out.writeShort(0);
+        }
+
+        return true;
+    }
+
+    private static boolean encodeName(ByteBuf out, CharSequence name) {
+        int length = length(name);
+        if (length > MAX_NAME_LENGTH - 2) {
+            return false;
+        }
+
+        int labelStart = out.writerIndex();
+        out.writeByte(0);
+
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+
+            if (c == '.') {
+                int labelLength = out.writerIndex() - labelStart - 1;
+                if (labelLength == 0) {
+                    return false;
+                }
+                out.setByte(labelStart, labelLength);
+
+                labelStart = out.writerIndex();
+                out.writeByte(0);
+            } else if (c < 0x80 && out.writerIndex() - labelStart <= MAX_LABEL_LENGTH) {
+                out.writeByte(c);
+            } else {
+                // IDNs have to be converted to punycode by the caller
+                return false;
+            }
+        }
+
+        int labelLength = out.writerIndex() - labelStart - 1;
+        if (labelLength > 0) {
+            out.setByte(labelStart, labelLength);
+            out.writeByte(0);
+        }
+
+        return true;
+    }
+
+    /**
+     * Decodes the response to the query for {@code name} and {@code type}.
+     *
+     * @return false if the packet is malformed or is not a response to this question
+     */
+    public static boolean decode(ByteBuf in, CharSequence name, int type, WireResponse out) {
+        int base = in.readerIndex();
+        int limit = in.writerIndex();
+
+        if (limit - base < HEADER_SIZE) {
+            return false;
+        }
+
+        int flags = in.getUnsignedShort(base + 2);
+        if ((flags & FLAG_QR) == 0) {
+            return false;
+        }
+
+        int qdCount = in.getUnsignedShort(base + 4);
+        int anCount = in.getUnsignedShort(base + 6);
+        int nsCount = in.getUnsignedShort(base + 8);
+
+        out.reset(type, flags & 0x0F, (flags & FLAG_TC) != 0);
+
+        if (qdCount == 0) {
+            // some servers drop the question from error responses
+            return out.rcode() != 0;
+        }
+
+        int pos = base + HEADER_SIZE;
+        if (qdCount != 1 || !nameEquals(in, base, pos, name)) {
+            return false;
+        }
+
+        int question = pos;
+        pos = skipName(in, pos);
+        if (pos < 0 || pos + 4 > limit || in.getUnsignedShort(pos) != type) {
+            return false;
+        }
+        pos += 4;
+
+        int answers = pos;
+        int authority = skipRecords(in, answers, anCount);
+        if (authority < 0) {
+            return false;
+        }
+
+        long ttl = Integer.MAX_VALUE;
+
+        // follows the CNAME chain from the question name to the final target, whatever the record order
+        int target = question;
+        for (int chain = 0; chain < MAX_CNAME_CHAIN; chain++) {
+            int next = -1;
+
+            pos = answers;
+            for (int i = 0; i < anCount && next < 0; i++) {
+                int owner = pos;
+                pos = skipName(in, pos);
+
+                int recordType = in.getUnsignedShort(pos);
+                int rdLength = in.getUnsignedShort(pos + 8);
+
+                if (recordType == TYPE_CNAME && nameEquals(in, base, owner, target)) {
+                    next = pos + 10;
+                    ttl = Math.min(ttl, in.getUnsignedInt(pos + 4));
+                }
+
+                pos += 10 + rdLength;
+            }
+
+            if (next < 0) {
+                break;
+            }
+            target = next;
+        }
+
+        pos = answers;
+        for (int i = 0; i < anCount; i++) {
+            int owner = pos;
+            pos = skipName(in, pos);
+
+            int recordType = in.getUnsignedShort(pos);
+            int rdLength = in.getUnsignedShort(pos + 8);
+            int rdata = pos + 10;
+
+            if (recordType == type && nameEquals(in, base, owner, target)) {
+                if (type == TYPE_A && rdLength == 4) {
+                    out.add(in.getInt(rdata));
+                    ttl = Math.min(ttl, in.getUnsignedInt(pos + 4));
+                } else if (type == TYPE_AAAA && rdLength == 16) {
+                    for (int j = 0; j < 16; j += 4) {
+                        out.add(in.getInt(rdata + j));
+                    }
+                    ttl = Math.min(ttl, in.getUnsignedInt(pos + 4));
+                }
+            }
+
+            pos = rdata + rdLength;
+        }
+
+        if (out.valueCount() > 0) {
+            out.ttl((int) ttl);
+            return true;
+        }
+
+        // RFC 2308: min of the SOA record TTL and its MINIMUM field, which is the last 4 bytes of the rdata
+        pos = authority;
+        for (int i = 0; i < nsCount; i++) {
+            pos = skipName(in, pos);
+            if (pos < 0 || pos + 10 > limit) {
+                break;
+            }
+
+            int recordType = in.getUnsignedShort(pos);
+            int rdLength = in.getUnsignedShort(pos + 8);
+            int rdata = pos + 10;
+
+            if (rdata + rdLength > limit) {
+                break;
+            }
+
+            if (recordType == TYPE_SOA && rdLength >= 22) {
+                long minimum = in.getUnsignedInt(rdata + rdLength - 4);
+                out.ttl((int) Math.min(in.getUnsignedInt(pos + 4), minimum));
+                break;
+            }
+
+            pos = rdata + rdLength;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the offset after {@code count} records, or -1 if they do not fit in the packet
+     */
+    private static int skipRecords(ByteBuf in, int pos, int count) {
+        int limit = in.writerIndex();
+
+        for (int i = 0; i < count; i++) {
+            pos = skipName(in, pos);
+            if (pos < 0 || pos + 10 > limit) {
+                return -1;
+            }
+
+            pos += 10 + in.getUnsignedShort(pos + 8);
+            if (pos > limit) {
+                return -1;
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * @return the offset after the name at {@code pos}, or -1 if it runs out of the packet
+     */
+    public static int skipName(ByteBuf in, int pos) {
+        int limit = in.writerIndex();
+
+        while (pos < limit) {
+            int length = in.getUnsignedByte(pos);
+
+            if (length == 0) {
+                return pos + 1;
+            } else if ((length & 0xC0) == 0xC0) {
+                return pos + 2 <= limit ? pos + 2 : -1;
+            } else if ((length & 0xC0) != 0) {
+                return -1;
+            }
+
+            pos += 1 + length;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compares the name at {@code pos} with a dotted name, ASCII case-insensitive.
+     */
+    static boolean nameEquals(ByteBuf in, int base, int pos, CharSequence name) {
+        int length = length(name);
+        int limit = in.writerIndex();
+
+        int i = 0;
+        int pointers = 0;
+
+        while (pos < limit) {
+            int labelLength = in.getUnsignedByte(pos);
+
+            if (labelLength == 0) {
+                return i == length;
+            } else if ((labelLength & 0xC0) == 0xC0) {
+                if (pos + 2 > limit || ++pointers > MAX_POINTERS) {
+                    return false;
+                }
+                pos = base + (in.getUnsignedShort(pos) & 0x3FFF);
+                continue;
+            } else if ((labelLength & 0xC0) != 0 || pos + 1 + labelLength > limit) {
+                return false;
+            }
+
+            if (i > 0) {
+                if (i >= length || name.charAt(i) != '.') {
+                    return false;
+                }
+                i++;
+            }
+
+            if (i + labelLength > length) {
+                return false;
+            }
+
+            for (int j = 0; j < labelLength; j++) {
+                if (lower(in.getByte(pos + 1 + j)) != lower(name.charAt(i + j))) {
+                    return false;
+                }
+            }
+
+            i += labelLength;
+            pos += 1 + labelLength;
+        }
+
+        return false;
+    }
+
+    /**
+     * Compares two names of the same packet, ASCII case-insensitive.
+     */
+    static boolean nameEquals(ByteBuf in, int base, int pos1, int pos2) {
+        int limit = in.writerIndex();
+        int pointers = 0;
+
+        while (true) {
+            if (pos1 == pos2) {
+                return true;
+            }
+
+            if (pos1 >= limit || pos2 >= limit) {
+                return false;
+            }
+
+            int length1 = in.getUnsignedByte(pos1);
+            int length2 = in.getUnsignedByte(pos2);
+
+            if ((length1 & 0xC0) == 0xC0 || (length2 & 0xC0) == 0xC0) {
+                if (++pointers > MAX_POINTERS) {
+                    return false;
+                }
+                if ((length1 & 0xC0) == 0xC0) {
+                    if (pos1 + 2 > limit) {
+                        return false;
+                    }
+                    pos1 = base + (in.getUnsignedShort(pos1) & 0x3FFF);
+                }
+                if ((length2 & 0xC0) == 0xC0) {
+                    if (pos2 + 2 > limit) {
+                        return false;
+                    }
+                    pos2 = base + (in.getUnsignedShort(pos2) & 0x3FFF);
+                }
+                continue;
+            }
+
+            if (length1 != length2 || (length1 & 0xC0) != 0 || pos1 + 1 + length1 > limit
+                    || pos2 + 1 + length2 > limit)
+            {
+                return false;
+            }
+
+            if (length1 == 0) {
+                return true;
+            }
+
+            for (int j = 1; j <= length1; j++) {
+                if (lower(in.getByte(pos1 + j)) != lower(in.getByte(pos2 + j))) {
+                    return false;
+                }
+            }
+
+            pos1 += 1 + length1;
+            pos2 += 1 + length2;
+        }
+    }
+
+    private static int length(CharSequence name) {
+        int length = name.length();
+        return length > 0 && name.charAt(length - 1) == '.' ? length - 1 : length;
+    }
+
+    private static int lower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c & 0xFF;
+    }
+
+}
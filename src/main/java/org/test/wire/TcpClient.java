@@ -0,0 +1,550 @@
+package org.test.wire;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A/AAAA client over a small pool of persistent TCP connections to one server (RFC 7766).
+ * <p>
+ * Every connection pipelines up to {@code maxPipelined} queries and matches the responses by id, in whatever
+ * order the server sends them. A query goes to the least loaded connection, a new connection is opened
+ * only when all the open ones are busy, and queries wait in a backlog when the whole pool is full.
+ * Connections idle for {@code idleTimeoutMillis} are closed and reopened on demand. When the server closes
+ * a connection the queries it did not answer are sent again once on another connection.
+ * <p>
+ * Like {@link WireClient} all the state lives on one event loop, the handler is called there exactly once,
+ * and writes issued within one event loop turn go out with a single flush.
+ */
+public class TcpClient implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TcpClient.class);
+
+    private static final int ID_SPACE = 1 << 16;
+
+    private static final int MAX_MESSAGE = 0xFFFF;
+
+    private final EventLoop eventLoop;
+
+    private final InetSocketAddress server;
+
+    private final long timeoutNanos;
+
+    private final long idleTimeoutNanos;
+
+    private final int maxPipelined;
+
+    private final Bootstrap bootstrap;
+
+    private final Connection[] connections;
+
+    private final ArrayDeque<Query> backlog = new ArrayDeque<>();
+
+    private final ScheduledFuture<?> sweeper;
+
+    private final WireResponse response = new WireResponse();
+
+    private final LongAdder connects = new LongAdder();
+
+    private final LongAdder resent = new LongAdder();
+
+    private boolean closed;
+
+    private TcpClient(Builder builder) {
+        this.eventLoop = builder.eventLoop;
+        this.server = builder.server;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.timeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.idleTimeoutMillis);
+        this.maxPipelined = builder.maxPipelined;
+        this.connections = new Connection[builder.connections];
+
+        this.bootstrap = new Bootstrap()
+                .group(eventLoop)
+                .channel(EpollSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(Integer.MAX_VALUE, builder.timeoutMillis))
+                .remoteAddress(server);
+
+        long tick = Math.max(1, Math.min(100, builder.timeoutMillis / 10));
+        this.sweeper = eventLoop.scheduleAtFixedRate(this::expire, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    public InetSocketAddress server() {
+        return server;
+    }
+
+    /**
+     * @return the number of connections opened so far, reconnections included
+     */
+    public long connects() {
+        return connects.sum();
+    }
+
+    /**
+     * @return the number of queries sent again after the server closed their connection
+     */
+    public long resent() {
+        return resent.sum();
+    }
+
+    /**
+     * Number of open connections, only exact when called on the event loop.
+     */
+    public int connectionCount() {
+        int count = 0;
+        for (Connection connection : connections) {
+            if (connection != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends a query for {@code name} of {@code type} ({@link DnsWire#TYPE_A} or {@link DnsWire#TYPE_AAAA}).
+     * The handler is called exactly once on the event loop of the client, the name must not change until then.
+     */
+    public void query(CharSequence name, int type, Object attachment, WireHandler handler) {
+        Query query = new Query(name, type, attachment, handler, System.nanoTime() + timeoutNanos);
+
+        if (eventLoop.inEventLoop()) {
+            dispatch(query);
+        } else {
+            eventLoop.execute(() -> dispatch(query));
+        }
+    }
+
+    /**
+     * Closes the connections and fails the pending queries, must not be called on the event loop.
+     */
+    @Override
+    public void close() {
+        List<ChannelFuture> closing = new ArrayList<>();
+
+        eventLoop.submit(() -> {
+            closed = true;
+            sweeper.cancel(false);
+
+            for (Connection connection : connections) {
+                if (connection != null) {
+                    closing.add(connection.channel.close());
+                }
+            }
+
+            while (!backlog.isEmpty()) {
+                backlog.poll().fail(WireException.CLOSED);
+            }
+        }).syncUninterruptibly();
+
+        for (ChannelFuture future : closing) {
+            future.syncUninterruptibly();
+        }
+    }
+
+    private void dispatch(Query query) {
+        if (closed) {
+            query.fail(WireException.CLOSED);
+            return;
+        }
+
+        Connection connection = pick();
+        if (connection != null) {
+            connection.send(query);
+        } else {
+            backlog.add(query);
+        }
+    }
+
+    private Connection pick() {
+        Connection best = null;
+        int free = -1;
+
+        for (int i = 0; i < connections.length; i++) {
+            Connection connection = connections[i];
+            if (connection == null) {
+                free = i;
+            } else if (connection.pending.size() < maxPipelined
+                    && (best == null || connection.pending.size() < best.pending.size()))
+            {
+                best = connection;
+            }
+        }
+
+        // an idle connection is free, a busy one is only used when the pool is full
+        if ((best == null || !best.pending.isEmpty()) && free >= 0) {
+            best = new Connection(free);
+            connections[free] = best;
+        }
+
+        return best;
+    }
+
+    private void drainBacklog() {
+        while (!backlog.isEmpty()) {
+            Connection connection = pick();
+            if (connection == null) {
+                return;
+            }
+            connection.send(backlog.poll());
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+
+        for (Connection connection : connections) {
+            if (connection != null) {
+                connection.expire(now);
+            }
+        }
+
+        Iterator<Query> iterator = backlog.iterator();
+        while (iterator.hasNext()) {
+            Query query = iterator.next();
+            if (now - query.deadline >= 0) {
+                iterator.remove();
+                query.fail(WireException.TIMEOUT);
+            }
+        }
+
+        drainBacklog();
+    }
+
+    private static final class Query {
+
+        private final CharSequence name;
+
+        private final int type;
+
+        private final Object attachment;
+
+        private final WireHandler handler;
+
+        private final long deadline;
+
+        private boolean resent;
+
+        private Query(CharSequence name, int type, Object attachment, WireHandler handler, long deadline) {
+            this.name = name;
+            this.type = type;
+            this.attachment = attachment;
+            this.handler = handler;
+            this.deadline = deadline;
+        }
+
+        private void fail(Throwable cause) {
+            try {
+                handler.onFailure(attachment, cause);
+            } catch (RuntimeException e) {
+                LOGGER.warn("DNS response handler failed", e);
+            }
+        }
+
+    }
+
+    private final class Connection extends ChannelInboundHandlerAdapter {
+
+        private final int slot;
+
+        private final Channel channel;
+
+        private final IntObjectHashMap<Query> pending = new IntObjectHashMap<>();
+
+        private boolean active;
+
+        private boolean flushScheduled;
+
+        private long idleSince = System.nanoTime();
+
+        private Throwable failure;
+
+        private final Runnable flushTask = this::flush;
+
+        private Connection(int slot) {
+            this.slot = slot;
+
+            connects.increment();
+
+            ChannelFuture connect = bootstrap.clone()
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            // the max frame length counts the 2 byte length prefix too
+                            ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_MESSAGE + 2, 0, 2, 0, 2));
+                            ch.pipeline().addLast(Connection.this);
+                        }
+                    })
+                    .connect();
+
+            this.channel = connect.channel();
+
+            connect.addListener(f -> {
+                if (f.isSuccess()) {
+                    onConnected();
+                } else {
+                    failure = f.cause();
+                    channel.close();
+                }
+            });
+            channel.closeFuture().addListener(f -> onClosed());
+        }
+
+        private void send(Query query) {
+            int id = ThreadLocalRandom.current().nextInt(ID_SPACE);
+            while (pending.containsKey(id)) {
+                id = (id + 1) & (ID_SPACE - 1);
+            }
+
+            pending.put(id, query);
+
+            if (active) {
+                write(id, query);
+            }
+        }
+
+        private void onConnected() {
+            active = true;
+
+            // the queries which were assigned to the connection while it was connecting
+            List<Integer> ids = new ArrayList<>(pending.keySet());
+            for (int id : ids) {
+                write(id, pending.get(id));
+            }
+        }
+
+        private void write(int id, Query query) {
+            ByteBuf buf = channel.alloc().directBuffer(2 + DnsWire.querySize(query.name));
+            buf.writeShort(0);
+
+            if (!DnsWire.encodeQuery(buf, id, query.name, query.type, 0)) {
+                buf.release();
+                pending.remove(id);
+                query.fail(new IllegalArgumentException("Invalid domain name: " + query.name));
+                return;
+            }
+
+            // the 2-byte length prefix of RFC 1035 4.2.2
+            buf.setShort(0, buf.readableBytes() - 2);
+            channel.write(buf, channel.voidPromise());
+
+            if (!flushScheduled) {
+                flushScheduled = true;
+                eventLoop.execute(flushTask);
+            }
+        }
+
+        private void flush() {
+            flushScheduled = false;
+            channel.flush();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                onMessage((ByteBuf) msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.debug("DNS TCP connection error on {}", server, cause);
+            failure = cause;
+            ctx.close();
+        }
+
+        private void onMessage(ByteBuf content) {
+            if (content.readableBytes() < DnsWire.HEADER_SIZE) {
+                return;
+            }
+
+            int id = content.getUnsignedShort(content.readerIndex());
+
+            Query query = pending.get(id);
+            if (query == null) {
+                // a late response to a query which has already timed out
+                return;
+            }
+
+            if (!DnsWire.decode(content, query.name, query.type, response)) {
+                return;
+            }
+
+            pending.remove(id);
+            idleSince = System.nanoTime();
+
+            try {
+                query.handler.onResponse(query.attachment, response);
+            } catch (RuntimeException e) {
+                LOGGER.warn("DNS response handler failed", e);
+            }
+
+            drainBacklog();
+        }
+
+        private void expire(long now) {
+            List<Integer> expired = null;
+
+            for (IntObjectHashMap.PrimitiveEntry<Query> entry : pending.entries()) {
+                if (now - entry.value().deadline >= 0) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(entry.key());
+                }
+            }
+
+            if (expired != null) {
+                for (int id : expired) {
+                    pending.remove(id).fail(WireException.TIMEOUT);
+                }
+                idleSince = now;
+            }
+
+            if (active && pending.isEmpty() && now - idleSince >= idleTimeoutNanos) {
+                channel.close();
+            }
+        }
+
+        private void onClosed() {
+            if (connections[slot] == this) {
+                connections[slot] = null;
+            }
+
+            List<Query> queries = new ArrayList<>(pending.values());
+            pending.clear();
+
+            for (Query query : queries) {
+                if (closed) {
+                    query.fail(WireException.CLOSED);
+                } else if (!active) {
+                    // never connected, another connection to the same server would most likely fail too
+                    query.fail(failure != null ? failure : WireException.CLOSED);
+                } else if (!query.resent) {
+                    // the server may close a connection at any time, unanswered queries are sent again
+                    query.resent = true;
+                    resent.increment();
+                    dispatch(query);
+                } else {
+                    query.fail(WireException.CLOSED);
+                }
+            }
+
+            drainBacklog();
+        }
+
+    }
+
+    public static final class Builder {
+
+        private EventLoop eventLoop;
+
+        private InetSocketAddress server;
+
+        private long timeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
+        private long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+
+        private int connections = 2;
+
+        private int maxPipelined = 100;
+
+        private Builder() {
+        }
+
+        public Builder eventLoop(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        public Builder server(InetSocketAddress server) {
+            this.server = server;
+            return this;
+        }
+
+        /**
+         * Query timeout, including the time to connect and the time spent in the backlog.
+         */
+        public Builder timeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Time after which a connection without pending queries is closed.
+         */
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Maximum number of connections to the server.
+         */
+        public Builder connections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * Maximum number of outstanding queries per connection, servers commonly cap it around 100.
+         */
+        public Builder maxPipelined(int maxPipelined) {
+            this.maxPipelined = maxPipelined;
+            return this;
+        }
+
+        public TcpClient build() {
+            if (eventLoop == null || server == null) {
+                throw new IllegalArgumentException("eventLoop and server are required");
+            }
+            if (timeoutMillis <= 0) {
+                throw new IllegalArgumentException("timeoutMillis must be positive: " + timeoutMillis);
+            }
+            if (idleTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("idleTimeoutMillis must be positive: " + idleTimeoutMillis);
+            }
+            if (connections <= 0) {
+                throw new IllegalArgumentException("connections must be positive: " + connections);
+            }
+            if (maxPipelined <= 0 || maxPipelined > ID_SPACE) {
+                throw new IllegalArgumentException("maxPipelined must be in [1, 65536]: " + maxPipelined);
+            }
+
+            return new TcpClient(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.test.wire;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncResolver} over one {@link TcpClient} per event loop, e.g. the TCP upstream of
+ * {@link org.test.retry.RetryingResolver}. Pipelined persistent connections make a TCP lookup cost
+ * a round trip instead of a handshake, a round trip and a teardown.
+ */
+public class TcpResolver implements AsyncResolver, AutoCloseable {
+
+    private static final WireHandler HANDLER = new AnswerHandler();
+
+    private final EventLoopGroup group;
+
+    private final TcpClient[] clients;
+
+    private TcpResolver(Builder builder) {
+        group = new EpollEventLoopGroup(builder.shards, new DefaultThreadFactory("DNS tcp"));
+
+        clients = new TcpClient[builder.shards];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = TcpClient.builder()
+                    .eventLoop(group.next())
+                    .server(builder.server)
+                    .timeoutMillis(builder.queryTimeoutMillis)
+                    .idleTimeoutMillis(builder.idleTimeoutMillis)
+                    .connections(builder.connections)
+                    .maxPipelined(builder.maxPipelined)
+                    .build();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long connects() {
+        long connects = 0;
+        for (TcpClient client : clients) {
+            connects += client.connects();
+        }
+        return connects;
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        Query query = new Query(domain);
+
+        TcpClient client = clients[(domain.hashCode() & Integer.MAX_VALUE) % clients.length];
+        client.query(domain, DnsWire.TYPE_A, query, HANDLER);
+
+        return query;
+    }
+
+    @Override
+    public void close() {
+        for (TcpClient client : clients) {
+            client.close();
+        }
+
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private static final class Query extends CompletableFuture<DnsAnswer> {
+
+        private final String domain;
+
+        private Query(String domain) {
+            this.domain = domain;
+        }
+
+    }
+
+    private static final class AnswerHandler implements WireHandler {
+
+        @Override
+        public void onResponse(Object attachment, WireResponse response) {
+            Query query = (Query) attachment;
+
+            if (response.valueCount() > 0) {
+                query.complete(new DnsAnswer(query.domain, response.rcode(), response.ttl(), response.copyValues()));
+            } else {
+                query.complete(DnsAnswer.negative(query.domain, response.rcode(), response.ttl()));
+            }
+        }
+
+        @Override
+        public void onFailure(Object attachment, Throwable cause) {
+            ((Query) attachment).completeExceptionally(cause);
+        }
+
+    }
+
+    public static final class Builder {
+
+        private int shards = 1;
+
+        private int connections = 2;
+
+        private int maxPipelined = 100;
+
+        private long queryTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
+        private long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+
+        private InetSocketAddress server;
+
+        private Builder() {
+        }
+
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Connections per shard.
+         */
+        public Builder connections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        public Builder maxPipelined(int maxPipelined) {
+            this.maxPipelined = maxPipelined;
+            return this;
+        }
+
+        public Builder queryTimeoutMillis(long queryTimeoutMillis) {
+            this.queryTimeoutMillis = queryTimeoutMillis;
+            return this;
+        }
+
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        public Builder server(InetSocketAddress server) {
+            this.server = server;
+            return this;
+        }
+
+        public TcpResolver build() {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("shards must be positive");
+            }
+            if (server == null) {
+                throw new IllegalArgumentException("name server is not set");
+            }
+
+            return new TcpResolver(this);
+        }
+
+    }
+
+}
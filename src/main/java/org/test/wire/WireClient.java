@@ -0,0 +1,376 @@
+package org.test.wire;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lightweight A/AAAA client over one connected {@link EpollDatagramChannel}.
+ * <p>
+ * All the state lives on the event loop of the channel and is kept in primitive arrays indexed by the
+ * 16-bit query id, which are probed from a random start to find a free id. Queries are encoded straight into
+ * pooled direct buffers and responses are decoded in place by {@link DnsWire}, so a query issued from
+ * the event loop allocates nothing but its buffer. Queries from other threads hop to the event loop first.
+ * <p>
+ * Timeouts are swept by one periodic task instead of a scheduled task per query.
+ * <p>
+ * With {@code maxBatch > 1} the queries are written without a flush and flushed once per batch or once
+ * the event loop is done with the current tasks. Netty epoll hands several pending datagrams to a single
+ * {@code sendmmsg} call, so a burst costs one syscall per batch instead of one per query.
+ */
+public class WireClient implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WireClient.class);
+
+    private static final int ID_SPACE = 1 << 16;
+
+    // the answers to a flushed batch arrive back to back while the event loop may still be sending;
+    // an answer up to the EDNS0 payload size is charged about 2 KiB, 2 MiB holds a thousand of them
+    private static final int UDP_RECEIVE_BUFFER = 2 * 1024 * 1024;
+
+    private final EventLoop eventLoop;
+
+    private final InetSocketAddress server;
+
+    private final long timeoutNanos;
+
+    private final int payloadSize;
+
+    private final int maxBatch;
+
+    private final Runnable flushTask = this::flush;
+
+    private int unflushed;
+
+    private boolean flushScheduled;
+
+    private final Channel channel;
+
+    private final ScheduledFuture<?> sweeper;
+
+    private final WireResponse response = new WireResponse();
+
+    // pending queries by id, a null handler marks a free id
+
+    private final WireHandler[] handlers = new WireHandler[ID_SPACE];
+
+    private final Object[] attachments = new Object[ID_SPACE];
+
+    private final CharSequence[] names = new CharSequence[ID_SPACE];
+
+    private final int[] types = new int[ID_SPACE];
+
+    private final long[] deadlines = new long[ID_SPACE];
+
+    // dense list of the pending ids so the sweep costs O(pending) instead of O(id space)
+
+    private final int[] pending = new int[ID_SPACE];
+
+    private final int[] pendingIndex = new int[ID_SPACE];
+
+    private int pendingCount;
+
+    private WireClient(Builder builder) {
+        this.eventLoop = builder.eventLoop;
+        this.server = builder.server;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.timeoutMillis);
+        this.payloadSize = builder.maxPayloadSize;
+        this.maxBatch = builder.maxBatch;
+
+        this.channel = new Bootstrap()
+                .group(eventLoop)
+                .channel(EpollDatagramChannel.class)
+                .option(EpollChannelOption.SO_RCVBUF, UDP_RECEIVE_BUFFER)
+                .handler(new ResponseHandler())
+                .connect(server)
+                .syncUninterruptibly()
+                .channel();
+
+        long tick = Math.max(1, Math.min(100, builder.timeoutMillis / 10));
+        this.sweeper = eventLoop.scheduleAtFixedRate(this::expire, tick, tick, TimeUnit.MILLISECONDS);
+
+        channel.closeFuture().addListener(f -> {
+            sweeper.cancel(false);
+            failAll(WireException.CLOSED);
+        });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    public InetSocketAddress server() {
+        return server;
+    }
+
+    /**
+     * Number of queries waiting for a response, only exact when called on the event loop.
+     */
+    public int pendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Sends a query for {@code name} of {@code type} ({@link DnsWire#TYPE_A} or {@link DnsWire#TYPE_AAAA}).
+     * The handler is called exactly once on the event loop of the client, the name must not change until then.
+     */
+    public void query(CharSequence name, int type, Object attachment, WireHandler handler) {
+        if (eventLoop.inEventLoop()) {
+            send(name, type, attachment, handler);
+        } else {
+            eventLoop.execute(() -> send(name, type, attachment, handler));
+        }
+    }
+
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+    }
+
+    private void send(CharSequence name, int type, Object attachment, WireHandler handler) {
+        if (!channel.isActive()) {
+            handler.onFailure(attachment, WireException.CLOSED);
+            return;
+        }
+
+        int id = allocateId();
+        if (id < 0) {
+            handler.onFailure(attachment, WireException.TOO_MANY_QUERIES);
+            return;
+        }
+
+        ByteBuf buf = channel.alloc().directBuffer(DnsWire.querySize(name));
+        if (!DnsWire.encodeQuery(buf, id, name, type, payloadSize)) {
+            buf.release();
+            handler.onFailure(attachment, new IllegalArgumentException("Invalid domain name: " + name));
+            return;
+        }
+
+        handlers[id] = handler;
+        attachments[id] = attachment;
+        names[id] = name;
+        types[id] = type;
+        deadlines[id] = System.nanoTime() + timeoutNanos;
+
+        pendingIndex[id] = pendingCount;
+        pending[pendingCount++] = id;
+
+        if (maxBatch <= 1) {
+            // the channel is connected, so a plain buffer goes out without a DatagramPacket envelope
+            channel.writeAndFlush(buf, channel.voidPromise());
+            return;
+        }
+
+        // sendmmsg only picks up DatagramPackets from the outbound buffer
+        channel.write(new DatagramPacket(buf, server), channel.voidPromise());
+
+        if (++unflushed >= maxBatch) {
+            flush();
+        } else if (!flushScheduled) {
+            // runs after the tasks already queued, e.g. the rest of a burst submitted from other threads
+            flushScheduled = true;
+            eventLoop.execute(flushTask);
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+
+        if (unflushed > 0) {
+            unflushed = 0;
+            channel.flush();
+        }
+    }
+
+    private int allocateId() {
+        if (pendingCount == ID_SPACE) {
+            return -1;
+        }
+
+        // random ids make off-path spoofing harder, linear probing finds a free one quickly
+        int id = ThreadLocalRandom.current().nextInt(ID_SPACE);
+        while (handlers[id] != null) {
+            id = (id + 1) & (ID_SPACE - 1);
+        }
+
+        return id;
+    }
+
+    private void onPacket(ByteBuf content) {
+        if (content.readableBytes() < DnsWire.HEADER_SIZE) {
+            return;
+        }
+
+        int id = content.getUnsignedShort(content.readerIndex());
+
+        WireHandler handler = handlers[id];
+        if (handler == null) {
+            // a late response to a query which has already timed out
+            return;
+        }
+
+        if (!DnsWire.decode(content, names[id], types[id], response)) {
+            // not an answer to our question, the query keeps waiting for the right one
+            return;
+        }
+
+        Object attachment = attachments[id];
+        release(id);
+
+        try {
+            handler.onResponse(attachment, response);
+        } catch (RuntimeException e) {
+            LOGGER.warn("DNS response handler failed", e);
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+
+        int i = 0;
+        while (i < pendingCount) {
+            int id = pending[i];
+
+            if (now - deadlines[id] >= 0) {
+                // release() moves the last pending id into this position
+                fail(id, WireException.TIMEOUT);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void failAll(Throwable cause) {
+        while (pendingCount > 0) {
+            fail(pending[pendingCount - 1], cause);
+        }
+    }
+
+    private void fail(int id, Throwable cause) {
+        WireHandler handler = handlers[id];
+        Object attachment = attachments[id];
+        release(id);
+
+        try {
+            handler.onFailure(attachment, cause);
+        } catch (RuntimeException e) {
+            LOGGER.warn("DNS response handler failed", e);
+        }
+    }
+
+    private void release(int id) {
+        handlers[id] = null;
+        attachments[id] = null;
+        names[id] = null;
+
+        int index = pendingIndex[id];
+        int last = pending[--pendingCount];
+        pending[index] = last;
+        pendingIndex[last] = index;
+    }
+
+    private final class ResponseHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                ByteBuf content = msg instanceof DatagramPacket ? ((DatagramPacket) msg).content() : (ByteBuf) msg;
+                onPacket(content);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // e.g. ICMP port unreachable on a connected socket, the queries time out on their own
+            LOGGER.debug("DNS channel error on {}", server, cause);
+        }
+
+    }
+
+    public static final class Builder {
+
+        private EventLoop eventLoop;
+
+        private InetSocketAddress server;
+
+        private long timeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
+        private int maxPayloadSize = 1232;
+
+        private int maxBatch = 1;
+
+        private Builder() {
+        }
+
+        public Builder eventLoop(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        public Builder server(InetSocketAddress server) {
+            this.server = server;
+            return this;
+        }
+
+        public Builder timeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * UDP payload size advertised with EDNS0, 0 sends plain 512-byte queries.
+         * The default is the DNS flag day 2020 value which avoids IP fragmentation.
+         */
+        public Builder maxPayloadSize(int maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+            return this;
+        }
+
+        /**
+         * Number of queries flushed together with one {@code sendmmsg}, 1 flushes every query on its own.
+         */
+        public Builder maxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        /**
+         * Connects the channel, must not be called on the event loop.
+         */
+        public WireClient build() {
+            if (eventLoop == null || server == null) {
+                throw new IllegalArgumentException("eventLoop and server are required");
+            }
+            if (timeoutMillis <= 0) {
+                throw new IllegalArgumentException("timeoutMillis must be positive: " + timeoutMillis);
+            }
+            if (maxBatch <= 0) {
+                throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+            }
+
+            return new WireClient(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.test.wire;
+
+import java.io.IOException;
+
+/**
+ * Transport failure of a {@link WireClient} query. The instances are shared and have no stack trace,
+ * so a burst of timeouts does not turn into a burst of garbage.
+ */
+public final class WireException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final WireException TIMEOUT = new WireException("DNS query timed out");
+
+    public static final WireException TRUNCATED = new WireException("DNS response is truncated");
+
+    public static final WireException TOO_MANY_QUERIES = new WireException("No free DNS query id");
+
+    public static final WireException CLOSED = new WireException("DNS client is closed");
+
+    private WireException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
@@ -0,0 +1,13 @@
+package org.test.wire;
+
+/**
+ * Receives the outcome of a {@link WireClient} query on the event loop of the client, must not block.
+ * The attachment is whatever was passed to {@link WireClient#query}, so one handler can serve all queries.
+ */
+public interface WireHandler {
+
+    void onResponse(Object attachment, WireResponse response);
+
+    void onFailure(Object attachment, Throwable cause);
+
+}
@@ -0,0 +1,197 @@
+package org.test.wire;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncResolver} over one {@link WireClient} per event loop, the same name always goes to the same client.
+ * The future doubles as the query attachment, so a query costs the future, the answer and its buffer.
+ * <p>
+ * With {@code tcpConnections > 0} every event loop also gets a {@link TcpClient} and a truncated UDP answer
+ * is asked again over its pipelined connections instead of failing with {@link WireException#TRUNCATED}.
+ */
+public class WireResolver implements AsyncResolver, AutoCloseable {
+
+    private static final WireHandler HANDLER = new AnswerHandler();
+
+    private final EventLoopGroup group;
+
+    private final WireClient[] clients;
+
+    private final TcpClient[] tcpClients;
+
+    private WireResolver(Builder builder) {
+        group = new EpollEventLoopGroup(builder.shards, new DefaultThreadFactory("DNS wire"));
+
+        clients = new WireClient[builder.shards];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = WireClient.builder()
+                    .eventLoop(group.next())
+                    .server(builder.server)
+                    .timeoutMillis(builder.queryTimeoutMillis)
+                    .maxPayloadSize(builder.maxPayloadSize)
+                    .maxBatch(builder.maxBatch)
+                    .build();
+        }
+
+        tcpClients = new TcpClient[builder.tcpConnections > 0 ? clients.length : 0];
+        for (int i = 0; i < tcpClients.length; i++) {
+            tcpClients[i] = TcpClient.builder()
+                    .eventLoop(clients[i].eventLoop())
+                    .server(builder.server)
+                    .timeoutMillis(builder.queryTimeoutMillis)
+                    .connections(builder.tcpConnections)
+                    .build();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        int shard = (spread(domain.hashCode()) & Integer.MAX_VALUE) % clients.length;
+        Query query = new Query(domain, tcpClients.length > 0 ? tcpClients[shard] : null);
+
+        clients[shard].query(domain, DnsWire.TYPE_A, query, HANDLER);
+
+        return query;
+    }
+
+    @Override
+    public void close() {
+        for (WireClient client : clients) {
+            client.close();
+        }
+
+        for (TcpClient client : tcpClients) {
+            client.close();
+        }
+
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static final class Query extends CompletableFuture<DnsAnswer> {
+
+        private final String domain;
+
+        // cleared once the query goes over TCP, so a truncated TCP answer fails
+        private TcpClient tcp;
+
+        private Query(String domain, TcpClient tcp) {
+            this.domain = domain;
+            this.tcp = tcp;
+        }
+
+    }
+
+    private static final class AnswerHandler implements WireHandler {
+
+        @Override
+        public void onResponse(Object attachment, WireResponse response) {
+            Query query = (Query) attachment;
+
+            if (response.valueCount() > 0) {
+                query.complete(new DnsAnswer(query.domain, response.rcode(), response.ttl(), response.copyValues()));
+            } else if (response.isTruncated() && query.tcp != null) {
+                // already on the event loop of the TCP client
+                TcpClient tcp = query.tcp;
+                query.tcp = null;
+                tcp.query(query.domain, DnsWire.TYPE_A, query, this);
+            } else if (response.isTruncated()) {
+                // nothing usable in the UDP answer, the caller may retry over TCP
+                query.completeExceptionally(WireException.TRUNCATED);
+            } else {
+                query.complete(DnsAnswer.negative(query.domain, response.rcode(), response.ttl()));
+            }
+        }
+
+        @Override
+        public void onFailure(Object attachment, Throwable cause) {
+            ((Query) attachment).completeExceptionally(cause);
+        }
+
+    }
+
+    public static final class Builder {
+
+        private int shards = Runtime.getRuntime().availableProcessors();
+
+        private long queryTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
+        private int maxPayloadSize = 1232;
+
+        private int maxBatch = 1;
+
+        private int tcpConnections;
+
+        private InetSocketAddress server;
+
+        private Builder() {
+        }
+
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder queryTimeoutMillis(long queryTimeoutMillis) {
+            this.queryTimeoutMillis = queryTimeoutMillis;
+            return this;
+        }
+
+        public Builder maxPayloadSize(int maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+            return this;
+        }
+
+        public Builder maxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        /**
+         * TCP connections per event loop for the truncated answers, 0 leaves them to the caller.
+         */
+        public Builder tcpConnections(int tcpConnections) {
+            this.tcpConnections = tcpConnections;
+            return this;
+        }
+
+        public Builder server(InetSocketAddress server) {
+            this.server = server;
+            return this;
+        }
+
+        public WireResolver build() {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("shards must be positive");
+            }
+            if (tcpConnections < 0) {
+                throw new IllegalArgumentException("tcpConnections must not be negative");
+            }
+            if (server == null) {
+                throw new IllegalArgumentException("name server is not set");
+            }
+
+            return new WireResolver(this);
+        }
+
+    }
+
+}
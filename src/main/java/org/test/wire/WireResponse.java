@@ -0,0 +1,89 @@
+package org.test.wire;
+
+import java.util.Arrays;
+
+/**
+ * Decoded response, reused by the client for every packet: it is only valid inside
+ * {@link WireHandler#onResponse(Object, WireResponse)}, copy what has to outlive the callback.
+ * <p>
+ * Addresses are packed into ints: one int per IPv4 address, four ints (network order) per IPv6 address.
+ */
+public final class WireResponse {
+
+    private int type;
+
+    private int rcode;
+
+    private int ttl;
+
+    private boolean truncated;
+
+    private int[] values = new int[16];
+
+    private int count;
+
+    void reset(int type, int rcode, boolean truncated) {
+        this.type = type;
+        this.rcode = rcode;
+        this.truncated = truncated;
+        this.ttl = 0;
+        this.count = 0;
+    }
+
+    void add(int value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+    }
+
+    void ttl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public int rcode() {
+        return rcode;
+    }
+
+    /**
+     * @return the min TTL of the answer chain, or the negative caching TTL for an empty answer
+     */
+    public int ttl() {
+        return ttl;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int addressCount() {
+        return type == DnsWire.TYPE_AAAA ? count / 4 : count;
+    }
+
+    /**
+     * @return the IPv4 address, or the first int of the IPv6 address, number {@code index}
+     */
+    public int address(int index) {
+        return type == DnsWire.TYPE_AAAA ? values[index * 4] : values[index];
+    }
+
+    /**
+     * @return the backing array holding {@link #valueCount()} ints, overwritten by the next response
+     */
+    public int[] values() {
+        return values;
+    }
+
+    public int valueCount() {
+        return count;
+    }
+
+    public int[] copyValues() {
+        return Arrays.copyOf(values, count);
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.test.nameservice;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Java 18+ provider over {@link ResolverNameServices}. The JDK loads it from the classpath by itself, so it is
+ * off unless {@code -Dorg.test.dns.provider=netty} is set, like the Java 8 provider is off unless it is listed.
+ * <p>
+ * The shared resolver asks for A records only, so it answers the IPv4-only lookups, e.g. with
+ * {@code -Djava.net.preferIPv4Stack=true}. The built-in resolver handles the lookups which want IPv6 too,
+ * what the shared resolver cannot answer (/etc/hosts names) and the reverse lookups.
+ */
+public final class ResolverProvider extends InetAddressResolverProvider {
+
+    @Override
+    public InetAddressResolver get(Configuration configuration) {
+        InetAddressResolver builtin = configuration.builtinResolver();
+        if (!name().equals(System.getProperty(ResolverNameServices.PROPERTY_PROVIDER))) {
+            return builtin;
+        }
+
+        return new InetAddressResolver() {
+            @Override
+            public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy)
+                    throws UnknownHostException
+            {
+                if ((lookupPolicy.characteristics() & LookupPolicy.IPV6) == 0) {
+                    try {
+                        return Arrays.stream(ResolverNameServices.get().lookup(host));
+                    } catch (UnknownHostException e) {
+                        // falls back to the built-in resolver
+                    }
+                }
+
+                return builtin.lookupByName(host, lookupPolicy);
+            }
+
+            @Override
+            public String lookupByAddress(byte[] addr) throws UnknownHostException {
+                return builtin.lookupByAddress(addr);
+            }
+        };
+    }
+
+    @Override
+    public String name() {
+        return "netty";
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.test.blocking;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Java 21 side of {@link BlockingDriver}, loaded by name from {@code META-INF/versions/21}.
+ */
+final class VirtualThreads implements BlockingDriver.Virtual {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private static final Duration PINNED_THRESHOLD = Duration.ofMillis(1);
+
+    private static final long PROBE_PERIOD_MILLIS = 10;
+
+    private static final int TOP_FRAMES = 10;
+
+    public VirtualThreads() {
+    }
+
+    @Override
+    public ExecutorService newThreadPerTaskExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    @Override
+    public PinningMonitor monitorPinning() {
+        return new JfrPinningMonitor();
+    }
+
+    private static final class JfrPinningMonitor implements PinningMonitor {
+
+        private final LongAdder pinned = new LongAdder();
+
+        private final LongAdder pinnedNanos = new LongAdder();
+
+        private final Map<String, LongAdder> frames = new ConcurrentHashMap<>();
+
+        private final LongAccumulator maxStall = new LongAccumulator(Math::max, 0);
+
+        private final RecordingStream stream = new RecordingStream();
+
+        private final Thread probe;
+
+        private volatile boolean closed;
+
+        private JfrPinningMonitor() {
+            stream.enable(PINNED_EVENT).withThreshold(PINNED_THRESHOLD).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+
+            // sleeps on a virtual thread, oversleeping means that no carrier was free to resume it
+            probe = Thread.ofVirtual().name("pinning-probe").start(() -> {
+                while (!closed) {
+                    long started = System.nanoTime();
+                    try {
+                        Thread.sleep(PROBE_PERIOD_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    long stall = System.nanoTime() - started - PROBE_PERIOD_MILLIS * 1_000_000;
+                    maxStall.accumulate(stall / 1000);
+                }
+            });
+        }
+
+        @Override
+        public long pinnedEvents() {
+            return pinned.sum();
+        }
+
+        @Override
+        public long maxStallMicros() {
+            return maxStall.get();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            probe.interrupt();
+            stream.close();
+
+            LOGGER.info("Virtual threads: {} pinned events for {} ms, max carrier stall {} us",
+                    pinnedEvents(), pinnedNanos.sum() / 1_000_000, maxStallMicros());
+
+            frames.entrySet().stream()
+                    .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                    .limit(TOP_FRAMES)
+                    .forEach(e -> LOGGER.info("  pinned {} times at {}", e.getValue().sum(), e.getKey()));
+        }
+
+        private void onPinned(RecordedEvent event) {
+            pinned.increment();
+            pinnedNanos.add(event.getDuration().toNanos());
+            frames.computeIfAbsent(culprit(event.getStackTrace()), k -> new LongAdder()).increment();
+        }
+
+        // the first frame outside of the JDK is the code which holds the monitor or made the native call
+        private static String culprit(RecordedStackTrace stackTrace) {
+            if (stackTrace == null) {
+                return "<no stack trace>";
+            }
+
+            RecordedFrame top = null;
+            for (RecordedFrame frame : stackTrace.getFrames()) {
+                if (top == null) {
+                    top = frame;
+                }
+
+                String type = frame.getMethod().getType().getName();
+                if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                    return format(frame);
+                }
+            }
+
+            return top != null ? format(top) : "<empty stack trace>";
+        }
+
+        private static String format(RecordedFrame frame) {
+            return frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                    + ":" + frame.getLineNumber();
+        }
+
+    }
+
+}
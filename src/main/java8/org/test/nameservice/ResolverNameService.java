@@ -0,0 +1,29 @@
+package org.test.nameservice;
+
+import sun.net.spi.nameservice.NameService;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Java 8 name service over {@link ResolverNameServices}. Reverse lookups are not supported,
+ * list the default provider after this one to keep them:
+ * <pre>
+ * -Dsun.net.spi.nameservice.provider.1=dns,netty
+ * -Dsun.net.spi.nameservice.provider.2=default
+ * </pre>
+ * The JVM stops at the first provider which returns addresses.
+ */
+public class ResolverNameService implements NameService {
+
+    @Override
+    public InetAddress[] lookupAllHostAddr(String host) throws UnknownHostException {
+        return ResolverNameServices.get().lookup(host);
+    }
+
+    @Override
+    public String getHostByAddr(byte[] addr) throws UnknownHostException {
+        throw new UnknownHostException("Reverse lookups are left to the next provider");
+    }
+
+}
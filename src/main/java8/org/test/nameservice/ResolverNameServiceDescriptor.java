@@ -0,0 +1,26 @@
+package org.test.nameservice;
+
+import sun.net.spi.nameservice.NameService;
+import sun.net.spi.nameservice.NameServiceDescriptor;
+
+/**
+ * Registers {@link ResolverNameService} as the {@code dns,netty} provider.
+ */
+public class ResolverNameServiceDescriptor implements NameServiceDescriptor {
+
+    @Override
+    public NameService createNameService() {
+        return new ResolverNameService();
+    }
+
+    @Override
+    public String getProviderName() {
+        return "netty";
+    }
+
+    @Override
+    public String getType() {
+        return "dns";
+    }
+
+}
@@ -9,8 +9,8 @@ import io.netty.resolver.dns.DnsNameResolver;
 import io.netty.resolver.dns.DnsNameResolverBuilder;
 import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
 import io.netty.util.concurrent.DefaultThreadFactory;
-import org.apache.commons.io.IOUtils;
 import org.junit.After;
+import org.junit.AfterClass;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -19,7 +19,38 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.test.jna.CLibAdapter;
+import org.test.jna.GaiResolver;
+import org.test.blocking.BlockingDriver;
+import org.test.blocking.PinningMonitor;
+import org.test.bulk.BulkResolver;
+import org.test.cache.CachingResolver;
+import org.test.cache.DnsCache;
+import org.test.cache.RefreshAheadResolver;
+import org.test.bulk.DnsResult;
 import org.test.direct.NameServices;
+import org.test.ingest.DomainSource;
+import org.test.iterative.IterativeResolver;
+import org.test.limit.GradientLimit;
+import org.test.limit.PacedResolver;
+import org.test.metrics.MeteredResolver;
+import org.test.metrics.MetricsRegistry;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.CoalescingResolver;
+import org.test.resolver.DnsJavaResolver;
+import org.test.resolver.DualStackResolver;
+import org.test.resolver.NettyResolver;
+import org.test.resolver.ShardedResolver;
+import org.test.resolver.SingleFlight;
+import org.test.retry.RetryingResolver;
+import org.test.sink.AdnsHostFormat;
+import org.test.sink.ResultReader;
+import org.test.sink.ResultSink;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubHierarchy;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.TcpResolver;
+import org.test.wire.WireResolver;
 import org.xbill.DNS.ARecord;
 import org.xbill.DNS.Lookup;
 import org.xbill.DNS.Record;
@@ -27,22 +58,23 @@ import org.xbill.DNS.Resolver;
 import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.TextParseException;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.zip.GZIPInputStream;
 
 public class DnsTest {
 
@@ -56,7 +88,16 @@ public class DnsTest {
 
     private static final InetSocketAddress DNS_ADDRESS_LOCAL_PDNSD = new InetSocketAddress("127.0.0.1", 10053);
 
-    private static final InetSocketAddress DNS_ADDRESS = DNS_ADDRESS_GOOGLE_PUBLIC;
+    private static final InetSocketAddress DNS_ADDRESS_LOCAL_STUB = new InetSocketAddress("127.0.0.1", 10054);
+
+    private static final InetSocketAddress DNS_ADDRESS = DNS_ADDRESS_LOCAL_STUB;
+
+    private static final StubProfile STUB_PROFILE = StubProfile.builder()
+            .latencyMicros(500, 5_000)
+            .nxDomainRatio(0.05)
+            .servFailRatio(0.01)
+            .truncateRatio(0.01)
+            .build();
 
     private static final int NETTY_POOL_THREADS = 1;
 
@@ -70,7 +111,19 @@ public class DnsTest {
 
     private static final int CONCURRENCY = 64;
 
-    private static List<String> domains;
+    // a virtual thread per lookup is cheap, the limit is the stub or the network
+    private static final int VIRTUAL_CONCURRENCY = 1024;
+
+    // public resolvers silently drop a client above a few thousand queries per second, stay well below
+    private static final int UPSTREAM_QPS = 1000;
+
+    private static final int GLOBAL_QPS = 1500;
+
+    private static final String DOMAINS_RESOURCE = "/crawler_domains.txt.gz";
+
+    private static StubDnsServer stubServer;
+
+    private static MetricsRegistry metrics;
 
     private EventLoopGroup nettyGroup;
 
@@ -82,10 +135,23 @@ public class DnsTest {
 
     @BeforeClass
     public static void setUpClass() throws Exception {
-        try (InputStream is = DnsTest.class.getResourceAsStream("/crawler_domains.txt.gz")) {
-            try (GZIPInputStream gis = new GZIPInputStream(is)) {
-                domains = IOUtils.readLines(gis, StandardCharsets.UTF_8);
-            }
+        if (DNS_ADDRESS == DNS_ADDRESS_LOCAL_STUB) {
+            stubServer = new StubDnsServer(StubZone.crawlerDomains(), STUB_PROFILE);
+            stubServer.start(DNS_ADDRESS_LOCAL_STUB, Runtime.getRuntime().availableProcessors());
+        }
+
+        metrics = new MetricsRegistry();
+        metrics.startReporting(10, TimeUnit.SECONDS);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (metrics != null) {
+            metrics.close();
+        }
+
+        if (stubServer != null) {
+            stubServer.close();
         }
     }
 
@@ -129,7 +195,143 @@ public class DnsTest {
 
     @Test
     public void remoteNettyAsyncDns() throws Exception {
-        resolveDnsAsync(domain -> resolveNettyAsync(domain, nettyResolver));
+        resolveDnsAsync(new NettyResolver(nettyResolver));
+    }
+
+    @Test
+    public void remoteNettyShardedAsyncDns() throws Exception {
+        ShardedResolver.Builder builder = ShardedResolver.builder()
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .maxQueriesPerResolve(MAX_QUERIES)
+                .maxPayloadSize(MAX_PAYLOAD)
+                .server(DNS_ADDRESS);
+
+        try (ShardedResolver resolver = builder.build()) {
+            resolveDnsAsync(resolver);
+        }
+    }
+
+    @Test
+    public void remoteWireAsyncDns() throws Exception {
+        WireResolver.Builder builder = WireResolver.builder()
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .tcpConnections(2)
+                .server(DNS_ADDRESS);
+
+        try (WireResolver resolver = builder.build()) {
+            resolveDnsAsync(resolver);
+        }
+    }
+
+    @Test
+    public void remoteNettyRefreshAheadAsyncDns() throws Exception {
+        // a short TTL for every answer, so that the third pass would miss without the refreshes
+        DnsCache cache = DnsCache.builder().minTtl(2).maxTtl(2).build();
+
+        RefreshAheadResolver.Builder builder = RefreshAheadResolver.builder(cache, new NettyResolver(nettyResolver))
+                .refreshAt(0.5)
+                .maxPrefetches(DOMAIN_COUNT);
+
+        try (RefreshAheadResolver resolver = builder.build()) {
+            metrics.resolver(RefreshAheadResolver.class.getSimpleName()).cache(cache);
+
+            // the second pass makes every name hot
+            resolveDnsAsync(resolver);
+            resolveDnsAsync(resolver);
+            Thread.sleep(2000);
+            resolveDnsAsync(resolver);
+
+            LOGGER.info("Cache hits {}, misses {}, prefetches {}, skipped {}",
+                    cache.hits(), cache.misses(), resolver.prefetches(), resolver.skipped());
+        }
+    }
+
+    @Test
+    public void remoteTcpAsyncDns() throws Exception {
+        TcpResolver.Builder builder = TcpResolver.builder()
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .server(DNS_ADDRESS);
+
+        try (TcpResolver resolver = builder.build()) {
+            resolveDnsAsync(resolver);
+
+            LOGGER.info("TCP connections {}", resolver.connects());
+        }
+    }
+
+    @Test
+    public void remoteIterativeAsyncDns() throws Exception {
+        IterativeResolver.Builder builder = IterativeResolver.builder()
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(2));
+
+        // offline the stub hierarchy stands in for the root, the TLD and the hosting servers
+        StubHierarchy hierarchy = null;
+        if (DNS_ADDRESS == DNS_ADDRESS_LOCAL_STUB) {
+            hierarchy = StubHierarchy.builder(StubZone.crawlerDomains()).hostingServers(16).build();
+            hierarchy.start(Runtime.getRuntime().availableProcessors());
+            builder.rootHints(hierarchy.rootHints()).port(hierarchy.port());
+        }
+
+        try (IterativeResolver resolver = builder.build()) {
+            resolveDnsAsync(resolver);
+
+            LOGGER.info("Iterative queries {}, referrals {}, lame {}, delegations {} (hits {}, misses {})",
+                    resolver.queries(), resolver.referrals(), resolver.lame(), resolver.delegations().size(),
+                    resolver.delegations().hits(), resolver.delegations().misses());
+        } finally {
+            if (hierarchy != null) {
+                hierarchy.close();
+            }
+        }
+    }
+
+    @Test
+    public void remotePacedAsyncDns() throws Exception {
+        // dnsjava takes what the primary bucket can't, the sends are paced on the event loop
+        PacedResolver resolver = PacedResolver.builder(nettyGroup)
+                .upstream("primary", new NettyResolver(nettyResolver), UPSTREAM_QPS, CONCURRENCY)
+                .upstream("dnsjava", new DnsJavaResolver(dnsJavaUdpResolver), UPSTREAM_QPS / 2, CONCURRENCY)
+                .global(GLOBAL_QPS, CONCURRENCY)
+                .maxDelayMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .build();
+
+        resolveDnsAsync(resolver);
+
+        LOGGER.info("Paced {}, rejected {}", resolver.upstreams(), resolver.rejected());
+    }
+
+    @Test
+    public void remoteDualStackAsyncDns() throws Exception {
+        // A and AAAA in parallel, the merged answers land in a cache which keeps IPv6
+        NettyResolver netty = new NettyResolver(nettyResolver);
+        DualStackResolver resolver = DualStackResolver.builder(nettyGroup, netty, netty.aaaa())
+                .cache(DnsCache.builder().maxIpv6(2).build())
+                .build();
+
+        resolveDnsAsync(resolver);
+
+        LOGGER.info("Dual-stack early {}, delayed {}", resolver.early(), resolver.delayed());
+    }
+
+    @Test
+    public void remoteNettyCachedAsyncDns() throws Exception {
+        CachingResolver resolver = new CachingResolver(DnsCache.builder().build(), new NettyResolver(nettyResolver));
+        metrics.resolver(CachingResolver.class.getSimpleName()).cache(resolver.cache());
+
+        // the second pass is served from the cache, negative answers included
+        resolveDnsAsync(resolver);
+        resolveDnsAsync(resolver);
+
+        LOGGER.info("Cache hits {}, misses {}", resolver.cache().hits(), resolver.cache().misses());
+    }
+
+    @Test
+    public void remoteNettyCoalescedAsyncDns() throws Exception {
+        CoalescingResolver resolver = new CoalescingResolver(new NettyResolver(nettyResolver));
+
+        resolveDnsAsync(resolver);
+
+        LOGGER.info("Upstream queries {}, shared {}", resolver.flights().calls(), resolver.flights().shared());
     }
 
     @Test
@@ -154,6 +356,34 @@ public class DnsTest {
         resolveDnsSync(DnsTest::resolveSystemSyncJna2);
     }
 
+    @Test
+    public void systemJnaSyncDns3() throws Exception {
+        Assume.assumeTrue(Platform.isLinux());
+        resolveDnsSync(DnsTest::resolveSystemSyncJna3);
+    }
+
+    @Test
+    public void systemGaiAsyncDns() throws Exception {
+        Assume.assumeTrue(Platform.isLinux());
+
+        GaiResolver.Builder builder = GaiResolver.builder()
+                .timeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC));
+
+        try (GaiResolver resolver = builder.build()) {
+            resolveDnsAsync(resolver);
+        }
+    }
+
+    @Test
+    public void systemJnaCoalescedSyncDns3() throws Exception {
+        Assume.assumeTrue(Platform.isLinux());
+
+        SingleFlight<String, InetAddress> flights = new SingleFlight<>();
+        resolveDnsSync(domain -> coalesced(flights, domain, DnsTest::resolveSystemSyncJna3));
+
+        LOGGER.info("Upstream queries {}, shared {}", flights.calls(), flights.shared());
+    }
+
     @Test
     public void remoteJavaLibTcpSyncDns() throws Exception {
         resolveDnsSync(domain -> resolveSimpleSync(domain, dnsJavaTcpResolver));
@@ -164,6 +394,34 @@ public class DnsTest {
         resolveDnsSync(domain -> resolveSimpleSync(domain, dnsJavaUdpResolver));
     }
 
+    @Test
+    public void remoteJavaLibTcpVirtualDns() throws Exception {
+        resolveDnsVirtual(domain -> resolveSimpleSync(domain, dnsJavaTcpResolver));
+    }
+
+    @Test
+    public void remoteJavaLibUdpVirtualDns() throws Exception {
+        resolveDnsVirtual(domain -> resolveSimpleSync(domain, dnsJavaUdpResolver));
+    }
+
+    @Test
+    public void systemJavaVirtualDns() throws Exception {
+        resolveDnsVirtual(DnsTest::resolveSystemSync);
+    }
+
+    @Test
+    public void systemJnaVirtualDns1() throws Exception {
+        Assume.assumeTrue(Platform.isLinux());
+        // every lookup waits for CLibAdapter.MONITOR_NET_DB while holding its carrier
+        resolveDnsVirtual(DnsTest::resolveSystemSyncJna1);
+    }
+
+    @Test
+    public void systemJnaVirtualDns3() throws Exception {
+        Assume.assumeTrue(Platform.isLinux());
+        resolveDnsVirtual(DnsTest::resolveSystemSyncJna3);
+    }
+
     @Ignore("run `src/test/resources/crawler_domains-adnshost.sh`")
     @Test
     public void systemADnsHostCommandDns() throws Exception {
@@ -173,24 +431,45 @@ public class DnsTest {
     private static void resolveDnsSync(Function<String, InetAddress> resolver)
             throws InterruptedException
     {
-        LOGGER.info("Started resolving {} domains", DOMAIN_COUNT);
+        resolveDnsSync(resolver, BlockingDriver.platform("DNS sync", CONCURRENCY));
+    }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENCY);
+    private static void resolveDnsVirtual(Function<String, InetAddress> resolver)
+            throws InterruptedException
+    {
+        Assume.assumeTrue("needs Java 21 and -Djdk21.home", BlockingDriver.isVirtualAvailable());
 
-        AtomicInteger succeed = new AtomicInteger(0);
+        // the monitor logs the pinned frames and the carrier stalls when it is closed
+        PinningMonitor monitor = BlockingDriver.monitorPinning();
+        try {
+            resolveDnsSync(resolver, BlockingDriver.virtual("DNS virtual", VIRTUAL_CONCURRENCY));
+        } finally {
+            monitor.close();
+        }
+    }
 
-        for (String domain : domains.subList(0, DOMAIN_COUNT)) {
-            executorService.submit(() -> {
-                InetAddress address = resolver.apply(domain);
-                if (address != null) {
-                    succeed.incrementAndGet();
-                    LOGGER.trace("{} = [{}]", domain, address.getHostAddress());
-                } else {
-                    LOGGER.trace("{} = NONE", domain);
-                }
+    private static void resolveDnsSync(Function<String, InetAddress> resolver, ExecutorService executorService)
+            throws InterruptedException
+    {
+        LOGGER.info("Started resolving {} domains", DOMAIN_COUNT);
 
-                return true;
-            });
+        AtomicInteger succeed = new AtomicInteger(0);
+
+        try (DomainSource domains = domainSource()) {
+            while (domains.hasNext()) {
+                String domain = domains.next();
+                executorService.submit(() -> {
+                    InetAddress address = resolver.apply(domain);
+                    if (address != null) {
+                        succeed.incrementAndGet();
+                        LOGGER.trace("{} = [{}]", domain, address.getHostAddress());
+                    } else {
+                        LOGGER.trace("{} = NONE", domain);
+                    }
+
+                    return true;
+                });
+            }
         }
 
         executorService.shutdown();
@@ -199,73 +478,109 @@ public class DnsTest {
         LOGGER.info("Succeed {} domains", succeed.get());
     }
 
-    private static void resolveDnsAsync(Function<String, CompletableFuture<InetAddress>> resolver)
-            throws InterruptedException
-    {
+    private void resolveDnsAsync(AsyncResolver resolver) throws IOException, InterruptedException {
         LOGGER.info("Started resolving {} domains", DOMAIN_COUNT);
 
-        BlockingQueue<DnsResult> queue = new LinkedBlockingDeque<>();
-
-        Semaphore semaphore = new Semaphore(CONCURRENCY);
-
-        // Schedule async DNS resolves
-        for (String domain : domains.subList(0, DOMAIN_COUNT)) {
-            semaphore.acquire();
-
-            CompletableFuture<InetAddress> future = resolver.apply(domain);
+        // CONCURRENCY is only the starting point, the limit adapts to the RTT and the failures
+        GradientLimit limit = GradientLimit.builder()
+                .initialLimit(CONCURRENCY)
+                .minLimit(CONCURRENCY / 8)
+                .maxLimit(CONCURRENCY * 64)
+                .build();
 
-            future.whenComplete((address, ex) -> {
-                semaphore.release();
+        // the metrics of a strategy accumulate over the passes of the same test
+        String name = resolver.getClass().getSimpleName();
+        MeteredResolver meteredResolver = new MeteredResolver(resolver, metrics.resolver(name));
 
-                DnsResult result = new DnsResult();
-                result.domain = domain;
+        BulkResolver bulkResolver = new BulkResolver(meteredResolver, limit);
 
-                if (ex == null) {
-                    result.resolved = true;
-                    result.message = address.getHostAddress();
-                } else {
-                    result.resolved = false;
-                    result.message = ex.getClass().getCanonicalName() + " / " + ex.getLocalizedMessage();
-                }
+        // failures are retried next to the primary pass, on the other upstream after a backoff,
+        // truncated and timed out queries over pipelined TCP connections
+        TcpResolver tcpResolver = TcpResolver.builder()
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .server(DNS_ADDRESS)
+                .build();
+        RetryingResolver retryingResolver = RetryingResolver.builder(nettyGroup)
+                .upstream("primary", meteredResolver, tcpResolver)
+                .upstream("dnsjava", new DnsJavaResolver(dnsJavaUdpResolver), tcpResolver)
+                .metrics(meteredResolver.metrics())
+                .upstreamMetrics(metrics, name + " retry")
+                .build();
 
-                queue.add(result);
-            });
-        }
+        List<CompletableFuture<DnsResult>> retries = new ArrayList<>();
 
-        LOGGER.info("All requests are published");
+        // every final result goes to a result file, upstream 0 is the primary pass and 1 the retry tier
+        Path resultPath = Paths.get("target", "dns-results-" + name + ".bin");
+        ResultSink sink = ResultSink.builder(resultPath)
+                .capacity(DOMAIN_COUNT)
+                .maxAddresses(DnsCache.MAX_ADDRESSES, 2)
+                .build();
 
-        // Wait pending results and check
+        // Results are consumed while the requests are still being published
+        int i  = 0;
         int fn = 0;
         int tn = 0;
         int p  = 0;
 
-        for (int i = 0; i < DOMAIN_COUNT; i++) {
-            DnsResult result = queue.take();
-
-            if (result.resolved) {
-                LOGGER.trace("{} Y {} : [{}]", i, result.domain, result.message);
-                p++;
-            } else {
-                LOGGER.trace("{} N {} : {}", i, result.domain, result.message);
-
-                InetAddress realAddress = resolveSystemSync(result.domain);
-                if (realAddress != null) {
-                    fn++;
-                    LOGGER.trace("    !!! SYNC [{}]", realAddress.getHostAddress());
+        // the names are decompressed and parsed while the first queries are already out
+        try (DomainSource domains = domainSource()) {
+            Iterator<DnsResult> results = bulkResolver.stream(domains).iterator();
+            while (results.hasNext()) {
+                DnsResult result = results.next();
+
+                if (result.isResolved()) {
+                    LOGGER.trace("{} Y {}", i, result);
+                    sink.append(result, 0);
+                    p++;
+                } else if (RetryingResolver.isRetryable(result)) {
+                    LOGGER.trace("{} R {}", i, result);
+                    retries.add(retryingResolver.retry(result));
                 } else {
+                    LOGGER.trace("{} N {}", i, result);
+                    sink.append(result, 0);
                     tn++;
                 }
+
+                i++;
+            }
+        }
+
+        for (CompletableFuture<DnsResult> retry : retries) {
+            DnsResult result = retry.join();
+            sink.append(result, 1);
+            if (result.isResolved()) {
+                fn++;
+                LOGGER.trace("    !!! RETRY #{} {}", result.attempt(), result);
+            } else {
+                tn++;
             }
         }
 
+        tcpResolver.close();
+
         // Output statistics
-        LOGGER.info("False negatives : {}", fn);
+        LOGGER.info("False negatives : {} (attempt #2: {}, #3: {})", fn,
+                retryingResolver.wins(2), retryingResolver.wins(3));
         LOGGER.info("True negatives  : {}", tn);
         LOGGER.info("Succeed         : {}", p);
+        LOGGER.info("Retries         : {} ({} over TCP)", retryingResolver.retries(), retryingResolver.tcpFallbacks());
+        LOGGER.info("Final limit     : {}", limit.getLimit());
+        LOGGER.info("Metrics         : {}", meteredResolver.metrics().summary());
+
+        // the same format as crawler_domains-adnshost.sh produces, to diff against it
+        sink.close();
+        Path adnsPath = Paths.get("target", "dns-results-" + name + ".adns");
+        try (Writer writer = Files.newBufferedWriter(adnsPath, StandardCharsets.US_ASCII)) {
+            AdnsHostFormat.export(ResultReader.open(resultPath), writer);
+        }
+        LOGGER.info("Results         : {}, {}", resultPath, adnsPath);
     }
 
-    private static CompletableFuture<InetAddress> resolveNettyAsync(String domain, DnsNameResolver nettyResolver) {
-        return future(nettyResolver.resolve(domain));
+    private static DomainSource domainSource() {
+        return DomainSource.builder()
+                .resource(DOMAINS_RESOURCE)
+                .limit(DOMAIN_COUNT)
+                .build();
     }
 
     private static InetAddress resolveSystemSync(String domain) {
@@ -301,6 +616,26 @@ public class DnsTest {
         }
     }
 
+    private static InetAddress coalesced(SingleFlight<String, InetAddress> flights, String domain,
+                                         Function<String, InetAddress> resolver)
+    {
+        try {
+            return flights.call(domain, () -> resolver.apply(domain));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static InetAddress resolveSystemSyncJna3(String domain) {
+        // Uses JVM/system DNS resolver (no caching, no sync, reused native memory)
+        try {
+            InetAddress[] addresses = CLibAdapter.resolve3(domain);
+            return addresses[0];
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
     private static InetAddress resolveSystemSyncJna2(String domain) {
         // Uses JVM/system DNS resolver (no caching, no sync)
         try {
@@ -329,34 +664,4 @@ public class DnsTest {
         }
     }
 
-    private static <T> CompletableFuture<T> future(io.netty.util.concurrent.Future<T> future) {
-        CompletableFuture<T> result = new CompletableFuture<T>() {
-            @Override
-            public boolean cancel(boolean mayInterruptIfRunning) {
-                return super.cancel(mayInterruptIfRunning) && future.cancel(mayInterruptIfRunning);
-            }
-        };
-
-        future.addListener((f) -> {
-            if (future.isSuccess()) {
-                result.complete(future.get());
-            } else if (!future.isCancelled()) {
-                result.completeExceptionally(future.cause());
-            }
-        });
-
-        return result;
-    }
-
-    private static final class DnsResult {
-
-        private String domain;
-
-        private String message;
-
-        private boolean resolved;
-
-    }
-
-
 }
@@ -0,0 +1,223 @@
+package org.test.benchmark;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.test.jna.MmsgSocket;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.DnsWire;
+import org.test.wire.WireClient;
+import org.test.wire.WireHandler;
+import org.test.wire.WireResponse;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Sends bursts of A queries to the local {@link StubDnsServer} and waits for all the answers,
+ * one syscall per packet against batched {@code sendmmsg}/{@code recvmmsg}.
+ * <ul>
+ *     <li>{@code jnaEach} - send/recv per packet through JNA</li>
+ *     <li>{@code jnaBatch} - one sendmmsg per burst and recvmmsg until all answers are in, through JNA</li>
+ *     <li>{@code nettyEach} - {@link WireClient} flushing every query</li>
+ *     <li>{@code nettyBatch} - {@link WireClient} flushing the burst at once, Netty epoll uses sendmmsg</li>
+ * </ul>
+ * The score is bursts per millisecond, multiply by {@code burst} for queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchedUdpBenchmark {
+
+    private static final int DOMAIN_COUNT = 10_000;
+
+    private static final int RECEIVE_TIMEOUT_MILLIS = 1000;
+
+    @Param({ "jnaEach", "jnaBatch", "nettyEach", "nettyBatch" })
+    public String transport;
+
+    @Param({ "1", "16", "64", "256" })
+    public int burst;
+
+    private String[] domains;
+
+    private int cursor;
+
+    private StubDnsServer server;
+
+    private MmsgSocket socket;
+
+    private EventLoopGroup group;
+
+    private WireClient client;
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BatchedUdpBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> list = IntStream.range(0, DOMAIN_COUNT)
+                .mapToObj(i -> "host" + i + ".example.com")
+                .collect(Collectors.toList());
+        domains = list.toArray(new String[0]);
+
+        server = new StubDnsServer(StubZone.fromDomains(list), StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0),
+                Runtime.getRuntime().availableProcessors());
+
+        if (transport.startsWith("jna")) {
+            socket = new MmsgSocket(address, burst, RECEIVE_TIMEOUT_MILLIS);
+        } else {
+            group = new EpollEventLoopGroup(1, new DefaultThreadFactory("DNS wire"));
+            client = WireClient.builder()
+                    .eventLoop(group.next())
+                    .server(address)
+                    .timeoutMillis(RECEIVE_TIMEOUT_MILLIS)
+                    .maxBatch(transport.equals("nettyBatch") ? burst : 1)
+                    .build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (socket != null) {
+            socket.close();
+        }
+
+        if (client != null) {
+            client.close();
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+
+        server.close();
+    }
+
+    @Benchmark
+    public int roundTrip() throws Exception {
+        switch (transport) {
+            case "jnaEach":
+                return jnaEach();
+            case "jnaBatch":
+                return jnaBatch();
+            default:
+                return netty();
+        }
+    }
+
+    private int jnaEach() throws Exception {
+        encode();
+        socket.sendEach(burst);
+
+        int received = 0;
+        while (received < burst && socket.receiveOne(received) > 0) {
+            received++;
+        }
+        return received;
+    }
+
+    private int jnaBatch() throws Exception {
+        encode();
+        socket.sendBatch(burst);
+
+        int received = 0;
+        int r;
+        while (received < burst && (r = socket.receiveBatch(burst - received)) > 0) {
+            received += r;
+        }
+        return received;
+    }
+
+    private void encode() {
+        for (int i = 0; i < burst; i++) {
+            socket.slot(i).clear();
+            DnsWire.encodeQuery(socket.slot(i), i, nextDomain(), DnsWire.TYPE_A, 0);
+        }
+    }
+
+    private int netty() {
+        Burst handler = new Burst(burst);
+
+        String[] names = new String[burst];
+        for (int i = 0; i < burst; i++) {
+            names[i] = nextDomain();
+        }
+
+        // the whole burst is queued in one event loop task so that the batching can see it
+        client.eventLoop().execute(() -> {
+            for (String name : names) {
+                client.query(name, DnsWire.TYPE_A, null, handler);
+            }
+        });
+
+        return handler.join();
+    }
+
+    private String nextDomain() {
+        cursor = (cursor + 1) % domains.length;
+        return domains[cursor];
+    }
+
+    private static final class Burst extends CompletableFuture<Integer> implements WireHandler {
+
+        private int remaining;
+
+        private int resolved;
+
+        private Burst(int size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public void onResponse(Object attachment, WireResponse response) {
+            resolved++;
+            countDown();
+        }
+
+        @Override
+        public void onFailure(Object attachment, Throwable cause) {
+            countDown();
+        }
+
+        private void countDown() {
+            // always called on the event loop of the client
+            if (--remaining == 0) {
+                complete(resolved);
+            }
+        }
+
+    }
+
+}
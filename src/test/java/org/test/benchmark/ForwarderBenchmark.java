@@ -0,0 +1,211 @@
+package org.test.benchmark;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.test.forwarder.DnsForwarder;
+import org.test.forwarder.ResponseCache;
+import org.test.forwarder.ServerGroup;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.DnsWire;
+import org.test.wire.WireClient;
+import org.test.wire.WireHandler;
+import org.test.wire.WireResponse;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Loads the {@link DnsForwarder} with bursts of A queries from batched {@link WireClient}s, one per client loop,
+ * and waits for all the answers. The upstream is the local {@link StubDnsServer}.
+ * <ul>
+ *     <li>{@code hit} - every name is in the cache, the forwarder answers on its own</li>
+ *     <li>{@code miss} - the cache is too small to keep anything, every query goes upstream</li>
+ *     <li>{@code direct} - no forwarder, the clients ask the stub, the baseline of {@code miss}</li>
+ * </ul>
+ * The score is bursts per millisecond, multiply by {@code burst} and {@code clients} for queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ForwarderBenchmark {
+
+    private static final int DOMAIN_COUNT = 100_000;
+
+    private static final int TIMEOUT_MILLIS = 1000;
+
+    @Param({ "hit", "miss", "direct" })
+    public String mode;
+
+    @Param({ "1", "4" })
+    public int clients;
+
+    @Param({ "16", "256" })
+    public int burst;
+
+    private String[] domains;
+
+    private int cursor;
+
+    private StubDnsServer stub;
+
+    private DnsForwarder forwarder;
+
+    private EventLoopGroup group;
+
+    private WireClient[] wireClients;
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ForwarderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> list = IntStream.range(0, DOMAIN_COUNT)
+                .mapToObj(i -> "host" + i + ".example.com")
+                .collect(Collectors.toList());
+        domains = list.toArray(new String[0]);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        stub = new StubDnsServer(StubZone.fromDomains(list), StubProfile.IDEAL);
+        InetSocketAddress address = stub.start(new InetSocketAddress("127.0.0.1", 0), cores);
+
+        if (!mode.equals("direct")) {
+            ResponseCache cache = ResponseCache.builder()
+                    .memoryBudget(mode.equals("hit") ? 64L << 20 : 64L << 10)
+                    .build();
+
+            forwarder = DnsForwarder.builder()
+                    .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                    .threads(cores)
+                    .cache(cache)
+                    .servers(new ServerGroup("stub", Collections.singletonList(address), TIMEOUT_MILLIS, false))
+                    .build();
+            address = forwarder.start();
+        }
+
+        group = new EpollEventLoopGroup(clients, new DefaultThreadFactory("DNS wire"));
+        wireClients = new WireClient[clients];
+        for (int i = 0; i < clients; i++) {
+            wireClients[i] = WireClient.builder()
+                    .eventLoop(group.next())
+                    .server(address)
+                    .timeoutMillis(TIMEOUT_MILLIS)
+                    .maxBatch(burst)
+                    .build();
+        }
+
+        if (mode.equals("hit")) {
+            for (int i = 0; i < DOMAIN_COUNT / burst; i++) {
+                roundTrip();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (WireClient client : wireClients) {
+            client.close();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+
+        if (forwarder != null) {
+            forwarder.close();
+        }
+
+        stub.close();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        Burst handler = new Burst(burst * clients);
+
+        for (WireClient client : wireClients) {
+            String[] names = new String[burst];
+            for (int i = 0; i < burst; i++) {
+                names[i] = nextDomain();
+            }
+
+            // the whole burst is queued in one event loop task so that the batching can see it
+            client.eventLoop().execute(() -> {
+                for (String name : names) {
+                    client.query(name, DnsWire.TYPE_A, null, handler);
+                }
+            });
+        }
+
+        return handler.join();
+    }
+
+    private String nextDomain() {
+        cursor = (cursor + 1) % domains.length;
+        return domains[cursor];
+    }
+
+    private static final class Burst extends CompletableFuture<Integer> implements WireHandler {
+
+        private int remaining;
+
+        private int resolved;
+
+        private Burst(int size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public void onResponse(Object attachment, WireResponse response) {
+            countDown(response.valueCount() > 0);
+        }
+
+        @Override
+        public void onFailure(Object attachment, Throwable cause) {
+            countDown(false);
+        }
+
+        private synchronized void countDown(boolean answered) {
+            // the clients call back from their own event loops
+            if (answered) {
+                resolved++;
+            }
+            if (--remaining == 0) {
+                complete(resolved);
+            }
+        }
+
+    }
+
+}
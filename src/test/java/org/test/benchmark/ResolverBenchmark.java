@@ -0,0 +1,318 @@
+package org.test.benchmark;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.NoopDnsCache;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.test.direct.NameServices;
+import org.test.jna.CLibAdapter;
+import org.test.jna.GaiResolver;
+import org.test.resolver.CoalescingResolver;
+import org.test.resolver.ShardedResolver;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.TcpResolver;
+import org.test.wire.WireResolver;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TextParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compares every resolver strategy of the repo against the local {@link StubDnsServer}.
+ * <p>
+ * Concurrency is the number of benchmark threads, each thread keeps one query in flight.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.test.benchmark.ResolverBenchmark}.
+ * <p>
+ * The system strategies ({@code system}, {@code systemDirect}, {@code jna1}, {@code jna2}, {@code jna3},
+ * {@code gai}) go through resolv.conf, point it to the stub (port {@link #STUB_PORT}) to measure them
+ * without the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Dsun.net.inetaddr.ttl=0", "-Dsun.net.inetaddr.negative.ttl=0" })
+public class ResolverBenchmark {
+
+    public static final int STUB_PORT = 10054;
+
+    private static final int[] CONCURRENCY_LEVELS = { 1, 16, 64, 256 };
+
+    private static final int TIMEOUT_SEC = 5;
+
+    @Param({ "netty", "nettySharded", "nettyCoalesced", "wire", "tcp", "dnsjavaUdp", "dnsjavaTcp", "system", "systemDirect", "jna1", "jna2", "jna3", "gai" })
+    public String strategy;
+
+    @Param({ "1", "4" })
+    public int eventLoops;
+
+    @Param({ "0", "1000" })
+    public long stubLatencyMicros;
+
+    private String[] domains;
+
+    private StubDnsServer server;
+
+    private EventLoopGroup nettyGroup;
+
+    private DnsNameResolver[] nettyResolvers;
+
+    private ShardedResolver shardedResolver;
+
+    private WireResolver wireResolver;
+
+    private TcpResolver tcpResolver;
+
+    private GaiResolver gaiResolver;
+
+    private Function<String, InetAddress> resolver;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index = ThreadLocalRandom.current().nextInt(1 << 20);
+
+        private String next(String[] domains) {
+            index++;
+            return domains[(index & Integer.MAX_VALUE) % domains.length];
+        }
+
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int concurrency : CONCURRENCY_LEVELS) {
+            Options options = new OptionsBuilder()
+                    .include(ResolverBenchmark.class.getSimpleName())
+                    .threads(concurrency)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> list = loadDomains();
+        domains = list.toArray(new String[0]);
+
+        StubProfile profile = StubProfile.builder()
+                .latencyMicros(stubLatencyMicros, stubLatencyMicros)
+                .build();
+
+        server = new StubDnsServer(StubZone.fromDomains(list), profile);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", STUB_PORT),
+                Runtime.getRuntime().availableProcessors());
+
+        nettyGroup = new EpollEventLoopGroup(eventLoops, new DefaultThreadFactory("DNS pool"));
+
+        nettyResolvers = new DnsNameResolver[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            nettyResolvers[i] = new DnsNameResolverBuilder(nettyGroup.next())
+                    .channelType(EpollDatagramChannel.class)
+                    .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                    .maxQueriesPerResolve(1)
+                    .resolvedAddressTypes(ResolvedAddressTypes.IPV4_ONLY)
+                    .resolveCache(NoopDnsCache.INSTANCE)
+                    .nameServerProvider(new SingletonDnsServerAddressStreamProvider(address))
+                    .build();
+        }
+
+        shardedResolver = ShardedResolver.builder()
+                .shards(eventLoops)
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .server(address)
+                .build();
+
+        wireResolver = WireResolver.builder()
+                .shards(eventLoops)
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .server(address)
+                .build();
+
+        tcpResolver = TcpResolver.builder()
+                .shards(eventLoops)
+                .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                .server(address)
+                .build();
+
+        resolver = createResolver(strategy, address);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (DnsNameResolver nettyResolver : nettyResolvers) {
+            nettyResolver.close();
+        }
+
+        nettyGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+
+        shardedResolver.close();
+
+        wireResolver.close();
+
+        tcpResolver.close();
+
+        if (gaiResolver != null) {
+            gaiResolver.close();
+        }
+
+        server.close();
+    }
+
+    @Benchmark
+    public InetAddress resolve(Cursor cursor) {
+        return resolver.apply(cursor.next(domains));
+    }
+
+    private Function<String, InetAddress> createResolver(String name, InetSocketAddress address) {
+        switch (name) {
+            case "netty":
+                return this::resolveNetty;
+            case "nettySharded":
+                return domain -> shardedResolver.resolve(domain).exceptionally(ex -> null).join();
+            case "nettyCoalesced":
+                CoalescingResolver coalescingResolver = new CoalescingResolver(shardedResolver);
+                return domain -> coalescingResolver.resolve(domain).exceptionally(ex -> null).join();
+            case "wire":
+                return domain -> wireResolver.resolve(domain).exceptionally(ex -> null).join();
+            case "tcp":
+                return domain -> tcpResolver.resolve(domain).exceptionally(ex -> null).join();
+            case "dnsjavaUdp":
+                SimpleResolver udpResolver = simpleResolver(address, false);
+                return domain -> resolveSimple(domain, udpResolver);
+            case "dnsjavaTcp":
+                SimpleResolver tcpResolver = simpleResolver(address, true);
+                return domain -> resolveSimple(domain, tcpResolver);
+            case "system":
+                return ResolverBenchmark::resolveSystem;
+            case "systemDirect":
+                return domain -> first(NameServices::resolve, domain);
+            case "jna1":
+                return domain -> first(CLibAdapter::resolve1, domain);
+            case "jna2":
+                return domain -> first(CLibAdapter::resolve2, domain);
+            case "jna3":
+                return domain -> first(CLibAdapter::resolve3, domain);
+            case "gai":
+                gaiResolver = GaiResolver.builder().timeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC)).build();
+                return domain -> gaiResolver.resolve(domain).exceptionally(ex -> null).join();
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+    }
+
+    private InetAddress resolveNetty(String domain) {
+        DnsNameResolver nettyResolver = nettyResolvers[(domain.hashCode() & Integer.MAX_VALUE) % eventLoops];
+
+        Future<InetAddress> future = nettyResolver.resolve(domain).awaitUninterruptibly();
+        return future.getNow();
+    }
+
+    static SimpleResolver simpleResolver(InetSocketAddress address, boolean tcp) {
+        try {
+            SimpleResolver resolver = new SimpleResolver();
+            resolver.setAddress(address);
+            resolver.setTimeout(TIMEOUT_SEC);
+            resolver.setTCP(tcp);
+            return resolver;
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static InetAddress resolveSimple(String domain, SimpleResolver resolver) {
+        Lookup lookup;
+        try {
+            lookup = new Lookup(domain);
+        } catch (TextParseException e) {
+            return null;
+        }
+
+        // a temporary cache per lookup, otherwise the second pass over the domains is served from memory
+        lookup.setCache(null);
+        lookup.setResolver(resolver);
+
+        Record[] records = lookup.run();
+        if (lookup.getResult() == Lookup.SUCCESSFUL && records != null && records.length > 0) {
+            return ((ARecord) records[0]).getAddress();
+        } else {
+            return null;
+        }
+    }
+
+    private static InetAddress resolveSystem(String domain) {
+        try {
+            return InetAddress.getByName(domain);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static InetAddress first(SystemResolver resolver, String domain) {
+        try {
+            InetAddress[] addresses = resolver.resolve(domain);
+            return addresses != null && addresses.length > 0 ? addresses[0] : null;
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    static List<String> loadDomains() throws IOException {
+        try (InputStream is = ResolverBenchmark.class.getResourceAsStream("/crawler_domains.txt.gz")) {
+            try (GZIPInputStream gis = new GZIPInputStream(is)) {
+                return IOUtils.readLines(gis, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SystemResolver {
+
+        InetAddress[] resolve(String domain) throws UnknownHostException;
+
+    }
+
+}
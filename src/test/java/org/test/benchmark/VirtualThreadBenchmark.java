@@ -0,0 +1,170 @@
+package org.test.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.test.blocking.BlockingDriver;
+import org.test.resolver.ShardedResolver;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.xbill.DNS.SimpleResolver;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves batches of {@link #BATCH} names against the local {@link StubDnsServer} keeping
+ * {@code concurrency} lookups in flight, the blocking dnsjava resolver on platform and on virtual threads
+ * against the Netty async path.
+ * <ul>
+ *     <li>{@code dnsjavaUdpPlatform}, {@code dnsjavaTcpPlatform} - a fixed pool of {@code concurrency} threads</li>
+ *     <li>{@code dnsjavaUdpVirtual}, {@code dnsjavaTcpVirtual} - a virtual thread per lookup</li>
+ *     <li>{@code nettyAsync} - {@link ShardedResolver} with a semaphore of {@code concurrency} permits</li>
+ * </ul>
+ * The virtual drivers need JDK 21 with {@code target/classes/META-INF/versions/21} on the classpath
+ * (built with {@code -Djdk21.home=...}), otherwise their trials fail in the setup.
+ * The score is milliseconds per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    private static final int BATCH = 4096;
+
+    private static final int TIMEOUT_SEC = 5;
+
+    @Param({ "dnsjavaUdpPlatform", "dnsjavaUdpVirtual", "dnsjavaTcpPlatform", "dnsjavaTcpVirtual", "nettyAsync" })
+    public String driver;
+
+    @Param({ "64", "1024", "4096" })
+    public int concurrency;
+
+    @Param({ "1000" })
+    public long stubLatencyMicros;
+
+    private String[] domains;
+
+    private int cursor;
+
+    private StubDnsServer server;
+
+    private SimpleResolver simpleResolver;
+
+    private ExecutorService executor;
+
+    private ShardedResolver shardedResolver;
+
+    private Semaphore permits;
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VirtualThreadBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> list = ResolverBenchmark.loadDomains();
+        domains = list.toArray(new String[0]);
+
+        StubProfile profile = StubProfile.builder()
+                .latencyMicros(stubLatencyMicros, stubLatencyMicros)
+                .build();
+
+        server = new StubDnsServer(StubZone.fromDomains(list), profile);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0),
+                Runtime.getRuntime().availableProcessors());
+
+        if (driver.equals("nettyAsync")) {
+            shardedResolver = ShardedResolver.builder()
+                    .queryTimeoutMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SEC))
+                    .server(address)
+                    .build();
+            permits = new Semaphore(concurrency);
+        } else {
+            simpleResolver = ResolverBenchmark.simpleResolver(address, driver.startsWith("dnsjavaTcp"));
+            executor = driver.endsWith("Virtual")
+                    ? BlockingDriver.virtual("DNS virtual", concurrency)
+                    : BlockingDriver.platform("DNS platform", concurrency);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(TIMEOUT_SEC, TimeUnit.SECONDS);
+        }
+
+        if (shardedResolver != null) {
+            shardedResolver.close();
+        }
+
+        server.close();
+    }
+
+    @Benchmark
+    public int resolveBatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        AtomicInteger resolved = new AtomicInteger();
+
+        for (int i = 0; i < BATCH; i++) {
+            String domain = nextDomain();
+
+            if (shardedResolver != null) {
+                permits.acquire();
+                shardedResolver.resolve(domain).whenComplete((address, ex) -> {
+                    permits.release();
+                    if (address != null) {
+                        resolved.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+            } else {
+                executor.execute(() -> {
+                    if (ResolverBenchmark.resolveSimple(domain, simpleResolver) != null) {
+                        resolved.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+            }
+        }
+
+        done.await();
+        return resolved.get();
+    }
+
+    private String nextDomain() {
+        cursor = (cursor + 1) % domains.length;
+        return domains[cursor];
+    }
+
+}
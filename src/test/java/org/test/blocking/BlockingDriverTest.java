@@ -0,0 +1,109 @@
+package org.test.blocking;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BlockingDriverTest {
+
+    @Test
+    public void testBoundedExecutorLimitsRunningTasks() throws Exception {
+        ExecutorService executor = new BoundedExecutor(Executors.newCachedThreadPool(), 4);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(1);
+                running.decrementAndGet();
+            });
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testVirtualMissingBelowJava21() {
+        Assume.assumeFalse(BlockingDriver.isVirtualAvailable());
+
+        Assert.assertSame(PinningMonitor.NONE, BlockingDriver.monitorPinning());
+
+        try {
+            BlockingDriver.virtual("test", 1);
+            Assert.fail();
+        } catch (UnsupportedOperationException expected) {
+            // not built or not running on Java 21
+        }
+    }
+
+    @Test
+    public void testVirtualRunsThousandsOfBlockingTasks() throws Exception {
+        Assume.assumeTrue(BlockingDriver.isVirtualAvailable());
+
+        int tasks = 10_000;
+        CountDownLatch done = new CountDownLatch(tasks);
+
+        ExecutorService executor = BlockingDriver.virtual("test", tasks);
+        long started = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                sleep(100);
+                done.countDown();
+            });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        // all of them sleep at once, a pool of platform threads would take tasks / size * 100 ms
+        Assert.assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testPinningMonitorReportsSynchronized() throws Exception {
+        Assume.assumeTrue(BlockingDriver.isVirtualAvailable());
+
+        Object monitor = new Object();
+        ExecutorService executor = BlockingDriver.virtual("test", 16);
+
+        try (PinningMonitor pinning = BlockingDriver.monitorPinning()) {
+            CountDownLatch done = new CountDownLatch(16);
+            for (int i = 0; i < 16; i++) {
+                executor.execute(() -> {
+                    synchronized (monitor) {
+                        sleep(5);
+                    }
+                    done.countDown();
+                });
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // JFR delivers the events asynchronously
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pinning.pinnedEvents() == 0 && System.nanoTime() < deadline) {
+                sleep(50);
+            }
+            Assert.assertTrue(pinning.pinnedEvents() > 0);
+        }
+
+        executor.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.test.bulk;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class BulkResolverTest {
+
+    @Test
+    public void testPushDeliversEverything() throws Exception {
+        BulkResolver resolver = new BulkResolver(BulkResolverTest::answer, 4);
+
+        List<DnsResult> results = new ArrayList<>();
+        resolver.resolve(domains(1000), results::add).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1000, results.size());
+        Assert.assertTrue(results.stream().allMatch(DnsResult::isResolved));
+    }
+
+    @Test
+    public void testSynchronousCompletionDoesNotRecurse() throws Exception {
+        BulkResolver resolver = new BulkResolver(BulkResolverTest::answer, 1);
+
+        AtomicInteger count = new AtomicInteger();
+        resolver.resolve(domains(200_000), r -> count.incrementAndGet()).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(200_000, count.get());
+    }
+
+    @Test
+    public void testInFlightIsBounded() throws Exception {
+        ConcurrentLinkedQueue<CompletableFuture<DnsAnswer>> pending = new ConcurrentLinkedQueue<>();
+        AtomicInteger started = new AtomicInteger();
+
+        AsyncResolver delayed = domain -> {
+            started.incrementAndGet();
+            CompletableFuture<DnsAnswer> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        };
+
+        BulkResolver resolver = new BulkResolver(delayed, 8);
+        CompletableFuture<Void> done = resolver.resolve(domains(100), r -> { });
+
+        Assert.assertEquals(8, started.get());
+
+        CompletableFuture<DnsAnswer> first = pending.poll();
+        first.complete(DnsAnswer.negative("x", DnsAnswer.NXDOMAIN, 0));
+        Assert.assertEquals(9, started.get());
+
+        CompletableFuture<DnsAnswer> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(new RuntimeException("timeout"));
+        }
+
+        done.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(100, started.get());
+    }
+
+    @Test
+    public void testStreamAppliesBackpressure() {
+        AtomicInteger started = new AtomicInteger();
+
+        AsyncResolver counting = domain -> {
+            started.incrementAndGet();
+            return answer(domain);
+        };
+
+        BulkResolver resolver = new BulkResolver(counting, 16);
+        Iterator<DnsResult> results = resolver.stream(domains(1000)).iterator();
+
+        Assert.assertEquals(16, started.get());
+
+        results.next();
+        Assert.assertEquals(17, started.get());
+
+        int consumed = 1;
+        while (results.hasNext()) {
+            results.next();
+            consumed++;
+        }
+
+        Assert.assertEquals(1000, consumed);
+        Assert.assertEquals(1000, started.get());
+    }
+
+    @Test
+    public void testStreamReportsFailures() {
+        AsyncResolver failing = domain -> {
+            CompletableFuture<DnsAnswer> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException(domain));
+            return future;
+        };
+
+        List<DnsResult> results = new BulkResolver(failing, 2).stream(domains(10)).collect(Collectors.toList());
+
+        Assert.assertEquals(10, results.size());
+        Assert.assertTrue(results.stream().noneMatch(DnsResult::isResolved));
+        Assert.assertTrue(results.get(0).cause() instanceof IllegalStateException);
+    }
+
+    @Test(expected = CompletionException.class)
+    public void testStreamPropagatesInputFailure() {
+        Iterator<String> broken = new Iterator<String>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (i++ == 5) {
+                    throw new IllegalStateException("broken input");
+                }
+                return "domain" + i;
+            }
+        };
+
+        new BulkResolver(BulkResolverTest::answer, 2).stream(broken).count();
+    }
+
+    private static CompletableFuture<DnsAnswer> answer(String domain) {
+        return CompletableFuture.completedFuture(new DnsAnswer(domain, DnsAnswer.NOERROR, 60, new int[] { 1 }));
+    }
+
+    private static Iterator<String> domains(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "domain" + i + ".com").iterator();
+    }
+
+}
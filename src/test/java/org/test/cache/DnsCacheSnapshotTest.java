@@ -0,0 +1,91 @@
+package org.test.cache;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.test.resolver.DnsAnswer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DnsCacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWarmRestart() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("dns.cache");
+
+        DnsCache cache = DnsCache.builder().memoryBudget(1 << 20).minTtl(60).build();
+        for (int i = 0; i < 1000; i++) {
+            cache.put("host" + i + ".com", new DnsAnswer("host" + i + ".com", DnsAnswer.NOERROR, 600, new int[] { i, -i }));
+        }
+        cache.put("nx.com", DnsAnswer.negative("nx.com", DnsAnswer.NXDOMAIN, 0));
+
+        Assert.assertEquals(1001, DnsCacheSnapshot.write(cache, path));
+
+        DnsCacheSnapshot snapshot = DnsCacheSnapshot.open(path);
+        Assert.assertEquals(1001, snapshot.entries());
+
+        DnsCache restarted = DnsCache.builder().memoryBudget(1 << 20).snapshot(snapshot).build();
+        Assert.assertEquals(0, restarted.size());
+
+        DnsAnswer answer = restarted.get("host77.com");
+        Assert.assertArrayEquals(new int[] { 77, -77 }, answer.addresses());
+        Assert.assertTrue(answer.ttl() > 0 && answer.ttl() <= 600);
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, restarted.get("nx.com").rcode());
+        Assert.assertNull(restarted.get("unknown.com"));
+
+        // promoted into memory on the first access
+        Assert.assertEquals(2, restarted.size());
+    }
+
+    @Test
+    public void testRewriteReplacesFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("dns.cache");
+
+        DnsCache cache = DnsCache.builder().memoryBudget(1 << 20).build();
+        cache.put("a.com", new DnsAnswer("a.com", DnsAnswer.NOERROR, 600, new int[] { 1 }));
+        DnsCacheSnapshot.write(cache, path);
+
+        DnsCacheSnapshot first = DnsCacheSnapshot.open(path);
+
+        cache.put("b.com", new DnsAnswer("b.com", DnsAnswer.NOERROR, 600, new int[] { 2 }));
+        DnsCacheSnapshot.write(cache, path);
+
+        // the old mapping stays readable after the rename
+        Assert.assertTrue(first.find(DnsCache.key("a.com")) >= 0);
+        Assert.assertTrue(first.find(DnsCache.key("b.com")) < 0);
+
+        DnsCacheSnapshot second = DnsCacheSnapshot.open(path);
+        Assert.assertTrue(second.find(DnsCache.key("b.com")) >= 0);
+        Assert.assertFalse(Files.exists(path.resolveSibling("dns.cache.tmp")));
+    }
+
+    @Test
+    public void testIpv6OnlyEntriesAreLeftOut() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("dns.cache");
+
+        DnsCache cache = DnsCache.builder().memoryBudget(1 << 20).minTtl(60).maxIpv6(2).build();
+        cache.put("dual.com", new DnsAnswer("dual.com", DnsAnswer.NOERROR, 600, new int[] { 1 }, new long[] { 1, 2 }));
+        cache.put("v6.com", new DnsAnswer("v6.com", DnsAnswer.NOERROR, 600, new int[0], new long[] { 1, 2 }));
+
+        Assert.assertEquals(1, DnsCacheSnapshot.write(cache, path));
+
+        DnsCache restarted = DnsCache.builder().memoryBudget(1 << 20).snapshot(DnsCacheSnapshot.open(path)).build();
+        Assert.assertArrayEquals(new int[] { 1 }, restarted.get("dual.com").addresses());
+        Assert.assertNull(restarted.get("v6.com"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsForeignFile() throws Exception {
+        Path path = folder.newFile("garbage").toPath();
+        Files.write(path, new byte[4096]);
+
+        DnsCacheSnapshot.open(path);
+    }
+
+}
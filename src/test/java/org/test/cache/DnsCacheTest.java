@@ -0,0 +1,200 @@
+package org.test.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DnsCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    public void testPositiveAnswerWithClamps() {
+        DnsCache cache = cache(1 << 20);
+
+        cache.put("short.com", answer("short.com", 10, 0x01020304));
+        cache.put("LONG.com.", answer("long.com", 10_000_000, 0x05060708, 0x090A0B0C));
+
+        DnsAnswer shortAnswer = cache.get("short.com");
+        Assert.assertEquals(60, shortAnswer.ttl());
+        Assert.assertArrayEquals(new int[] { 0x01020304 }, shortAnswer.addresses());
+
+        DnsAnswer longAnswer = cache.get("long.com");
+        Assert.assertEquals(3600, longAnswer.ttl());
+        Assert.assertArrayEquals(new int[] { 0x05060708, 0x090A0B0C }, longAnswer.addresses());
+
+        Assert.assertNull(cache.get("unknown.com"));
+        Assert.assertEquals(2, cache.hits());
+        Assert.assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testIpv6() {
+        DnsCache cache = DnsCache.builder().maxIpv6(2).minTtl(60).clock(clock).build();
+
+        long[] ipv6 = { 0x20010DB8_00000000L, 1, 0x20010DB8_00000000L, 2, 0x20010DB8_00000000L, 3 };
+        cache.put("dual.com", new DnsAnswer("dual.com", DnsAnswer.NOERROR, 300, new int[] { 7 }, ipv6));
+        cache.put("v6.com", new DnsAnswer("v6.com", DnsAnswer.NOERROR, 300, null, new long[] { 5, 6 }));
+
+        DnsAnswer dual = cache.get("dual.com");
+        Assert.assertArrayEquals(new int[] { 7 }, dual.addresses());
+        Assert.assertArrayEquals(Arrays.copyOf(ipv6, 4), dual.ipv6());
+
+        DnsAnswer v6 = cache.get("v6.com");
+        Assert.assertTrue(v6.isResolved());
+        Assert.assertArrayEquals(new long[] { 5, 6 }, v6.ipv6());
+
+        // without IPv6 slots the IPv6 only answer is not cached at all instead of becoming NODATA
+        DnsCache ipv4Only = cache(1 << 20);
+        ipv4Only.put("v6.com", new DnsAnswer("v6.com", DnsAnswer.NOERROR, 300, null, new long[] { 5, 6 }));
+        Assert.assertNull(ipv4Only.get("v6.com"));
+    }
+
+    @Test
+    public void testExpiration() {
+        DnsCache cache = cache(1 << 20);
+        cache.put("a.com", answer("a.com", 100, 1));
+
+        clock.advance(99);
+        Assert.assertEquals(1, cache.get("a.com").ttl());
+
+        clock.advance(1);
+        Assert.assertNull(cache.get("a.com"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+        DnsCache cache = cache(1 << 20);
+
+        cache.put("nx.com", DnsAnswer.negative("nx.com", DnsAnswer.NXDOMAIN, 0));
+        cache.put("nx-soa.com", DnsAnswer.negative("nx-soa.com", DnsAnswer.NXDOMAIN, 5));
+        cache.put("fail.com", DnsAnswer.negative("fail.com", DnsAnswer.SERVFAIL, 0));
+        cache.put("refused.com", DnsAnswer.negative("refused.com", DnsAnswer.REFUSED, 0));
+
+        Assert.assertEquals(300, cache.get("nx.com").ttl());
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, cache.get("nx.com").rcode());
+        Assert.assertEquals(5, cache.get("nx-soa.com").ttl());
+        Assert.assertEquals(DnsAnswer.SERVFAIL, cache.get("fail.com").rcode());
+        Assert.assertEquals(30, cache.get("fail.com").ttl());
+        Assert.assertNull(cache.get("refused.com"));
+    }
+
+    @Test
+    public void testEvictionKeepsMemoryBudget() {
+        DnsCache cache = cache(64 * 1024);
+        int capacity = cache.capacity();
+
+        for (int i = 0; i < capacity * 4; i++) {
+            cache.put("host" + i + ".com", answer("host" + i + ".com", 600, i));
+        }
+
+        Assert.assertTrue(cache.size() <= capacity);
+        Assert.assertTrue(cache.evictions() >= capacity * 3L);
+        Assert.assertTrue((long) capacity * DnsCache.BYTES_PER_SLOT <= 64 * 1024);
+    }
+
+    @Test
+    public void testMatchesHashMapModel() {
+        DnsCache cache = DnsCache.builder().memoryBudget(1 << 20).segments(1).minTtl(1).clock(clock).build();
+        Map<String, Integer> model = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            String name = "n" + random.nextInt(2000) + ".com";
+            int op = random.nextInt(3);
+
+            if (op == 0) {
+                cache.put(name, answer(name, 600, i));
+                model.put(name, i);
+            } else if (op == 1) {
+                cache.invalidate(name);
+                model.remove(name);
+            } else {
+                DnsAnswer answer = cache.get(name);
+                Integer expected = model.get(name);
+                if (expected == null) {
+                    Assert.assertNull(answer);
+                } else {
+                    Assert.assertEquals((int) expected, answer.addresses()[0]);
+                }
+            }
+        }
+
+        Assert.assertEquals(model.size(), cache.size());
+    }
+
+    @Test
+    public void testCachingResolver() throws Exception {
+        AtomicInteger upstreamQueries = new AtomicInteger();
+        AsyncResolver upstream = domain -> {
+            upstreamQueries.incrementAndGet();
+            return CompletableFuture.completedFuture(answer(domain, 600, 7));
+        };
+
+        CachingResolver resolver = new CachingResolver(cache(1 << 20), upstream);
+
+        Assert.assertEquals(7, resolver.query("a.com").get().addresses()[0]);
+        Assert.assertEquals(7, resolver.query("a.com").get().addresses()[0]);
+        Assert.assertEquals(1, upstreamQueries.get());
+    }
+
+    private DnsCache cache(long budget) {
+        return DnsCache.builder()
+                .memoryBudget(budget)
+                .segments(4)
+                .minTtl(60)
+                .maxTtl(3600)
+                .negativeTtl(300)
+                .servFailTtl(30)
+                .clock(clock)
+                .build();
+    }
+
+    private static DnsAnswer answer(String name, int ttl, int... addresses) {
+        return new DnsAnswer(name, DnsAnswer.NOERROR, ttl, addresses);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private long millis = System.currentTimeMillis();
+
+        private void advance(int seconds) {
+            millis += seconds * 1000L;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+    }
+
+}
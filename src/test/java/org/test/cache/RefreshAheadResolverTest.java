@@ -0,0 +1,170 @@
+package org.test.cache;
+
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RefreshAheadResolverTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    private final AtomicInteger upstreamQueries = new AtomicInteger();
+
+    private final Map<String, AtomicInteger> queriesByName = new ConcurrentHashMap<>();
+
+    // answers the first query of every name, the refreshes hang while it is set
+    private volatile boolean hangRefreshes;
+
+    // the refreshes get SERVFAIL while it is set
+    private volatile boolean failRefreshes;
+
+    // the refreshes throw instead of returning a future while it is set
+    private volatile boolean throwRefreshes;
+
+    private final AsyncResolver upstream = domain -> {
+        upstreamQueries.incrementAndGet();
+        int count = queriesByName.computeIfAbsent(domain, k -> new AtomicInteger()).incrementAndGet();
+
+        if (hangRefreshes && count > 1) {
+            return new CompletableFuture<>();
+        }
+        if (throwRefreshes && count > 1) {
+            throw new IllegalStateException("Resolver is closed");
+        }
+        if (failRefreshes && count > 1) {
+            return CompletableFuture.completedFuture(DnsAnswer.negative(domain, DnsAnswer.SERVFAIL, 0));
+        }
+        return CompletableFuture.completedFuture(new DnsAnswer(domain, DnsAnswer.NOERROR, 2, new int[] { count }));
+    };
+
+    private RefreshAheadResolver resolver;
+
+    @After
+    public void tearDown() {
+        if (resolver != null) {
+            resolver.close();
+        }
+        timer.stop();
+    }
+
+    @Test
+    public void testHotNameNeverExpires() throws Exception {
+        resolver = resolver(16);
+
+        Assert.assertEquals(1, resolver.query("hot.com").get().addresses()[0]);
+
+        // queried steadily for 2 TTLs, every query after the first one is a cache hit
+        for (int i = 0; i < 30; i++) {
+            CompletableFuture<DnsAnswer> answer = resolver.query("hot.com");
+            Assert.assertTrue(answer.isDone());
+            Assert.assertTrue(answer.get().isResolved());
+            Thread.sleep(150);
+        }
+
+        Assert.assertTrue(resolver.prefetches() >= 2);
+        Assert.assertEquals(1 + resolver.prefetches(), upstreamQueries.get());
+        Assert.assertEquals(1, resolver.cache().misses());
+    }
+
+    @Test
+    public void testColdNameIsNotRefreshed() throws Exception {
+        resolver = resolver(16);
+
+        resolver.query("cold.com").get();
+        Thread.sleep(2500);
+
+        Assert.assertEquals(0, resolver.prefetches());
+        resolver.query("cold.com").get();
+        Assert.assertEquals(2, upstreamQueries.get());
+    }
+
+    @Test
+    public void testNameCoolsDown() throws Exception {
+        resolver = resolver(16);
+
+        resolver.query("once-hot.com").get();
+        resolver.query("once-hot.com").get();
+
+        // one refresh for the hits of the first period, then nobody asks and the name is dropped
+        Thread.sleep(1500);
+
+        Assert.assertEquals(1, resolver.prefetches());
+        Assert.assertEquals(1, resolver.cooled());
+        Assert.assertEquals(0, resolver.tracked());
+    }
+
+    @Test
+    public void testBoundedPrefetches() throws Exception {
+        hangRefreshes = true;
+        resolver = resolver(3);
+
+        for (int i = 0; i < 10; i++) {
+            resolver.query("host" + i + ".com").get();
+            resolver.query("host" + i + ".com").get();
+        }
+
+        Thread.sleep(800);
+
+        Assert.assertEquals(3, resolver.prefetches());
+        Assert.assertEquals(7, resolver.skipped());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsAnswer() throws Exception {
+        failRefreshes = true;
+        resolver = resolver(16);
+
+        resolver.query("flaky.com").get();
+        resolver.query("flaky.com").get();
+
+        Thread.sleep(800);
+        Assert.assertEquals(1, resolver.prefetches());
+
+        // the SERVFAIL of the refresh did not replace the answer
+        CompletableFuture<DnsAnswer> answer = resolver.query("flaky.com");
+        Assert.assertTrue(answer.isDone());
+        Assert.assertEquals(1, answer.get().addresses()[0]);
+    }
+
+    @Test
+    public void testThrowingRefreshReleasesPermit() throws Exception {
+        throwRefreshes = true;
+        resolver = resolver(1);
+
+        resolver.query("first.com").get();
+        resolver.query("first.com").get();
+        Thread.sleep(800);
+
+        resolver.query("second.com").get();
+        resolver.query("second.com").get();
+        Thread.sleep(800);
+
+        Assert.assertEquals(2, resolver.prefetches());
+        Assert.assertEquals(0, resolver.skipped());
+    }
+
+    private RefreshAheadResolver resolver(int maxPrefetches) {
+        DnsCache cache = DnsCache.builder()
+                .memoryBudget(1 << 20)
+                .minTtl(1)
+                .build();
+
+        return RefreshAheadResolver.builder(cache, upstream)
+                .timer(timer)
+                // the cache counts whole seconds, a 2 second TTL may have only 1 second left
+                .refreshAt(0.25)
+                .minHits(2)
+                .maxPrefetches(maxPrefetches)
+                .build();
+    }
+
+}
@@ -24,6 +24,10 @@ public class NameServices {
         for (NameService nameService : NAME_SERVICES) {
             try {
                 result = nameService.lookupAllHostAddr(host);
+                if (result != null && result.length > 0) {
+                    // the same as InetAddress does: the first service which knows the host wins
+                    break;
+                }
             } catch (UnknownHostException e) {
                 if (suppressedList == null) {
                     suppressedList = new ArrayList<>(NAME_SERVICES.size());
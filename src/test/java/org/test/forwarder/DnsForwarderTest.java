@@ -0,0 +1,269 @@
+package org.test.forwarder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.resolver.DnsAnswer;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.DnsWire;
+import org.test.wire.TcpClient;
+import org.test.wire.WireClient;
+import org.test.wire.WireHandler;
+import org.test.wire.WireResponse;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class DnsForwarderTest {
+
+    private static final List<String> DOMAINS = IntStream.range(0, 100)
+            .mapToObj(i -> "host" + i + ".example.com")
+            .collect(Collectors.toList());
+
+    private static final StubZone ZONE = StubZone.fromDomains(DOMAINS);
+
+    private final List<StubDnsServer> stubs = new ArrayList<>();
+
+    private DnsForwarder forwarder;
+
+    private EventLoopGroup group;
+
+    private WireClient client;
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+
+        if (forwarder != null) {
+            forwarder.close();
+        }
+
+        for (StubDnsServer stub : stubs) {
+            stub.close();
+        }
+    }
+
+    @Test
+    public void testForwardsAndServesFromCache() throws Exception {
+        StubDnsServer stub = stub(StubProfile.IDEAL);
+        start(DnsForwarder.builder().servers(group("stub", 1000, stub)));
+
+        for (String domain : DOMAINS) {
+            Result result = query(domain, DnsWire.TYPE_A);
+            Assert.assertArrayEquals(domain, ZONE.lookup(domain), result.values);
+            // the upstream TTL as is
+            Assert.assertEquals(300, result.ttl);
+        }
+        Assert.assertEquals(DOMAINS.size(), stub.received());
+
+        for (String domain : DOMAINS) {
+            Result result = query(domain, DnsWire.TYPE_A);
+            Assert.assertArrayEquals(domain, ZONE.lookup(domain), result.values);
+            // the TTL left of the clamped one, min_ttl is one hour
+            Assert.assertTrue(String.valueOf(result.ttl), result.ttl > 3500 && result.ttl <= 3600);
+        }
+
+        Assert.assertEquals(DOMAINS.size(), stub.received());
+        Assert.assertEquals(DOMAINS.size(), forwarder.cache().hits());
+        Assert.assertEquals(DOMAINS.size(), forwarder.forwarded());
+
+        // AAAA is another question
+        long[] ipv6 = ZONE.lookupIpv6("host1.example.com");
+        Assert.assertEquals(ipv6.length * 2, query("host1.example.com", DnsWire.TYPE_AAAA).values.length);
+        Assert.assertEquals(DOMAINS.size() + 1, stub.received());
+    }
+
+    @Test
+    public void testEchoesIdAndCase() throws Exception {
+        start(DnsForwarder.builder().servers(group("stub", 1000, stub(StubProfile.IDEAL))));
+
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(forwarder.address());
+
+            // a miss, then a hit of another case; neither query has EDNS, so neither answer has OPT
+            for (String name : Arrays.asList("host7.Example.com", "HOST7.example.COM")) {
+                int id = name.hashCode() & 0xFFFF;
+
+                ByteBuf query = Unpooled.buffer();
+                DnsWire.encodeQuery(query, id, name, DnsWire.TYPE_A, 0);
+                channel.write(query.nioBuffer());
+
+                ByteBuffer buffer = ByteBuffer.allocate(512);
+                channel.read(buffer);
+                buffer.flip();
+                ByteBuf response = Unpooled.wrappedBuffer(buffer);
+
+                Assert.assertEquals(id, response.getUnsignedShort(0));
+                Assert.assertEquals(0, response.getUnsignedShort(10));
+                Assert.assertEquals(query.slice(DnsWire.HEADER_SIZE, query.readableBytes() - DnsWire.HEADER_SIZE),
+                        response.slice(DnsWire.HEADER_SIZE, query.readableBytes() - DnsWire.HEADER_SIZE));
+            }
+        }
+
+        Assert.assertEquals(1, forwarder.cache().hits());
+    }
+
+    @Test
+    public void testNegativeAnswersAreCached() throws Exception {
+        StubDnsServer stub = stub(StubProfile.builder().nxDomainRatio(1.0).build());
+        start(DnsForwarder.builder().servers(group("stub", 1000, stub)));
+
+        for (int i = 0; i < 2; i++) {
+            Result result = query("host1.example.com", DnsWire.TYPE_A);
+            Assert.assertEquals(DnsAnswer.NXDOMAIN, result.rcode);
+            Assert.assertEquals(0, result.values.length);
+        }
+
+        Assert.assertEquals(1, stub.received());
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        StubDnsServer dropping = stub(StubProfile.builder().dropRatio(1.0).build());
+        StubDnsServer failing = stub(StubProfile.builder().servFailRatio(1.0).build());
+        StubDnsServer working = stub(StubProfile.IDEAL);
+
+        start(DnsForwarder.builder()
+                .servers(group("broken", 200, dropping, failing))
+                .servers(group("working", 200, working)));
+
+        Result result = query("host1.example.com", DnsWire.TYPE_A);
+        Assert.assertArrayEquals(ZONE.lookup("host1.example.com"), result.values);
+
+        // the dead server timed out, the failing one answered SERVFAIL, the next group answered
+        Assert.assertEquals(1, dropping.received());
+        Assert.assertEquals(1, failing.received());
+        Assert.assertEquals(1, working.received());
+        Assert.assertEquals(1, forwarder.timeouts());
+        Assert.assertEquals(2, forwarder.retries());
+    }
+
+    @Test
+    public void testServFailAfterMaxAttempts() throws Exception {
+        StubDnsServer dropping = stub(StubProfile.builder().dropRatio(1.0).build());
+        StubDnsServer working = stub(StubProfile.IDEAL);
+
+        start(DnsForwarder.builder()
+                .servers(group("broken", 100, dropping, dropping))
+                .servers(group("working", 100, working))
+                .maxAttempts(2));
+
+        Result result = query("host1.example.com", DnsWire.TYPE_A);
+        Assert.assertEquals(DnsAnswer.SERVFAIL, result.rcode);
+
+        Assert.assertEquals(2, dropping.received());
+        Assert.assertEquals(0, working.received());
+        Assert.assertEquals(1, forwarder.failures());
+    }
+
+    @Test
+    public void testTruncatedAnswerOverTcp() throws Exception {
+        StubDnsServer stub = stub(StubProfile.builder().truncateRatio(1.0).build());
+        start(DnsForwarder.builder().servers(group("stub", 1000, stub)));
+
+        // a UDP client gets the truncated answer and would come back over TCP
+        Result truncated = query("host1.example.com", DnsWire.TYPE_A);
+        Assert.assertTrue(truncated.truncated);
+        Assert.assertEquals(0, truncated.values.length);
+
+        TcpClient tcp = TcpClient.builder()
+                .eventLoop(group.next())
+                .server(forwarder.address())
+                .timeoutMillis(5000)
+                .build();
+        try {
+            Result result = new Result();
+            tcp.query("host1.example.com", DnsWire.TYPE_A, null, result);
+            result.get(5, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(ZONE.lookup("host1.example.com"), result.values);
+        } finally {
+            tcp.close();
+        }
+
+        // nothing truncated is cached, the TCP query is asked over TCP upstream
+        Assert.assertEquals(1, forwarder.tcpRetries());
+        Assert.assertEquals(0, forwarder.cache().hits());
+    }
+
+    private StubDnsServer stub(StubProfile profile) throws InterruptedException {
+        StubDnsServer stub = new StubDnsServer(ZONE, profile);
+        stub.start(new InetSocketAddress("127.0.0.1", 0), 1);
+        stubs.add(stub);
+        return stub;
+    }
+
+    private static ServerGroup group(String label, long timeoutMillis, StubDnsServer... stubs) {
+        List<InetSocketAddress> servers = Arrays.stream(stubs)
+                .map(StubDnsServer::address)
+                .collect(Collectors.toList());
+        return new ServerGroup(label, servers, timeoutMillis, false);
+    }
+
+    private void start(DnsForwarder.Builder builder) throws InterruptedException {
+        forwarder = builder
+                .bindAddress(new InetSocketAddress("127.0.0.1", 0))
+                .threads(2)
+                .build();
+        InetSocketAddress address = forwarder.start();
+
+        group = new EpollEventLoopGroup(1);
+        client = WireClient.builder()
+                .eventLoop(group.next())
+                .server(address)
+                .timeoutMillis(5000)
+                .build();
+    }
+
+    private Result query(String domain, int type) throws Exception {
+        Result result = new Result();
+        client.query(domain, type, null, result);
+        return result.get(5, TimeUnit.SECONDS);
+    }
+
+    private static final class Result extends CompletableFuture<Result> implements WireHandler {
+
+        private int rcode;
+
+        private int ttl;
+
+        private boolean truncated;
+
+        private int[] values;
+
+        @Override
+        public void onResponse(Object attachment, WireResponse response) {
+            rcode = response.rcode();
+            ttl = response.ttl();
+            truncated = response.isTruncated();
+            values = response.copyValues();
+            complete(this);
+        }
+
+        @Override
+        public void onFailure(Object attachment, Throwable cause) {
+            completeExceptionally(cause);
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.test.forwarder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+public class PdnsdConfigTest {
+
+    @Test
+    public void testReadsCrawlerConfig() throws Exception {
+        DnsForwarder forwarder = PdnsdConfig.read(Paths.get("src/config/pdnsd.conf")).build();
+
+        Assert.assertEquals(new InetSocketAddress("127.0.0.1", 10053), forwarder.bindAddress());
+
+        Assert.assertEquals(3600, forwarder.cache().minTtl());
+        Assert.assertEquals(7 * 24 * 3600, forwarder.cache().maxTtl());
+        Assert.assertEquals(300, forwarder.cache().negativeTtl());
+
+        List<ServerGroup> groups = forwarder.groups();
+        Assert.assertEquals(6, groups.size());
+        Assert.assertEquals("lga.pulse.prod", groups.get(0).label());
+
+        ServerGroup google = groups.get(1);
+        Assert.assertEquals("Google", google.label());
+        Assert.assertEquals(Arrays.asList(new InetSocketAddress("8.8.8.8", 53), new InetSocketAddress("8.8.4.4", 53)),
+                google.servers());
+        Assert.assertEquals(20_000, google.timeoutMillis());
+        Assert.assertTrue(google.isRandomized());
+    }
+
+    @Test
+    public void testCommentsPortsAndDefaults() {
+        DnsForwarder forwarder = PdnsdConfig.parse(""
+                + "/* the global section is optional */\n"
+                + "server {\n"
+                + "    # a local resolver\n"
+                + "    ip = 127.0.0.1; port = 5353; // not 53\n"
+                + "    proc_limit = 10;\n"
+                + "}\n")
+                .build();
+
+        Assert.assertEquals(10053, forwarder.bindAddress().getPort());
+
+        ServerGroup group = forwarder.groups().get(0);
+        Assert.assertEquals(Arrays.asList(new InetSocketAddress("127.0.0.1", 5353)), group.servers());
+        Assert.assertEquals(120_000, group.timeoutMillis());
+        Assert.assertFalse(group.isRandomized());
+    }
+
+    @Test
+    public void testTimes() {
+        Assert.assertEquals(30, PdnsdConfig.seconds("30"));
+        Assert.assertEquals(30, PdnsdConfig.seconds("30s"));
+        Assert.assertEquals(300, PdnsdConfig.seconds("5m"));
+        Assert.assertEquals(2 * 3600, PdnsdConfig.seconds("2h"));
+        Assert.assertEquals(86400, PdnsdConfig.seconds("1d"));
+        Assert.assertEquals(7 * 86400, PdnsdConfig.seconds("1w"));
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.test.ingest;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class DomainSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSkipsBlankLinesAndComments() throws Exception {
+        Path file = write("plain.txt", false, "# crawler frontier", "a.com", "", "  b.com  ", "c.com");
+
+        try (DomainSource source = DomainSource.builder().file(file).build()) {
+            Assert.assertEquals(Arrays.asList("a.com", "b.com", "c.com"), drain(source));
+        }
+    }
+
+    @Test
+    public void testParallelFilesKeepOrderWithinFile() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 4; f++) {
+            String[] lines = new String[10_000];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = "host" + i + ".file" + f + ".com";
+            }
+            files.add(write("domains" + f + ".txt.gz", true, lines));
+        }
+
+        DomainSource.Builder builder = DomainSource.builder().threads(4).batchSize(100).queueBatches(2);
+        files.forEach(builder::file);
+
+        int[] last = { -1, -1, -1, -1 };
+        int count = 0;
+        try (DomainSource source = builder.build()) {
+            while (source.hasNext()) {
+                String name = source.next();
+                int file = name.charAt(name.length() - 5) - '0';
+                int index = Integer.parseInt(name.substring(4, name.indexOf('.')));
+                Assert.assertEquals(last[file] + 1, index);
+                last[file] = index;
+                count++;
+            }
+        }
+
+        Assert.assertEquals(40_000, count);
+    }
+
+    @Test
+    public void testDedupAndLimit() throws Exception {
+        Path first = write("first.txt", false, "a.com", "b.com", "A.com.");
+        Path second = write("second.txt", false, "b.com", "c.com", "d.com");
+
+        NameArena arena = new NameArena();
+        try (DomainSource source = DomainSource.builder().file(first).file(second).threads(1).dedup(arena).build()) {
+            Assert.assertEquals(new HashSet<>(Arrays.asList("a.com", "b.com", "c.com", "d.com")), new HashSet<>(drain(source)));
+            Assert.assertEquals(2, source.duplicates());
+        }
+        Assert.assertEquals(4, arena.size());
+
+        try (DomainSource source = DomainSource.builder().file(first).file(second).limit(2).build()) {
+            Assert.assertEquals(2, drain(source).size());
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEnd() throws Exception {
+        String[] lines = new String[100_000];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "host" + i + ".com";
+        }
+        Path file = write("big.txt.gz", true, lines);
+
+        DomainSource source = DomainSource.builder().file(file).batchSize(10).queueBatches(1).build();
+        Assert.assertEquals("host0.com", source.next());
+        source.close();
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testReadFailure() throws Exception {
+        Path file = write("broken.txt.gz", false, "not gzip");
+
+        try (DomainSource source = DomainSource.builder().file(file).build()) {
+            drain(source);
+        }
+    }
+
+    private Path write(String name, boolean gzip, String... lines) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+
+        OutputStream os = Files.newOutputStream(file);
+        if (gzip) {
+            os = new GZIPOutputStream(os);
+        }
+
+        try (Writer writer = new OutputStreamWriter(os, StandardCharsets.US_ASCII)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    private static List<String> drain(DomainSource source) {
+        List<String> result = new ArrayList<>();
+        source.forEachRemaining(result::add);
+        return result;
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.test.ingest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.cache.DnsCache;
+
+public class NameArenaTest {
+
+    @Test
+    public void testDedup() {
+        NameArena arena = new NameArena(4);
+
+        long handle = arena.intern("Example.COM.");
+        Assert.assertEquals(handle, arena.intern("example.com"));
+        Assert.assertEquals(handle, arena.find("EXAMPLE.com"));
+        Assert.assertEquals(-1, arena.find("example.org"));
+        Assert.assertNotEquals(handle, arena.intern("example.org"));
+
+        Assert.assertEquals(2, arena.size());
+        Assert.assertEquals(2 * (1 + "example.com".length()), arena.bytes());
+    }
+
+    @Test
+    public void testView() {
+        NameArena arena = new NameArena();
+        long handle = arena.intern("www.Example.com");
+
+        CharSequence view = arena.view(handle);
+        Assert.assertEquals("www.example.com", view.toString());
+        Assert.assertEquals(15, view.length());
+        Assert.assertEquals('w', view.charAt(0));
+        Assert.assertEquals("example", view.subSequence(4, 11).toString());
+        Assert.assertEquals(15, arena.length(handle));
+        Assert.assertEquals('.', arena.charAt(handle, 3));
+
+        // usable as a cache key without a String
+        Assert.assertEquals(DnsCache.key("www.example.com"), DnsCache.key(view));
+    }
+
+    @Test
+    public void testGrowth() {
+        NameArena arena = new NameArena(16);
+
+        int count = 200_000;
+        long[] handles = new long[count];
+        for (int i = 0; i < count; i++) {
+            handles[i] = arena.intern("host" + i + ".example.com");
+        }
+
+        Assert.assertEquals(count, arena.size());
+        for (int i = 0; i < count; i += 997) {
+            Assert.assertEquals(handles[i], arena.find("host" + i + ".example.com"));
+            Assert.assertEquals("host" + i + ".example.com", arena.toString(handles[i]));
+        }
+    }
+
+    @Test
+    public void testInvalidNames() {
+        NameArena arena = new NameArena();
+
+        for (String name : new String[] { "", "bücher.de", new String(new char[256]).replace('\0', 'a') }) {
+            try {
+                arena.intern(name);
+                Assert.fail(name);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+
+        Assert.assertEquals(0, arena.size());
+    }
+
+}
@@ -0,0 +1,208 @@
+package org.test.iterative;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.bulk.BulkResolver;
+import org.test.bulk.DnsResult;
+import org.test.resolver.DnsAnswer;
+import org.test.stub.StubHierarchy;
+import org.test.stub.StubZone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class IterativeResolverTest {
+
+    private static final List<String> DOMAINS = IntStream.range(0, 2000)
+            .mapToObj(i -> "host" + i + ".site" + (i % 200) + (i % 2 == 0 ? ".com" : ".org"))
+            .collect(Collectors.toList());
+
+    private static final StubZone ZONE = StubZone.fromDomains(DOMAINS);
+
+    private StubHierarchy hierarchy;
+
+    private IterativeResolver resolver;
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+
+        if (hierarchy != null) {
+            hierarchy.close();
+        }
+    }
+
+    @Test
+    public void testDelegationsAreCached() throws Exception {
+        start(StubHierarchy.builder(ZONE));
+
+        // root, com, site0.com
+        assertQueries(3, "host0.site0.com");
+        // com is known
+        assertQueries(2, "host2.site2.com");
+        // site0.com is known
+        assertQueries(1, "host200.site0.com");
+
+        Assert.assertEquals(3, resolver.referrals());
+        Assert.assertEquals(1, resolver.delegations().misses());
+        Assert.assertEquals(0, resolver.lame());
+    }
+
+    @Test
+    public void testCname() throws Exception {
+        start(StubHierarchy.builder(ZONE)
+                .cname("www.site0.com", "host0.site0.com")
+                .cname("alias.site1.org", "host2.site2.com"));
+
+        DnsAnswer answer = query("www.site0.com");
+        Assert.assertEquals("www.site0.com", answer.name());
+        Assert.assertArrayEquals(ZONE.lookup("host0.site0.com"), answer.addresses());
+
+        // the target is in another zone, the lookup starts over from the closest known delegation
+        answer = query("alias.site1.org");
+        Assert.assertArrayEquals(ZONE.lookup("host2.site2.com"), answer.addresses());
+    }
+
+    @Test
+    public void testCnameTtl() throws Exception {
+        start(StubHierarchy.builder(ZONE)
+                .cname("www.site0.com", "host0.site0.com", 30)
+                .cname("alias.site1.org", "host2.site2.com", 20));
+
+        // the addresses live for 300 seconds, the answer only as long as the CNAME in front of them
+        Assert.assertEquals(30, query("www.site0.com").ttl());
+        Assert.assertEquals(20, query("alias.site1.org").ttl());
+        Assert.assertEquals(300, query("host0.site0.com").ttl());
+    }
+
+    @Test
+    public void testCnameLoop() throws Exception {
+        start(StubHierarchy.builder(ZONE)
+                .cname("a.site0.com", "b.site1.org")
+                .cname("b.site1.org", "a.site0.com"));
+
+        DnsAnswer answer = query("a.site0.com");
+        Assert.assertEquals(DnsAnswer.SERVFAIL, answer.rcode());
+    }
+
+    @Test
+    public void testNxDomain() throws Exception {
+        start(StubHierarchy.builder(ZONE));
+
+        DnsAnswer answer = query("unknown.site0.com");
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, answer.rcode());
+        // the SOA minimum of the stub
+        Assert.assertEquals(60, answer.ttl());
+
+        // the root has no such TLD
+        answer = query("host0.site0.invalid");
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, answer.rcode());
+    }
+
+    @Test
+    public void testWithoutGlue() throws Exception {
+        start(StubHierarchy.builder(ZONE).providerNameServers(true));
+
+        DnsAnswer answer = query("host0.site0.com");
+        Assert.assertArrayEquals(ZONE.lookup("host0.site0.com"), answer.addresses());
+        // the name server of site0.com is looked up through net and its hosting zone
+        Assert.assertTrue(String.valueOf(resolver.queries()), resolver.queries() > 3);
+
+        // its address is remembered with the delegation
+        long queries = resolver.queries();
+        query("host200.site0.com");
+        Assert.assertEquals(queries + 1, resolver.queries());
+    }
+
+    @Test
+    public void testLameServer() throws Exception {
+        start(StubHierarchy.builder(ZONE).lame("site0.com"));
+
+        for (int i = 0; i < 2000; i += 200) {
+            String domain = "host" + i + ".site0.com";
+            Assert.assertArrayEquals(ZONE.lookup(domain), query(domain).addresses());
+        }
+
+        // the dead server timed out once, then it is skipped for the penalty
+        Assert.assertEquals(1, resolver.lame());
+    }
+
+    @Test
+    public void testUnauthoritativeAnswer() throws Exception {
+        start(StubHierarchy.builder(ZONE).stale("site0.com"));
+
+        for (int i = 0; i < 2000; i += 200) {
+            String domain = "host" + i + ".site0.com";
+            Assert.assertArrayEquals(domain, ZONE.lookup(domain), query(domain).addresses());
+        }
+
+        // the stale server answered once, then it is skipped for the penalty
+        Assert.assertTrue(String.valueOf(resolver.lame()), resolver.lame() <= 1);
+    }
+
+    @Test
+    public void testBoundedPenalties() throws Exception {
+        resolver = IterativeResolver.builder()
+                .lamePenaltyMillis(50)
+                .maxPenalties(100)
+                .build();
+
+        for (int server = 0; server < 200; server++) {
+            resolver.penalize(server);
+        }
+        Assert.assertEquals(100, resolver.penalized());
+
+        // the expired penalties make room
+        Thread.sleep(100);
+        resolver.penalize(1000);
+        Assert.assertEquals(1, resolver.penalized());
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        start(StubHierarchy.builder(ZONE).hostingServers(8));
+
+        List<DnsResult> results = new ArrayList<>();
+        new BulkResolver(resolver, 64).stream(DOMAINS.iterator()).forEach(results::add);
+
+        Assert.assertEquals(DOMAINS.size(), results.size());
+        for (DnsResult result : results) {
+            Assert.assertTrue(result.toString(), result.isResolved());
+            Assert.assertArrayEquals(ZONE.lookup(result.domain()), result.answer().addresses());
+        }
+
+        // concurrent lookups of one zone may all miss it, but most of them only ask its server
+        Assert.assertTrue(String.valueOf(resolver.queries()), resolver.queries() < 2 * DOMAINS.size());
+    }
+
+    private void start(StubHierarchy.Builder builder) throws InterruptedException {
+        hierarchy = builder.build();
+        hierarchy.start(1);
+
+        resolver = IterativeResolver.builder()
+                .rootHints(hierarchy.rootHints())
+                .port(hierarchy.port())
+                .queryTimeoutMillis(1000)
+                .build();
+    }
+
+    private DnsAnswer query(String domain) throws Exception {
+        return resolver.query(domain).get(5, TimeUnit.SECONDS);
+    }
+
+    private void assertQueries(int expected, String domain) throws Exception {
+        long before = resolver.queries();
+
+        DnsAnswer answer = query(domain);
+        Assert.assertArrayEquals(ZONE.lookup(domain), answer.addresses());
+
+        Assert.assertEquals(domain, expected, resolver.queries() - before);
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.test.jna;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads {@code struct addrinfo} lists by offset, LP64 layout:
+ * <pre>
+ * struct addrinfo {
+ *     int ai_flags;              // 0
+ *     int ai_family;             // 4
+ *     int ai_socktype;           // 8
+ *     int ai_protocol;           // 12
+ *     socklen_t ai_addrlen;      // 16
+ *     struct sockaddr *ai_addr;  // 24
+ *     char *ai_canonname;        // 32
+ *     struct addrinfo *ai_next;  // 40
+ * };
+ * </pre>
+ */
+public final class AddrInfos {
+
+    public static final int SIZE = 48;
+
+    private static final int AI_FAMILY = 4;
+
+    private static final int AI_SOCKTYPE = 8;
+
+    private static final int AI_ADDR = 24;
+
+    private static final int AI_NEXT = 40;
+
+    // sin_addr in sockaddr_in, sin6_addr in sockaddr_in6
+    private static final int SIN_ADDR = 4;
+
+    private static final int SIN6_ADDR = 8;
+
+    private AddrInfos() {
+    }
+
+    /**
+     * One entry per address is enough, so the hints ask for stream sockets only.
+     */
+    public static Memory hints(int family) {
+        Memory hints = new Memory(SIZE);
+        hints.clear();
+        hints.setInt(AI_FAMILY, family);
+        hints.setInt(AI_SOCKTYPE, CLibConsts.SOCK_STREAM);
+        return hints;
+    }
+
+    public static InetAddress[] toInetAddresses(String host, Pointer list) throws UnknownHostException {
+        List<InetAddress> result = new ArrayList<>();
+
+        for (Pointer ai = list; ai != null; ai = ai.getPointer(AI_NEXT)) {
+            Pointer address = ai.getPointer(AI_ADDR);
+            if (address == null) {
+                continue;
+            }
+
+            int family = ai.getInt(AI_FAMILY);
+            if (family == CLibConsts.AF_INET) {
+                result.add(InetAddress.getByAddress(host, address.getByteArray(SIN_ADDR, 4)));
+            } else if (family == CLibConsts.AF_INET6) {
+                result.add(InetAddress.getByAddress(host, address.getByteArray(SIN6_ADDR, 16)));
+            }
+        }
+
+        return result.toArray(new InetAddress[0]);
+    }
+
+}
@@ -14,7 +14,7 @@ import java.util.List;
 @SuppressWarnings({ "SpellCheckingInspection", "unused" })
 public interface CLib extends Library {
 
-    CLib INSTANCE = (CLib) Native.loadLibrary("c", CLib.class);
+    CLib INSTANCE = Native.loadLibrary("c", CLib.class);
 
     class Hostent extends Structure {
 
@@ -80,4 +80,28 @@ public interface CLib extends Library {
     int gethostbyname_r(String name, Hostent ret, Pointer buf, NativeLong buflen,
                         PointerByReference result, IntByReference h_errnop);
 
+    int getaddrinfo(String node, String service, Pointer hints, PointerByReference res);
+
+    void freeaddrinfo(Pointer res);
+
+    String gai_strerror(int errcode);
+
+    // sockets, the structures are laid out by hand in MmsgSocket
+
+    int socket(int domain, int type, int protocol);
+
+    int connect(int sockfd, Pointer addr, int addrlen);
+
+    int setsockopt(int sockfd, int level, int optname, Pointer optval, int optlen);
+
+    int close(int fd);
+
+    NativeLong send(int sockfd, Pointer buf, NativeLong len, int flags);
+
+    NativeLong recv(int sockfd, Pointer buf, NativeLong len, int flags);
+
+    int sendmmsg(int sockfd, Pointer msgvec, int vlen, int flags);
+
+    int recvmmsg(int sockfd, Pointer msgvec, int vlen, int flags, Pointer timeout);
+
 }
@@ -1,10 +1,12 @@
 package org.test.jna;
 
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.PointerByReference;
+import org.test.resolver.DnsAnswer;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -60,16 +62,105 @@ public class CLibAdapter {
         }
     }
 
+    public static InetAddress[] resolve3(String host) throws UnknownHostException {
+        int[] packed = resolvePacked(host, CLibConsts.AF_INET);
+
+        InetAddress[] result = new InetAddress[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            result[i] = DnsAnswer.toInetAddress(host, packed[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Thread safe and allocation-light version of {@link #resolve2}: reuses the native memory of the thread,
+     * reads the hostent by offset and returns the addresses packed into ints, one int per IPv4 address
+     * or four ints per IPv6 address.
+     *
+     * @param family {@link CLibConsts#AF_INET} or {@link CLibConsts#AF_INET6}
+     */
+    public static int[] resolvePacked(String host, int family) throws UnknownHostException {
+        return resolvePacked(host, family, NativeArena.get());
+    }
+
+    static int[] resolvePacked(String host, int family, NativeArena arena) throws UnknownHostException {
+        if (!arena.setName(host)) {
+            throw new UnknownHostException("Can't resolve " + host + " - invalid name");
+        }
+
+        int r;
+        while ((r = CLibDirect.gethostbyname2_r(arena.name, family, arena.hostent,
+                arena.buffer, arena.buffer.size(), arena.result, arena.errno)) == CLibConsts.ERANGE)
+        {
+            if (!arena.grow()) {
+                throw new UnknownHostException("Can't resolve " + host + " - too many addresses");
+            }
+        }
+
+        if (r != 0) {
+            throw new UnknownHostException("Can't resolve " + host + " - return code is " + r);
+        }
+
+        if (arena.result.getPointer(0) == null) {
+            throw new UnknownHostException("Can't resolve " + host + " - error code is " + arena.errno.getInt(0));
+        }
+
+        int length = arena.hostent.getInt(NativeArena.H_LENGTH);
+        int expected = family == CLibConsts.AF_INET6 ? 16 : 4;
+        if (arena.hostent.getInt(NativeArena.H_ADDRTYPE) != family || length != expected) {
+            throw new UnknownHostException("Can't resolve " + host + " - unexpected family or length");
+        }
+
+        // h_addr_list is a null-terminated array of pointers, glibc places it and the addresses
+        // in the work buffer, so everything is read as offsets into it without Pointer instances
+        Memory buffer = arena.buffer;
+        long base = Pointer.nativeValue(buffer);
+        long list = Pointer.nativeValue(arena.hostent.getPointer(NativeArena.H_ADDR_LIST)) - base;
+
+        int count = 0;
+        while (inside(buffer, list + (long) count * Pointer.SIZE, Pointer.SIZE)
+                && buffer.getLong(list + (long) count * Pointer.SIZE) != 0)
+        {
+            count++;
+        }
+
+        if (count == 0) {
+            throw new UnknownHostException("Can't resolve " + host + " - no addresses");
+        }
+
+        int words = length / 4;
+        int[] packed = new int[count * words];
+
+        for (int i = 0; i < count; i++) {
+            long address = buffer.getLong(list + (long) i * Pointer.SIZE) - base;
+            if (!inside(buffer, address, length)) {
+                throw new UnknownHostException("Can't resolve " + host + " - address outside of the buffer");
+            }
+
+            for (int j = 0; j < words; j++) {
+                // network order on a little-endian host
+                packed[i * words + j] = Integer.reverseBytes(buffer.getInt(address + j * 4L));
+            }
+        }
+
+        return packed;
+    }
+
+    private static boolean inside(Memory buffer, long offset, int length) {
+        return offset >= 0 && offset + length <= buffer.size();
+    }
+
     private static InetAddress[] getEntryAddresses(String host, CLib.Hostent entry) throws UnknownHostException {
         if (entry == null) {
             throw new UnknownHostException("Can't resolve " + host + " - result is null");
         }
 
-        if (entry.type != CLibConsts.AF_INET) {
+        if (entry.type != CLibConsts.AF_INET && entry.type != CLibConsts.AF_INET6) {
             throw new UnknownHostException("Can't resolve " + host + " - unknown family " + entry.type);
         }
 
-        if (entry.length != 4) {
+        if (entry.length != (entry.type == CLibConsts.AF_INET ? 4 : 16)) {
             throw new UnknownHostException("Can't resolve " + host + " - wrong length " + entry.length);
         }
 
@@ -0,0 +1,24 @@
+package org.test.jna;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Asynchronous name lookup of glibc. It lives in libanl, since glibc 2.34 libanl is an empty stub
+ * over libc, so loading it works with both.
+ */
+@SuppressWarnings({ "SpellCheckingInspection", "unused" })
+public interface CLibAnl extends Library {
+
+    CLibAnl INSTANCE = Native.loadLibrary("anl", CLibAnl.class);
+
+    int getaddrinfo_a(int mode, Pointer list, int nitems, Pointer sevp);
+
+    int gai_suspend(Pointer list, int nitems, Pointer timeout);
+
+    int gai_error(Pointer req);
+
+    int gai_cancel(Pointer req);
+
+}
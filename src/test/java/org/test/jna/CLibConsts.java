@@ -4,4 +4,44 @@ public interface CLibConsts {
 
     int AF_INET = 2;
 
+    int AF_UNSPEC = 0;
+
+    int AF_INET6 = 10;
+
+    int SOCK_STREAM = 1;
+
+    int SOCK_DGRAM = 2;
+
+    int SOL_SOCKET = 1;
+
+    int SO_RCVTIMEO = 20;
+
+    int MSG_WAITFORONE = 0x10000;
+
+    int EAGAIN = 11;
+
+    int ERANGE = 34;
+
+    int HOST_NOT_FOUND = 1;
+
+    int TRY_AGAIN = 2;
+
+    int NO_RECOVERY = 3;
+
+    int NO_DATA = 4;
+
+    int GAI_NOWAIT = 1;
+
+    int EAI_NONAME = -2;
+
+    int EAI_AGAIN = -3;
+
+    int EAI_NODATA = -5;
+
+    int EAI_MEMORY = -10;
+
+    int EAI_SYSTEM = -11;
+
+    int EAI_INPROGRESS = -100;
+
 }
@@ -0,0 +1,23 @@
+package org.test.jna;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Direct-mapped libc calls of the hot path: no argument array, no boxing and no string conversion per call,
+ * everything is passed as pointers into a {@link NativeArena}. {@code size_t} is mapped to {@code long}, LP64 only.
+ */
+@SuppressWarnings({ "SpellCheckingInspection", "unused" })
+public final class CLibDirect {
+
+    static {
+        Native.register("c");
+    }
+
+    private CLibDirect() {
+    }
+
+    public static native int gethostbyname2_r(Pointer name, int af, Pointer ret, Pointer buf, long buflen,
+                                              Pointer result, Pointer h_errnop);
+
+}
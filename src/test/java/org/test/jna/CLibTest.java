@@ -56,4 +56,31 @@ public class CLibTest {
         Assert.assertNotNull(addresses);
         Assert.assertTrue(addresses.length > 0);
     }
+
+    @Test
+    public void testResolvePacked() throws Exception {
+        Assert.assertArrayEquals(new int[] { 0x7F000001 }, CLibAdapter.resolvePacked("localhost", CLibConsts.AF_INET));
+    }
+
+    @Test
+    public void testResolvePackedIpv6() throws Exception {
+        Assert.assertArrayEquals(new int[] { 0x20010DB8, 0, 0, 1 },
+                CLibAdapter.resolvePacked("2001:db8::1", CLibConsts.AF_INET6));
+    }
+
+    @Test
+    public void testResolvePackedGrowsOnErange() throws Exception {
+        NativeArena arena = new NativeArena(16);
+
+        int[] packed = CLibAdapter.resolvePacked("localhost", CLibConsts.AF_INET, arena);
+
+        Assert.assertArrayEquals(new int[] { 0x7F000001 }, packed);
+        Assert.assertTrue(arena.buffer.size() > 16);
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testResolvePackedInvalidName() throws Exception {
+        CLibAdapter.resolvePacked("bad\u0000name", CLibConsts.AF_INET);
+    }
+
 }
@@ -0,0 +1,346 @@
+package org.test.jna;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * System resolver (nsswitch, /etc/hosts, resolv.conf) with asynchronous fan-out through glibc
+ * {@code getaddrinfo_a}: lookups are submitted in batches with {@code GAI_NOWAIT} and collected by one poll
+ * thread, no signals and no Java thread per lookup.
+ * <p>
+ * The poll thread checks the statuses every 2 ms instead of waiting in {@code gai_suspend}:
+ * a {@code gai_suspend} which times out while requests complete corrupts the heap of glibc (seen with 2.36),
+ * and it could not be woken up by a new submission anyway.
+ * <p>
+ * Futures are completed on the poll thread, continuations must not block. Linux x86_64 only.
+ */
+public class GaiResolver implements AsyncResolver, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GaiResolver.class);
+
+    // struct gaicb { const char *ar_name; const char *ar_service; const struct addrinfo *ar_request;
+    //                struct addrinfo *ar_result; int __return; int __glibc_reserved[5]; }
+    private static final int GAICB_SIZE = 56;
+
+    private static final int AR_NAME = 0;
+
+    private static final int AR_REQUEST = 16;
+
+    private static final int AR_RESULT = 24;
+
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final int family;
+
+    private final Memory hints;
+
+    private final int maxInFlight;
+
+    private final int maxBatch;
+
+    private final long timeoutNanos;
+
+    private final BlockingDeque<Request> submitted = new LinkedBlockingDeque<>();
+
+    private final List<Request> pending = new ArrayList<>();
+
+    private final Memory batchList;
+
+    private final Thread poller;
+
+    private volatile boolean closed;
+
+    private GaiResolver(Builder builder) {
+        this.family = builder.family;
+        this.hints = AddrInfos.hints(builder.family);
+        this.maxInFlight = builder.maxInFlight;
+        this.maxBatch = builder.maxBatch;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.timeoutMillis);
+
+        this.batchList = new Memory((long) maxBatch * Pointer.SIZE);
+
+        poller = new Thread(this::poll, "gai-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Fails with {@link UnknownHostException} only if the name does not exist or has no addresses, the temporary
+     * failures of getaddrinfo such as {@code EAI_AGAIN} fail with a plain {@link IOException}.
+     */
+    public CompletableFuture<InetAddress[]> resolveAll(String host) {
+        Request request = new Request(host);
+
+        if (closed) {
+            request.completeExceptionally(new IllegalStateException("Resolver is closed"));
+        } else {
+            submitted.add(request);
+
+            // the poller may have drained the queue for the last time between the check and the add
+            if (closed && submitted.remove(request)) {
+                request.completeExceptionally(new IllegalStateException("Resolver is closed"));
+            }
+        }
+
+        return request;
+    }
+
+    /**
+     * getaddrinfo hides the DNS response, so the rcode is NOERROR or NXDOMAIN and the TTL is unknown (0).
+     * A temporary failure fails the future instead of becoming a cacheable NXDOMAIN.
+     *
+     * @throws UnsupportedOperationException unless the family is {@link CLibConsts#AF_INET}, a {@link DnsAnswer}
+     *         holds IPv4 addresses only, use {@link #resolveAll} for the others
+     */
+    @Override
+    public CompletableFuture<DnsAnswer> query(String domain) {
+        if (family != CLibConsts.AF_INET) {
+            throw new UnsupportedOperationException("DNS answers of family " + family + " are not supported");
+        }
+
+        CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+
+        resolveAll(domain).whenComplete((addresses, ex) -> {
+            if (ex == null) {
+                int[] packed = new int[addresses.length];
+                int count = 0;
+                for (InetAddress address : addresses) {
+                    if (address.getAddress().length == 4) {
+                        packed[count++] = DnsAnswer.toInt(address);
+                    }
+                }
+                result.complete(new DnsAnswer(domain, DnsAnswer.NOERROR, 0, Arrays.copyOf(packed, count)));
+            } else if (ex instanceof UnknownHostException) {
+                result.complete(DnsAnswer.negative(domain, DnsAnswer.NXDOMAIN, 0));
+            } else {
+                result.completeExceptionally(ex);
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            poller.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void poll() {
+        try {
+            while (!closed || !pending.isEmpty()) {
+                submit();
+
+                if (pending.isEmpty()) {
+                    Request request = submitted.poll(100, TimeUnit.MILLISECONDS);
+                    if (request != null) {
+                        submitted.addFirst(request);
+                    }
+                    continue;
+                }
+
+                if (pending.size() < maxInFlight) {
+                    // a new submission ends the wait early
+                    Request request = submitted.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+                    if (request != null) {
+                        submitted.addFirst(request);
+                    }
+                } else {
+                    LockSupport.parkNanos(POLL_NANOS);
+                }
+
+                collect();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.error("getaddrinfo_a poller failed", e);
+        }
+
+        Request request;
+        while ((request = submitted.poll()) != null) {
+            request.completeExceptionally(new IllegalStateException("Resolver is closed"));
+        }
+    }
+
+    private void submit() {
+        while (!closed && pending.size() < maxInFlight && !submitted.isEmpty()) {
+            int count = 0;
+
+            Request request;
+            while (count < maxBatch && pending.size() < maxInFlight && (request = submitted.poll()) != null) {
+                if (request.isDone()) {
+                    // cancelled by the caller before it was sent
+                    continue;
+                }
+
+                request.prepare(hints, System.nanoTime() + timeoutNanos);
+                batchList.setPointer((long) count * Pointer.SIZE, request.gaicb);
+                pending.add(request);
+                count++;
+            }
+
+            if (count > 0) {
+                // on EAI_AGAIN some of the requests were not queued, their status tells which ones
+                int r = CLibAnl.INSTANCE.getaddrinfo_a(CLibConsts.GAI_NOWAIT, batchList, count, null);
+                if (r != 0 && r != CLibConsts.EAI_AGAIN) {
+                    LOGGER.warn("getaddrinfo_a failed: {}", CLib.INSTANCE.gai_strerror(r));
+                }
+            }
+        }
+    }
+
+    private void collect() {
+        long now = System.nanoTime();
+
+        int kept = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            Request request = pending.get(i);
+
+            int status = CLibAnl.INSTANCE.gai_error(request.gaicb);
+            if (status == CLibConsts.EAI_INPROGRESS) {
+                if (now - request.deadline >= 0 && !request.isDone()) {
+                    // the native request keeps its memory until glibc is done with it
+                    CLibAnl.INSTANCE.gai_cancel(request.gaicb);
+                    request.completeExceptionally(new TimeoutException("Lookup of " + request.host + " timed out"));
+                }
+                pending.set(kept++, request);
+            } else {
+                request.finish(status);
+            }
+        }
+
+        pending.subList(kept, pending.size()).clear();
+    }
+
+    /**
+     * @return {@link UnknownHostException} for a negative answer, the rest is not worth caching as one
+     */
+    static IOException failure(String host, int status) {
+        String message = "Can't resolve " + host + " - " + CLib.INSTANCE.gai_strerror(status);
+        if (status == CLibConsts.EAI_NONAME || status == CLibConsts.EAI_NODATA) {
+            return new UnknownHostException(message);
+        }
+        return new IOException(message);
+    }
+
+    private static final class Request extends CompletableFuture<InetAddress[]> {
+
+        private final String host;
+
+        private Memory name;
+
+        private Memory gaicb;
+
+        private long deadline;
+
+        private Request(String host) {
+            this.host = host;
+        }
+
+        private void prepare(Memory hints, long deadline) {
+            this.deadline = deadline;
+
+            name = new Memory(host.length() * 3 + 1);
+            name.setString(0, host, "UTF-8");
+
+            gaicb = new Memory(GAICB_SIZE);
+            gaicb.clear();
+            gaicb.setPointer(AR_NAME, name);
+            gaicb.setPointer(AR_REQUEST, hints);
+        }
+
+        private void finish(int status) {
+            Pointer result = gaicb.getPointer(AR_RESULT);
+            try {
+                if (status == 0 && result != null) {
+                    complete(AddrInfos.toInetAddresses(host, result));
+                } else if (status == 0) {
+                    completeExceptionally(new IOException("Can't resolve " + host + " - not queued"));
+                } else {
+                    completeExceptionally(failure(host, status));
+                }
+            } catch (UnknownHostException e) {
+                completeExceptionally(e);
+            } finally {
+                if (result != null) {
+                    CLib.INSTANCE.freeaddrinfo(result);
+                }
+            }
+        }
+
+    }
+
+    public static final class Builder {
+
+        private int family = CLibConsts.AF_INET;
+
+        private int maxInFlight = 1024;
+
+        private int maxBatch = 256;
+
+        private long timeoutMillis = TimeUnit.SECONDS.toMillis(10);
+
+        private Builder() {
+        }
+
+        /**
+         * {@link CLibConsts#AF_INET}, {@link CLibConsts#AF_INET6} or {@link CLibConsts#AF_UNSPEC}.
+         * Only {@link CLibConsts#AF_INET} supports {@link #query}.
+         */
+        public Builder family(int family) {
+            this.family = family;
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder maxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        public Builder timeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public GaiResolver build() {
+            if (maxInFlight <= 0 || maxBatch <= 0) {
+                throw new IllegalArgumentException("maxInFlight and maxBatch must be positive");
+            }
+
+            return new GaiResolver(this);
+        }
+
+    }
+
+}
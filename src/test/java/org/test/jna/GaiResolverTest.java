@@ -0,0 +1,121 @@
+package org.test.jna;
+
+import com.sun.jna.Platform;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.test.resolver.DnsAnswer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class GaiResolverTest {
+
+    private GaiResolver resolver;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Platform.isLinux() && Platform.is64Bit());
+
+        resolver = GaiResolver.builder()
+                .maxInFlight(64)
+                .maxBatch(16)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void testResolveHostsFile() throws Exception {
+        InetAddress[] addresses = resolver.resolveAll("localhost").get(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(addresses.length > 0);
+        Assert.assertTrue(addresses[0].isLoopbackAddress());
+        Assert.assertEquals("localhost", addresses[0].getHostName());
+    }
+
+    @Test
+    public void testFanOutAboveInFlightLimit() throws Exception {
+        List<CompletableFuture<DnsAnswer>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(resolver.query("localhost"));
+        }
+
+        for (CompletableFuture<DnsAnswer> future : futures) {
+            DnsAnswer answer = future.get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(answer.isResolved());
+            Assert.assertEquals(0x7F000001, answer.addresses()[0]);
+        }
+    }
+
+    @Test
+    public void testOnlyMissingNamesAreNegative() {
+        Assert.assertTrue(GaiResolver.failure("x", CLibConsts.EAI_NONAME) instanceof UnknownHostException);
+        Assert.assertTrue(GaiResolver.failure("x", CLibConsts.EAI_NODATA) instanceof UnknownHostException);
+
+        for (int status : new int[] { CLibConsts.EAI_AGAIN, CLibConsts.EAI_MEMORY, CLibConsts.EAI_SYSTEM }) {
+            Assert.assertFalse(String.valueOf(status),
+                    GaiResolver.failure("x", status) instanceof UnknownHostException);
+        }
+    }
+
+    @Test
+    public void testResolveIpv6() throws Exception {
+        resolver.close();
+        resolver = GaiResolver.builder()
+                .family(CLibConsts.AF_UNSPEC)
+                .build();
+
+        Assert.assertTrue(resolver.resolveAll("localhost").get(10, TimeUnit.SECONDS).length > 0);
+
+        // the IPv6 addresses would not fit into the answer
+        try {
+            resolver.query("localhost");
+            Assert.fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testLookupsRacingCloseComplete() throws Exception {
+        List<CompletableFuture<InetAddress[]>> futures = new ArrayList<>();
+        Thread submitter = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                futures.add(resolver.resolveAll("localhost"));
+            }
+        });
+        submitter.start();
+
+        Thread.sleep(5);
+        resolver.close();
+        submitter.join();
+
+        for (CompletableFuture<InetAddress[]> future : futures) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ignored) {
+                // closed
+            }
+        }
+    }
+
+    @Test
+    public void testClosedResolverRejects() throws Exception {
+        resolver.close();
+
+        Assert.assertTrue(resolver.resolveAll("localhost").isCompletedExceptionally());
+    }
+
+}
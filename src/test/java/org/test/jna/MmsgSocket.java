@@ -0,0 +1,209 @@
+package org.test.jna;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+
+/**
+ * Connected UDP socket driven through libc, with a fixed arena of {@code slots} packet buffers
+ * which are sent with {@code sendmmsg} and received with {@code recvmmsg}, or one by one with send/recv
+ * for comparison. Linux x86_64 only, the structure layouts below are for LP64.
+ * <p>
+ * Not thread safe.
+ */
+public class MmsgSocket implements AutoCloseable {
+
+    public static final int SLOT_SIZE = 1232;
+
+    // struct iovec { void *iov_base; size_t iov_len; }
+    private static final int IOVEC_SIZE = 16;
+
+    // struct mmsghdr { struct msghdr msg_hdr (56 bytes); unsigned int msg_len; } padded to 64
+    private static final int MMSGHDR_SIZE = 64;
+
+    private static final int MSG_IOV_OFFSET = 16;
+
+    private static final int MSG_IOVLEN_OFFSET = 24;
+
+    private static final int MSG_LEN_OFFSET = 56;
+
+    private final int fd;
+
+    private final int slots;
+
+    private final Memory buffers;
+
+    private final Memory iovecs;
+
+    private final Memory headers;
+
+    private final ByteBuf[] views;
+
+    public MmsgSocket(InetSocketAddress server, int slots, int receiveTimeoutMillis) throws IOException {
+        this.slots = slots;
+
+        fd = CLib.INSTANCE.socket(CLibConsts.AF_INET, CLibConsts.SOCK_DGRAM, 0);
+        if (fd < 0) {
+            throw new IOException("socket() failed, errno " + Native.getLastError());
+        }
+
+        buffers = new Memory((long) slots * SLOT_SIZE);
+        iovecs = new Memory((long) slots * IOVEC_SIZE);
+        headers = new Memory((long) slots * MMSGHDR_SIZE);
+        headers.clear();
+
+        views = new ByteBuf[slots];
+        for (int i = 0; i < slots; i++) {
+            long address = Pointer.nativeValue(buffers) + (long) i * SLOT_SIZE;
+            // a JNA view rather than a netty one over the raw address, which needs JDK internals gone in 21
+            views[i] = Unpooled.wrappedBuffer(buffers.getByteBuffer((long) i * SLOT_SIZE, SLOT_SIZE)
+                    .order(ByteOrder.BIG_ENDIAN));
+
+            iovecs.setLong((long) i * IOVEC_SIZE, address);
+            headers.setLong((long) i * MMSGHDR_SIZE + MSG_IOV_OFFSET, Pointer.nativeValue(iovecs) + (long) i * IOVEC_SIZE);
+            headers.setLong((long) i * MMSGHDR_SIZE + MSG_IOVLEN_OFFSET, 1);
+        }
+
+        try {
+            // struct timeval { long tv_sec; long tv_usec; }
+            Memory timeout = new Memory(16);
+            timeout.setLong(0, receiveTimeoutMillis / 1000);
+            timeout.setLong(8, (receiveTimeoutMillis % 1000) * 1000L);
+            check(CLib.INSTANCE.setsockopt(fd, CLibConsts.SOL_SOCKET, CLibConsts.SO_RCVTIMEO, timeout, 16), "setsockopt");
+
+            // struct sockaddr_in { sa_family_t sin_family; in_port_t sin_port; struct in_addr sin_addr; char pad[8]; }
+            byte[] ip = server.getAddress().getAddress();
+            Memory address = new Memory(16);
+            address.clear();
+            address.setShort(0, (short) CLibConsts.AF_INET);
+            address.setByte(2, (byte) (server.getPort() >>> 8));
+            address.setByte(3, (byte) server.getPort());
+            address.write(4, ip, 0, 4);
+            check(CLib.INSTANCE.connect(fd, address, 16), "connect");
+        } catch (IOException e) {
+            CLib.INSTANCE.close(fd);
+            throw e;
+        }
+    }
+
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * @return the buffer of the slot, write a packet from index 0 before sending it
+     */
+    public ByteBuf slot(int index) {
+        return views[index];
+    }
+
+    /**
+     * Sends slots {@code [0, count)} with one {@code sendmmsg}.
+     */
+    public int sendBatch(int count) throws IOException {
+        prepare(count, true);
+
+        int sent = 0;
+        while (sent < count) {
+            int r = CLib.INSTANCE.sendmmsg(fd, headers.share((long) sent * MMSGHDR_SIZE), count - sent, 0);
+            sent += check(r, "sendmmsg");
+        }
+
+        return sent;
+    }
+
+    /**
+     * Sends slots {@code [0, count)} with a {@code send} each.
+     */
+    public int sendEach(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            long r = CLib.INSTANCE.send(fd, buffers.share((long) i * SLOT_SIZE),
+                    new NativeLong(views[i].writerIndex()), 0).longValue();
+            check((int) r, "send");
+        }
+
+        return count;
+    }
+
+    /**
+     * Receives up to {@code count} packets into the slots with one {@code recvmmsg}, waiting for the first one
+     * at most for the receive timeout.
+     *
+     * @return the number of packets received, 0 on timeout
+     */
+    public int receiveBatch(int count) throws IOException {
+        prepare(count, false);
+
+        int r = CLib.INSTANCE.recvmmsg(fd, headers, count, CLibConsts.MSG_WAITFORONE, null);
+        if (r < 0) {
+            return timeoutOrFail("recvmmsg");
+        }
+
+        for (int i = 0; i < r; i++) {
+            views[i].writerIndex(headers.getInt((long) i * MMSGHDR_SIZE + MSG_LEN_OFFSET));
+        }
+
+        return r;
+    }
+
+    /**
+     * Receives one packet into the slot with {@code recv}.
+     *
+     * @return 1, or 0 on timeout
+     */
+    public int receiveOne(int index) throws IOException {
+        views[index].clear();
+
+        long r = CLib.INSTANCE.recv(fd, buffers.share((long) index * SLOT_SIZE), new NativeLong(SLOT_SIZE), 0)
+                .longValue();
+        if (r < 0) {
+            return timeoutOrFail("recv");
+        }
+
+        views[index].writerIndex((int) r);
+        return 1;
+    }
+
+    @Override
+    public void close() {
+        CLib.INSTANCE.close(fd);
+    }
+
+    private void prepare(int count, boolean send) {
+        if (count > slots) {
+            throw new IllegalArgumentException("Only " + slots + " slots");
+        }
+
+        for (int i = 0; i < count; i++) {
+            int length = send ? views[i].writerIndex() : SLOT_SIZE;
+            iovecs.setLong((long) i * IOVEC_SIZE + 8, length);
+
+            if (!send) {
+                views[i].clear();
+            }
+        }
+    }
+
+    private static int timeoutOrFail(String call) throws IOException {
+        int errno = Native.getLastError();
+        if (errno == CLibConsts.EAGAIN) {
+            return 0;
+        }
+        throw new IOException(call + "() failed, errno " + errno);
+    }
+
+    private static int check(int r, String call) throws IOException {
+        if (r < 0) {
+            throw new IOException(call + "() failed, errno " + Native.getLastError());
+        }
+        return r;
+    }
+
+}
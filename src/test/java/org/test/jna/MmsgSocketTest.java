@@ -0,0 +1,104 @@
+package org.test.jna;
+
+import com.sun.jna.Platform;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.DnsWire;
+import org.test.wire.WireResponse;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class MmsgSocketTest {
+
+    private static final List<String> DOMAINS = IntStream.range(0, 64)
+            .mapToObj(i -> "host" + i + ".example.com")
+            .collect(Collectors.toList());
+
+    private StubDnsServer server;
+
+    private MmsgSocket socket;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Platform.isLinux() && Platform.is64Bit());
+
+        server = new StubDnsServer(StubZone.fromDomains(DOMAINS), StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+        socket = new MmsgSocket(address, DOMAINS.size(), 2000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (socket != null) {
+            socket.close();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBatchRoundTrip() throws Exception {
+        encode();
+        Assert.assertEquals(DOMAINS.size(), socket.sendBatch(DOMAINS.size()));
+
+        boolean[] seen = new boolean[DOMAINS.size()];
+        int received = 0;
+        while (received < DOMAINS.size()) {
+            int r = socket.receiveBatch(DOMAINS.size() - received);
+            Assert.assertTrue("timed out after " + received, r > 0);
+
+            for (int i = 0; i < r; i++) {
+                seen[decode(i)] = true;
+            }
+            received += r;
+        }
+
+        for (boolean s : seen) {
+            Assert.assertTrue(s);
+        }
+    }
+
+    @Test
+    public void testEachRoundTrip() throws Exception {
+        encode();
+        socket.sendEach(DOMAINS.size());
+
+        for (int i = 0; i < DOMAINS.size(); i++) {
+            Assert.assertEquals(1, socket.receiveOne(i));
+            decode(i);
+        }
+    }
+
+    @Test
+    public void testReceiveTimeout() throws Exception {
+        Assert.assertEquals(0, socket.receiveBatch(1));
+    }
+
+    private void encode() {
+        for (int i = 0; i < DOMAINS.size(); i++) {
+            Assert.assertTrue(DnsWire.encodeQuery(socket.slot(i).clear(), i, DOMAINS.get(i), DnsWire.TYPE_A, 0));
+        }
+    }
+
+    private int decode(int slot) {
+        int id = socket.slot(slot).getUnsignedShort(0);
+
+        WireResponse response = new WireResponse();
+        Assert.assertTrue(DnsWire.decode(socket.slot(slot), DOMAINS.get(id), DnsWire.TYPE_A, response));
+        Assert.assertTrue(response.addressCount() > 0);
+        return id;
+    }
+
+}
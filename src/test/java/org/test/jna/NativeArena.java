@@ -0,0 +1,82 @@
+package org.test.jna;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Per-thread native memory for {@code gethostbyname2_r}: the name, the hostent, the out parameters and
+ * the work buffer are allocated once and reused, the work buffer doubles on {@code ERANGE}.
+ */
+final class NativeArena {
+
+    // a presentation name with a trailing dot is at most 254 characters
+    static final int MAX_NAME = 254;
+
+    static final int INITIAL_BUFFER = 4096;
+
+    static final int MAX_BUFFER = 1 << 20;
+
+    // struct hostent { char *h_name; char **h_aliases; int h_addrtype; int h_length; char **h_addr_list; }
+    static final int HOSTENT_SIZE = 32;
+
+    static final int H_ADDRTYPE = 16;
+
+    static final int H_LENGTH = 20;
+
+    static final int H_ADDR_LIST = 24;
+
+    private static final ThreadLocal<NativeArena> ARENAS = ThreadLocal.withInitial(() -> new NativeArena(INITIAL_BUFFER));
+
+    final Memory name = new Memory(MAX_NAME + 1);
+
+    final Memory hostent = new Memory(HOSTENT_SIZE);
+
+    final Memory result = new Memory(Pointer.SIZE);
+
+    final Memory errno = new Memory(4);
+
+    Memory buffer;
+
+    NativeArena(int bufferSize) {
+        buffer = new Memory(bufferSize);
+    }
+
+    static NativeArena get() {
+        return ARENAS.get();
+    }
+
+    /**
+     * @return false if the name is too long or is not ASCII
+     */
+    boolean setName(String host) {
+        int length = host.length();
+        if (length > MAX_NAME) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = host.charAt(i);
+            if (c == 0 || c >= 0x80) {
+                return false;
+            }
+            name.setByte(i, (byte) c);
+        }
+        name.setByte(length, (byte) 0);
+
+        return true;
+    }
+
+    /**
+     * @return false if the buffer has already reached its maximum size
+     */
+    boolean grow() {
+        long size = buffer.size();
+        if (size >= MAX_BUFFER) {
+            return false;
+        }
+
+        buffer = new Memory(size * 2);
+        return true;
+    }
+
+}
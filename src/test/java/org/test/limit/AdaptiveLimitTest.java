@@ -0,0 +1,174 @@
+package org.test.limit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveLimitTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testGradientGrowsWhileRttIsFlat() {
+        GradientLimit limit = GradientLimit.builder().initialLimit(16).build();
+
+        for (int i = 0; i < 1000; i++) {
+            limit.onSample(RTT, limit.getLimit(), false);
+        }
+
+        Assert.assertTrue("limit " + limit.getLimit(), limit.getLimit() > 100);
+    }
+
+    @Test
+    public void testGradientShrinksWhenRttRises() {
+        GradientLimit limit = GradientLimit.builder().initialLimit(16).build();
+
+        for (int i = 0; i < 1000; i++) {
+            limit.onSample(RTT, limit.getLimit(), false);
+        }
+        int grown = limit.getLimit();
+
+        // the upstream starts queueing: 10x latency
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(RTT * 10, limit.getLimit(), false);
+        }
+
+        Assert.assertTrue("limit " + limit.getLimit() + " of " + grown, limit.getLimit() < grown / 2);
+    }
+
+    @Test
+    public void testGradientIgnoresAppLimitedSamples() {
+        GradientLimit limit = GradientLimit.builder().initialLimit(64).build();
+
+        for (int i = 0; i < 1000; i++) {
+            limit.onSample(RTT, 1, false);
+        }
+
+        Assert.assertEquals(64, limit.getLimit());
+    }
+
+    @Test
+    public void testGradientSurvivesZeroRtt() {
+        GradientLimit limit = GradientLimit.builder().initialLimit(16).build();
+
+        // cache hits measured by a coarse clock
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(0, limit.getLimit(), false);
+        }
+        limit.onSample(0, limit.getLimit(), true);
+
+        Assert.assertTrue("limit " + limit.getLimit(), limit.getLimit() > 0);
+        Assert.assertTrue(limit.shortRttNanos() > 0);
+
+        // the jump from 0 looks like queueing at first, the limit still recovers
+        for (int i = 0; i < 1000; i++) {
+            limit.onSample(RTT, limit.getLimit(), false);
+        }
+        Assert.assertTrue("limit " + limit.getLimit(), limit.getLimit() > 16);
+    }
+
+    @Test
+    public void testDropsBackOff() {
+        GradientLimit gradient = GradientLimit.builder().initialLimit(100).minLimit(10).build();
+        AimdLimit aimd = AimdLimit.builder().initialLimit(100).minLimit(10).build();
+
+        for (int i = 0; i < 100; i++) {
+            gradient.onSample(RTT, 100, true);
+            aimd.onSample(RTT, 100, true);
+        }
+
+        Assert.assertEquals(10, gradient.getLimit());
+        Assert.assertEquals(10, aimd.getLimit());
+    }
+
+    @Test
+    public void testAimdGrowsAdditively() {
+        AimdLimit limit = AimdLimit.builder().initialLimit(10).build();
+
+        for (int i = 0; i < 5; i++) {
+            limit.onSample(RTT, limit.getLimit(), false);
+        }
+
+        Assert.assertEquals(15, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitedResolverQueuesAboveLimit() throws Exception {
+        ArrayDeque<CompletableFuture<DnsAnswer>> pending = new ArrayDeque<>();
+
+        AsyncResolver upstream = domain -> {
+            CompletableFuture<DnsAnswer> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        };
+
+        LimitedResolver resolver = new LimitedResolver(upstream, new FixedLimit(2), 1);
+
+        CompletableFuture<DnsAnswer> first = resolver.query("a.com");
+        resolver.query("b.com");
+        CompletableFuture<DnsAnswer> third = resolver.query("c.com");
+        CompletableFuture<DnsAnswer> rejected = resolver.query("d.com");
+
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals(2, resolver.inFlight());
+        Assert.assertEquals(1, resolver.queued());
+
+        try {
+            rejected.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        // a completion lets the queued query go
+        pending.poll().complete(DnsAnswer.negative("a.com", DnsAnswer.NXDOMAIN, 0));
+        Assert.assertTrue(first.isDone());
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals(0, resolver.queued());
+
+        pending.pollLast().complete(DnsAnswer.negative("c.com", DnsAnswer.NXDOMAIN, 0));
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, third.get().rcode());
+    }
+
+    @Test
+    public void testSynchronousAnswersKeepTheStackFlat() throws Exception {
+        CompletableFuture<DnsAnswer> blocked = new CompletableFuture<>();
+        int[] maxDepth = new int[1];
+
+        // the first query waits, the rest are answered at once, as from a cache
+        AsyncResolver upstream = domain -> {
+            if (domain.equals("first.com")) {
+                return blocked;
+            }
+            maxDepth[0] = Math.max(maxDepth[0], Thread.currentThread().getStackTrace().length);
+            return CompletableFuture.completedFuture(DnsAnswer.negative(domain, DnsAnswer.NXDOMAIN, 0));
+        };
+
+        LimitedResolver resolver = new LimitedResolver(upstream, new FixedLimit(1), 100_000);
+        resolver.query("first.com");
+
+        List<CompletableFuture<DnsAnswer>> queued = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            queued.add(resolver.query("host" + i + ".com"));
+        }
+        Assert.assertEquals(20_000, resolver.queued());
+
+        blocked.complete(DnsAnswer.negative("first.com", DnsAnswer.NXDOMAIN, 0));
+
+        for (CompletableFuture<DnsAnswer> future : queued) {
+            Assert.assertEquals(DnsAnswer.NXDOMAIN, future.get(1, TimeUnit.SECONDS).rcode());
+        }
+        Assert.assertEquals(0, resolver.inFlight());
+        Assert.assertTrue("stack depth " + maxDepth[0], maxDepth[0] < 200);
+    }
+
+}
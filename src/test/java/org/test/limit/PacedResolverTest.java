@@ -0,0 +1,191 @@
+package org.test.limit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PacedResolverTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testBucketBurstThenPaces() {
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue("token " + i, bucket.tryAcquire(now));
+        }
+        Assert.assertFalse(bucket.tryAcquire(now));
+
+        // the next tokens are one interval apart
+        Assert.assertEquals(MILLI, bucket.reserve(now, 10 * MILLI));
+        Assert.assertEquals(2 * MILLI, bucket.reserve(now, 10 * MILLI));
+        Assert.assertEquals(3 * MILLI, bucket.waitNanos(now));
+
+        // a token which is too far is not taken
+        Assert.assertEquals(-1, bucket.reserve(now, MILLI));
+        Assert.assertEquals(3 * MILLI, bucket.waitNanos(now));
+
+        bucket.refund();
+        Assert.assertEquals(2 * MILLI, bucket.waitNanos(now));
+
+        // the bucket refills with time, but never above the burst
+        long later = now + TimeUnit.SECONDS.toNanos(1);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue("token " + i, bucket.tryAcquire(later));
+        }
+        Assert.assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void testPacesSends() throws Exception {
+        CountingResolver upstream = new CountingResolver();
+        PacedResolver resolver = PacedResolver.builder(scheduler)
+                .upstream("primary", upstream, 1000, 1)
+                .build();
+
+        long started = System.nanoTime();
+
+        List<CompletableFuture<DnsAnswer>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(resolver.query("host" + i + ".example.com"));
+        }
+        for (CompletableFuture<DnsAnswer> future : futures) {
+            Assert.assertTrue(future.get(5, TimeUnit.SECONDS).isResolved());
+        }
+
+        // 1 ms apart instead of all at once
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        Assert.assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 45);
+        Assert.assertEquals(50, upstream.queries.get());
+        // the clock moves while the queries are submitted, so a few find a fresh token
+        Assert.assertTrue(resolver.upstreams().get(0).toString(), resolver.upstreams().get(0).delayed() >= 40);
+    }
+
+    @Test
+    public void testSpillsOverToNextUpstream() throws Exception {
+        CountingResolver primary = new CountingResolver();
+        CountingResolver secondary = new CountingResolver();
+        PacedResolver resolver = PacedResolver.builder(scheduler)
+                .upstream("primary", primary, 10, 5)
+                .upstream("secondary", secondary, 10, 5)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(resolver.query("host" + i + ".example.com").get(1, TimeUnit.SECONDS).isResolved());
+        }
+
+        Assert.assertEquals(5, primary.queries.get());
+        Assert.assertEquals(5, secondary.queries.get());
+        Assert.assertEquals(5, resolver.upstreams().get(1).spilled());
+        Assert.assertEquals(0, resolver.upstreams().get(1).delayed());
+    }
+
+    @Test
+    public void testRejectsAboveMaxDelay() throws Exception {
+        PacedResolver resolver = PacedResolver.builder(scheduler)
+                .upstream("primary", new CountingResolver(), 10, 2)
+                .maxDelayMillis(150)
+                .build();
+
+        // 2 from the burst, 1 after 100 ms
+        List<CompletableFuture<DnsAnswer>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(resolver.query("host" + i + ".example.com"));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(futures.get(i).get(1, TimeUnit.SECONDS).isResolved());
+        }
+
+        try {
+            futures.get(3).get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(1, resolver.rejected());
+    }
+
+    @Test
+    public void testGlobalLimit() throws Exception {
+        CountingResolver primary = new CountingResolver();
+        CountingResolver secondary = new CountingResolver();
+        PacedResolver resolver = PacedResolver.builder(scheduler)
+                .upstream("primary", primary, 1000, 100)
+                .upstream("secondary", secondary, 1000, 100)
+                .global(10, 3)
+                .maxDelayMillis(0)
+                .build();
+
+        int resolved = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                resolver.query("host" + i + ".example.com").get(1, TimeUnit.SECONDS);
+                resolved++;
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+
+        Assert.assertEquals(3, resolved);
+        Assert.assertEquals(3, primary.queries.get());
+        Assert.assertEquals(0, secondary.queries.get());
+    }
+
+    @Test
+    public void testDelayedThrowFailsQuery() throws Exception {
+        PacedResolver resolver = PacedResolver.builder(scheduler)
+                .upstream("closed", domain -> {
+                    throw new IllegalStateException("Resolver is closed");
+                }, 100, 1)
+                .build();
+
+        // the first query throws to the caller, the second one on the scheduler
+        try {
+            resolver.query("first.example.com");
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        try {
+            resolver.query("second.example.com").get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static final class CountingResolver implements AsyncResolver {
+
+        private final AtomicInteger queries = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<DnsAnswer> query(String domain) {
+            queries.incrementAndGet();
+            return CompletableFuture.completedFuture(new DnsAnswer(domain, DnsAnswer.NOERROR, 60, new int[] { 1 }));
+        }
+
+    }
+
+}
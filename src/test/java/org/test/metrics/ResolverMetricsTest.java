@@ -0,0 +1,122 @@
+package org.test.metrics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.cache.DnsCache;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+import org.test.wire.WireException;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ResolverMetricsTest {
+
+    private final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+    private final MetricsRegistry registry = new MetricsRegistry(server);
+
+    @After
+    public void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    public void testOutcomes() {
+        ResolverMetrics metrics = registry.resolver("test");
+
+        CompletableFuture<DnsAnswer> pending = new CompletableFuture<>();
+        MeteredResolver resolver = new MeteredResolver(domain -> {
+            switch (domain) {
+                case "ok.com":
+                    return CompletableFuture.completedFuture(new DnsAnswer(domain, DnsAnswer.NOERROR, 60, new int[] { 1 }));
+                case "nx.com":
+                    return CompletableFuture.completedFuture(DnsAnswer.negative(domain, DnsAnswer.NXDOMAIN, 60));
+                case "timeout.com":
+                    return Futures.failed(WireException.TIMEOUT);
+                case "truncated.com":
+                    return Futures.failed(WireException.TRUNCATED);
+                default:
+                    return pending;
+            }
+        }, metrics);
+
+        resolver.query("ok.com");
+        resolver.query("ok.com");
+        resolver.query("nx.com");
+        resolver.query("timeout.com");
+        resolver.query("truncated.com");
+        resolver.query("pending.com");
+
+        Assert.assertEquals(6, metrics.getQueries());
+        Assert.assertEquals(1, metrics.getInFlight());
+        Assert.assertEquals(2, metrics.getFailures());
+        Assert.assertEquals(1, metrics.getTimeouts());
+        Assert.assertEquals(1, metrics.getTruncated());
+        Assert.assertEquals(Long.valueOf(2), metrics.getRcodes().get("NOERROR"));
+        Assert.assertEquals(Long.valueOf(1), metrics.getRcodes().get("NXDOMAIN"));
+        Assert.assertEquals(5, metrics.latency().count());
+
+        pending.cancel(true);
+        Assert.assertEquals(0, metrics.getInFlight());
+        Assert.assertEquals(5, metrics.latency().count());
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        Assert.assertEquals(50_000, histogram.percentileMicros(50), 1_000);
+        Assert.assertEquals(99_000, histogram.percentileMicros(99), 1_000);
+        Assert.assertEquals(100, histogram.takeInterval().getTotalCount());
+
+        // the interval restarts, the total does not
+        histogram.record(TimeUnit.HOURS.toNanos(1));
+        Assert.assertEquals(1, histogram.takeInterval().getTotalCount());
+        Assert.assertEquals(101, histogram.count());
+        Assert.assertEquals(TimeUnit.MINUTES.toMicros(1), histogram.maxMicros(), 1_000_000);
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        DnsCache cache = DnsCache.builder().build();
+        ResolverMetrics metrics = registry.resolver("netty").cache(cache);
+        registry.upstream("netty", "8.8.8.8:53").onRetry();
+
+        metrics.onAnswer(metrics.onStart(), DnsAnswer.SERVFAIL);
+        cache.get("example.com");
+
+        ObjectName name = new ObjectName(MetricsRegistry.JMX_DOMAIN + ":type=Resolver,name=\"netty\"");
+        Assert.assertEquals(1L, server.getAttribute(name, "Queries"));
+        Assert.assertEquals(0.0, (Double) server.getAttribute(name, "CacheHitRatio"), 0.0);
+        Assert.assertEquals(1, ((TabularData) server.getAttribute(name, "Rcodes")).size());
+
+        ObjectName upstream = new ObjectName(MetricsRegistry.JMX_DOMAIN
+                + ":type=Upstream,resolver=\"netty\",name=\"8.8.8.8:53\"");
+        Assert.assertEquals(1L, server.getAttribute(upstream, "Retries"));
+
+        registry.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testSnapshot() {
+        ResolverMetrics metrics = registry.resolver("wire");
+        metrics.onAnswer(metrics.onStart(), DnsAnswer.NOERROR);
+
+        String snapshot = metrics.snapshot();
+        Assert.assertTrue(snapshot, snapshot.startsWith("wire: queries 1"));
+        Assert.assertTrue(snapshot, snapshot.contains("(1 samples)"));
+        Assert.assertTrue(metrics.snapshot().contains("(0 samples)"));
+        Assert.assertTrue(metrics.summary().contains("(1 samples)"));
+    }
+
+}
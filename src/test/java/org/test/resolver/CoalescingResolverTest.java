@@ -0,0 +1,145 @@
+package org.test.resolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoalescingResolverTest {
+
+    private final List<CompletableFuture<DnsAnswer>> upstreamQueries = new ArrayList<>();
+
+    private final CoalescingResolver resolver = new CoalescingResolver(domain -> {
+        CompletableFuture<DnsAnswer> future = new CompletableFuture<>();
+        upstreamQueries.add(future);
+        return future;
+    });
+
+    @Test
+    public void testConcurrentLookupsShareOneQuery() throws Exception {
+        CompletableFuture<DnsAnswer> first = resolver.query("example.com");
+        CompletableFuture<DnsAnswer> second = resolver.query("EXAMPLE.com.");
+        CompletableFuture<DnsAnswer> other = resolver.query("example.org");
+
+        Assert.assertEquals(2, upstreamQueries.size());
+        Assert.assertEquals(1, resolver.flights().shared());
+
+        DnsAnswer answer = new DnsAnswer("example.com", DnsAnswer.NOERROR, 60, new int[] { 1 });
+        upstreamQueries.get(0).complete(answer);
+
+        Assert.assertSame(answer, first.get(1, TimeUnit.SECONDS));
+        Assert.assertSame(answer, second.get(1, TimeUnit.SECONDS));
+        Assert.assertFalse(other.isDone());
+        Assert.assertEquals(1, resolver.flights().inFlight());
+    }
+
+    @Test
+    public void testLookupAfterCompletionStartsNewQuery() {
+        resolver.query("example.com");
+        upstreamQueries.get(0).complete(DnsAnswer.negative("example.com", DnsAnswer.NXDOMAIN, 60));
+
+        resolver.query("example.com");
+
+        Assert.assertEquals(2, upstreamQueries.size());
+        Assert.assertEquals(2, resolver.flights().calls());
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        CompletableFuture<DnsAnswer> first = resolver.query("example.com");
+        CompletableFuture<DnsAnswer> second = resolver.query("example.com");
+
+        upstreamQueries.get(0).completeExceptionally(new IllegalStateException("timeout"));
+
+        Assert.assertTrue(first.isCompletedExceptionally());
+        Assert.assertTrue(second.isCompletedExceptionally());
+        Assert.assertEquals(0, resolver.flights().inFlight());
+    }
+
+    @Test
+    public void testCancelIsReferenceCounted() throws Exception {
+        CompletableFuture<DnsAnswer> first = resolver.query("example.com");
+        CompletableFuture<DnsAnswer> second = resolver.query("example.com");
+
+        first.cancel(true);
+        Assert.assertFalse(upstreamQueries.get(0).isCancelled());
+
+        DnsAnswer answer = new DnsAnswer("example.com", DnsAnswer.NOERROR, 60, new int[] { 1 });
+        upstreamQueries.get(0).complete(answer);
+        Assert.assertSame(answer, second.get(1, TimeUnit.SECONDS));
+
+        try {
+            first.join();
+            Assert.fail();
+        } catch (CancellationException expected) {
+            // the cancelled caller stays cancelled
+        }
+    }
+
+    @Test
+    public void testLastCancelCancelsUpstream() {
+        CompletableFuture<DnsAnswer> first = resolver.query("example.com");
+        CompletableFuture<DnsAnswer> second = resolver.query("example.com");
+
+        first.cancel(true);
+        second.cancel(true);
+
+        Assert.assertTrue(upstreamQueries.get(0).isCancelled());
+        Assert.assertEquals(0, resolver.flights().inFlight());
+
+        // an abandoned flight is not joined
+        resolver.query("example.com");
+        Assert.assertEquals(2, upstreamQueries.size());
+    }
+
+    @Test
+    public void testBlockingCallersShareOneCall() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+
+        int threads = 8;
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> flights.call("example.com", () -> {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    release.await();
+                    return 42;
+                })));
+            }
+
+            started.await(5, TimeUnit.SECONDS);
+
+            // let the followers join the flight of the leader
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (flights.shared() < threads - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (Future<Integer> result : results) {
+                Assert.assertEquals(42, (int) result.get(5, TimeUnit.SECONDS));
+            }
+
+            Assert.assertEquals(1, calls.get());
+            Assert.assertEquals(threads - 1, flights.shared());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.test.resolver;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.cache.DnsCache;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class DualStackResolverTest {
+
+    private static final int[] IPV4 = { 0x01020304 };
+
+    private static final long[] IPV6 = { 0x20010DB8_00000000L, 1 };
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final CompletableFuture<DnsAnswer> a = new CompletableFuture<>();
+
+    private final CompletableFuture<DnsAnswer> aaaa = new CompletableFuture<>();
+
+    private StubDnsServer server;
+
+    private EventLoopGroup group;
+
+    private DnsNameResolver nettyResolver;
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+
+        if (nettyResolver != null) {
+            nettyResolver.close();
+        }
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPreferredFamilyReturnsEarly() throws Exception {
+        DnsCache cache = DnsCache.builder().maxIpv6(2).build();
+        DualStackResolver resolver = DualStackResolver.builder(scheduler, d -> a, d -> aaaa).cache(cache).build();
+
+        CompletableFuture<DnsAnswer> result = resolver.query("dual.com");
+        aaaa.complete(new DnsAnswer("dual.com", DnsAnswer.NOERROR, 60, null, IPV6));
+
+        DnsAnswer answer = result.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(0, answer.addresses().length);
+        Assert.assertArrayEquals(IPV6, answer.ipv6());
+        Assert.assertEquals(1, resolver.early());
+        Assert.assertNull(cache.get("dual.com"));
+
+        // the late A answer is merged into the cache
+        a.complete(new DnsAnswer("dual.com", DnsAnswer.NOERROR, 60, IPV4));
+
+        DnsAnswer cached = resolver.query("dual.com").get(1, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(IPV4, cached.addresses());
+        Assert.assertArrayEquals(IPV6, cached.ipv6());
+    }
+
+    @Test
+    public void testOtherFamilyWaitsForPreferred() throws Exception {
+        DualStackResolver resolver = DualStackResolver.builder(scheduler, d -> a, d -> aaaa)
+                .resolutionDelayMillis(1000)
+                .build();
+
+        CompletableFuture<DnsAnswer> result = resolver.query("dual.com");
+        a.complete(new DnsAnswer("dual.com", DnsAnswer.NOERROR, 60, IPV4));
+        Assert.assertFalse(result.isDone());
+
+        aaaa.complete(new DnsAnswer("dual.com", DnsAnswer.NOERROR, 30, null, IPV6));
+
+        DnsAnswer answer = result.get(1, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(IPV4, answer.addresses());
+        Assert.assertArrayEquals(IPV6, answer.ipv6());
+        Assert.assertEquals(30, answer.ttl());
+        Assert.assertEquals(0, resolver.early());
+        Assert.assertEquals(0, resolver.delayed());
+    }
+
+    @Test
+    public void testResolutionDelayExpires() throws Exception {
+        DualStackResolver resolver = DualStackResolver.builder(scheduler, d -> a, d -> aaaa)
+                .resolutionDelayMillis(50)
+                .build();
+
+        long started = System.nanoTime();
+        CompletableFuture<DnsAnswer> result = resolver.query("dual.com");
+        a.complete(new DnsAnswer("dual.com", DnsAnswer.NOERROR, 60, IPV4));
+
+        DnsAnswer answer = result.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertArrayEquals(IPV4, answer.addresses());
+        Assert.assertEquals(1, resolver.delayed());
+    }
+
+    @Test
+    public void testNoDataOfPreferredFamily() throws Exception {
+        DualStackResolver resolver = DualStackResolver.builder(scheduler, d -> a, d -> aaaa).build();
+
+        CompletableFuture<DnsAnswer> result = resolver.query("v4.com");
+        aaaa.complete(DnsAnswer.negative("v4.com", DnsAnswer.NOERROR, 300));
+        Assert.assertFalse(result.isDone());
+
+        a.complete(new DnsAnswer("v4.com", DnsAnswer.NOERROR, 60, IPV4));
+        Assert.assertArrayEquals(IPV4, result.get(1, TimeUnit.SECONDS).addresses());
+    }
+
+    @Test
+    public void testFailureWithoutAddresses() throws Exception {
+        DualStackResolver resolver = DualStackResolver.builder(scheduler, d -> a, d -> aaaa).build();
+
+        CompletableFuture<DnsAnswer> result = resolver.query("slow.com");
+        a.completeExceptionally(new IOException("timeout"));
+        aaaa.complete(DnsAnswer.negative("slow.com", DnsAnswer.NOERROR, 300));
+
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testNettyAgainstStub() throws Exception {
+        List<String> domains = IntStream.range(0, 100)
+                .mapToObj(i -> "host" + i + ".example.com")
+                .collect(Collectors.toList());
+        StubZone zone = StubZone.fromDomains(domains);
+
+        server = new StubDnsServer(zone, StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 1);
+
+        group = new EpollEventLoopGroup(1);
+        nettyResolver = new DnsNameResolverBuilder(group.next())
+                .channelType(EpollDatagramChannel.class)
+                .nameServerProvider(new SingletonDnsServerAddressStreamProvider(address))
+                .build();
+
+        NettyResolver netty = new NettyResolver(nettyResolver);
+        DualStackResolver resolver = DualStackResolver.builder(group, netty, netty.aaaa()).build();
+
+        int dual = 0;
+        for (String domain : domains) {
+            DnsAnswer answer = resolver.query(domain).get(5, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(domain, zone.lookup(domain), answer.addresses());
+            Assert.assertArrayEquals(domain, zone.lookupIpv6(domain), answer.ipv6());
+            if (answer.ipv6Count() > 0) {
+                dual++;
+            }
+        }
+
+        Assert.assertTrue("dual " + dual, dual > 0 && dual < domains.size());
+    }
+
+}
@@ -0,0 +1,170 @@
+package org.test.resolver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.metrics.MetricsRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingResolverTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testHedgeBeatsStraggler() throws Exception {
+        FakeUpstream slow = new FakeUpstream(10_000, DnsAnswer.NOERROR);
+        FakeUpstream fast = new FakeUpstream(5, DnsAnswer.NOERROR);
+
+        HedgingResolver resolver = HedgingResolver.builder(scheduler)
+                .hedgeDelay(20, 20, TimeUnit.MILLISECONDS)
+                .explorationRatio(0)
+                .upstream("slow", slow)
+                .upstream("fast", fast)
+                .build();
+
+        long started = System.nanoTime();
+        DnsAnswer answer = resolver.query("a.com").get(5, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Assert.assertTrue(answer.isResolved());
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 1000);
+        Assert.assertEquals(1, resolver.hedges());
+        Assert.assertEquals(1, resolver.hedgeWins());
+        Assert.assertEquals(1, slow.cancelled.get());
+    }
+
+    @Test
+    public void testRoutesToFastestUpstream() throws Exception {
+        FakeUpstream slow = new FakeUpstream(30, DnsAnswer.NOERROR);
+        FakeUpstream fast = new FakeUpstream(1, DnsAnswer.NOERROR);
+
+        HedgingResolver resolver = HedgingResolver.builder(scheduler)
+                .initialLatency(1, TimeUnit.MILLISECONDS)
+                .hedgeDelay(1, 1, TimeUnit.SECONDS)
+                .explorationRatio(0)
+                .upstream("slow", slow)
+                .upstream("fast", fast)
+                .build();
+
+        for (int i = 0; i < 50; i++) {
+            resolver.query("a" + i + ".com").get(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertTrue(slow.queries.get() < 5);
+        Assert.assertEquals("fast", resolver.select(null).label());
+    }
+
+    @Test
+    public void testServFailFailsOverImmediately() throws Exception {
+        FakeUpstream broken = new FakeUpstream(1, DnsAnswer.SERVFAIL);
+        FakeUpstream healthy = new FakeUpstream(1, DnsAnswer.NOERROR);
+
+        HedgingResolver resolver = HedgingResolver.builder(scheduler)
+                .hedgeDelay(10, 10, TimeUnit.SECONDS)
+                .explorationRatio(0)
+                .upstream("broken", broken)
+                .upstream("healthy", healthy)
+                .build();
+
+        DnsAnswer answer = resolver.query("a.com").get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(answer.isResolved());
+        Assert.assertEquals(1, broken.queries.get());
+        Assert.assertTrue(resolver.upstreams().get(0).stats().failureRate() > 0);
+    }
+
+    @Test
+    public void testUpstreamMetrics() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(null);
+
+        HedgingResolver resolver = HedgingResolver.builder(scheduler)
+                .hedgeDelay(10, 10, TimeUnit.SECONDS)
+                .explorationRatio(0)
+                .upstream("broken", new FakeUpstream(1, DnsAnswer.SERVFAIL))
+                .upstream("healthy", new FakeUpstream(1, DnsAnswer.NOERROR))
+                .upstreamMetrics(registry, "hedging")
+                .build();
+
+        Assert.assertTrue(resolver.query("a.com").get(1, TimeUnit.SECONDS).isResolved());
+
+        // the primary and the failover are counted where they were sent
+        Assert.assertSame(registry.upstream("hedging", "broken"), resolver.upstreams().get(0).metrics());
+        Assert.assertEquals(1, registry.upstream("hedging", "broken").getQueries());
+        Assert.assertEquals(1, registry.upstream("hedging", "healthy").getQueries());
+    }
+
+    @Test
+    public void testAllUpstreamsFail() throws Exception {
+        HedgingResolver resolver = HedgingResolver.builder(scheduler)
+                .explorationRatio(0)
+                .upstream("a", new FakeUpstream(1, DnsAnswer.SERVFAIL))
+                .upstream("b", new FakeUpstream(1, DnsAnswer.REFUSED))
+                .build();
+
+        DnsAnswer answer = resolver.query("a.com").get(1, TimeUnit.SECONDS);
+        Assert.assertFalse(answer.isResolved());
+    }
+
+    @Test
+    public void testUpstreamCancelIsFailure() throws Exception {
+        // e.g. a client closed under the query
+        CompletableFuture<DnsAnswer> closed = new CompletableFuture<>();
+        closed.cancel(false);
+
+        HedgingResolver resolver = HedgingResolver.builder(scheduler)
+                .hedgeDelay(10, 10, TimeUnit.SECONDS)
+                .explorationRatio(0)
+                .upstream("closed", domain -> closed)
+                .upstream("broken", new FakeUpstream(1, DnsAnswer.SERVFAIL))
+                .build();
+
+        DnsAnswer answer = resolver.query("a.com").get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(DnsAnswer.SERVFAIL, answer.rcode());
+        Assert.assertTrue(resolver.upstreams().get(0).stats().failureRate() > 0);
+    }
+
+    private final class FakeUpstream implements AsyncResolver {
+
+        private final long delayMillis;
+
+        private final int rcode;
+
+        private final AtomicInteger queries = new AtomicInteger();
+
+        private final AtomicInteger cancelled = new AtomicInteger();
+
+        private FakeUpstream(long delayMillis, int rcode) {
+            this.delayMillis = delayMillis;
+            this.rcode = rcode;
+        }
+
+        @Override
+        public CompletableFuture<DnsAnswer> query(String domain) {
+            queries.incrementAndGet();
+
+            CompletableFuture<DnsAnswer> future = new CompletableFuture<>();
+            future.whenComplete((a, ex) -> {
+                if (future.isCancelled()) {
+                    cancelled.incrementAndGet();
+                }
+            });
+
+            int[] addresses = rcode == DnsAnswer.NOERROR ? new int[] { 1 } : new int[0];
+            scheduler.schedule(() -> future.complete(new DnsAnswer(domain, rcode, 60, addresses)),
+                    delayMillis, TimeUnit.MILLISECONDS);
+
+            return future;
+        }
+
+    }
+
+}
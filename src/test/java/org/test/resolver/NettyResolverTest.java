@@ -0,0 +1,108 @@
+package org.test.resolver;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsNameResolverException;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import org.test.wire.WireException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class NettyResolverTest {
+
+    private static final List<String> DOMAINS = Arrays.asList("host1.example.com", "host2.example.com");
+
+    private static final StubZone ZONE = StubZone.fromDomains(DOMAINS);
+
+    private StubDnsServer server;
+
+    private EventLoopGroup group;
+
+    private DnsNameResolver nettyResolver;
+
+    @After
+    public void tearDown() throws Exception {
+        if (nettyResolver != null) {
+            nettyResolver.close();
+        }
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testAnswers() throws Exception {
+        NettyResolver resolver = start(StubProfile.IDEAL);
+
+        for (String domain : DOMAINS) {
+            DnsAnswer answer = resolver.query(domain).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(DnsAnswer.NOERROR, answer.rcode());
+            Assert.assertArrayEquals(domain, ZONE.lookup(domain), answer.addresses());
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        NettyResolver resolver = start(StubProfile.builder().truncateRatio(1.0).build());
+
+        try {
+            resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+            Assert.fail("a truncated response is not an answer");
+        } catch (ExecutionException e) {
+            Assert.assertSame(WireException.TRUNCATED, Futures.unwrap(e));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        NettyResolver resolver = start(StubProfile.builder().dropRatio(1.0).build());
+
+        try {
+            resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+            Assert.fail("a dropped query has no answer");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(Futures.isTimeout(e));
+        }
+
+        // only the timeout of netty comes without a cause
+        Assert.assertFalse(Futures.isTimeout(new DnsNameResolverException(new InetSocketAddress(0),
+                new DefaultDnsQuestion("host1.example.com", DnsRecordType.A), "failed to send a query",
+                new IOException("Network is unreachable"))));
+    }
+
+    private NettyResolver start(StubProfile profile) throws InterruptedException {
+        server = new StubDnsServer(ZONE, profile);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 1);
+
+        group = new EpollEventLoopGroup(1);
+        nettyResolver = new DnsNameResolverBuilder(group.next())
+                .channelType(EpollDatagramChannel.class)
+                .nameServerProvider(new SingletonDnsServerAddressStreamProvider(address))
+                .queryTimeoutMillis(500)
+                .build();
+
+        return new NettyResolver(nettyResolver);
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.test.resolver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.test.bulk.BulkResolver;
+import org.test.bulk.DnsResult;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ShardedResolverTest {
+
+    private static final int DOMAINS = 500;
+
+    private List<String> domains;
+
+    private StubDnsServer server;
+
+    private ShardedResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        domains = new ArrayList<>();
+        for (int i = 0; i < DOMAINS; i++) {
+            domains.add("host" + i + ".example.com");
+        }
+
+        server = new StubDnsServer(StubZone.fromDomains(domains), StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+        resolver = ShardedResolver.builder()
+                .shards(4)
+                .socketsPerShard(2)
+                .queryTimeoutMillis(2000)
+                .server(address)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testResolveAll() throws Exception {
+        // bounded, a burst of 500 datagrams overflows the receive buffer of the stub socket
+        BulkResolver bulkResolver = new BulkResolver(resolver, 64);
+
+        List<DnsResult> results = bulkResolver.stream(domains.iterator()).collect(Collectors.toList());
+
+        Assert.assertEquals(DOMAINS, results.size());
+        Assert.assertTrue(results.stream().allMatch(DnsResult::isResolved));
+        Assert.assertEquals(DOMAINS, server.answered());
+    }
+
+    @Test
+    public void testNamesAreSpreadOverShards() {
+        Set<Integer> used = new HashSet<>();
+        for (String domain : domains) {
+            used.add(resolver.shardOf(domain));
+        }
+
+        Assert.assertEquals(resolver.shardCount(), used.size());
+        Assert.assertEquals(resolver.shardOf("google.com"), resolver.shardOf("google.com"));
+    }
+
+    @Test
+    public void testNegativeAnswer() throws Exception {
+        DnsAnswer answer = resolver.query("missing.example.com").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, answer.rcode());
+        Assert.assertFalse(answer.isResolved());
+    }
+
+}
@@ -0,0 +1,277 @@
+package org.test.retry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.bulk.DnsResult;
+import org.test.metrics.MetricsRegistry;
+import org.test.metrics.ResolverMetrics;
+import org.test.resolver.AsyncResolver;
+import org.test.resolver.DnsAnswer;
+import org.test.resolver.Futures;
+import org.test.wire.WireException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryingResolverTest {
+
+    private static final DnsAnswer OK = new DnsAnswer("a.com", DnsAnswer.NOERROR, 60, new int[] { 1 });
+
+    private static final DnsAnswer SERVFAIL = DnsAnswer.negative("a.com", DnsAnswer.SERVFAIL, 0);
+
+    private static final DnsAnswer NXDOMAIN = DnsAnswer.negative("a.com", DnsAnswer.NXDOMAIN, 60);
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testFailsOverToNextUpstream() throws Exception {
+        FakeUpstream first = new FakeUpstream(SERVFAIL);
+        FakeUpstream second = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .upstream("first", first)
+                .upstream("second", second)
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(result.isResolved());
+        Assert.assertEquals(2, result.attempt());
+        Assert.assertEquals(1, first.queries.get());
+        Assert.assertEquals(1, second.queries.get());
+        Assert.assertEquals(1, resolver.wins(2));
+        Assert.assertEquals(1, resolver.retries());
+    }
+
+    @Test
+    public void testZeroBackoffRetriesAtOnce() throws Exception {
+        FakeUpstream first = new FakeUpstream(SERVFAIL);
+        FakeUpstream second = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .backoff(0, 10, TimeUnit.SECONDS)
+                .upstream("first", first)
+                .upstream("second", second)
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(1, TimeUnit.SECONDS);
+
+        Assert.assertTrue(result.isResolved());
+        Assert.assertEquals(2, result.attempt());
+    }
+
+    @Test
+    public void testUpstreamMetrics() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(null);
+
+        RetryingResolver resolver = builder()
+                .upstream("first", new FakeUpstream(SERVFAIL))
+                .upstream("second", new FakeUpstream(OK))
+                .upstreamMetrics(registry, "retry")
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(result.isResolved());
+
+        ResolverMetrics first = registry.upstream("retry", "first");
+        Assert.assertSame(first, resolver.upstreams().get(0).metrics());
+        Assert.assertEquals(1, first.getQueries());
+        Assert.assertEquals(1, first.getRetries());
+        Assert.assertEquals(Long.valueOf(1), first.getRcodes().get("SERVFAIL"));
+
+        ResolverMetrics second = registry.upstream("retry", "second");
+        Assert.assertEquals(1, second.getQueries());
+        Assert.assertEquals(0, second.getRetries());
+        Assert.assertEquals(Long.valueOf(1), second.getRcodes().get("NOERROR"));
+    }
+
+    @Test
+    public void testTruncatedGoesOverTcpToSameUpstream() throws Exception {
+        FakeUpstream udp = new FakeUpstream(WireException.TRUNCATED);
+        FakeUpstream tcp = new FakeUpstream(OK);
+        FakeUpstream other = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .backoff(10, 10, TimeUnit.SECONDS)
+                .upstream("first", udp, tcp)
+                .upstream("second", other)
+                .build();
+
+        // no backoff before the TCP query
+        DnsResult result = resolver.execute("a.com").get(1, TimeUnit.SECONDS);
+
+        Assert.assertEquals(2, result.attempt());
+        Assert.assertEquals(1, tcp.queries.get());
+        Assert.assertEquals(0, other.queries.get());
+        Assert.assertEquals(1, resolver.tcpFallbacks());
+    }
+
+    @Test
+    public void testTimeoutRetriedOverTcpOnNextUpstream() throws Exception {
+        FakeUpstream firstUdp = new FakeUpstream(WireException.TIMEOUT);
+        FakeUpstream secondUdp = new FakeUpstream(OK);
+        FakeUpstream secondTcp = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .upstream("first", firstUdp)
+                .upstream("second", secondUdp, secondTcp)
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(2, result.attempt());
+        Assert.assertEquals(0, secondUdp.queries.get());
+        Assert.assertEquals(1, secondTcp.queries.get());
+    }
+
+    @Test
+    public void testBudgetExhausted() throws Exception {
+        FakeUpstream first = new FakeUpstream(SERVFAIL);
+        FakeUpstream second = new FakeUpstream(WireException.TIMEOUT);
+
+        RetryingResolver resolver = builder()
+                .maxAttempts(4)
+                .upstream("first", first)
+                .upstream("second", second)
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(5, TimeUnit.SECONDS);
+
+        Assert.assertFalse(result.isResolved());
+        Assert.assertEquals(4, result.attempt());
+        Assert.assertSame(WireException.TIMEOUT, result.cause());
+        Assert.assertEquals(2, first.queries.get());
+        Assert.assertEquals(2, second.queries.get());
+        Assert.assertEquals(3, resolver.retries());
+
+        try {
+            resolver.query("a.com").join();
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertSame(WireException.TIMEOUT, Futures.unwrap(e));
+        }
+    }
+
+    @Test
+    public void testNxDomainIsFinal() throws Exception {
+        FakeUpstream first = new FakeUpstream(NXDOMAIN);
+        FakeUpstream second = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .upstream("first", first)
+                .upstream("second", second)
+                .build();
+
+        Assert.assertSame(NXDOMAIN, resolver.query("a.com").get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, second.queries.get());
+        Assert.assertEquals(0, resolver.retries());
+    }
+
+    @Test
+    public void testRetryContinuesAfterPrimaryPass() throws Exception {
+        FakeUpstream first = new FakeUpstream(OK);
+        FakeUpstream second = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .backoff(50, 50, TimeUnit.MILLISECONDS)
+                .upstream("first", first)
+                .upstream("second", second)
+                .build();
+
+        DnsResult failed = new DnsResult("a.com", null, WireException.TIMEOUT, 0);
+
+        long started = System.nanoTime();
+        DnsResult result = resolver.retry(failed).get(5, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Assert.assertTrue(result.isResolved());
+        Assert.assertEquals(2, result.attempt());
+        Assert.assertEquals(0, first.queries.get());
+        Assert.assertEquals(1, second.queries.get());
+        Assert.assertTrue("elapsed " + elapsed, elapsed >= 25);
+
+        // a final result is not retried
+        DnsResult negative = new DnsResult("a.com", NXDOMAIN, null, 0);
+        Assert.assertSame(negative, resolver.retry(negative).get());
+    }
+
+    @Test
+    public void testUpstreamCancelIsFinal() throws Exception {
+        FakeUpstream first = new FakeUpstream(new CancellationException("closed"));
+        FakeUpstream second = new FakeUpstream(OK);
+
+        RetryingResolver resolver = builder()
+                .upstream("first", first)
+                .upstream("second", second)
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(1, TimeUnit.SECONDS);
+
+        Assert.assertTrue(result.cause() instanceof CancellationException);
+        Assert.assertEquals(1, result.attempt());
+        Assert.assertEquals(0, second.queries.get());
+    }
+
+    @Test
+    public void testShutDownSchedulerCompletes() throws Exception {
+        scheduler.shutdownNow();
+
+        RetryingResolver resolver = builder()
+                .upstream("first", new FakeUpstream(SERVFAIL))
+                .upstream("second", new FakeUpstream(OK))
+                .build();
+
+        DnsResult result = resolver.execute("a.com").get(1, TimeUnit.SECONDS);
+
+        Assert.assertSame(SERVFAIL, result.answer());
+        Assert.assertEquals(1, result.attempt());
+    }
+
+    @Test
+    public void testCancelReachesTheAttempt() {
+        CompletableFuture<DnsAnswer> attempt = new CompletableFuture<>();
+
+        RetryingResolver resolver = builder()
+                .upstream("first", domain -> attempt)
+                .build();
+
+        resolver.query("a.com").cancel(false);
+
+        Assert.assertTrue(attempt.isCancelled());
+    }
+
+    private RetryingResolver.Builder builder() {
+        return RetryingResolver.builder(scheduler).backoff(1, 5, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class FakeUpstream implements AsyncResolver {
+
+        private final Object outcome;
+
+        private final AtomicInteger queries = new AtomicInteger();
+
+        private FakeUpstream(Object outcome) {
+            this.outcome = outcome;
+        }
+
+        @Override
+        public CompletableFuture<DnsAnswer> query(String domain) {
+            queries.incrementAndGet();
+            return outcome instanceof DnsAnswer
+                    ? CompletableFuture.completedFuture((DnsAnswer) outcome)
+                    : Futures.failed((Throwable) outcome);
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.test.sink;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.test.bulk.DnsResult;
+import org.test.resolver.DnsAnswer;
+import org.test.wire.WireException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class ResultSinkTest {
+
+    // 198.18.0.1 and 198.18.0.2
+    private static final int[] ADDRESSES = { 0xC6120001, 0xC6120002 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("results.bin");
+
+        try (ResultSink sink = ResultSink.builder(path).capacity(100).build()) {
+            ResultReader reader = ResultReader.open(path);
+            Assert.assertEquals(0, reader.count());
+            Assert.assertEquals(-1, reader.find("example.com"));
+
+            sink.append(new DnsResult("example.com", new DnsAnswer("example.com", DnsAnswer.NOERROR, 300, ADDRESSES),
+                    null, TimeUnit.MILLISECONDS.toNanos(12), 1), 0);
+            sink.append(new DnsResult("missing.com", null, WireException.TIMEOUT, TimeUnit.SECONDS.toNanos(5), 3), 1);
+
+            // the same mapping sees the new records without reopening
+            Assert.assertEquals(2, reader.count());
+
+            long record = reader.find("EXAMPLE.com.");
+            Assert.assertEquals(0, record);
+            Assert.assertEquals("example.com", reader.name(record));
+            Assert.assertEquals(DnsAnswer.NOERROR, reader.rcode(record));
+            Assert.assertEquals(ResultReader.FAILURE_NONE, reader.failure(record));
+            Assert.assertEquals(300, reader.ttl(record));
+            Assert.assertEquals(12_000, reader.latencyMicros(record));
+            Assert.assertEquals(2, reader.ipv4Count(record));
+            Assert.assertEquals(ADDRESSES[1], reader.ipv4(record, 1));
+            Assert.assertEquals(InetAddress.getByName("198.18.0.1"), reader.addresses(record)[0]);
+
+            long failed = reader.find("missing.com");
+            Assert.assertEquals(-1, reader.rcode(failed));
+            Assert.assertEquals(ResultReader.FAILURE_TIMEOUT, reader.failure(failed));
+            Assert.assertEquals(3, reader.attempt(failed));
+            Assert.assertEquals(1, reader.upstream(failed));
+        }
+    }
+
+    @Test
+    public void testIndexPointsToLatestRecord() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("results.bin");
+
+        try (ResultSink sink = ResultSink.builder(path).capacity(1000).build()) {
+            for (int i = 0; i < 1000; i++) {
+                sink.append(new DnsResult("host" + (i % 500) + ".com",
+                        DnsAnswer.negative("host.com", DnsAnswer.SERVFAIL, 0), null, 0, 1 + i / 500), 0);
+            }
+        }
+
+        ResultReader reader = ResultReader.open(path);
+        Assert.assertEquals(1000, reader.count());
+        for (int i = 0; i < 500; i++) {
+            long record = reader.find("host" + i + ".com");
+            Assert.assertEquals(500 + i, record);
+            Assert.assertEquals(2, reader.attempt(record));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFull() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("results.bin");
+
+        try (ResultSink sink = ResultSink.builder(path).capacity(1).build()) {
+            DnsAnswer answer = DnsAnswer.negative("a.com", DnsAnswer.NXDOMAIN, 60);
+            sink.append("a.com", answer, null, 0, 1, 0);
+            sink.append("b.com", answer, null, 0, 1, 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAResultFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("other.bin");
+        Files.write(path, new byte[128]);
+        ResultReader.open(path);
+    }
+
+    @Test
+    public void testIpv6() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("results.bin");
+
+        // 2001:db8::1
+        long[] ipv6 = { 0x20010DB8_00000000L, 1 };
+
+        try (ResultSink sink = ResultSink.builder(path).capacity(10).maxAddresses(4, 2).build()) {
+            sink.append("dual.com", new DnsAnswer("dual.com", DnsAnswer.NOERROR, 60, ADDRESSES, ipv6), null, 0, 1, 0);
+        }
+
+        ResultReader reader = ResultReader.open(path);
+        long record = reader.find("dual.com");
+        Assert.assertEquals(2, reader.ipv4Count(record));
+        Assert.assertEquals(1, reader.ipv6Count(record));
+
+        InetAddress[] addresses = reader.addresses(record);
+        Assert.assertEquals(3, addresses.length);
+        Assert.assertEquals(InetAddress.getByName("2001:db8::1"), addresses[2]);
+    }
+
+    @Test
+    public void testAdnsHostExport() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("results.bin");
+
+        try (ResultSink sink = ResultSink.builder(path).capacity(10).build()) {
+            sink.append("ok.com", new DnsAnswer("ok.com", DnsAnswer.NOERROR, 0, ADDRESSES), null, 0, 1, 0);
+            sink.append("nx.com", DnsAnswer.negative("nx.com", DnsAnswer.NXDOMAIN, 0), null, 0, 1, 0);
+            sink.append("nodata.com", DnsAnswer.negative("nodata.com", DnsAnswer.NOERROR, 0), null, 0, 1, 0);
+            sink.append("slow.com", null, WireException.TIMEOUT, 0, 1, 0);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        Assert.assertEquals(4, AdnsHostFormat.export(ResultReader.open(path), sb));
+
+        String[] lines = sb.toString().replaceAll(" \\d{10} ", " T ").split("\n");
+        Assert.assertArrayEquals(new String[] {
+                "0 2 ok 0 ok ok.com T $ \"OK\"",
+                "ok.com T A INET 198.18.0.1",
+                "ok.com T A INET 198.18.0.2",
+                "1 0 permfail 300 nxdomain nx.com T $ \"No such domain\"",
+                "2 0 permfail 301 nodata nodata.com T $ \"No such data\"",
+                "3 0 remotefail 30 timeout slow.com T $ \"DNS query timed out\"",
+        }, lines);
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.test.stub;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process authoritative DNS server answering A and AAAA queries from a {@link StubZone}
+ * with the faults described by a {@link StubProfile}. Serves both UDP and TCP on the same port,
+ * UDP is bound once per event loop with SO_REUSEPORT so the kernel spreads queries across cores.
+ */
+public class StubDnsServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubDnsServer.class);
+
+    private static final int MAX_TCP_FRAME = 0xFFFF;
+
+    private static final int MAX_BIND_ATTEMPTS = 10;
+
+    // a batched client sends up to a few hundred queries back to back; a query of ~50 bytes is charged
+    // about 1 KiB by the kernel, so 1 MiB holds a thousand where the default ~200 KiB drops the tail
+    private static final int UDP_RECEIVE_BUFFER = 1024 * 1024;
+
+    private final StubZone zone;
+
+    private final StubProfile profile;
+
+    private final LongAdder received = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder answered = new LongAdder();
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private EventLoopGroup group;
+
+    private InetSocketAddress address;
+
+    public StubDnsServer(StubZone zone, StubProfile profile) {
+        this.zone = zone;
+        this.profile = profile;
+    }
+
+    public InetSocketAddress start(InetSocketAddress bindAddress, int threads) throws InterruptedException {
+        group = new EpollEventLoopGroup(threads, new DefaultThreadFactory("DNS stub"));
+
+        Bootstrap udp = new Bootstrap()
+                .group(group)
+                .channel(EpollDatagramChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .option(EpollChannelOption.SO_RCVBUF, UDP_RECEIVE_BUFFER)
+                .handler(new ChannelInitializer<EpollDatagramChannel>() {
+                    @Override
+                    protected void initChannel(EpollDatagramChannel ch) {
+                        ch.pipeline().addLast(
+                                new DatagramDnsQueryDecoder(),
+                                new DatagramDnsResponseEncoder(),
+                                new StubHandler(false));
+                    }
+                });
+
+        ServerBootstrap tcp = new ServerBootstrap()
+                .group(group)
+                .channel(EpollServerSocketChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new LengthFieldPrepender(2));
+                        pipeline.addLast(new TcpResponseUnwrapper());
+                        pipeline.addLast(new LengthFieldBasedFrameDecoder(MAX_TCP_FRAME, 0, 2, 0, 2));
+                        pipeline.addLast(new TcpQueryWrapper());
+                        pipeline.addLast(new DatagramDnsQueryDecoder());
+                        pipeline.addLast(new DatagramDnsResponseEncoder());
+                        pipeline.addLast(new StubHandler(true));
+                    }
+                });
+
+        for (int attempt = 1; ; attempt++) {
+            // the first bind resolves an ephemeral port, the rest of the sockets join it
+            Channel first = udp.bind(bindAddress).sync().channel();
+            channels.add(first);
+            address = (InetSocketAddress) first.localAddress();
+
+            for (int i = 1; i < threads; i++) {
+                channels.add(udp.bind(address).sync().channel());
+            }
+
+            // an ephemeral UDP port can still be taken for TCP, by a client connection for instance
+            ChannelFuture listener = tcp.bind(address).await();
+            if (listener.isSuccess() || bindAddress.getPort() != 0 || attempt == MAX_BIND_ATTEMPTS) {
+                channels.add(listener.sync().channel());
+                break;
+            }
+
+            closeChannels();
+        }
+
+        LOGGER.info("DNS stub is listening on {} with {} names", address, zone.size());
+
+        return address;
+    }
+
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long answered() {
+        return answered.sum();
+    }
+
+    @Override
+    public void close() {
+        closeChannels();
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            group = null;
+        }
+
+        LOGGER.info("DNS stub is stopped: received {}, dropped {}, answered {}",
+                received(), dropped(), answered());
+    }
+
+    private void closeChannels() {
+        for (Channel channel : channels) {
+            channel.close().syncUninterruptibly();
+        }
+        channels.clear();
+    }
+
+    private DatagramDnsResponse answer(DatagramDnsQuery query, DnsQuestion question, int hash,
+                                       ByteBufAllocator alloc, boolean tcp)
+    {
+        DatagramDnsResponse response = new DatagramDnsResponse(
+                query.recipient(), query.sender(), query.id(), query.opCode());
+        response.setAuthoritativeAnswer(true);
+        response.setRecursionDesired(query.isRecursionDesired());
+        response.setRecursionAvailable(true);
+
+        if (question == null) {
+            return response.setCode(DnsResponseCode.FORMERR);
+        }
+
+        response.addRecord(DnsSection.QUESTION, question);
+
+        if (profile.isServFail(hash)) {
+            return response.setCode(DnsResponseCode.SERVFAIL);
+        }
+
+        int[] addresses = zone.lookup(question.name());
+        if (addresses == null || profile.isNxDomain(hash)) {
+            return response.setCode(DnsResponseCode.NXDOMAIN);
+        }
+
+        if (!tcp && profile.isTruncated(hash)) {
+            return response.setTruncated(true);
+        }
+
+        if (question.type() == DnsRecordType.A) {
+            for (int address : addresses) {
+                ByteBuf rdata = alloc.buffer(4).writeInt(address);
+                response.addRecord(DnsSection.ANSWER,
+                        new DefaultDnsRawRecord(question.name(), DnsRecordType.A, profile.ttl(), rdata));
+            }
+        } else if (question.type() == DnsRecordType.AAAA) {
+            long[] ipv6 = zone.lookupIpv6(question.name());
+            for (int i = 0; i < ipv6.length; i += 2) {
+                ByteBuf rdata = alloc.buffer(16).writeLong(ipv6[i]).writeLong(ipv6[i + 1]);
+                response.addRecord(DnsSection.ANSWER,
+                        new DefaultDnsRawRecord(question.name(), DnsRecordType.AAAA, profile.ttl(), rdata));
+            }
+        }
+
+        return response;
+    }
+
+    private final class StubHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+
+        private final boolean tcp;
+
+        private StubHandler(boolean tcp) {
+            this.tcp = tcp;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) {
+            received.increment();
+
+            if (!tcp && profile.isDropped()) {
+                dropped.increment();
+                return;
+            }
+
+            DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+            int hash = question != null ? StubZone.hash(StubZone.normalize(question.name())) : 0;
+
+            DatagramDnsResponse response = answer(query, question, hash, ctx.alloc(), tcp);
+
+            long latency = question != null ? profile.latencyMicros(hash) : 0;
+
+            if (latency > 0) {
+                ctx.executor().schedule(() -> send(ctx, response), latency, TimeUnit.MICROSECONDS);
+            } else {
+                send(ctx, response);
+            }
+        }
+
+        private void send(ChannelHandlerContext ctx, DatagramDnsResponse response) {
+            answered.increment();
+            ctx.writeAndFlush(response);
+        }
+
+    }
+
+    // TCP messages are framed by the 2-byte length, the rest is the same as UDP payload,
+    // so the datagram codecs are reused by wrapping frames into datagram packets
+
+    private static final class TcpQueryWrapper extends MessageToMessageDecoder<ByteBuf> {
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) {
+            out.add(new DatagramPacket(msg.retain(),
+                    (InetSocketAddress) ctx.channel().localAddress(),
+                    (InetSocketAddress) ctx.channel().remoteAddress()));
+        }
+
+    }
+
+    private static final class TcpResponseUnwrapper extends MessageToMessageEncoder<DatagramPacket> {
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, DatagramPacket msg, List<Object> out) {
+            out.add(msg.content().retain());
+        }
+
+    }
+
+}
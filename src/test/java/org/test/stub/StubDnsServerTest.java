@@ -0,0 +1,127 @@
+package org.test.stub;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.SimpleResolver;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class StubDnsServerTest {
+
+    private static final StubZone ZONE = StubZone.fromDomains(Arrays.asList("google.com", "example.org."));
+
+    private StubDnsServer server;
+
+    private EventLoopGroup group;
+
+    private DnsNameResolver resolver;
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testResolveKnown() throws Exception {
+        start(StubProfile.IDEAL);
+
+        InetAddress address = resolver.resolve("google.com").sync().getNow();
+        Assert.assertEquals(ZONE.lookup("google.com")[0], toInt(address));
+        Assert.assertEquals(1, server.answered());
+    }
+
+    @Test
+    public void testResolveUnknown() throws Exception {
+        start(StubProfile.IDEAL);
+
+        Future<InetAddress> future = resolver.resolve("unknown.com").await();
+        Assert.assertFalse(future.isSuccess());
+    }
+
+    @Test
+    public void testNxDomain() throws Exception {
+        start(StubProfile.builder().nxDomainRatio(1.0).build());
+
+        Future<InetAddress> future = resolver.resolve("example.org").await();
+        Assert.assertFalse(future.isSuccess());
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        start(StubProfile.builder().dropRatio(1.0).build());
+
+        Future<InetAddress> future = resolver.resolve("example.org").await();
+        Assert.assertFalse(future.isSuccess());
+        Assert.assertEquals(0, server.answered());
+        Assert.assertTrue(server.dropped() > 0);
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        start(StubProfile.builder().latencyMicros(50_000, 50_000).build());
+
+        long started = System.nanoTime();
+        resolver.resolve("example.org").sync();
+        Assert.assertTrue(System.nanoTime() - started >= 50_000_000);
+    }
+
+    @Test
+    public void testTruncatedAnsweredOverTcp() throws Exception {
+        start(StubProfile.builder().truncateRatio(1.0).build());
+
+        SimpleResolver tcpResolver = new SimpleResolver();
+        tcpResolver.setAddress(server.address());
+        tcpResolver.setTCP(true);
+
+        Lookup lookup = new Lookup("google.com");
+        lookup.setResolver(tcpResolver);
+        lookup.setCache(null);
+        lookup.run();
+
+        Assert.assertEquals(Lookup.SUCCESSFUL, lookup.getResult());
+    }
+
+    private void start(StubProfile profile) throws Exception {
+        server = new StubDnsServer(ZONE, profile);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+        group = new EpollEventLoopGroup(1);
+
+        resolver = new DnsNameResolverBuilder(group.next())
+                .channelType(EpollDatagramChannel.class)
+                .queryTimeoutMillis(500)
+                .maxQueriesPerResolve(1)
+                .resolvedAddressTypes(ResolvedAddressTypes.IPV4_ONLY)
+                .nameServerProvider(new SingletonDnsServerAddressStreamProvider(address))
+                .build();
+    }
+
+    private static int toInt(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+}
@@ -0,0 +1,524 @@
+package org.test.stub;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.test.resolver.DnsAnswer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process copy of the DNS tree for iterative resolution: a root server, a server per TLD and a few
+ * hosting servers which are authoritative for the registered domains of a {@link StubZone}.
+ * <p>
+ * Every server has its own loopback address and they all share one port: the root is {@code 127.53.0.1},
+ * the TLD servers are {@code a.nic.<tld>} from {@code 127.54.0.1}, the hosting servers are from
+ * {@code 127.55.0.1}. A registered domain is delegated to {@code ns1.<domain>} with glue, or to
+ * {@code ns1.hosting<k>.net} which needs a lookup of its own. A lame zone is also delegated to
+ * {@code 127.56.0.1}, where nothing listens. A stale zone is also delegated to {@code 127.57.0.1}, which
+ * answers without the AA bit from an old copy where every name is {@code 192.0.2.1}.
+ * Registered domains are simply the last two labels of a name.
+ */
+public class StubHierarchy implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubHierarchy.class);
+
+    private static final int ROOT_BASE = address(127, 53);
+
+    private static final int TLD_BASE = address(127, 54);
+
+    private static final int HOSTING_BASE = address(127, 55);
+
+    private static final int LAME_ADDRESS = address(127, 56) | host(0);
+
+    private static final int STALE_ADDRESS = address(127, 57) | host(0);
+
+    // 192.0.2.1, TEST-NET-1
+    private static final int STALE_RECORD = 0xC0000201;
+
+    private static final int SOA_MINIMUM = 60;
+
+    // a bulk crawl bursts the first queries of every name into the root and TLD servers
+    private static final int UDP_RECEIVE_BUFFER = 4 * 1024 * 1024;
+
+    private final int ttl;
+
+    // server address -> zones it is authoritative for
+    private final Map<Integer, List<Zone>> servers = new LinkedHashMap<>();
+
+    // name server name -> address, the source of the glue
+    private final Map<String, Integer> nameServers = new HashMap<>();
+
+    private final LongAdder received = new LongAdder();
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private EventLoopGroup group;
+
+    private int port;
+
+    private StubHierarchy(Builder builder) {
+        this.ttl = builder.ttl;
+
+        Zone root = new Zone("");
+        root.servers.add("a.root-servers.net");
+        serve(ROOT_BASE | host(0), root);
+
+        Map<String, Zone> tlds = new HashMap<>();
+        Map<String, Zone> domains = new HashMap<>();
+
+        Set<String> names = new HashSet<>(builder.zone.names());
+        names.addAll(builder.cnames.keySet());
+
+        for (int k = 0; k < builder.hostingServers; k++) {
+            zone(root, tlds, domains, "hosting" + k + ".net", k, true);
+        }
+
+        for (String name : names) {
+            String registered = registered(name);
+            if (registered == null) {
+                continue;
+            }
+
+            int k = (StubZone.hash(registered) & Integer.MAX_VALUE) % builder.hostingServers;
+            Zone zone = zone(root, tlds, domains, registered, k, builder.providerNameServers);
+
+            String target = builder.cnames.get(name);
+            if (target != null) {
+                zone.cnames.put(name, target);
+                zone.cnameTtls.put(name, builder.cnameTtls.getOrDefault(name, ttl));
+            } else {
+                zone.records.put(name, builder.zone.lookup(name));
+            }
+        }
+
+        for (String lame : builder.lame) {
+            Zone zone = domains.get(lame);
+            if (zone == null) {
+                throw new IllegalArgumentException("Unknown zone " + lame);
+            }
+
+            String server = "ns0." + lame;
+            nameServers.put(server, LAME_ADDRESS);
+            zone.servers.add(0, server);
+        }
+
+        for (String stale : builder.stale) {
+            Zone zone = domains.get(stale);
+            if (zone == null) {
+                throw new IllegalArgumentException("Unknown zone " + stale);
+            }
+
+            String server = "ns2." + stale;
+            nameServers.put(server, STALE_ADDRESS);
+            zone.servers.add(0, server);
+            serve(STALE_ADDRESS, zone);
+        }
+    }
+
+    public static Builder builder(StubZone zone) {
+        return new Builder(zone);
+    }
+
+    public InetSocketAddress start(int threads) throws InterruptedException {
+        group = new EpollEventLoopGroup(threads, new DefaultThreadFactory("DNS hierarchy"));
+
+        Bootstrap udp = new Bootstrap()
+                .group(group)
+                .channel(EpollDatagramChannel.class)
+                .option(EpollChannelOption.SO_RCVBUF, UDP_RECEIVE_BUFFER)
+                .handler(new ChannelInitializer<EpollDatagramChannel>() {
+                    @Override
+                    protected void initChannel(EpollDatagramChannel ch) {
+                        ch.pipeline().addLast(
+                                new DatagramDnsQueryDecoder(),
+                                new DatagramDnsResponseEncoder(),
+                                new AuthorityHandler());
+                    }
+                });
+
+        for (int address : servers.keySet()) {
+            // the root takes an ephemeral port, the other servers join it on their own addresses
+            Channel channel = udp.bind(new InetSocketAddress(toInetAddress(address), port)).sync().channel();
+            channels.add(channel);
+            port = ((InetSocketAddress) channel.localAddress()).getPort();
+        }
+
+        LOGGER.info("DNS hierarchy is listening on port {} with {} servers", port, servers.size());
+
+        return root();
+    }
+
+    public InetSocketAddress root() {
+        return new InetSocketAddress(toInetAddress(ROOT_BASE | host(0)), port);
+    }
+
+    /**
+     * @return the root hints for the resolver
+     */
+    public List<String> rootHints() {
+        return Collections.singletonList(root().getAddress().getHostAddress());
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    @Override
+    public void close() {
+        for (Channel channel : channels) {
+            channel.close().syncUninterruptibly();
+        }
+        channels.clear();
+
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            group = null;
+        }
+    }
+
+    private Zone zone(Zone root, Map<String, Zone> tlds, Map<String, Zone> domains, String registered, int k,
+                      boolean provider)
+    {
+        Zone zone = domains.get(registered);
+        if (zone != null) {
+            return zone;
+        }
+
+        String tldName = registered.substring(registered.indexOf('.') + 1);
+        Zone tld = tlds.get(tldName);
+        if (tld == null) {
+            tld = new Zone(tldName);
+            String nic = "a.nic." + tldName;
+            tld.servers.add(nic);
+            nameServers.put(nic, TLD_BASE | host(tlds.size()));
+            serve(nameServers.get(nic), tld);
+
+            tlds.put(tldName, tld);
+            root.cuts.put(tldName, tld);
+        }
+
+        zone = new Zone(registered);
+        String ns = provider ? "ns1.hosting" + k + ".net" : "ns1." + registered;
+        int address = HOSTING_BASE | host(k);
+        zone.servers.add(ns);
+        nameServers.put(ns, address);
+        serve(address, zone);
+
+        if (within(ns, registered)) {
+            zone.records.put(ns, new int[] { address });
+        }
+
+        domains.put(registered, zone);
+        tld.cuts.put(registered, zone);
+
+        return zone;
+    }
+
+    private void serve(int address, Zone zone) {
+        servers.computeIfAbsent(address, a -> new ArrayList<>()).add(zone);
+    }
+
+    private DatagramDnsResponse answer(int server, DatagramDnsQuery query, ByteBufAllocator alloc) {
+        DatagramDnsResponse response = new DatagramDnsResponse(
+                query.recipient(), query.sender(), query.id(), query.opCode());
+        response.setRecursionDesired(query.isRecursionDesired());
+
+        DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+        if (question == null) {
+            return response.setCode(DnsResponseCode.FORMERR);
+        }
+
+        response.addRecord(DnsSection.QUESTION, question);
+
+        String name = StubZone.normalize(question.name());
+        Zone zone = closest(server, name);
+        if (zone == null) {
+            return response.setCode(DnsResponseCode.REFUSED);
+        }
+
+        Zone cut = zone.cut(name);
+        if (cut != null) {
+            for (String ns : cut.servers) {
+                response.addRecord(DnsSection.AUTHORITY, record(cut.name, DnsRecordType.NS, name(alloc, ns)));
+            }
+            for (String ns : cut.servers) {
+                if (within(ns, zone.name)) {
+                    response.addRecord(DnsSection.ADDITIONAL,
+                            record(ns, DnsRecordType.A, alloc.buffer(4).writeInt(nameServers.get(ns))));
+                }
+            }
+            return response;
+        }
+
+        response.setAuthoritativeAnswer(server != STALE_ADDRESS);
+
+        String target = zone.cnames.get(name);
+        if (target != null) {
+            response.addRecord(DnsSection.ANSWER,
+                    record(name, DnsRecordType.CNAME, zone.cnameTtls.get(name), name(alloc, target)));
+            name = target;
+            if (!within(name, zone.name)) {
+                return response;
+            }
+        }
+
+        int[] addresses = zone.records.get(name);
+        if (addresses == null) {
+            response.addRecord(DnsSection.AUTHORITY, soa(zone, alloc));
+            return response.setCode(target == null ? DnsResponseCode.NXDOMAIN : DnsResponseCode.NOERROR);
+        }
+
+        if (question.type() == DnsRecordType.A) {
+            for (int address : addresses) {
+                int rdata = server == STALE_ADDRESS ? STALE_RECORD : address;
+                response.addRecord(DnsSection.ANSWER, record(name, DnsRecordType.A, alloc.buffer(4).writeInt(rdata)));
+            }
+        } else {
+            response.addRecord(DnsSection.AUTHORITY, soa(zone, alloc));
+        }
+
+        return response;
+    }
+
+    private Zone closest(int server, String name) {
+        Zone best = null;
+        for (Zone zone : servers.getOrDefault(server, Collections.emptyList())) {
+            if (within(name, zone.name) && (best == null || zone.name.length() > best.name.length())) {
+                best = zone;
+            }
+        }
+        return best;
+    }
+
+    private DefaultDnsRawRecord record(String name, DnsRecordType type, ByteBuf rdata) {
+        return record(name, type, ttl, rdata);
+    }
+
+    private DefaultDnsRawRecord record(String name, DnsRecordType type, int ttl, ByteBuf rdata) {
+        return new DefaultDnsRawRecord(name.isEmpty() ? "." : name + ".", type, ttl, rdata);
+    }
+
+    private DefaultDnsRawRecord soa(Zone zone, ByteBufAllocator alloc) {
+        ByteBuf rdata = name(alloc, zone.servers.get(zone.servers.size() - 1));
+        writeName(rdata, "hostmaster." + (zone.name.isEmpty() ? "root" : zone.name));
+        rdata.writeInt(1).writeInt(3600).writeInt(600).writeInt(86400).writeInt(SOA_MINIMUM);
+        return record(zone.name, DnsRecordType.SOA, rdata);
+    }
+
+    private static ByteBuf name(ByteBufAllocator alloc, String name) {
+        ByteBuf out = alloc.buffer(name.length() + 2);
+        writeName(out, name);
+        return out;
+    }
+
+    private static void writeName(ByteBuf out, String name) {
+        for (String label : name.split("\\.")) {
+            if (!label.isEmpty()) {
+                byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                out.writeByte(bytes.length).writeBytes(bytes);
+            }
+        }
+        out.writeByte(0);
+    }
+
+    private static String registered(String name) {
+        int last = name.lastIndexOf('.');
+        if (last <= 0) {
+            return null;
+        }
+
+        int previous = name.lastIndexOf('.', last - 1);
+        return name.substring(previous + 1);
+    }
+
+    private static boolean within(String name, String zone) {
+        return zone.isEmpty() || name.equals(zone) || name.endsWith("." + zone);
+    }
+
+    // the last two bytes of the i-th server address, skipping .0 and .255
+    private static int host(int i) {
+        return ((i / 254) << 8) | (1 + i % 254);
+    }
+
+    private static int address(int a, int b) {
+        return (a << 24) | (b << 16);
+    }
+
+    private static InetAddress toInetAddress(int address) {
+        try {
+            return DnsAnswer.toInetAddress(null, address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Zone {
+
+        private final String name;
+
+        private final List<String> servers = new ArrayList<>();
+
+        // child zone -> its delegation, one label below this zone
+        private final Map<String, Zone> cuts = new HashMap<>();
+
+        private final Map<String, int[]> records = new HashMap<>();
+
+        private final Map<String, String> cnames = new HashMap<>();
+
+        private final Map<String, Integer> cnameTtls = new HashMap<>();
+
+        private Zone(String name) {
+            this.name = name;
+        }
+
+        private Zone cut(String name) {
+            // the cuts are children of this zone, so the name itself or one of its suffixes
+            for (int from = 0; from >= 0; ) {
+                Zone cut = cuts.get(name.substring(from));
+                if (cut != null) {
+                    return cut;
+                }
+                int dot = name.indexOf('.', from);
+                from = dot < 0 ? -1 : dot + 1;
+            }
+            return null;
+        }
+
+    }
+
+    private final class AuthorityHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) {
+            received.increment();
+
+            InetSocketAddress local = (InetSocketAddress) ctx.channel().localAddress();
+            int server = DnsAnswer.toInt(local.getAddress());
+
+            ctx.writeAndFlush(answer(server, query, ctx.alloc()));
+        }
+
+    }
+
+    public static final class Builder {
+
+        private final StubZone zone;
+
+        private final Map<String, String> cnames = new HashMap<>();
+
+        private final Map<String, Integer> cnameTtls = new HashMap<>();
+
+        private final Set<String> lame = new HashSet<>();
+
+        private final Set<String> stale = new HashSet<>();
+
+        private int hostingServers = 4;
+
+        private int ttl = 300;
+
+        private boolean providerNameServers;
+
+        private Builder(StubZone zone) {
+            this.zone = zone;
+        }
+
+        public Builder hostingServers(int hostingServers) {
+            this.hostingServers = hostingServers;
+            return this;
+        }
+
+        public Builder ttl(int ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * Makes {@code alias} a CNAME to {@code target}, the target must be a name of the zone.
+         */
+        public Builder cname(String alias, String target) {
+            cnames.put(StubZone.normalize(alias), StubZone.normalize(target));
+            return this;
+        }
+
+        /**
+         * Like {@link #cname(String, String)} with a TTL of its own.
+         */
+        public Builder cname(String alias, String target, int ttl) {
+            cnameTtls.put(StubZone.normalize(alias), ttl);
+            return cname(alias, target);
+        }
+
+        /**
+         * Adds a dead name server in front of the hosting server of a registered domain.
+         */
+        public Builder lame(String registered) {
+            lame.add(StubZone.normalize(registered));
+            return this;
+        }
+
+        /**
+         * Adds a server in front of the hosting server of a registered domain, which answers without authority
+         * and with wrong addresses.
+         */
+        public Builder stale(String registered) {
+            stale.add(StubZone.normalize(registered));
+            return this;
+        }
+
+        /**
+         * Delegates the registered domains to {@code ns1.hosting<k>.net} like the zones at a DNS provider,
+         * the TLD servers send no glue for them.
+         */
+        public Builder providerNameServers(boolean providerNameServers) {
+            this.providerNameServers = providerNameServers;
+            return this;
+        }
+
+        public StubHierarchy build() {
+            if (hostingServers <= 0) {
+                throw new IllegalArgumentException("hostingServers must be positive");
+            }
+            return new StubHierarchy(this);
+        }
+
+    }
+
+}
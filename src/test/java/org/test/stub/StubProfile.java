@@ -0,0 +1,177 @@
+package org.test.stub;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes how the stub server misbehaves.
+ * <p>
+ * Per-name properties (base latency, SERVFAIL, NXDOMAIN, truncation) are derived from the name hash,
+ * so the same name gets the same fate in every run. Per-query properties (jitter, tail latency, drops)
+ * are random, so a retry of a dropped query may succeed.
+ */
+public final class StubProfile {
+
+    public static final StubProfile IDEAL = builder().build();
+
+    private final long minLatencyMicros;
+
+    private final long maxLatencyMicros;
+
+    private final long jitterMicros;
+
+    private final double tailRatio;
+
+    private final long tailLatencyMicros;
+
+    private final double dropRatio;
+
+    private final double servFailRatio;
+
+    private final double nxDomainRatio;
+
+    private final double truncateRatio;
+
+    private final int ttl;
+
+    private StubProfile(Builder builder) {
+        this.minLatencyMicros = builder.minLatencyMicros;
+        this.maxLatencyMicros = builder.maxLatencyMicros;
+        this.jitterMicros = builder.jitterMicros;
+        this.tailRatio = builder.tailRatio;
+        this.tailLatencyMicros = builder.tailLatencyMicros;
+        this.dropRatio = builder.dropRatio;
+        this.servFailRatio = builder.servFailRatio;
+        this.nxDomainRatio = builder.nxDomainRatio;
+        this.truncateRatio = builder.truncateRatio;
+        this.ttl = builder.ttl;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long latencyMicros(int nameHash) {
+        long latency = minLatencyMicros;
+
+        if (maxLatencyMicros > minLatencyMicros) {
+            latency += (long) (fraction(nameHash, 1) * (maxLatencyMicros - minLatencyMicros));
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (jitterMicros > 0) {
+            latency += random.nextLong(jitterMicros);
+        }
+
+        if (tailRatio > 0 && random.nextDouble() < tailRatio) {
+            latency += tailLatencyMicros;
+        }
+
+        return latency;
+    }
+
+    public boolean isDropped() {
+        return dropRatio > 0 && ThreadLocalRandom.current().nextDouble() < dropRatio;
+    }
+
+    public boolean isServFail(int nameHash) {
+        return fraction(nameHash, 2) < servFailRatio;
+    }
+
+    public boolean isNxDomain(int nameHash) {
+        return fraction(nameHash, 3) < nxDomainRatio;
+    }
+
+    public boolean isTruncated(int nameHash) {
+        return fraction(nameHash, 4) < truncateRatio;
+    }
+
+    public int ttl() {
+        return ttl;
+    }
+
+    private static double fraction(int nameHash, int salt) {
+        // murmur3 finalizer to decorrelate the properties of the same name
+        int h = nameHash + salt * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h >>> 8) / (double) (1 << 24);
+    }
+
+    public static final class Builder {
+
+        private long minLatencyMicros;
+
+        private long maxLatencyMicros;
+
+        private long jitterMicros;
+
+        private double tailRatio;
+
+        private long tailLatencyMicros;
+
+        private double dropRatio;
+
+        private double servFailRatio;
+
+        private double nxDomainRatio;
+
+        private double truncateRatio;
+
+        private int ttl = 300;
+
+        private Builder() {
+        }
+
+        public Builder latencyMicros(long min, long max) {
+            this.minLatencyMicros = min;
+            this.maxLatencyMicros = max;
+            return this;
+        }
+
+        public Builder jitterMicros(long jitter) {
+            this.jitterMicros = jitter;
+            return this;
+        }
+
+        public Builder tailLatency(double ratio, long latencyMicros) {
+            this.tailRatio = ratio;
+            this.tailLatencyMicros = latencyMicros;
+            return this;
+        }
+
+        public Builder dropRatio(double ratio) {
+            this.dropRatio = ratio;
+            return this;
+        }
+
+        public Builder servFailRatio(double ratio) {
+            this.servFailRatio = ratio;
+            return this;
+        }
+
+        public Builder nxDomainRatio(double ratio) {
+            this.nxDomainRatio = ratio;
+            return this;
+        }
+
+        public Builder truncateRatio(double ratio) {
+            this.truncateRatio = ratio;
+            return this;
+        }
+
+        public Builder ttl(int ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public StubProfile build() {
+            return new StubProfile(this);
+        }
+
+    }
+
+}
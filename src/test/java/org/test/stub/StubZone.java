@@ -0,0 +1,102 @@
+package org.test.stub;
+
+import org.test.ingest.DomainSource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+public class StubZone {
+
+    // RFC 2544 benchmarking range 198.18.0.0/15, never routed on the internet
+    private static final int ADDRESS_BASE = (198 << 24) | (18 << 16);
+
+    private static final int ADDRESS_MASK = 0x1FFFF;
+
+    // RFC 3849 documentation prefix 2001:db8::/32
+    private static final long IPV6_PREFIX = 0x20010DB8_00000000L;
+
+    private final Map<String, int[]> records;
+
+    private StubZone(Map<String, int[]> records) {
+        this.records = records;
+    }
+
+    public static StubZone fromDomains(Iterable<String> domains) {
+        Map<String, int[]> records = new HashMap<>();
+
+        for (String domain : domains) {
+            String name = normalize(domain);
+            if (!name.isEmpty()) {
+                records.put(name, addresses(name));
+            }
+        }
+
+        return new StubZone(records);
+    }
+
+    public static StubZone crawlerDomains() {
+        try (DomainSource domains = DomainSource.builder().resource("/crawler_domains.txt.gz").build()) {
+            return fromDomains(() -> domains);
+        }
+    }
+
+    public int[] lookup(String domain) {
+        return records.get(normalize(domain));
+    }
+
+    /**
+     * @return the IPv6 address of every other name as two longs, empty for the rest, {@code null} for unknown names
+     */
+    public long[] lookupIpv6(String domain) {
+        String name = normalize(domain);
+        if (!records.containsKey(name)) {
+            return null;
+        }
+
+        int h = hash(name);
+        return ((h >>> 27) & 1) != 0 ? new long[] { IPV6_PREFIX, h & 0xFFFFFFFFL } : new long[0];
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(records.keySet());
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public static int hash(String domain) {
+        // FNV-1a, stable across JVM runs so that the same name always gets the same fate
+        int h = 0x811C9DC5;
+        for (int i = 0; i < domain.length(); i++) {
+            h ^= domain.charAt(i);
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    static String normalize(String domain) {
+        String name = domain.trim().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+    private static int[] addresses(String name) {
+        int h = hash(name);
+
+        int count = 1 + ((h >>> 28) & 1);
+
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = ADDRESS_BASE | ((h + i) & ADDRESS_MASK);
+        }
+
+        return result;
+    }
+
+}
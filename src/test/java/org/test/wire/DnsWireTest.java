@@ -0,0 +1,160 @@
+package org.test.wire;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.net.InetAddress;
+
+public class DnsWireTest {
+
+    @Test
+    public void testEncodeQuery() throws Exception {
+        ByteBuf buf = Unpooled.buffer();
+        Assert.assertTrue(DnsWire.encodeQuery(buf, 0x1234, "WWW.Example.com.", DnsWire.TYPE_AAAA, 1232));
+
+        Message message = new Message(toBytes(buf));
+        Assert.assertEquals(0x1234, message.getHeader().getID());
+        Assert.assertTrue(message.getHeader().getFlag(Flags.RD));
+        Assert.assertEquals(Name.fromString("www.example.com."), message.getQuestion().getName());
+        Assert.assertEquals(Type.AAAA, message.getQuestion().getType());
+
+        OPTRecord opt = message.getOPT();
+        Assert.assertNotNull(opt);
+        Assert.assertEquals(1232, opt.getPayloadSize());
+        Assert.assertTrue(buf.readableBytes() <= DnsWire.querySize("WWW.Example.com."));
+    }
+
+    @Test
+    public void testEncodeRejectsInvalidNames() {
+        ByteBuf buf = Unpooled.buffer();
+
+        Assert.assertFalse(DnsWire.encodeQuery(buf, 1, "a..com", DnsWire.TYPE_A, 0));
+        Assert.assertFalse(DnsWire.encodeQuery(buf, 1, "пример.рф", DnsWire.TYPE_A, 0));
+        Assert.assertFalse(DnsWire.encodeQuery(buf, 1, repeat('a', 64) + ".com", DnsWire.TYPE_A, 0));
+        Assert.assertFalse(DnsWire.encodeQuery(buf, 1, repeat('a', 60) + "." + repeat('b', 60) + "."
+                + repeat('c', 60) + "." + repeat('d', 60) + "." + repeat('e', 60), DnsWire.TYPE_A, 0));
+        Assert.assertEquals(0, buf.writerIndex());
+
+        Assert.assertTrue(DnsWire.encodeQuery(buf, 1, repeat('a', 63) + ".com", DnsWire.TYPE_A, 0));
+    }
+
+    @Test
+    public void testDecodeFollowsCnameChain() throws Exception {
+        Name name = Name.fromString("www.example.com.");
+        Name alias = Name.fromString("edge.cdn.net.");
+        Name target = Name.fromString("a1.edge.cdn.net.");
+
+        Message message = response(name, Type.A, Rcode.NOERROR);
+        // out of order on purpose, and with a stray A record of another owner
+        message.addRecord(new ARecord(target, DClass.IN, 60, InetAddress.getByName("10.0.0.1")), Section.ANSWER);
+        message.addRecord(new ARecord(alias, DClass.IN, 10, InetAddress.getByName("10.9.9.9")), Section.ANSWER);
+        message.addRecord(new CNAMERecord(alias, DClass.IN, 300, target), Section.ANSWER);
+        message.addRecord(new CNAMERecord(name, DClass.IN, 3600, alias), Section.ANSWER);
+        message.addRecord(new ARecord(target, DClass.IN, 120, InetAddress.getByName("10.0.0.2")), Section.ANSWER);
+
+        WireResponse response = new WireResponse();
+        Assert.assertTrue(DnsWire.decode(Unpooled.wrappedBuffer(message.toWire()), "WWW.example.COM",
+                DnsWire.TYPE_A, response));
+
+        Assert.assertEquals(0, response.rcode());
+        Assert.assertEquals(2, response.addressCount());
+        Assert.assertEquals(0x0A000001, response.address(0));
+        Assert.assertEquals(0x0A000002, response.address(1));
+        Assert.assertEquals(60, response.ttl());
+    }
+
+    @Test
+    public void testDecodeAaaa() throws Exception {
+        Name name = Name.fromString("example.com.");
+
+        Message message = response(name, Type.AAAA, Rcode.NOERROR);
+        message.addRecord(new AAAARecord(name, DClass.IN, 300, InetAddress.getByName("2001:db8::1")),
+                Section.ANSWER);
+
+        WireResponse response = new WireResponse();
+        Assert.assertTrue(DnsWire.decode(Unpooled.wrappedBuffer(message.toWire()), "example.com",
+                DnsWire.TYPE_AAAA, response));
+
+        Assert.assertEquals(1, response.addressCount());
+        Assert.assertArrayEquals(new int[] { 0x20010DB8, 0, 0, 1 }, response.copyValues());
+    }
+
+    @Test
+    public void testDecodeNegativeTtl() throws Exception {
+        Name name = Name.fromString("missing.example.com.");
+        Name zone = Name.fromString("example.com.");
+
+        Message message = response(name, Type.A, Rcode.NXDOMAIN);
+        message.addRecord(new SOARecord(zone, DClass.IN, 900, Name.fromString("ns.example.com."),
+                Name.fromString("admin.example.com."), 1, 3600, 600, 86400, 300), Section.AUTHORITY);
+
+        WireResponse response = new WireResponse();
+        Assert.assertTrue(DnsWire.decode(Unpooled.wrappedBuffer(message.toWire()), "missing.example.com",
+                DnsWire.TYPE_A, response));
+
+        Assert.assertEquals(3, response.rcode());
+        Assert.assertEquals(0, response.addressCount());
+        Assert.assertEquals(300, response.ttl());
+    }
+
+    @Test
+    public void testDecodeRejectsOtherQuestion() throws Exception {
+        Message message = response(Name.fromString("example.com."), Type.A, Rcode.NOERROR);
+        byte[] wire = message.toWire();
+
+        WireResponse response = new WireResponse();
+        Assert.assertFalse(DnsWire.decode(Unpooled.wrappedBuffer(wire), "example.org", DnsWire.TYPE_A, response));
+        Assert.assertFalse(DnsWire.decode(Unpooled.wrappedBuffer(wire), "example.com", DnsWire.TYPE_AAAA, response));
+        Assert.assertFalse(DnsWire.decode(Unpooled.wrappedBuffer(wire, 0, 20), "example.com", DnsWire.TYPE_A,
+                response));
+    }
+
+    @Test
+    public void testDecodeSurvivesPointerLoop() {
+        // header with one question whose name is a pointer to itself
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeShort(1).writeShort(0x8180).writeShort(1).writeShort(0).writeShort(0).writeShort(0);
+        buf.writeShort(0xC000 | DnsWire.HEADER_SIZE);
+        buf.writeShort(DnsWire.TYPE_A).writeShort(DnsWire.CLASS_IN);
+
+        Assert.assertFalse(DnsWire.decode(buf, "example.com", DnsWire.TYPE_A, new WireResponse()));
+    }
+
+    private static Message response(Name name, int type, int rcode) {
+        Message message = new Message(1);
+        message.getHeader().setFlag(Flags.QR);
+        message.getHeader().setRcode(rcode);
+        message.addRecord(Record.newRecord(name, type, DClass.IN), Section.QUESTION);
+        return message;
+    }
+
+    private static byte[] toBytes(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return bytes;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.test.wire;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.bulk.BulkResolver;
+import org.test.bulk.DnsResult;
+import org.test.resolver.DnsAnswer;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class TcpResolverTest {
+
+    private static final List<String> DOMAINS = IntStream.range(0, 2000)
+            .mapToObj(i -> "host" + i + ".example.com")
+            .collect(Collectors.toList());
+
+    private static final StubZone ZONE = StubZone.fromDomains(DOMAINS);
+
+    private StubDnsServer server;
+
+    private StubDnsServer replacement;
+
+    private TcpResolver resolver;
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+
+        if (replacement != null) {
+            replacement.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedOutOfOrder() throws Exception {
+        // the latency depends on the name, so the responses come back in a different order
+        InetSocketAddress address = start(StubProfile.builder().latencyMicros(100, 5000).build());
+        resolver = TcpResolver.builder().connections(2).server(address).build();
+
+        List<DnsResult> results = new ArrayList<>();
+        new BulkResolver(resolver, 256).stream(DOMAINS.iterator()).forEach(results::add);
+
+        Assert.assertEquals(DOMAINS.size(), results.size());
+        for (DnsResult result : results) {
+            Assert.assertTrue(result.toString(), result.isResolved());
+            Assert.assertArrayEquals(ZONE.lookup(result.domain()), result.answer().addresses());
+        }
+
+        Assert.assertEquals(2, resolver.connects());
+    }
+
+    @Test
+    public void testNxDomain() throws Exception {
+        InetSocketAddress address = start(StubProfile.IDEAL);
+        resolver = TcpResolver.builder().server(address).build();
+
+        DnsAnswer answer = resolver.query("unknown.example.com").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, answer.rcode());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        InetSocketAddress address = start(StubProfile.builder().latencyMicros(2_000_000, 2_000_000).build());
+        resolver = TcpResolver.builder().queryTimeoutMillis(200).server(address).build();
+
+        try {
+            resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(WireException.TIMEOUT, e.getCause());
+        }
+    }
+
+    @Test
+    public void testIdleConnectionIsReopened() throws Exception {
+        InetSocketAddress address = start(StubProfile.IDEAL);
+        resolver = TcpResolver.builder().connections(1).idleTimeoutMillis(50).server(address).build();
+
+        Assert.assertTrue(resolver.query("host1.example.com").get(5, TimeUnit.SECONDS).isResolved());
+        Assert.assertTrue(resolver.query("host2.example.com").get(5, TimeUnit.SECONDS).isResolved());
+        Assert.assertEquals(1, resolver.connects());
+
+        Thread.sleep(500);
+
+        Assert.assertTrue(resolver.query("host3.example.com").get(5, TimeUnit.SECONDS).isResolved());
+        Assert.assertEquals(2, resolver.connects());
+    }
+
+    @Test
+    public void testResentWhenServerCloses() throws Exception {
+        InetSocketAddress address = start(StubProfile.builder().latencyMicros(5_000_000, 5_000_000).build());
+        resolver = TcpResolver.builder().connections(1).queryTimeoutMillis(10_000).server(address).build();
+
+        CompletableFuture<DnsAnswer> answer = resolver.query("host1.example.com");
+        Thread.sleep(200);
+
+        // SO_REUSEPORT lets the replacement listen on the same port before the first server goes away
+        replacement = new StubDnsServer(ZONE, StubProfile.IDEAL);
+        replacement.start(address, 1);
+        server.close();
+        server = null;
+
+        Assert.assertTrue(answer.get(5, TimeUnit.SECONDS).isResolved());
+        Assert.assertEquals(2, resolver.connects());
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        InetSocketAddress address = start(StubProfile.IDEAL);
+        server.close();
+        server = null;
+
+        resolver = TcpResolver.builder().server(address).build();
+
+        try {
+            resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertFalse(e.getCause() instanceof WireException);
+        }
+    }
+
+    @Test
+    public void testLargestMessage() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            int[] addresses = new int[1];
+
+            // one connection, one query, answered with a 65535 byte message of A records
+            Thread serverThread = new Thread(() -> {
+                try (Socket connection = socket.accept()) {
+                    DataInputStream in = new DataInputStream(connection.getInputStream());
+                    byte[] query = new byte[in.readUnsignedShort()];
+                    in.readFully(query);
+
+                    byte[] response = largestResponse(query, addresses);
+                    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                    out.writeShort(response.length);
+                    out.write(response);
+                    out.flush();
+
+                    // keeps the connection open until the client is done
+                    in.read();
+                } catch (IOException ignored) {
+                }
+            }, "large DNS response");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            resolver = TcpResolver.builder()
+                    .server(new InetSocketAddress(socket.getInetAddress(), socket.getLocalPort()))
+                    .build();
+
+            DnsAnswer answer = resolver.query("large.example.com").get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(answer.isResolved());
+            Assert.assertEquals(addresses[0], answer.addresses().length);
+        }
+    }
+
+    private static byte[] largestResponse(byte[] query, int[] addresses) {
+        ByteBuf in = Unpooled.wrappedBuffer(query);
+        int questionEnd = DnsWire.skipName(in, DnsWire.HEADER_SIZE) + 4;
+
+        // A records of 16 bytes with the question name as a pointer, the rest is padded by a NULL record
+        int left = 0xFFFF - questionEnd;
+        int count = left / 16 - 1;
+        int padding = left - count * 16 - 12;
+        addresses[0] = count;
+
+        ByteBuffer out = ByteBuffer.allocate(0xFFFF);
+        out.putShort(in.getShort(0));
+        out.putShort((short) (DnsWire.FLAG_QR | DnsWire.FLAG_RD | 0x80));
+        out.putShort((short) 1).putShort((short) count).putShort((short) 0).putShort((short) 1);
+        out.put(query, DnsWire.HEADER_SIZE, questionEnd - DnsWire.HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            out.putShort((short) 0xC00C).putShort((short) DnsWire.TYPE_A).putShort((short) DnsWire.CLASS_IN);
+            out.putInt(60).putShort((short) 4).putInt(0x0A000000 + i);
+        }
+        out.putShort((short) 0xC00C).putShort((short) 10).putShort((short) DnsWire.CLASS_IN);
+        out.putInt(60).putShort((short) padding).put(new byte[padding]);
+
+        Assert.assertFalse(out.hasRemaining());
+        return out.array();
+    }
+
+    private InetSocketAddress start(StubProfile profile) throws Exception {
+        server = new StubDnsServer(ZONE, profile);
+        return server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+    }
+
+}
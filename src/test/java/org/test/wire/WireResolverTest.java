@@ -0,0 +1,207 @@
+package org.test.wire;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.test.bulk.BulkResolver;
+import org.test.bulk.DnsResult;
+import org.test.resolver.DnsAnswer;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class WireResolverTest {
+
+    private static final List<String> DOMAINS = IntStream.range(0, 2000)
+            .mapToObj(i -> "host" + i + ".example.com")
+            .collect(Collectors.toList());
+
+    private static final StubZone ZONE = StubZone.fromDomains(DOMAINS);
+
+    private StubDnsServer server;
+
+    private WireResolver resolver;
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        start(StubProfile.builder().ttl(600).build(), 1000);
+
+        DnsAnswer answer = resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(answer.isResolved());
+        Assert.assertArrayEquals(ZONE.lookup("host1.example.com"), answer.addresses());
+        Assert.assertEquals(600, answer.ttl());
+    }
+
+    @Test
+    public void testNxDomain() throws Exception {
+        start(StubProfile.IDEAL, 1000);
+
+        DnsAnswer answer = resolver.query("unknown.example.com").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(DnsAnswer.NXDOMAIN, answer.rcode());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        start(StubProfile.builder().dropRatio(1.0).build(), 100);
+
+        try {
+            resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(WireException.TIMEOUT, e.getCause());
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        start(StubProfile.builder().truncateRatio(1.0).build(), 1000);
+
+        try {
+            resolver.query("host1.example.com").get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(WireException.TRUNCATED, e.getCause());
+        }
+    }
+
+    @Test
+    public void testTruncatedFallsBackToTcp() throws Exception {
+        server = new StubDnsServer(ZONE, StubProfile.builder().truncateRatio(1.0).build());
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+        resolver = WireResolver.builder()
+                .shards(2)
+                .tcpConnections(1)
+                .server(address)
+                .build();
+
+        List<DnsResult> results = new ArrayList<>();
+        new BulkResolver(resolver, 64).stream(DOMAINS.subList(0, 200).iterator()).forEach(results::add);
+
+        Assert.assertEquals(200, results.size());
+        Assert.assertTrue(results.stream().allMatch(DnsResult::isResolved));
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        start(StubProfile.builder().latencyMicros(100, 2000).build(), 5000);
+
+        List<DnsResult> results = new ArrayList<>();
+        new BulkResolver(resolver, 64).stream(DOMAINS.iterator()).forEach(results::add);
+
+        Assert.assertEquals(DOMAINS.size(), results.size());
+        for (DnsResult result : results) {
+            Assert.assertTrue(result.toString(), result.isResolved());
+            Assert.assertArrayEquals(ZONE.lookup(result.domain()), result.answer().addresses());
+        }
+    }
+
+    @Test
+    public void testBatchedFlush() throws Exception {
+        server = new StubDnsServer(ZONE, StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+        resolver = WireResolver.builder()
+                .shards(1)
+                .maxBatch(32)
+                .server(address)
+                .build();
+
+        List<DnsResult> results = new ArrayList<>();
+        new BulkResolver(resolver, 256).stream(DOMAINS.iterator()).forEach(results::add);
+
+        Assert.assertEquals(DOMAINS.size(), results.size());
+        Assert.assertTrue(results.stream().allMatch(DnsResult::isResolved));
+    }
+
+    @Test
+    public void testClientAaaaAndClose() throws Exception {
+        server = new StubDnsServer(ZONE, StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 1);
+
+        EventLoopGroup group = new EpollEventLoopGroup(1);
+        try {
+            WireClient client = WireClient.builder()
+                    .eventLoop(group.next())
+                    .server(address)
+                    .timeoutMillis(10_000)
+                    .build();
+
+            // an AAAA record takes 4 ints, a name without one is NOERROR with an empty answer
+            for (String domain : Arrays.asList("host1.example.com", "host2.example.com", "host3.example.com")) {
+                CompletableFuture<Integer> aaaa = new CompletableFuture<>();
+                client.query(domain, DnsWire.TYPE_AAAA, aaaa, new FutureHandler());
+                Assert.assertEquals(domain, ZONE.lookupIpv6(domain).length * 2, (int) aaaa.get(5, TimeUnit.SECONDS));
+            }
+
+            // pending queries fail when the client is closed
+            server.close();
+            server = new StubDnsServer(ZONE, StubProfile.builder().dropRatio(1.0).build());
+            server.start(address, 1);
+
+            CompletableFuture<Integer> pending = new CompletableFuture<>();
+            client.query("host1.example.com", DnsWire.TYPE_A, pending, new FutureHandler());
+            client.close();
+
+            try {
+                pending.get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertSame(WireException.CLOSED, e.getCause());
+            }
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    private void start(StubProfile profile, long timeoutMillis) throws Exception {
+        server = new StubDnsServer(ZONE, profile);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+        resolver = WireResolver.builder()
+                .shards(2)
+                .queryTimeoutMillis(timeoutMillis)
+                .server(address)
+                .build();
+    }
+
+    private static final class FutureHandler implements WireHandler {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onResponse(Object attachment, WireResponse response) {
+            ((CompletableFuture<Integer>) attachment).complete(response.rcode() << 16 | response.valueCount());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onFailure(Object attachment, Throwable cause) {
+            ((CompletableFuture<Integer>) attachment).completeExceptionally(cause);
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.test.nameservice;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.test.resolver.DnsAnswer;
+import org.test.stub.StubDnsServer;
+import org.test.stub.StubProfile;
+import org.test.stub.StubZone;
+import sun.net.spi.nameservice.NameService;
+import sun.net.spi.nameservice.NameServiceDescriptor;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+public class ResolverNameServiceTest {
+
+    private static final StubZone ZONE = StubZone.fromDomains(Arrays.asList("google.com", "example.org"));
+
+    private static StubDnsServer server;
+
+    private static NameService nameService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        server = new StubDnsServer(ZONE, StubProfile.IDEAL);
+        InetSocketAddress address = server.start(new InetSocketAddress("127.0.0.1", 0), 1);
+
+        // the shared resolver reads the properties once, on the first lookup of the JVM
+        System.setProperty(ResolverNameServices.PROPERTY_SERVER, "127.0.0.1:" + address.getPort());
+        System.setProperty(ResolverNameServices.PROPERTY_TIMEOUT, "2000");
+
+        for (NameServiceDescriptor descriptor : ServiceLoader.load(NameServiceDescriptor.class)) {
+            if (descriptor instanceof ResolverNameServiceDescriptor) {
+                nameService = descriptor.createNameService();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testRegistered() {
+        Assert.assertNotNull(nameService);
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        InetAddress[] addresses = nameService.lookupAllHostAddr("google.com");
+
+        Assert.assertEquals(ZONE.lookup("google.com").length, addresses.length);
+        Assert.assertEquals(ZONE.lookup("google.com")[0], DnsAnswer.toInt(addresses[0]));
+        Assert.assertEquals("google.com", addresses[0].getHostName());
+    }
+
+    @Test
+    public void testSecondLookupIsCached() throws Exception {
+        nameService.lookupAllHostAddr("example.org");
+        long answered = server.answered();
+
+        nameService.lookupAllHostAddr("example.org");
+        Assert.assertEquals(answered, server.answered());
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testUnknownHost() throws Exception {
+        nameService.lookupAllHostAddr("unknown.org");
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testReverseLookupIsLeftToNextProvider() throws Exception {
+        nameService.getHostByAddr(new byte[] { 127, 0, 0, 1 });
+    }
+
+}